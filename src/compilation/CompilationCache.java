@@ -0,0 +1,218 @@
+package compilation;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRPrinter;
+import ir.IRProgram;
+import ir.operand.IRVariableOperand;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Keeps the final assembly of each function on disk, so recompiling a program only selects and allocates the
+ * functions that changed. An entry is named by the SHA-256 of everything the function's code depends on: its
+ * optimized IR with the variables in declaration order, the signatures of its callees, whether it can recurse,
+ * the function laid out after it, which a tail call may fall through to, and the backend options. Float
+ * constants and local arrays are referred to by labels derived from the function alone, so entries can be
+ * spliced into any program. Reading an entry marks it used, and when the entries outgrow the size limit the
+ * least recently used are deleted. The cache only ever speeds compilation up: an entry that cannot be read is
+ * a miss, and one that cannot be written is skipped.
+ */
+public class CompilationCache {
+    public static final long DEFAULT_SIZE_LIMIT = 64L << 20;
+    // Part of every key, so entries written by a compiler whose backend emits different code are never read
+    private static final int FORMAT_VERSION = 2;
+    private static final String SUFFIX = ".s";
+
+    private final File directory;
+    private final long sizeLimit;
+    private long size = 0;
+    private final HashMap<String, String> keys = new HashMap<>();
+    private final HashMap<String, ArrayList<String>> code = new HashMap<>();
+
+    public int hits = 0;
+    public int misses = 0;
+    public int stores = 0;
+    public int evictions = 0;
+
+    public CompilationCache(String directory, long sizeLimit) {
+        this.directory = new File(directory);
+        this.sizeLimit = sizeLimit;
+        if (!this.directory.isDirectory() && !this.directory.mkdirs())
+            throw new IllegalArgumentException(String.format("Cannot create cache directory '%s'", directory));
+        for (File entry: this.getEntries()) this.size += entry.length();
+    }
+
+    private File[] getEntries() {
+        File[] entries = this.directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        return entries == null ? new File[0] : entries;
+    }
+
+    private static String getSignature(IRFunction function) {
+        ArrayList<String> parameters = new ArrayList<>();
+        for (IRVariableOperand parameter: function.parameters) parameters.add(parameter.type.toString());
+        String returnType = function.returnType == null ? "void" : function.returnType.toString();
+        return String.format("%s %s(%s)", returnType, function.name, String.join(", ", parameters));
+    }
+
+    /**
+     * Returns the key of the code for function, where next is the name of the function after it or null, and
+     * backend describes every option that changes the code generated from the same IR
+     */
+    public static String getKey(IRProgram program, IRFunction function, String next, boolean recursive, String backend) {
+        ByteArrayOutputStream normalized = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(normalized, false, StandardCharsets.UTF_8);
+        ps.println(FORMAT_VERSION);
+        ps.println(backend);
+        ps.println(String.format("recursive=%b next=%s", recursive, next));
+        ps.println(getSignature(function));
+        for (IRVariableOperand variable: function.variables) ps.println(String.format("%s %s", variable.type, variable.getName()));
+        IRPrinter printer = new IRPrinter(ps);
+        TreeSet<String> callees = new TreeSet<>();
+        for (IRInstruction instruction: function.instructions) {
+            printer.printInstruction(instruction);
+            String callee = null;
+            if (instruction.opCode == IRInstruction.OpCode.CALL) callee = instruction.operands[0].toString();
+            else if (instruction.opCode == IRInstruction.OpCode.CALLR) callee = instruction.operands[1].toString();
+            if (callee == null) continue;
+            String signature = "intrinsic " + callee;
+            for (IRFunction candidate: program.functions)
+                if (candidate.name.equals(callee)) signature = getSignature(candidate);
+            callees.add(signature);
+        }
+        for (String callee: callees) ps.println(callee);
+        ps.flush();
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.toByteArray());
+            StringBuilder key = new StringBuilder();
+            for (byte b: digest) key.append(String.format("%02x", b));
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the code stored for key, which has to start with the label of function, or null on a miss
+     */
+    private ArrayList<String> read(String key, IRFunction function) {
+        File entry = new File(this.directory, key + SUFFIX);
+        try {
+            if (entry.isFile()) {
+                ArrayList<String> code = new ArrayList<>(Files.readAllLines(entry.toPath(), StandardCharsets.UTF_8));
+                if (!code.isEmpty() && code.get(0).equals(function.name + ":")) {
+                    entry.setLastModified(System.currentTimeMillis());
+                    return code;
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        return null;
+    }
+
+    /**
+     * Looks up the code of every function of the optimized program and returns the names of those found,
+     * which InstructionSelector should leave out
+     */
+    public HashSet<String> lookup(IRProgram program, String backend) {
+        HashSet<String> recursive = InstructionSelector.getRecursiveFunctions(program);
+        for (int i = 0; i < program.functions.size(); i++) {
+            IRFunction function = program.functions.get(i);
+            String next = i + 1 < program.functions.size() ? program.functions.get(i + 1).name : null;
+            String key = getKey(program, function, next, recursive.contains(function.name), backend);
+            this.keys.put(function.name, key);
+            ArrayList<String> code = this.read(key, function);
+            if (code == null) {
+                this.misses++;
+                continue;
+            }
+            this.hits++;
+            this.code.put(function.name, code);
+        }
+        return new HashSet<>(this.code.keySet());
+    }
+
+    /**
+     * Replaces the placeholder of each function found by lookup with its code in the final instructions,
+     * and stores the code of the others
+     */
+    public ArrayList<String> splice(List<String> instructions) {
+        ArrayList<String> spliced = new ArrayList<>();
+        String function = null;
+        ArrayList<String> code = new ArrayList<>();
+        for (String instruction: instructions) {
+            if (instruction.endsWith(":") && this.keys.containsKey(instruction.substring(0, instruction.length() - 1))) {
+                this.finishFunction(function, code, spliced);
+                function = instruction.substring(0, instruction.length() - 1);
+                code = new ArrayList<>();
+            }
+            if (function == null) spliced.add(instruction);
+            else code.add(instruction);
+        }
+        this.finishFunction(function, code, spliced);
+        return spliced;
+    }
+
+    private void finishFunction(String function, ArrayList<String> code, ArrayList<String> spliced) {
+        if (function == null) return;
+        if (this.code.containsKey(function)) {
+            spliced.addAll(this.code.get(function));
+            return;
+        }
+        this.store(this.keys.get(function), code);
+        spliced.addAll(code);
+    }
+
+    private void store(String key, List<String> code) {
+        File entry = new File(this.directory, key + SUFFIX);
+        long previous = entry.length();
+        try {
+            // Written next to the entry and renamed over it, so a reader never sees a partial one
+            File temporary = File.createTempFile(key, ".tmp", this.directory);
+            Files.write(temporary.toPath(), code, StandardCharsets.UTF_8);
+            Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println(String.format("Cannot write cache entry '%s': %s", entry, e.getMessage()));
+            return;
+        }
+        this.size += entry.length() - previous;
+        this.stores++;
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits its size limit
+     */
+    public void evict() {
+        if (this.size <= this.sizeLimit) return;
+        File[] entries = this.getEntries();
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File entry: entries) {
+            if (this.size <= this.sizeLimit) break;
+            long length = entry.length();
+            if (!entry.delete()) continue;
+            this.size -= length;
+            this.evictions++;
+        }
+    }
+
+    public void printStatistics(PrintStream ps) {
+        ps.println(String.format("Compilation cache: %d hits, %d misses", this.hits, this.misses));
+        ps.println(String.format("    stored: %d, evicted: %d, size: %d of %d bytes", this.stores, this.evictions, this.size, this.sizeLimit));
+    }
+}
@@ -1,8 +1,14 @@
 package compilation;
 
 import ir.IRException;
+import ir.IRProfile;
 import ir.IRProgram;
 import ir.IRReader;
+import optimization.BlockFrequencies;
+import optimization.BlockLayout;
+import optimization.FunctionInlining;
+import optimization.LoopUnrolling;
+import optimization.Optimizer;
 
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -11,29 +17,102 @@ import java.util.ArrayList;
 
 public class Compiler {
     public static void main(String[] args) throws FileNotFoundException, IRException {
-        String inputFilename = args[0];
-        String outputFilename = args[1];
-
-        boolean naiveAllocation = true;
-        try {
-            String allocationMode = args[2];
-            if (allocationMode.equals("--intrablock")) naiveAllocation = false;
-        } catch (IndexOutOfBoundsException e) {}
+        CompilerOptions options = CompilerOptions.parse(args);
 
         IRReader irReader = new IRReader();
-        IRProgram program = irReader.parseIRFile(inputFilename);
+        IRProgram program = irReader.parseIRFile(options.inputFilename);
+        // Taken before any pass runs, while the blocks still match the profiled program
+        BlockFrequencies frequencies = null;
+        if (options.profileFilename != null) frequencies = new BlockFrequencies(program, IRProfile.read(options.profileFilename));
+
+        if (options.optimizationPasses != null) {
+            FunctionInlining inliner = (FunctionInlining) Optimizer.getPass("inline");
+            inliner.threshold = options.inlineThreshold;
+            inliner.growthLimit = options.inlineGrowthLimit;
+            inliner.frequencies = frequencies;
+            LoopUnrolling unroller = (LoopUnrolling) Optimizer.getPass("loop-unroll");
+            unroller.factor = options.unrollFactor;
+            unroller.sizeBudget = options.unrollBudget;
+            unroller.frequencies = frequencies;
+            ((BlockLayout) Optimizer.getPass("block-layout")).frequencies = frequencies;
+
+            Optimizer optimizer = new Optimizer(Optimizer.getPasses(options.optimizationPasses));
+            optimizer.optimize(program);
+            if (options.printStatistics) optimizer.printStatistics(System.err);
+        }
+
+        LatencyTable latencies = null;
+        if (options.scheduling || options.delaySlots)
+            latencies = options.latencyFilename == null ? new LatencyTable() : LatencyTable.read(options.latencyFilename);
+
         InstructionSelector selector = new InstructionSelector(program);
+        selector.ifConversion = options.ifConversion;
+        CompilationCache cache = null;
+        if (options.cacheDirectory != null) {
+            cache = new CompilationCache(options.cacheDirectory, options.cacheSizeLimit);
+            selector.cachedFunctions.addAll(cache.lookup(program, options.getBackendDescription() + " latencies=" + latencies));
+        }
         ArrayList<String> instructions = selector.generate();
 
+        InstructionScheduler scheduler = null;
+        if (latencies != null) scheduler = new InstructionScheduler(latencies);
+        // The naive allocator wraps every instruction in loads and stores, so reordering before it only separates
+        // stores from the loads the peephole pass would forward them to
+        if (options.scheduling && options.intraBlockAllocation)
+            scheduler.scheduleBlocks(instructions, selector.mipsLeaderBlockMap);
+
         RegisterAllocator allocator;
-        if (naiveAllocation) allocator = new NaiveRegisterAllocator2(selector.functionOffsetMaps);
+        if (!options.intraBlockAllocation) allocator = new NaiveRegisterAllocator2(selector.functionOffsetMaps);
         else allocator = new IntraBlockRegisterAllocator(selector.mipsLeaderBlockMap, selector.functionOffsetMaps);
         instructions = allocator.allocate(instructions);
 
-        FileOutputStream outputFile = new FileOutputStream(outputFilename);
-        PrintStream printStream = new PrintStream(outputFile);
-        for (String instruction: instructions) {
-            printStream.println(instruction);
+        if (options.peepholeRules != null) {
+            PeepholeOptimizer peephole = new PeepholeOptimizer(PeepholeOptimizer.getRules(options.peepholeRules), allocator.getBlockLocalRegisters());
+            instructions = peephole.optimize(instructions);
+            if (options.printStatistics) peephole.printStatistics(System.err);
+        }
+
+        if (options.scheduling) instructions = scheduler.schedule(instructions);
+        // Last, since nothing after it knows that the instruction after a branch runs with it
+        if (options.delaySlots) instructions = scheduler.fillDelaySlots(instructions);
+        if (scheduler != null && options.printStatistics) scheduler.printStatistics(System.err);
+
+        if (cache != null) {
+            instructions = cache.splice(instructions);
+            cache.evict();
+            if (options.printStatistics) cache.printStatistics(System.err);
+        }
+
+        if (options.emitFormat.equals("asm")) {
+            FileOutputStream outputFile = new FileOutputStream(options.outputFilename);
+            PrintStream printStream = new PrintStream(outputFile);
+            for (String instruction: instructions) {
+                printStream.println(instruction);
+            }
+        }
+        if (options.emitFormat.equals("asm") && options.listingFilename == null) return;
+
+        MIPSAssembler assembler = new MIPSAssembler(options.delaySlots);
+        assembler.assemble(instructions);
+        if (options.printStatistics) assembler.printStatistics(System.err);
+        if (!options.emitFormat.equals("asm")) {
+            // The data segment goes next to the text segment, as MARS dumps them one at a time
+            PrintStream textStream = new PrintStream(new FileOutputStream(options.outputFilename));
+            PrintStream dataStream = new PrintStream(new FileOutputStream(options.outputFilename + ".data"));
+            if (options.emitFormat.equals("hex")) {
+                MIPSAssembler.writeHex(textStream, assembler.getText());
+                MIPSAssembler.writeHex(dataStream, assembler.getData());
+            } else {
+                MIPSAssembler.writeBinary(textStream, assembler.getText());
+                MIPSAssembler.writeBinary(dataStream, assembler.getData());
+            }
+            textStream.close();
+            dataStream.close();
+        }
+        if (options.listingFilename != null) {
+            PrintStream listingStream = new PrintStream(new FileOutputStream(options.listingFilename));
+            assembler.writeListing(listingStream);
+            listingStream.close();
         }
     }
 }
@@ -0,0 +1,135 @@
+package compilation;
+
+import optimization.FunctionInlining;
+import optimization.LoopUnrolling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class CompilerOptions {
+    public String inputFilename;
+    public String outputFilename;
+    public boolean intraBlockAllocation = false;
+    public ArrayList<String> optimizationPasses = null; // null disables IR optimization, empty selects the default pipeline
+    public ArrayList<String> peepholeRules = null; // null disables the peephole pass, empty selects every rule
+    public boolean ifConversion = false;
+    public boolean scheduling = false;
+    public String latencyFilename = null; // operation latencies overriding the LatencyTable defaults
+    public boolean delaySlots = false;
+    public String emitFormat = "asm"; // "hex" and "binary" write the assembled segments instead of the assembly
+    public String listingFilename = null; // disassembly of the assembled segments
+    public boolean printStatistics = false;
+    public int inlineThreshold = FunctionInlining.DEFAULT_THRESHOLD;
+    public int inlineGrowthLimit = FunctionInlining.DEFAULT_GROWTH_LIMIT;
+    public int unrollFactor = LoopUnrolling.DEFAULT_FACTOR;
+    public int unrollBudget = LoopUnrolling.DEFAULT_SIZE_BUDGET;
+    public String profileFilename = null; // block counts written by simulation.IRInterpreter
+    public String cacheDirectory = null; // where CompilationCache keeps the code of each function
+    public long cacheSizeLimit = CompilationCache.DEFAULT_SIZE_LIMIT;
+
+    public static CompilerOptions parse(String[] args) {
+        CompilerOptions options = new CompilerOptions();
+        options.inputFilename = args[0];
+        options.outputFilename = args[1];
+
+        for (int i = 2; i < args.length; i++) {
+            String arg = args[i];
+            String value = null;
+            int equalsPos = arg.indexOf('=');
+            if (equalsPos != -1) {
+                value = arg.substring(equalsPos + 1);
+                arg = arg.substring(0, equalsPos);
+            }
+
+            switch (arg) {
+                case "":
+                    break;
+                case "--intrablock":
+                    options.intraBlockAllocation = true;
+                    break;
+                case "--naive":
+                    options.intraBlockAllocation = false;
+                    break;
+                case "-O":
+                    if (options.optimizationPasses == null) options.optimizationPasses = new ArrayList<>();
+                    if (options.peepholeRules == null) options.peepholeRules = new ArrayList<>();
+                    options.scheduling = true;
+                    break;
+                case "--optimize":
+                    options.optimizationPasses = new ArrayList<>();
+                    if (value != null && !value.isEmpty()) options.optimizationPasses.addAll(Arrays.asList(value.split(",")));
+                    break;
+                case "--no-optimize":
+                    options.optimizationPasses = null;
+                    break;
+                case "--peephole":
+                    options.peepholeRules = new ArrayList<>();
+                    if (value != null && !value.isEmpty()) options.peepholeRules.addAll(Arrays.asList(value.split(",")));
+                    break;
+                case "--no-peephole":
+                    options.peepholeRules = null;
+                    break;
+                case "--if-convert":
+                    options.ifConversion = true;
+                    break;
+                case "--no-if-convert":
+                    options.ifConversion = false;
+                    break;
+                case "--schedule":
+                    options.scheduling = true;
+                    if (value != null && !value.isEmpty()) options.latencyFilename = value;
+                    break;
+                case "--no-schedule":
+                    options.scheduling = false;
+                    break;
+                case "--delay-slots":
+                    options.delaySlots = true;
+                    break;
+                case "--emit":
+                    if ("asm".equals(value) || "hex".equals(value) || "binary".equals(value)) options.emitFormat = value;
+                    else System.err.println(String.format("Ignoring unknown output format '%s'", value));
+                    break;
+                case "--listing":
+                    options.listingFilename = value;
+                    break;
+                case "--inline-threshold":
+                    options.inlineThreshold = Integer.parseInt(value);
+                    break;
+                case "--inline-growth":
+                    options.inlineGrowthLimit = Integer.parseInt(value);
+                    break;
+                case "--unroll-factor":
+                    options.unrollFactor = Integer.parseInt(value);
+                    break;
+                case "--unroll-budget":
+                    options.unrollBudget = Integer.parseInt(value);
+                    break;
+                case "--profile":
+                    options.profileFilename = value;
+                    break;
+                case "--cache":
+                    options.cacheDirectory = value;
+                    break;
+                case "--cache-size":
+                    options.cacheSizeLimit = Long.parseLong(value);
+                    break;
+                case "--stats":
+                    options.printStatistics = true;
+                    break;
+                default:
+                    System.err.println(String.format("Ignoring unknown option '%s'", args[i]));
+                    break;
+            }
+        }
+
+        return options;
+    }
+
+    /**
+     * Describes the options that change the code generated from the same optimized IR
+     */
+    public String getBackendDescription() {
+        return String.format("intrablock=%b peephole=%s if-convert=%b schedule=%b delay-slots=%b",
+                this.intraBlockAllocation, this.peepholeRules, this.ifConversion, this.scheduling, this.delaySlots);
+    }
+}
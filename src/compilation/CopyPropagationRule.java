@@ -0,0 +1,80 @@
+package compilation;
+
+import java.util.ArrayList;
+
+public class CopyPropagationRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "copy-propagation";
+    }
+
+    /**
+     * Returns the operand positions of instruction that read register, or null if it is also read implicitly
+     */
+    private ArrayList<Integer> explicitUses(MIPSInstruction instruction, String register) {
+        ArrayList<Integer> positions = new ArrayList<>();
+        int start = instruction.getDefs().isEmpty() ? 0 : 1;
+        for (int i = start; i < instruction.operands.size(); i++)
+            if (instruction.operands.get(i).equals(register)) positions.add(i);
+        if (positions.isEmpty() || instruction.isCall() || instruction.isReturn() || instruction.isSyscall()) return null;
+        if ("movn".equals(instruction.operation) || "movz".equals(instruction.operation) || "mtc1".equals(instruction.operation))
+            return null;
+        return positions;
+    }
+
+    @Override
+    public boolean apply(ArrayList<MIPSInstruction> instructions, int index, PeepholeOptimizer optimizer) {
+        MIPSInstruction move = instructions.get(index);
+        if (!"move".equals(move.operation)) return false;
+
+        String destination = move.operands.get(0);
+        String source = move.operands.get(1);
+        if (destination.equals(source)) {
+            instructions.remove(index);
+            return true;
+        }
+        if (destination.equals("$sp")) return false;
+
+        ArrayList<Integer> users = new ArrayList<>();
+        boolean sourceClobbered = false;
+        boolean dead = false;
+        int i;
+        for (i = index + 1; i < instructions.size(); i++) {
+            MIPSInstruction instruction = instructions.get(i);
+            if (instruction.operation == null) {
+                dead = optimizer.isBlockLocal(destination);
+                break;
+            }
+            if (instruction.getUses().contains(destination)) {
+                if (sourceClobbered || this.explicitUses(instruction, destination) == null) return false;
+                users.add(i);
+            }
+            ArrayList<String> defs = instruction.getDefs();
+            if (instruction.isCall()) {
+                dead = optimizer.isBlockLocal(destination) || defs.contains(destination);
+                break;
+            }
+            if (instruction.isBoundary()) {
+                dead = optimizer.isBlockLocal(destination);
+                break;
+            }
+            if (defs.contains(destination)) {
+                dead = true;
+                break;
+            }
+            if (defs.contains(source)) sourceClobbered = true;
+            if (instruction.isSyscall() && (source.equals("$v0") || source.equals("$f0"))) sourceClobbered = true;
+        }
+        if (i == instructions.size()) dead = optimizer.isBlockLocal(destination);
+        if (!dead) return false;
+
+        for (int user: users) {
+            MIPSInstruction instruction = instructions.get(user);
+            for (int position: this.explicitUses(instruction, destination))
+                instruction = instruction.withOperand(position, source);
+            instructions.set(user, instruction);
+        }
+        instructions.remove(index);
+        return true;
+    }
+}
@@ -0,0 +1,22 @@
+package compilation;
+
+import java.util.ArrayList;
+
+public class DeadDefinitionRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "dead-code";
+    }
+
+    @Override
+    public boolean apply(ArrayList<MIPSInstruction> instructions, int index, PeepholeOptimizer optimizer) {
+        MIPSInstruction instruction = instructions.get(index);
+        if (!instruction.isPure()) return false;
+
+        ArrayList<String> defs = instruction.getDefs();
+        if (defs.size() != 1 || !optimizer.isDeadAfter(instructions, index, defs.get(0))) return false;
+
+        instructions.remove(index);
+        return true;
+    }
+}
@@ -0,0 +1,126 @@
+package compilation;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRIntType;
+import ir.operand.IRVariableOperand;
+import optimization.IRInstructions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Finds the short hammocks of a function that InstructionSelector can select without branching. A hammock starts
+ * with an integer branch. Either a few instructions follow it and then its target label (a triangle), or a
+ * few instructions, a goto, the target label, a few more instructions, and the goto's label (a diamond). The
+ * instructions on both sides have to be integer assignments, and, or or mult. Those can be run whichever way
+ * the branch goes without faulting. Add and sub are left out because they trap on overflow.
+ */
+public class IfConversion {
+    public static final int MAX_SIDE_LENGTH = 2;
+
+    public static class Hammock {
+        public final IRInstruction branch;
+        public final ArrayList<IRInstruction> notTaken = new ArrayList<>();
+        public final ArrayList<IRInstruction> taken = new ArrayList<>();
+        public IRInstruction jump = null; // the goto over the taken side of a diamond
+        // Everything after the branch that the selected code stands for, including labels nothing else jumps to
+        public final HashSet<IRInstruction> covered = new HashSet<>();
+
+        Hammock(IRInstruction branch) {
+            this.branch = branch;
+        }
+
+        /**
+         * Returns the variable both sides assign when each side is just that assignment, or null
+         */
+        public IRVariableOperand getSelectedVariable() {
+            if (this.notTaken.size() != 1 || this.taken.size() != 1) return null;
+            IRInstruction first = this.notTaken.get(0);
+            IRInstruction second = this.taken.get(0);
+            if (first.opCode != IRInstruction.OpCode.ASSIGN || second.opCode != IRInstruction.OpCode.ASSIGN) return null;
+
+            String name = first.operands[0].toString();
+            if (!name.equals(second.operands[0].toString()) || name.equals(first.operands[1].toString())
+                    || name.equals(second.operands[1].toString()))
+                return null;
+            return (IRVariableOperand) first.operands[0];
+        }
+    }
+
+    private static boolean isConvertible(IRInstruction instruction) {
+        switch (instruction.opCode) {
+            case ASSIGN:
+                // An array fill stores to memory, which a select cannot undo
+                return instruction.operands.length == 2 && IRInstructions.getType(instruction.operands[0]) == IRIntType.get();
+            case AND:
+            case OR:
+            case MULT:
+                return IRInstructions.getType(instruction.operands[0]) == IRIntType.get();
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isLabel(IRFunction function, int index, String label) {
+        if (index >= function.instructions.size()) return false;
+        IRInstruction instruction = function.instructions.get(index);
+        return instruction.opCode == IRInstruction.OpCode.LABEL && instruction.operands[0].toString().equals(label);
+    }
+
+    /**
+     * Returns the index just past the convertible instructions starting at index, or -1 if there are too many
+     */
+    private static int skipSide(IRFunction function, int index, ArrayList<IRInstruction> side) {
+        for (; index < function.instructions.size() && isConvertible(function.instructions.get(index)); index++) {
+            if (side.size() == MAX_SIDE_LENGTH) return -1;
+            side.add(function.instructions.get(index));
+        }
+        return index;
+    }
+
+    /**
+     * Returns the hammocks of the function keyed by their branches
+     */
+    public static HashMap<IRInstruction, Hammock> find(IRFunction function) {
+        HashMap<String, Integer> references = new HashMap<>();
+        for (IRInstruction instruction: function.instructions)
+            if (instruction.opCode != IRInstruction.OpCode.LABEL && IRInstructions.getLabel(instruction) != null)
+                references.merge(IRInstructions.getLabel(instruction), 1, Integer::sum);
+
+        HashMap<IRInstruction, Hammock> hammocks = new HashMap<>();
+        for (int i = 0; i < function.instructions.size(); i++) {
+            IRInstruction branch = function.instructions.get(i);
+            if (!IRInstructions.isBranch(branch) || IRInstructions.getType(branch.operands[1]) != IRIntType.get()) continue;
+            if (IRInstructions.isConstant(branch.operands[1]) && IRInstructions.isConstant(branch.operands[2])) continue;
+
+            Hammock hammock = new Hammock(branch);
+            String target = branch.operands[0].toString();
+            int end = skipSide(function, i + 1, hammock.notTaken);
+            if (end == -1) continue;
+
+            String join = target;
+            if (!isLabel(function, end, target)) {
+                // A diamond, whose taken side nothing else may jump into
+                IRInstruction jump = end < function.instructions.size() ? function.instructions.get(end) : null;
+                if (jump == null || jump.opCode != IRInstruction.OpCode.GOTO || !isLabel(function, end + 1, target)) continue;
+                if (references.get(target) != 1) continue;
+                join = jump.operands[0].toString();
+                hammock.jump = jump;
+                hammock.covered.add(jump);
+                hammock.covered.add(function.instructions.get(end + 1));
+                end = skipSide(function, end + 2, hammock.taken);
+                if (end == -1 || !isLabel(function, end, join)) continue;
+            }
+            if (hammock.notTaken.isEmpty() && hammock.taken.isEmpty()) continue;
+
+            hammock.covered.addAll(hammock.notTaken);
+            hammock.covered.addAll(hammock.taken);
+            if (references.get(join) == 1) hammock.covered.add(function.instructions.get(end));
+            hammocks.put(branch, hammock);
+            i = end - 1;
+        }
+        return hammocks;
+    }
+}
@@ -0,0 +1,110 @@
+package compilation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+public class ImmediateOperandRule implements PeepholeRule {
+    private static final HashMap<String, String> immediateForms = new HashMap<>();
+    private static final HashSet<String> commutativeOperations = new HashSet<>();
+    private static final HashSet<String> unsignedImmediates = new HashSet<>();
+    private static final HashSet<String> registerBranches = new HashSet<>();
+
+    static {
+        immediateForms.put("add", "addi");
+        immediateForms.put("addu", "addiu");
+        immediateForms.put("sub", "addi");
+        immediateForms.put("subu", "addiu");
+        immediateForms.put("and", "andi");
+        immediateForms.put("or", "ori");
+        immediateForms.put("xor", "xori");
+        immediateForms.put("slt", "slti");
+        immediateForms.put("sltu", "sltiu");
+
+        commutativeOperations.addAll(Arrays.asList("add", "addu", "and", "or", "xor"));
+        unsignedImmediates.addAll(Arrays.asList("andi", "ori", "xori"));
+        registerBranches.addAll(Arrays.asList("beq", "bne", "bge", "bgt", "ble", "blt"));
+    }
+
+    @Override
+    public String getName() {
+        return "immediate-operand";
+    }
+
+    private static boolean fitsImmediate(String operation, long value) {
+        if (unsignedImmediates.contains(operation)) return value >= 0 && value <= 0xffff;
+        return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+    }
+
+    private static MIPSInstruction create(String operation, String... operands) {
+        ArrayList<Integer> offsets = new ArrayList<>();
+        for (String ignored: operands) offsets.add(null);
+        return new MIPSInstruction(operation, Arrays.asList(operands), offsets);
+    }
+
+    /**
+     * Rewrites the consumer of a register holding a known constant, or returns null if it has no better form
+     */
+    private MIPSInstruction fold(MIPSInstruction consumer, String register, int constant) {
+        String operation = consumer.operation;
+        ArrayList<String> operands = consumer.operands;
+
+        if (immediateForms.containsKey(operation) && operands.size() == 3 && consumer.getImmediate(2) == null) {
+            String destination = operands.get(0);
+            String source = operands.get(1);
+            if (operands.get(1).equals(register) && !operands.get(2).equals(register) && commutativeOperations.contains(operation))
+                source = operands.get(2);
+            else if (!operands.get(2).equals(register) || operands.get(1).equals(register))
+                return null;
+
+            String immediateOperation = immediateForms.get(operation);
+            long value = operation.startsWith("sub") ? -(long) constant : constant;
+            if (!fitsImmediate(immediateOperation, value)) return null;
+            return create(immediateOperation, destination, source, Long.toString(value));
+        }
+
+        if ("move".equals(operation) && operands.get(1).equals(register))
+            return create("li", operands.get(0), Integer.toString(constant));
+
+        if (("addi".equals(operation) || "addiu".equals(operation)) && operands.get(1).equals(register)) {
+            long value = (long) constant + consumer.getImmediate(2);
+            if ("addi".equals(operation) && (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)) return null;
+            return create("li", operands.get(0), Integer.toString((int) value));
+        }
+
+        if (constant != 0) return null;
+
+        if (registerBranches.contains(operation) && (operands.get(0).equals(register) || operands.get(1).equals(register))) {
+            MIPSInstruction branch = consumer;
+            for (int i = 0; i < 2; i++)
+                if (operands.get(i).equals(register)) branch = branch.withOperand(i, "$zero");
+            return branch;
+        }
+
+        if ("sw".equals(operation) && operands.get(0).equals(register) && !operands.get(1).equals(register))
+            return consumer.withOperand(0, "$zero");
+
+        return null;
+    }
+
+    @Override
+    public boolean apply(ArrayList<MIPSInstruction> instructions, int index, PeepholeOptimizer optimizer) {
+        MIPSInstruction load = instructions.get(index);
+        if (!"li".equals(load.operation) || index + 1 >= instructions.size()) return false;
+
+        String register = load.operands.get(0);
+        Integer constant = load.getImmediate(1);
+        MIPSInstruction consumer = instructions.get(index + 1);
+        if (constant == null || consumer.operation == null) return false;
+
+        MIPSInstruction replacement = this.fold(consumer, register, constant);
+        if (replacement == null) return false;
+        boolean overwritten = replacement.getDefs().contains(register);
+        if (!overwritten && !optimizer.isDeadAfter(instructions, index + 1, register)) return false;
+
+        instructions.set(index + 1, replacement);
+        instructions.remove(index);
+        return true;
+    }
+}
@@ -0,0 +1,356 @@
+package compilation;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * List scheduling of the straight-line code between labels, branches, calls and syscalls, which nothing is
+ * moved across. Each run of code becomes a DAG whose edges keep every register read after the write it reads
+ * and before the next write, and keep stores in order with the loads and stores they may alias. Two accesses
+ * are known apart only if they have the same base register, not written in between, and offsets a word or
+ * more apart. Instructions are issued one per cycle, preferring one whose operands are ready and then the
+ * one with the longest path of latencies below it, and the new order is kept if the {@link LatencyTable}
+ * says it stalls for fewer cycles.
+ *
+ * Before allocation, instructions that read or write $sp are barriers too, since the allocators recognise
+ * call sequences by what follows each $sp adjustment, and every block keeps its first instruction, by which
+ * the intra-block allocator finds it. Filling delay slots is for assemblers that do not fill them: each
+ * branch, jump and call gets an instruction from before it that it does not depend on, or a nop.
+ */
+public class InstructionScheduler {
+    private static final HashSet<String> machineInstructions = new HashSet<>();
+    private static final HashSet<String> logicalInstructions = new HashSet<>();
+    private static final HashSet<String> registerOnlyInstructions = new HashSet<>();
+
+    static {
+        // Operations that assemble to a single machine instruction when their immediates fit in 16 bits
+        machineInstructions.addAll(Arrays.asList(
+                "add", "addu", "addi", "addiu", "sub", "subu", "and", "andi", "or", "ori", "xor", "xori", "nor",
+                "sll", "srl", "sra", "sllv", "srlv", "srav", "slt", "slti", "sltu", "sltiu", "mul", "mfhi", "mflo",
+                "movn", "movz", "move", "li", "lui", "lw", "sw", "lwc1", "swc1", "l.s", "s.s", "mov.s", "neg.s",
+                "add.s", "sub.s", "mul.s", "div.s", "cvt.s.w", "cvt.w.s", "mfc1", "mtc1", "c.eq.s", "c.lt.s",
+                "c.le.s", "nop"
+        ));
+        logicalInstructions.addAll(Arrays.asList("and", "andi", "or", "ori", "xor", "xori", "lui"));
+        registerOnlyInstructions.addAll(Arrays.asList("sub", "subu", "mul", "nor", "sllv", "srlv", "srav", "movn", "movz"));
+    }
+
+    private final LatencyTable latencies;
+    public int reorderedRegions = 0;
+    public int movedInstructions = 0;
+    public long stallsBefore = 0;
+    public long stallsAfter = 0;
+    public int filledSlots = 0;
+    public int nops = 0;
+
+    private static class Edge {
+        final Node from;
+        final Node to;
+        final int latency;
+
+        Edge(Node from, Node to, int latency) {
+            this.from = from;
+            this.to = to;
+            this.latency = latency;
+        }
+    }
+
+    private static class Node {
+        final String text;
+        final MIPSInstruction instruction;
+        final int index;
+        final ArrayList<Edge> in = new ArrayList<>();
+        final ArrayList<Edge> out = new ArrayList<>();
+        Node baseDefinition; // the last write of the base register before a memory access
+        int height;
+        int earliest;
+        int unscheduled;
+        int issue;
+
+        Node(String text, MIPSInstruction instruction, int index) {
+            this.text = text;
+            this.instruction = instruction;
+            this.index = index;
+        }
+    }
+
+    public InstructionScheduler(LatencyTable latencies) {
+        this.latencies = latencies;
+    }
+
+    private static boolean hasDelaySlot(MIPSInstruction instruction) {
+        return instruction.isBranch() || instruction.isCall() || instruction.isReturn();
+    }
+
+    private static boolean isBarrier(MIPSInstruction instruction, boolean allocated) {
+        if (instruction.operation == null || instruction.isBoundary() || instruction.isSyscall()) return true;
+        return !allocated && (instruction.getDefs().contains("$sp") || instruction.getUses().contains("$sp"));
+    }
+
+    private static boolean intersects(Collection<String> first, Collection<String> second) {
+        for (String register: first) if (second.contains(register)) return true;
+        return false;
+    }
+
+    /**
+     * Reorders the instructions of each block the selector made, before allocation, in place both in the
+     * block and in the listing, which holds each block's instructions from the index of its leader on
+     */
+    public void scheduleBlocks(ArrayList<String> instructions, HashMap<MIPSInstructionPair, BasicBlock> leaders) {
+        for (Map.Entry<MIPSInstructionPair, BasicBlock> entry: leaders.entrySet()) {
+            BasicBlock block = entry.getValue();
+            int start = entry.getKey().index;
+            int end = start + block.mipsInstructions.size();
+            if (end > instructions.size() || !instructions.subList(start, end).equals(block.mipsInstructions)) continue;
+
+            ArrayList<String> scheduled = this.scheduleCode(block.mipsInstructions, false, true);
+            block.mipsInstructions.clear();
+            block.mipsInstructions.addAll(scheduled);
+            for (int i = 0; i < scheduled.size(); i++) instructions.set(start + i, scheduled.get(i));
+        }
+    }
+
+    /**
+     * Returns the allocated listing with the straight-line code between barriers reordered
+     */
+    public ArrayList<String> schedule(ArrayList<String> instructions) {
+        return this.scheduleCode(instructions, true, false);
+    }
+
+    private ArrayList<String> scheduleCode(List<String> instructions, boolean allocated, boolean keepFirst) {
+        ArrayList<String> scheduled = new ArrayList<>(instructions.size());
+        ArrayList<String> region = new ArrayList<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            String instruction = instructions.get(i);
+            if ((keepFirst && i == 0) || isBarrier(MIPSInstruction.parse(instruction), allocated)) {
+                scheduled.addAll(this.scheduleRegion(region, allocated));
+                region.clear();
+                scheduled.add(instruction);
+            } else {
+                region.add(instruction);
+            }
+        }
+        scheduled.addAll(this.scheduleRegion(region, allocated));
+        return scheduled;
+    }
+
+    private List<String> scheduleRegion(ArrayList<String> region, boolean allocated) {
+        if (region.size() < 2) return new ArrayList<>(region);
+
+        ArrayList<Node> nodes = this.buildGraph(region);
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node node = nodes.get(i);
+            node.height = this.latencies.getLatency(node.instruction);
+            for (Edge edge: node.out) node.height = Math.max(node.height, edge.latency + edge.to.height);
+        }
+
+        ArrayList<Node> order = this.listSchedule(nodes);
+        int before = countStalls(nodes);
+        int after = countStalls(order);
+        if (allocated) {
+            this.stallsBefore += before;
+            this.stallsAfter += Math.min(before, after);
+        }
+        if (after >= before) return new ArrayList<>(region);
+
+        this.reorderedRegions++;
+        ArrayList<String> scheduled = new ArrayList<>(order.size());
+        for (int i = 0; i < order.size(); i++) {
+            if (order.get(i).index != i) this.movedInstructions++;
+            scheduled.add(order.get(i).text);
+        }
+        return scheduled;
+    }
+
+    private static void addEdge(Node from, Node to, int latency) {
+        if (from == to) return;
+        Edge edge = new Edge(from, to, latency);
+        from.out.add(edge);
+        to.in.add(edge);
+    }
+
+    private static boolean mayAlias(Node first, Node second) {
+        MIPSInstruction a = first.instruction;
+        MIPSInstruction b = second.instruction;
+        if (a.getMemoryOffset() == null || b.getMemoryOffset() == null) return true;
+        if (!a.getMemoryBase().equals(b.getMemoryBase()) || first.baseDefinition != second.baseDefinition) return true;
+        return Math.abs(a.getMemoryOffset() - b.getMemoryOffset()) < 4;
+    }
+
+    private ArrayList<Node> buildGraph(List<String> region) {
+        ArrayList<Node> nodes = new ArrayList<>();
+        HashMap<String, Node> lastDefs = new HashMap<>();
+        HashMap<String, ArrayList<Node>> readers = new HashMap<>();
+        ArrayList<Node> memoryAccesses = new ArrayList<>();
+
+        for (String text: region) {
+            Node node = new Node(text, MIPSInstruction.parse(text), nodes.size());
+            nodes.add(node);
+            ArrayList<String> uses = node.instruction.getUses();
+            ArrayList<String> defs = node.instruction.getDefs();
+
+            for (String use: uses) {
+                Node def = lastDefs.get(use);
+                if (def != null) addEdge(def, node, this.latencies.getLatency(def.instruction));
+            }
+            for (String def: defs) {
+                for (Node reader: readers.getOrDefault(def, new ArrayList<>())) addEdge(reader, node, 0);
+                Node previous = lastDefs.get(def);
+                if (previous != null) addEdge(previous, node, 1);
+            }
+
+            if (node.instruction.isMemoryAccess()) {
+                node.baseDefinition = lastDefs.get(node.instruction.getMemoryBase());
+                for (Node access: memoryAccesses) {
+                    if (!access.instruction.isStore() && !node.instruction.isStore()) continue;
+                    if (mayAlias(access, node)) addEdge(access, node, access.instruction.isStore() ? 1 : 0);
+                }
+                memoryAccesses.add(node);
+            }
+
+            for (String def: defs) {
+                lastDefs.put(def, node);
+                readers.put(def, new ArrayList<>());
+            }
+            for (String use: uses) readers.computeIfAbsent(use, k -> new ArrayList<>()).add(node);
+        }
+        return nodes;
+    }
+
+    private static boolean isBetter(Node candidate, Node best, int cycle) {
+        if (best == null) return true;
+        boolean candidateReady = candidate.earliest <= cycle;
+        boolean bestReady = best.earliest <= cycle;
+        if (candidateReady != bestReady) return candidateReady;
+        if (!candidateReady && candidate.earliest != best.earliest) return candidate.earliest < best.earliest;
+        if (candidate.height != best.height) return candidate.height > best.height;
+        return candidate.index < best.index;
+    }
+
+    private ArrayList<Node> listSchedule(ArrayList<Node> nodes) {
+        ArrayList<Node> ready = new ArrayList<>();
+        for (Node node: nodes) {
+            node.earliest = 0;
+            node.unscheduled = node.in.size();
+            if (node.unscheduled == 0) ready.add(node);
+        }
+
+        ArrayList<Node> order = new ArrayList<>(nodes.size());
+        int cycle = 0;
+        while (!ready.isEmpty()) {
+            Node best = null;
+            for (Node node: ready) if (isBetter(node, best, cycle)) best = node;
+            ready.remove(best);
+            order.add(best);
+
+            cycle = Math.max(cycle, best.earliest);
+            for (Edge edge: best.out) {
+                edge.to.earliest = Math.max(edge.to.earliest, cycle + edge.latency);
+                if (--edge.to.unscheduled == 0) ready.add(edge.to);
+            }
+            cycle++;
+        }
+        return order;
+    }
+
+    /**
+     * Returns the cycles lost when the instructions issue in the given order, each as soon as its operands
+     * are ready and never before the one ahead of it
+     */
+    private static int countStalls(List<Node> order) {
+        int cycle = -1;
+        for (Node node: order) {
+            int issue = cycle + 1;
+            for (Edge edge: node.in) issue = Math.max(issue, edge.from.issue + edge.latency);
+            node.issue = issue;
+            cycle = issue;
+        }
+        return cycle + 1 - order.size();
+    }
+
+    /**
+     * True if the instruction assembles to a single machine instruction, as a delay slot needs
+     */
+    private static boolean fitsDelaySlot(MIPSInstruction instruction) {
+        if (!machineInstructions.contains(instruction.operation)) return false;
+        for (int i = 0; i < instruction.operands.size(); i++) {
+            Integer offset = instruction.offsets.get(i);
+            if (offset != null) {
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) return false;
+                continue;
+            }
+            if (MIPSInstruction.isRegister(instruction.operands.get(i))) continue;
+
+            Integer immediate = instruction.getImmediate(i);
+            if (immediate == null || registerOnlyInstructions.contains(instruction.operation)) return false;
+            int low = logicalInstructions.contains(instruction.operation) ? 0 : Short.MIN_VALUE;
+            int high = logicalInstructions.contains(instruction.operation) || "li".equals(instruction.operation) ? 0xffff : Short.MAX_VALUE;
+            if (immediate < low || immediate > high) return false;
+        }
+        return true;
+    }
+
+    private static boolean canMovePast(MIPSInstruction instruction, List<MIPSInstruction> following) {
+        ArrayList<String> defs = instruction.getDefs();
+        ArrayList<String> uses = instruction.getUses();
+        for (MIPSInstruction other: following) {
+            if (intersects(defs, other.getDefs()) || intersects(defs, other.getUses()) || intersects(uses, other.getDefs()))
+                return false;
+            if (instruction.isMemoryAccess() && other.isMemoryAccess() && (instruction.isStore() || other.isStore()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of an instruction before the branch at index that can go in its delay slot, or -1
+     */
+    private static int findDelaySlotInstruction(ArrayList<MIPSInstruction> instructions, int index) {
+        MIPSInstruction branch = instructions.get(index);
+        // What the branch reads when it decides, and what it writes before the slot runs
+        List<String> reads = branch.isCall() ? new ArrayList<>() : branch.getUses();
+        if (branch.isReturn()) reads = Collections.singletonList(branch.operands.get(0));
+        List<String> writes = branch.isCall() ? Collections.singletonList("$ra") : new ArrayList<>();
+
+        for (int i = index - 1; i >= 0; i--) {
+            MIPSInstruction candidate = instructions.get(i);
+            if (isBarrier(candidate, true) || (i > 0 && hasDelaySlot(instructions.get(i - 1)))) return -1;
+            if (!fitsDelaySlot(candidate) || intersects(candidate.getDefs(), reads)) continue;
+            if (intersects(candidate.getDefs(), writes) || intersects(candidate.getUses(), writes)) continue;
+            if (canMovePast(candidate, instructions.subList(i + 1, index))) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the allocated listing with an instruction or a nop after every branch, jump and call
+     */
+    public ArrayList<String> fillDelaySlots(ArrayList<String> instructions) {
+        ArrayList<MIPSInstruction> parsed = MIPSInstruction.parseAll(instructions);
+        ArrayList<String> filled = new ArrayList<>(instructions);
+        for (int i = 0; i < parsed.size(); i++) {
+            if (!hasDelaySlot(parsed.get(i))) continue;
+
+            int slot = findDelaySlotInstruction(parsed, i);
+            if (slot == -1) {
+                parsed.add(i + 1, MIPSInstruction.parse("nop"));
+                filled.add(i + 1, "nop");
+                this.nops++;
+                i++;
+            } else {
+                parsed.add(i, parsed.remove(slot));
+                filled.add(i, filled.remove(slot));
+                this.filledSlots++;
+            }
+        }
+        return filled;
+    }
+
+    public void printStatistics(PrintStream ps) {
+        ps.println("Instruction scheduling:");
+        ps.println(String.format("    reordered regions: %d, moved instructions: %d", this.reorderedRegions, this.movedInstructions));
+        ps.println(String.format("    estimated stall cycles after allocation: %d, before scheduling: %d", this.stallsAfter, this.stallsBefore));
+        if (this.filledSlots + this.nops > 0)
+            ps.println(String.format("    filled delay slots: %d, nops: %d", this.filledSlots, this.nops));
+    }
+}
@@ -2,12 +2,19 @@ package compilation;
 
 import ir.*;
 import ir.datatype.IRArrayType;
+import ir.datatype.IRFloatType;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
 import ir.operand.IRFunctionOperand;
+import ir.operand.IROperand;
 import ir.operand.IRVariableOperand;
+import optimization.IRInstructions;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class InstructionSelector {
     private final HashMap<IRInstruction, BasicBlock> leaderBlockMap = new HashMap<>();
@@ -15,15 +22,30 @@ public class InstructionSelector {
     public final HashMap<String, HashMap<String, Integer>> functionOffsetMaps = new HashMap<>();
     private final IRProgram program;
     private IRInstruction instruction;
+    private int fillLoops = 0;
+    private int frameSize = 0;
+    private HashSet<String> recursiveFunctions;
+    private HashSet<String> addressVariables = new HashSet<>();
+    private final LinkedHashMap<Integer, String> floatConstants = new LinkedHashMap<>();
+    private final HashMap<IRInstruction, IfConversion.Hammock> hammocks = new HashMap<>();
+    private final HashSet<IRInstruction> converted = new HashSet<>();
+    public boolean ifConversion = false;
+    public final HashSet<String> cachedFunctions = new HashSet<>(); // emitted as placeholders, their code comes from a CompilationCache
+
+    private static final int UNROLLED_FILL_LIMIT = 8;
 
     private static final HashMap<String, Integer> intrinsicFunctions = new HashMap<>();
     private static final HashSet<IRInstruction.OpCode> branchCodes = new HashSet<>();
+    private static final HashMap<String, String> mirroredBranches = new HashMap<>();
+    private static final HashMap<String, String> zeroBranches = new HashMap<>();
 
     static {
         intrinsicFunctions.put("geti", 5);
         intrinsicFunctions.put("getc", 12);
         intrinsicFunctions.put("puti", 1);
         intrinsicFunctions.put("putc", 11);
+        intrinsicFunctions.put("getf", 6);
+        intrinsicFunctions.put("putf", 2);
 
         branchCodes.add(IRInstruction.OpCode.BREQ);
         branchCodes.add(IRInstruction.OpCode.BRGEQ);
@@ -31,6 +53,18 @@ public class InstructionSelector {
         branchCodes.add(IRInstruction.OpCode.BRLT);
         branchCodes.add(IRInstruction.OpCode.BRLEQ);
         branchCodes.add(IRInstruction.OpCode.BRNEQ);
+
+        mirroredBranches.put("beq", "beq");
+        mirroredBranches.put("bne", "bne");
+        mirroredBranches.put("bge", "ble");
+        mirroredBranches.put("bgt", "blt");
+        mirroredBranches.put("ble", "bge");
+        mirroredBranches.put("blt", "bgt");
+
+        zeroBranches.put("bge", "bgez");
+        zeroBranches.put("bgt", "bgtz");
+        zeroBranches.put("ble", "blez");
+        zeroBranches.put("blt", "bltz");
     }
 
     public InstructionSelector(IRProgram program) {
@@ -40,19 +74,27 @@ public class InstructionSelector {
     private HashSet<IRInstruction> getLeaders() {
         boolean branchSuccessor = false;
         boolean funcSuccessor = false;
+        boolean fillSuccessor = false;
         HashSet<IRInstruction> leaders = new HashSet<>();
         for (IRFunction function: this.program.functions) {
             for (int i = 0; i < function.instructions.size(); i++) {
                 IRInstruction instruction = function.instructions.get(i);
+                if (this.converted.contains(instruction)) continue;
                 if (instruction.opCode == IRInstruction.OpCode.LABEL) {
                     leaders.add(instruction);
                 }
                 else if (i == 0) leaders.add(instruction);
-                else if (branchSuccessor || funcSuccessor) leaders.add(instruction);
+                else if (branchSuccessor || funcSuccessor || fillSuccessor) leaders.add(instruction);
 
                 if (branchSuccessor) branchSuccessor = false;
                 if (funcSuccessor) funcSuccessor = false;
-                if (branchCodes.contains(instruction.opCode)) branchSuccessor = true;
+                if (fillSuccessor) fillSuccessor = false;
+                // A fill loop gets a block to itself, so no allocator register is live across its back edge
+                if (isLoopedFill(instruction)) {
+                    leaders.add(instruction);
+                    fillSuccessor = true;
+                }
+                if (branchCodes.contains(instruction.opCode) && !this.hammocks.containsKey(instruction)) branchSuccessor = true;
                 if (instruction.opCode == IRInstruction.OpCode.CALL || instruction.opCode == IRInstruction.OpCode.CALLR) {
                     int pos = instruction.opCode == IRInstruction.OpCode.CALL ? 0 : 1;
                     if (!intrinsicFunctions.containsKey(((IRFunctionOperand) instruction.operands[pos]).getName())) funcSuccessor = true;
@@ -72,69 +114,287 @@ public class InstructionSelector {
             this.leaderBlockMap.put(leader, new BasicBlock(instructions));
         }
 
-        BasicBlock block = this.leaderBlockMap.get(this.program.functions.get(0).instructions.get(0));
+        // The first instruction of every function is a leader, and dead code elimination may leave a function empty
+        BasicBlock block = null;
         for (IRFunction function: this.program.functions) {
             for (IRInstruction instruction: function.instructions) {
                 if (leaders.contains(instruction)) block = this.leaderBlockMap.get(instruction);
-                else block.irInstructions.add(instruction);
+                else if (!this.converted.contains(instruction)) block.irInstructions.add(instruction);
             }
         }
 
 //        for (IRInstruction leader: leaders) Debug.printBasicBlock(this.leaderBlockMap.get(leader));
     }
 
+    /**
+     * Returns the functions that can call themselves, directly or through other functions
+     */
+    public static HashSet<String> getRecursiveFunctions(IRProgram program) {
+        HashMap<String, HashSet<String>> callees = new HashMap<>();
+        for (IRFunction function: program.functions) {
+            HashSet<String> called = new HashSet<>();
+            for (IRInstruction instruction: function.instructions) {
+                if (instruction.opCode == IRInstruction.OpCode.CALL) called.add(instruction.operands[0].toString());
+                else if (instruction.opCode == IRInstruction.OpCode.CALLR) called.add(instruction.operands[1].toString());
+            }
+            callees.put(function.name, called);
+        }
+
+        HashSet<String> recursive = new HashSet<>();
+        for (IRFunction function: program.functions) {
+            HashSet<String> reached = new HashSet<>();
+            ArrayList<String> worklist = new ArrayList<>(callees.get(function.name));
+            while (!worklist.isEmpty()) {
+                String callee = worklist.remove(worklist.size() - 1);
+                if (!callees.containsKey(callee) || !reached.add(callee)) continue;
+                worklist.addAll(callees.get(callee));
+            }
+            if (reached.contains(function.name)) recursive.add(function.name);
+        }
+
+        return recursive;
+    }
+
+    private static ArrayList<IRVariableOperand> getLocalArrays(IRFunction function) {
+        ArrayList<IRVariableOperand> arrays = new ArrayList<>();
+        for (IRVariableOperand op: function.variables)
+            if (op.type instanceof IRArrayType && !function.parameters.contains(op)) arrays.add(op);
+        return arrays;
+    }
+
+    /**
+     * Returns the int variables the function uses as array bases, which hold addresses from strength reduction
+     */
+    private static HashSet<String> getAddressVariables(IRFunction function) {
+        HashSet<String> addresses = new HashSet<>();
+        for (IRInstruction instruction: function.instructions) {
+            if (instruction.opCode != IRInstruction.OpCode.ARRAY_LOAD && instruction.opCode != IRInstruction.OpCode.ARRAY_STORE)
+                continue;
+            IROperand base = instruction.operands[1];
+            if (IRInstructions.getType(base) == IRIntType.get()) addresses.add(base.toString());
+        }
+        return addresses;
+    }
+
+    /**
+     * True if the add or sub computes an address, which wraps instead of trapping on overflow. A pointer can
+     * be stepped past the end of its array without being dereferenced, where the index it stands for is fine.
+     */
+    private boolean isAddressArithmetic() {
+        if (this.addressVariables.contains(this.instruction.operands[0].toString())) return true;
+        for (int i = 1; i < this.instruction.operands.length; i++)
+            if (IRInstructions.getType(this.instruction.operands[i]) instanceof IRArrayType) return true;
+        return false;
+    }
+
+    private static String getStaticLabel(IRFunction function, IRVariableOperand array) {
+        return String.format("%s.%s", function.name, array.getName());
+    }
+
+    private static boolean isFloat(IROperand operand) {
+        return IRInstructions.getType(operand) == IRFloatType.get();
+    }
+
+    private static boolean usesFloatRegisters(IRFunction function) {
+        for (IRVariableOperand variable: function.variables)
+            if (variable.type == IRFloatType.get()) return true;
+        for (IRInstruction instruction: function.instructions)
+            for (IROperand operand: instruction.operands)
+                if (operand instanceof IRConstantOperand && isFloat(operand)) return true;
+        return false;
+    }
+
+    /**
+     * Gives every float constant of the program, and 0.0 for initializing float variables, an entry in
+     * the constant pool, since no instruction takes a float immediate. Entries are named by their bits, so
+     * the code of a function refers to the same labels whatever the rest of the program holds.
+     */
+    private void collectFloatConstants() {
+        for (IRFunction function: this.program.functions) {
+            if (usesFloatRegisters(function)) this.getFloatConstant("0.0");
+            for (IRInstruction instruction: function.instructions)
+                for (IROperand operand: instruction.operands)
+                    if (operand instanceof IRConstantOperand && isFloat(operand)) this.getFloatConstant(operand.toString());
+        }
+    }
+
+    private String getFloatConstant(String value) {
+        int bits = Float.floatToIntBits(Float.parseFloat(value));
+        return this.floatConstants.computeIfAbsent(bits, k -> "float." + Integer.toHexString(k));
+    }
+
+    private static String getFloatBits(String value) {
+        return Integer.toString(Float.floatToIntBits(Float.parseFloat(value)));
+    }
+
+    /**
+     * Returns the float register holding operand i, loading a constant into scratch from the pool
+     */
+    private String getFloatOperand(int i, String scratch, ArrayList<String> instructions) {
+        IROperand operand = this.instruction.operands[i];
+        if (!(operand instanceof IRConstantOperand)) return "$" + operand;
+        instructions.add(String.format("l.s %s, %s", scratch, this.getFloatConstant(operand.toString())));
+        return scratch;
+    }
+
+    private void addBlock(ArrayList<String> instructions, BasicBlock block) {
+        if (block.mipsInstructions.isEmpty()) return;
+        MIPSInstructionPair pair = new MIPSInstructionPair(block.mipsInstructions.get(0), instructions.size());
+        this.mipsLeaderBlockMap.put(pair, block);
+        instructions.addAll(block.mipsInstructions);
+    }
+
     public ArrayList<String> generate() {
+        if (this.ifConversion) {
+            for (IRFunction function: this.program.functions) {
+                for (IfConversion.Hammock hammock: IfConversion.find(function).values()) {
+                    if (!this.isProfitable(function, hammock)) continue;
+                    this.hammocks.put(hammock.branch, hammock);
+                    this.converted.addAll(hammock.covered);
+                }
+            }
+        }
         this.generateBasicBlocks();
+        this.recursiveFunctions = getRecursiveFunctions(this.program);
+        this.collectFloatConstants();
         ArrayList<String> instructions = new ArrayList<>();
+        instructions.add(".data");
+        for (Map.Entry<Integer, String> constant: this.floatConstants.entrySet()) {
+            instructions.add(constant.getValue() + ":");
+            instructions.add(String.format(".float %s", Float.intBitsToFloat(constant.getKey())));
+        }
+
+        // Local arrays of functions that are never active twice at once need only one copy
+        for (IRFunction function: this.program.functions) {
+            if (this.recursiveFunctions.contains(function.name)) continue;
+            for (IRVariableOperand array: getLocalArrays(function)) {
+                instructions.add(getStaticLabel(function, array) + ":");
+                instructions.add(String.format(".space %d", ((IRArrayType) array.type).getSize() * 4));
+            }
+        }
+        if (instructions.size() == 1) instructions.clear();
 
         instructions.add(".text");
         instructions.add("beq $zero, $zero, main"); // TODO: remove for SPIM
         for (IRFunction function: program.functions) {
-            BasicBlock block = this.leaderBlockMap.get(function.instructions.get(0));
+            if (this.cachedFunctions.contains(function.name)) {
+                // The label keeps the layout that jumps to and past the function see, and the nop keeps the
+                // labels after it from looking adjacent to the one before
+                BasicBlock block = new BasicBlock(new ArrayList<>());
+                block.mipsInstructions.add(function.name + ":");
+                block.mipsInstructions.add("nop");
+                this.functionOffsetMaps.put(function.name + ":", new HashMap<>());
+                this.addBlock(instructions, block);
+                continue;
+            }
+
+            this.frameSize = 0;
+            this.fillLoops = 0;
+            this.addressVariables = getAddressVariables(function);
+            if (this.recursiveFunctions.contains(function.name))
+                for (IRVariableOperand array: getLocalArrays(function)) this.frameSize += ((IRArrayType) array.type).getSize() * 4;
+
+            BasicBlock block = new BasicBlock(new ArrayList<>());
             block.mipsInstructions.add(function.name + ":");
             this.functionOffsetMaps.put(function.name + ":", new HashMap<>());
+            if (this.frameSize > 0) {
+                // Reserved before the allocator gives any variable a slot, so its offsets stay valid
+                block.mipsInstructions.add(String.format("addi $sp, $sp, %d", -this.frameSize));
+                block.mipsInstructions.add("move $v0, $sp");
+            }
             block.mipsInstructions.addAll(this.generateArguments(function));
             block.mipsInstructions.addAll(this.generateVariableInitialization(function));
-            instructions.addAll(block.mipsInstructions);
-            MIPSInstructionPair pair = new MIPSInstructionPair(block.mipsInstructions.get(0), instructions.size() - block.mipsInstructions.size());
-            this.mipsLeaderBlockMap.put(pair, block);
+            this.addBlock(instructions, block);
+
+            // Memory that may have been used before is zeroed on every entry
+            if (!function.name.equals("main") || this.recursiveFunctions.contains(function.name)) {
+                block = new BasicBlock(new ArrayList<>());
+                for (IRVariableOperand array: getLocalArrays(function)) {
+                    int size = ((IRArrayType) array.type).getSize();
+                    ArrayList<String> fill = this.assignArray(function.name, array.getName(), size, "0");
+                    if (size <= UNROLLED_FILL_LIMIT) {
+                        block.mipsInstructions.addAll(fill);
+                        continue;
+                    }
+                    this.addBlock(instructions, block);
+                    block = new BasicBlock(new ArrayList<>());
+                    block.mipsInstructions.addAll(fill);
+                    this.addBlock(instructions, block);
+                    block = new BasicBlock(new ArrayList<>());
+                }
+                this.addBlock(instructions, block);
+            }
 
             for (int i = 0; i < function.instructions.size(); i++) {
                 this.instruction = function.instructions.get(i);
+                if (this.converted.contains(this.instruction)) continue;
                 ArrayList<String> assembly = this.map(function);
                 instructions.addAll(assembly);
-                if (i != 0 && leaderBlockMap.containsKey(this.instruction)) {
+                if (leaderBlockMap.containsKey(this.instruction)) {
                     block = this.leaderBlockMap.get(this.instruction);
-                    pair = new MIPSInstructionPair(assembly.get(0), instructions.size() - assembly.size());
+                    MIPSInstructionPair pair = new MIPSInstructionPair(assembly.get(0), instructions.size() - assembly.size());
                     this.mipsLeaderBlockMap.put(pair, block);
                 }
                 block.mipsInstructions.addAll(assembly);
             }
 
+            ArrayList<String> exit = new ArrayList<>();
             if (function.name.equals("main")) {
-                String load = "li $v0, 10";
-                String syscall = "syscall";
-                instructions.add(load);
-                instructions.add(syscall);
-                block.mipsInstructions.add(load);
-                block.mipsInstructions.add(syscall);
+                exit.add("li $v0, 10");
+                exit.add("syscall");
             } else if (function.returnType == null) {
-                String ret = "jr $ra";
-                instructions.add(ret);
-                block.mipsInstructions.add(ret);
+                exit.addAll(this.generateFrameRelease());
+                exit.add("jr $ra");
+            }
+            if (block.mipsInstructions.isEmpty()) {
+                // An empty body leaves block as the zeroing block, which was not added when there was nothing to zero
+                block.mipsInstructions.addAll(exit);
+                this.addBlock(instructions, block);
+            } else {
+                instructions.addAll(exit);
+                block.mipsInstructions.addAll(exit);
             }
         }
 
         return instructions;
     }
 
-    private ArrayList<String> assignArray(String array, int size, String value) {
+    private static boolean isLoopedFill(IRInstruction instruction) {
+        if (instruction.opCode != IRInstruction.OpCode.ASSIGN || instruction.operands.length != 3) return false;
+        return Integer.parseInt(instruction.operands[1].toString()) > UNROLLED_FILL_LIMIT;
+    }
+
+    /**
+     * Stores value into the first size elements of array. Small arrays get one sw per element; larger ones
+     * a loop storing four elements per iteration, kept to $a0-$a2 so it needs nothing from the allocator
+     */
+    private ArrayList<String> assignArray(String functionName, String array, int size, String value) {
         ArrayList<String> instructions = new ArrayList<>();
-        String operation = "li";
-        if (value.contains("$")) operation = "move";
+        if (size <= 0) return instructions;
+
+        String source = value;
+        if (value.equals("0")) source = "$zero";
+        else if (size <= UNROLLED_FILL_LIMIT) {
+            instructions.add(String.format("%s $temp, %s", value.contains("$") ? "move" : "li", value));
+            source = "$temp";
+        } else {
+            instructions.add(String.format("%s $a1, %s", value.contains("$") ? "move" : "li", value));
+            source = "$a1";
+        }
+
+        if (size <= UNROLLED_FILL_LIMIT) {
+            for (int i = 0; i < size; i++) instructions.add(String.format("sw %s, %d($%s)", source, i * 4, array));
+            return instructions;
+        }
 
-        if (size > 0) instructions.add(String.format("%s $temp, %s", operation, value));
-        for (int i = 0; i < size; i++) instructions.add(String.format("sw $temp, %d($%s)", i * 4, array));
+        String label = String.format("%s__fill%d", functionName, this.fillLoops++);
+        instructions.add(String.format("move $a0, $%s", array));
+        instructions.add(String.format("addi $a2, $a0, %d", size / 4 * 16));
+        instructions.add(label + ":");
+        for (int i = 0; i < 4; i++) instructions.add(String.format("sw %s, %d($a0)", source, i * 4));
+        instructions.add("addi $a0, $a0, 16");
+        instructions.add(String.format("bne $a0, $a2, %s", label));
+        for (int i = 0; i < size % 4; i++) instructions.add(String.format("sw %s, %d($a0)", source, i * 4));
 
         return instructions;
     }
@@ -144,13 +404,15 @@ public class InstructionSelector {
         for (IRVariableOperand op: function.variables) {
             if (!function.parameters.contains(op)) {
                 String name = op.getName();
-                if (op.type instanceof IRArrayType) {
-                    IRArrayType type = (IRArrayType) op.type;
-                    instructions.add("li $v0, 9");
-                    instructions.add(String.format("li $a0, %d", type.getSize() * 4));
-                    instructions.add("syscall");
+                if (op.type instanceof IRArrayType && this.frameSize > 0) {
+                    // $v0 walks the frame reserved on entry
                     instructions.add(String.format("move $%s, $v0", name));
-                    instructions.addAll(this.assignArray(name, type.getSize(), "0"));
+                    instructions.add(String.format("addi $v0, $v0, %d", ((IRArrayType) op.type).getSize() * 4));
+                } else if (op.type instanceof IRArrayType) {
+                    instructions.add(String.format("la $v0, %s", getStaticLabel(function, op)));
+                    instructions.add(String.format("move $%s, $v0", name));
+                } else if (op.type == IRFloatType.get()) {
+                    instructions.add(String.format("l.s $%s, %s", name, this.getFloatConstant("0.0")));
                 } else {
                     instructions.add(String.format("li $%s, 0", name));
                 }
@@ -159,6 +421,10 @@ public class InstructionSelector {
 
         instructions.add("li $temp, 0");
         instructions.add("li $temp2, 0");
+        if (usesFloatRegisters(function)) {
+            instructions.add(String.format("l.s $ftemp, %s", this.getFloatConstant("0.0")));
+            instructions.add("mov.s $ftemp2, $ftemp");
+        }
 
         return instructions;
     }
@@ -168,11 +434,18 @@ public class InstructionSelector {
 
         int numArgs = function.parameters.size();
         for (int i = 0; i < numArgs; i++) {
-            String argument = function.parameters.get(i).getName();
-            if (i < 4) {
+            IRVariableOperand parameter = function.parameters.get(i);
+            String argument = parameter.getName();
+            boolean isFloat = parameter.type == IRFloatType.get();
+            if (i < 4 && isFloat) {
+                instructions.add(String.format("mov.s $%s, $f%d", argument, 12 + 2 * i));
+            } else if (i < 4) {
                 instructions.add(String.format("move $%s, $a%d", argument, i));
             } else {
-                instructions.add(String.format("lw $%s, %d($sp)", argument, (numArgs - i - 1) * 4));
+                // Above the caller's $ra, the frame, and the slot the allocator has pushed for each parameter
+                // up to this one by the time it is read
+                int offset = 4 + (numArgs - i - 1) * 4 + this.frameSize + (i + 1) * 4;
+                instructions.add(String.format("%s $%s, %d($sp)", isFloat ? "lwc1" : "lw", argument, offset));
             }
         }
 
@@ -186,51 +459,68 @@ public class InstructionSelector {
         instructions.add(String.format("addi $sp, $sp, %d", numVariables * -4));
         for (int i = 0; i < numVariables; i++) {
             IRVariableOperand op = function.variables.get(i);
-            instructions.add(String.format("sw $%s, %d($sp)", op.getName(), (numVariables - i - 1) * 4));
+            String store = op.type == IRFloatType.get() ? "swc1" : "sw";
+            instructions.add(String.format("%s $%s, %d($sp)", store, op.getName(), (numVariables - i - 1) * 4));
         }
 
         int start = 1;
         if (ret) start = 2;
         int length = this.instruction.operands.length;
         int numArgs = length - start;
-        int j = 0;
 
-        if (numArgs > 4) instructions.add(String.format("addi $sp, $sp, %d", (numArgs - 4) * -4));
-        for (int i = start; i < length; i++) {
-            String op = this.getOperand(i);
-            String operation = "li";
-            if (op.contains("$")) operation = "move";
-
-            if (j < 4) {
-                instructions.add(String.format("%s $a%d, %s", operation, j, op));
-            } else {
-                instructions.add(String.format("%s $temp, %s", operation, op));
-                instructions.add(String.format("sw $temp, %d($sp)", (numArgs - j - 1) * 4));
-            }
-            j++;
-        }
+        for (int i = start; i < length; i++) instructions.addAll(this.passArgument(i, i - start));
 
-        instructions.add("addi $sp, $sp, -4");
+        // Arguments past the fourth are stored just below $sp, so one push covers them and $ra and the
+        // allocator's slot offsets hold until the jal
+        int pushed = 4 + Math.max(numArgs - 4, 0) * 4;
+        instructions.add(String.format("addi $sp, $sp, %d", -pushed));
         instructions.add("sw $ra, 0($sp)");
         instructions.add(String.format("jal %s", functionLabel));
         instructions.add("lw $ra, 0($sp)");
-        instructions.add("addi $sp, $sp, 4");
-        if (numArgs > 4) instructions.add(String.format("addi $sp, $sp, %d", (numArgs - 4) * 4));
+        instructions.add(String.format("addi $sp, $sp, %d", pushed));
 
         for (int i = 0; i < numVariables; i++) {
             IRVariableOperand op = function.variables.get(i);
-            instructions.add(String.format("lw $%s, %d($sp)", op.getName(), (numVariables - i - 1) * 4));
+            String load = op.type == IRFloatType.get() ? "lwc1" : "lw";
+            instructions.add(String.format("%s $%s, %d($sp)", load, op.getName(), (numVariables - i - 1) * 4));
         }
         instructions.add(String.format("addi $sp, $sp, %d", numVariables * 4));
 
         if (ret) {
             String op = this.getOperand(0);
-            instructions.add(String.format("move %s, $v0", op));
+            instructions.add(String.format(isFloat(this.instruction.operands[0]) ? "mov.s %s, $f0" : "move %s, $v0", op));
         }
 
         return instructions;
     }
 
+    /**
+     * Puts operand i of the call where the callee reads argument j from: $aj or $f(12+2j) for the first
+     * four, depending on its type, and the stack for the rest, which gets the bits of a float
+     */
+    private ArrayList<String> passArgument(int i, int j) {
+        ArrayList<String> instructions = new ArrayList<>();
+        IROperand operand = this.instruction.operands[i];
+        String op = this.getOperand(i);
+
+        if (j < 4 && isFloat(operand)) {
+            this.getFloatOperand(i, String.format("$f%d", 12 + 2 * j), instructions);
+            if (operand instanceof IRVariableOperand) instructions.add(String.format("mov.s $f%d, %s", 12 + 2 * j, op));
+            return instructions;
+        }
+
+        String register = j < 4 ? String.format("$a%d", j) : "$temp";
+        if (isFloat(operand) && operand instanceof IRVariableOperand)
+            instructions.add(String.format("mfc1 %s, %s", register, op));
+        else if (isFloat(operand))
+            instructions.add(String.format("li %s, %s", register, getFloatBits(op)));
+        else
+            instructions.add(String.format("%s %s, %s", op.contains("$") ? "move" : "li", register, op));
+        if (j >= 4) instructions.add(String.format("sw $temp, %d($sp)", (3 - j) * 4));
+
+        return instructions;
+    }
+
     private ArrayList<String> mapIntrinsicFunction(String function) {
         ArrayList<String> instructions = new ArrayList<>();
         int callCode = intrinsicFunctions.get(function);
@@ -238,7 +528,10 @@ public class InstructionSelector {
         boolean read = true;
         if (function.contains("put")) read = false;
 
-        if (!read) {
+        if (!read && isFloat(this.instruction.operands[1])) {
+            String op = this.getFloatOperand(1, "$f12", instructions);
+            if (!op.equals("$f12")) instructions.add(String.format("mov.s $f12, %s", op));
+        } else if (!read) {
             String op = this.getOperand(1);
             String operation = "li";
             if (op.contains("$")) operation = "move";
@@ -251,13 +544,15 @@ public class InstructionSelector {
             String op = this.getOperand(0);
             String register = "$v0";
             if (callCode == 12) register = "$a0";
-            instructions.add(String.format("move %s, %s", op, register));
+            if (callCode == 6) instructions.add(String.format("mov.s %s, $f0", op));
+            else instructions.add(String.format("move %s, %s", op, register));
         }
 
         return instructions;
     }
 
     private String getOperand(int i) {
+        if (this.instruction.operands[i] instanceof IRConstantOperand) return this.instruction.operands[i].toString();
         try {
             Integer.parseInt(this.instruction.operands[i].toString());
             return this.instruction.operands[i].toString();
@@ -266,34 +561,152 @@ public class InstructionSelector {
         }
     }
 
+    private static boolean isPowerOfTwo(long value) {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+
+    /**
+     * Returns the magic multiplier and shift for signed division by d, where |d| >= 2 (Hacker's Delight 10-1)
+     */
+    private static int[] getMagicNumber(int d) {
+        final long two31 = 0x80000000L;
+        long ad = Math.abs((long) d);
+        long t = two31 + ((d >>> 31) & 1);
+        long anc = t - 1 - t % ad;
+        int p = 31;
+        long q1 = two31 / anc, r1 = two31 - q1 * anc;
+        long q2 = two31 / ad, r2 = two31 - q2 * ad;
+        long delta;
+        do {
+            p++;
+            q1 = 2 * q1;
+            r1 = 2 * r1;
+            if (r1 >= anc) {
+                q1++;
+                r1 -= anc;
+            }
+            q2 = 2 * q2;
+            r2 = 2 * r2;
+            if (r2 >= ad) {
+                q2++;
+                r2 -= ad;
+            }
+            delta = ad - r2;
+        } while (q1 < delta || (q1 == delta && r1 == 0));
+
+        int magic = (int) (q2 + 1);
+        if (d < 0) magic = -magic;
+        return new int[]{magic, p - 32};
+    }
+
+    /**
+     * Multiplication by a constant: shifts for powers of two, negation for -1, mul otherwise
+     */
+    private ArrayList<String> mapMultiplyByConstant(String x, String y, int constant) {
+        ArrayList<String> instructions = new ArrayList<>();
+        long magnitude = Math.abs((long) constant);
+
+        if (constant == 0) instructions.add(String.format("li %s, 0", x));
+        else if (constant == 1) instructions.add(String.format("move %s, %s", x, y));
+        else if (isPowerOfTwo(magnitude)) {
+            instructions.add(String.format("sll %s, %s, %d", x, y, Long.numberOfTrailingZeros(magnitude)));
+            if (constant < 0) instructions.add(String.format("subu %s, $zero, %s", x, x));
+        } else if (constant == -1) instructions.add(String.format("subu %s, $zero, %s", x, y));
+        else {
+            instructions.add(String.format("li $temp2, %d", constant));
+            instructions.add(String.format("mul %s, %s, $temp2", x, y));
+        }
+
+        return instructions;
+    }
+
+    /**
+     * Signed division by a non-zero constant, rounding toward zero like div. Powers of two are shifted after
+     * biasing negative dividends by 2^k - 1; other divisors take the high word of a multiply by a magic number,
+     * whose sign already accounts for a negative divisor.
+     */
+    private ArrayList<String> mapDivideByConstant(String x, String y, int constant) {
+        ArrayList<String> instructions = new ArrayList<>();
+        long magnitude = Math.abs((long) constant);
+
+        if (constant == 1) {
+            instructions.add(String.format("move %s, %s", x, y));
+            return instructions;
+        } else if (constant == -1) {
+            instructions.add(String.format("subu %s, $zero, %s", x, y));
+            return instructions;
+        }
+
+        if (isPowerOfTwo(magnitude)) {
+            int k = Long.numberOfTrailingZeros(magnitude);
+            if (k == 1) instructions.add(String.format("srl $temp, %s, 31", y));
+            else {
+                instructions.add(String.format("sra $temp, %s, 31", y));
+                instructions.add(String.format("srl $temp, $temp, %d", 32 - k));
+            }
+            instructions.add(String.format("addu $temp, %s, $temp", y));
+            instructions.add(String.format("sra %s, $temp, %d", x, k));
+            if (constant < 0) instructions.add(String.format("subu %s, $zero, %s", x, x));
+        } else {
+            int[] magic = getMagicNumber(constant);
+            instructions.add(String.format("li $temp2, %d", magic[0]));
+            instructions.add(String.format("mult %s, $temp2", y));
+            instructions.add("mfhi $temp");
+            if (constant > 0 && magic[0] < 0) instructions.add(String.format("addu $temp, $temp, %s", y));
+            else if (constant < 0 && magic[0] > 0) instructions.add(String.format("subu $temp, $temp, %s", y));
+            if (magic[1] > 0) instructions.add(String.format("sra $temp, $temp, %d", magic[1]));
+            instructions.add("srl $temp2, $temp, 31");
+            instructions.add(String.format("addu %s, $temp, $temp2", x));
+        }
+
+        return instructions;
+    }
+
     private ArrayList<String> mapBinary(String operation) {
         String x = this.getOperand(0);
         String y = this.getOperand(1);
         String z = this.getOperand(2);
         ArrayList<String> instructions = new ArrayList<>();
-        String first = y, second = z;
-        boolean hasImmediateForm = operation.equals("add") || operation.equals("and") || operation.equals("or");
+        boolean isInt = ((IRVariableOperand) this.instruction.operands[0]).type == IRIntType.get();
+        if (!isInt) return this.mapFloatBinary(operation);
+
+        if (isInt && y.contains("$") != z.contains("$")) {
+            boolean commutative = !operation.startsWith("sub") && !operation.equals("div");
+            if (!y.contains("$") && commutative) {
+                String temp = y;
+                y = z;
+                z = temp;
+            }
 
-        if (!y.contains("$") && !z.contains("$")) {
+            if (!z.contains("$")) {
+                int constant = Integer.parseInt(z);
+                if (operation.equals("mul")) return this.mapMultiplyByConstant(x, y, constant);
+                if (operation.equals("div") && constant != 0) return this.mapDivideByConstant(x, y, constant);
+                if (operation.startsWith("sub") && constant != Integer.MIN_VALUE) {
+                    operation = operation.equals("sub") ? "add" : "addu";
+                    z = Integer.toString(-constant);
+                }
+                if (operation.equals("addu")) {
+                    instructions.add(String.format("addiu %s, %s, %s", x, y, z));
+                    return instructions;
+                }
+                if (operation.equals("add") || operation.equals("and") || operation.equals("or")) {
+                    instructions.add(String.format("%si %s, %s, %s", operation, x, y, z));
+                    return instructions;
+                }
+            }
+        }
+
+        String first = y, second = z;
+        if (y.equals("0")) first = "$zero";
+        else if (!y.contains("$")) {
             instructions.add(String.format("li $temp, %s", y));
-            instructions.add(String.format("li $temp2, %s", z));
             first = "$temp";
+        }
+        if (z.equals("0")) second = "$zero";
+        else if (!z.contains("$")) {
+            instructions.add(String.format("li $temp2, %s", z));
             second = "$temp2";
-        } else if (!y.contains("$")) {
-            if (hasImmediateForm) {
-                operation += "i";
-                first = z;
-                second = y;
-            } else {
-                instructions.add(String.format("li $temp, %s", y));
-                first = "$temp";
-            }
-        } else if (!z.contains("$")) {
-            if (hasImmediateForm) operation += "i";
-            else {
-                instructions.add(String.format("li $temp2, %s", z));
-                second = "$temp2";
-            }
         }
 
         instructions.add(String.format("%s %s, %s, %s", operation, x, first, second));
@@ -301,18 +714,97 @@ public class InstructionSelector {
         return instructions;
     }
 
+    private ArrayList<String> mapFloatBinary(String operation) {
+        ArrayList<String> instructions = new ArrayList<>();
+        String x = this.getOperand(0);
+        String y = this.getFloatOperand(1, "$ftemp", instructions);
+        String z = this.getFloatOperand(2, "$ftemp2", instructions);
+
+        if (operation.equals("and") || operation.equals("or")) {
+            // Bitwise on the representations, which only the integer unit can do
+            instructions.add(String.format("mfc1 $temp, %s", y));
+            instructions.add(String.format("mfc1 $temp2, %s", z));
+            instructions.add(String.format("%s $temp, $temp, $temp2", operation));
+            instructions.add("mtc1 $temp, $f0");
+            instructions.add(String.format("mov.s %s, $f0", x));
+            return instructions;
+        }
+
+        instructions.add(String.format("%s.s %s, %s, %s", operation, x, y, z));
+        return instructions;
+    }
+
+    /**
+     * Coprocessor 1 can only test =, < and <=, so > and >= test the swapped operands and != branches when
+     * = is false
+     */
+    private ArrayList<String> mapFloatBranch(String functionName, String condition) {
+        String label = this.getOperand(0).substring(1); // strip $ symbol
+        ArrayList<String> instructions = new ArrayList<>();
+        String y = this.getFloatOperand(1, "$ftemp", instructions);
+        String z = this.getFloatOperand(2, "$ftemp2", instructions);
+
+        String compare = "c.eq.s";
+        String branch = "bc1t";
+        boolean swap = false;
+        switch (condition) {
+            case "bne":
+                branch = "bc1f";
+                break;
+            case "blt":
+                compare = "c.lt.s";
+                break;
+            case "ble":
+                compare = "c.le.s";
+                break;
+            case "bgt":
+                compare = "c.lt.s";
+                swap = true;
+                break;
+            case "bge":
+                compare = "c.le.s";
+                swap = true;
+                break;
+            default:
+                break;
+        }
+
+        if (swap) {
+            String temp = y;
+            y = z;
+            z = temp;
+        }
+        instructions.add(String.format("%s %s, %s", compare, y, z));
+        instructions.add(String.format("%s %s_%s", branch, functionName, label));
+        return instructions;
+    }
+
     private ArrayList<String> mapBranch(String functionName, String condition) {
+        if (isFloat(this.instruction.operands[1])) return this.mapFloatBranch(functionName, condition);
         String label = this.getOperand(0).substring(1); // strip $ symbol
         String y = this.getOperand(1);
         String z = this.getOperand(2);
         ArrayList<String> instructions = new ArrayList<>();
 
+        // Against zero, the comparison is folded into the branch or reads $zero
+        if (y.equals("0") && z.contains("$")) {
+            y = z;
+            z = "0";
+            condition = mirroredBranches.get(condition);
+        }
+        if (z.equals("0") && y.contains("$") && zeroBranches.containsKey(condition)) {
+            instructions.add(String.format("%s %s, %s_%s", zeroBranches.get(condition), y, functionName, label));
+            return instructions;
+        }
+
         String first = y, second = z;
-        if (!y.contains("$")) {
+        if (y.equals("0")) first = "$zero";
+        else if (!y.contains("$")) {
             instructions.add(String.format("li $temp, %s", y));
             first = "$temp";
         }
-        if (!z.contains("$")) {
+        if (z.equals("0")) second = "$zero";
+        else if (!z.contains("$")) {
             instructions.add(String.format("li $temp2, %s", z));
             second = "$temp2";
         }
@@ -322,14 +814,130 @@ public class InstructionSelector {
         return instructions;
     }
 
-    private ArrayList<String> mapAssign() {
+    /**
+     * Puts the hammock's branch condition in $v1 as a value that is non-zero exactly when the branch is taken,
+     * or exactly when it is not, and returns which. $v1 is left alone by the allocators, so the condition
+     * needs no slot. A constant operand is loaded into $v1 first.
+     */
+    private boolean mapCondition(ArrayList<String> instructions) {
+        String y = this.getOperand(1);
+        String z = this.getOperand(2);
+        if (y.equals("0")) y = "$zero";
+        else if (!y.contains("$")) {
+            instructions.add(String.format("li $v1, %s", y));
+            y = "$v1";
+        }
+        if (z.equals("0")) z = "$zero";
+        else if (!z.contains("$")) {
+            instructions.add(String.format("li $v1, %s", z));
+            z = "$v1";
+        }
+
+        switch (this.instruction.opCode) {
+            case BREQ:
+            case BRNEQ:
+                instructions.add(String.format("subu $v1, %s, %s", y, z));
+                return this.instruction.opCode == IRInstruction.OpCode.BRNEQ;
+            case BRLT:
+            case BRGEQ:
+                instructions.add(String.format("slt $v1, %s, %s", y, z));
+                return this.instruction.opCode == IRInstruction.OpCode.BRLT;
+            default:
+                instructions.add(String.format("slt $v1, %s, %s", z, y));
+                return this.instruction.opCode == IRInstruction.OpCode.BRGT;
+        }
+    }
+
+    /**
+     * Runs one instruction of a hammock side into $temp and moves the result into place with move, which is
+     * movn or movz on $v1. The moves only write when the side would have run, so the sides can follow each other.
+     */
+    private ArrayList<String> mapConditionalInstruction(IRInstruction side, String move) {
+        ArrayList<String> instructions = new ArrayList<>();
+        String x = "$" + side.operands[0];
+        String value;
+        if (side.opCode == IRInstruction.OpCode.ASSIGN) {
+            this.instruction = side;
+            value = this.getOperand(1);
+            if (value.equals("0")) value = "$zero";
+            else if (!value.contains("$")) {
+                instructions.add(String.format("li $temp, %s", value));
+                value = "$temp";
+            }
+        } else {
+            this.instruction = IRInstructions.withOperand(side, 0, new IRVariableOperand(IRIntType.get(), "temp", null));
+            String operation = side.opCode == IRInstruction.OpCode.MULT ? "mul" : (side.opCode == IRInstruction.OpCode.AND ? "and" : "or");
+            instructions.addAll(this.mapBinary(operation));
+            value = "$temp";
+        }
+        instructions.add(String.format("%s %s, %s, $v1", move, x, value));
+        return instructions;
+    }
+
+    private ArrayList<String> mapSelect(IfConversion.Hammock hammock, String functionName) {
+        ArrayList<String> instructions = new ArrayList<>();
+        boolean nonZeroWhenTaken = this.mapCondition(instructions);
+        String whenTaken = nonZeroWhenTaken ? "movn" : "movz";
+        String whenNotTaken = nonZeroWhenTaken ? "movz" : "movn";
+
+        // When both sides assign the same variable, the value of one side can be moved unconditionally
+        if (hammock.getSelectedVariable() != null) {
+            this.instruction = hammock.notTaken.get(0);
+            instructions.addAll(this.mapAssign(functionName));
+            instructions.addAll(this.mapConditionalInstruction(hammock.taken.get(0), whenTaken));
+        } else {
+            for (IRInstruction side: hammock.notTaken) instructions.addAll(this.mapConditionalInstruction(side, whenNotTaken));
+            for (IRInstruction side: hammock.taken) instructions.addAll(this.mapConditionalInstruction(side, whenTaken));
+        }
+
+        this.instruction = hammock.branch;
+        return instructions;
+    }
+
+    /**
+     * True if the hammock's selected code is no longer than the slower way through its branch, so no path
+     * gets longer while the branch and the block boundaries around it go away
+     */
+    private boolean isProfitable(IRFunction function, IfConversion.Hammock hammock) {
+        this.instruction = hammock.branch;
+        int selected = this.mapSelect(hammock, function.name).size();
+        int branch = this.map(function).size();
+
+        int notTaken = hammock.jump == null ? 0 : 1;
+        for (IRInstruction side: hammock.notTaken) {
+            this.instruction = side;
+            notTaken += this.map(function).size();
+        }
+        int taken = 0;
+        for (IRInstruction side: hammock.taken) {
+            this.instruction = side;
+            taken += this.map(function).size();
+        }
+        return selected <= branch + Math.max(notTaken, taken);
+    }
+
+    private ArrayList<String> mapAssign(String functionName) {
         String x = this.getOperand(0);
         String op2 = this.getOperand(1);
         ArrayList<String> instructions = new ArrayList<>();
 
         if (this.instruction.operands.length == 3) {
             String value = this.getOperand(2);
-            return this.assignArray(x, Integer.parseInt(op2), value);
+            // Float elements are filled with their bits by the integer unit
+            if (isFloat(this.instruction.operands[2]) && value.contains("$")) {
+                instructions.add(String.format("mfc1 $temp2, %s", value));
+                value = "$temp2";
+            } else if (isFloat(this.instruction.operands[2])) {
+                value = getFloatBits(value);
+            }
+            instructions.addAll(this.assignArray(functionName, x.substring(1), Integer.parseInt(op2), value));
+            return instructions;
+        }
+
+        if (isFloat(this.instruction.operands[0])) {
+            String y = this.getFloatOperand(1, x, instructions);
+            if (!y.equals(x)) instructions.add(String.format("mov.s %s, %s", x, y));
+            return instructions;
         }
 
         String operation = "li";
@@ -354,17 +962,61 @@ public class InstructionSelector {
         functionLabel = functionLabel.substring(1); // strip $ symbol
 
         if (intrinsicFunctions.containsKey(functionLabel)) return this.mapIntrinsicFunction(functionLabel);
+        if (this.canReuseFrame(function)) return this.generateTailCall(functionLabel, ret);
 
         return this.generateCallInitialization(function, functionLabel, ret);
     }
 
+    /**
+     * True if the call is in tail position and the callee can run in place of this function: its arguments
+     * all go in registers and none of them points into the frame that is given up
+     */
+    private boolean canReuseFrame(IRFunction function) {
+        if (function.name.equals("main")) return false;
+        if (!IRInstructions.isTailCall(function, function.instructions.indexOf(this.instruction))) return false;
+
+        int start = this.instruction.opCode == IRInstruction.OpCode.CALLR ? 2 : 1;
+        if (this.instruction.operands.length - start > 4) return false;
+        if (this.frameSize > 0)
+            for (IRVariableOperand array: getLocalArrays(function))
+                for (int i = start; i < this.instruction.operands.length; i++)
+                    if (this.instruction.operands[i].toString().equals(array.getName())) return false;
+        return true;
+    }
+
+    /**
+     * Passes the arguments, releases the frame and jumps to the callee, which returns straight to this
+     * function's caller with $ra untouched. The allocator pops its slots before the jump as it does for jr.
+     */
+    private ArrayList<String> generateTailCall(String functionLabel, boolean ret) {
+        ArrayList<String> instructions = new ArrayList<>();
+        int start = ret ? 2 : 1;
+        for (int i = start; i < this.instruction.operands.length; i++) instructions.addAll(this.passArgument(i, i - start));
+
+        instructions.addAll(this.generateFrameRelease());
+        instructions.add(String.format("j %s", functionLabel));
+
+        return instructions;
+    }
+
+    private ArrayList<String> generateFrameRelease() {
+        ArrayList<String> instructions = new ArrayList<>();
+        if (this.frameSize > 0) instructions.add(String.format("addi $sp, $sp, %d", this.frameSize));
+        return instructions;
+    }
+
     private ArrayList<String> mapReturn() {
         String x = this.getOperand(0);
         ArrayList<String> instructions = new ArrayList<>();
-        String operation = "li";
-        if (x.contains("$")) operation = "move";
-
-        instructions.add(String.format("%s $v0, %s", operation, x));
+        if (isFloat(this.instruction.operands[0])) {
+            String value = this.getFloatOperand(0, "$f0", instructions);
+            if (!value.equals("$f0")) instructions.add(String.format("mov.s $f0, %s", value));
+        } else {
+            String operation = "li";
+            if (x.contains("$")) operation = "move";
+            instructions.add(String.format("%s $v0, %s", operation, x));
+        }
+        instructions.addAll(this.generateFrameRelease());
         instructions.add("jr $ra");
 
         return instructions;
@@ -392,7 +1044,8 @@ public class InstructionSelector {
             array = "$temp";
         }
 
-        instructions.add(String.format("lw %s, %d(%s)", x, Integer.parseInt(offset) * 4, array));
+        String load = isFloat(this.instruction.operands[0]) ? "lwc1" : "lw";
+        instructions.add(String.format("%s %s, %d(%s)", load, x, Integer.parseInt(offset) * 4, array));
 
         return instructions;
     }
@@ -411,22 +1064,27 @@ public class InstructionSelector {
             array = "$temp";
         }
 
+        String store = "sw";
         if (!x.contains("$")) {
-            instructions.add(String.format("li $temp2, %s", x));
+            // A float constant is stored as its bits
+            instructions.add(String.format("li $temp2, %s", isFloat(this.instruction.operands[0]) ? getFloatBits(x) : x));
             x = "$temp2";
+        } else if (isFloat(this.instruction.operands[0])) {
+            store = "swc1";
         }
 
-        instructions.add(String.format("sw %s, %d(%s)", x, Integer.parseInt(offset) * 4, array));
+        instructions.add(String.format("%s %s, %d(%s)", store, x, Integer.parseInt(offset) * 4, array));
 
         return instructions;
     }
 
     private ArrayList<String> map(IRFunction function) {
+        if (this.hammocks.containsKey(this.instruction)) return mapSelect(this.hammocks.get(this.instruction), function.name);
         switch (this.instruction.opCode) {
             case ADD:
-                return mapBinary("add");
+                return mapBinary(this.isAddressArithmetic() ? "addu" : "add");
             case SUB:
-                return mapBinary("sub");
+                return mapBinary(this.isAddressArithmetic() ? "subu" : "sub");
             case MULT:
                 return mapBinary("mul");
             case DIV:
@@ -448,7 +1106,7 @@ public class InstructionSelector {
             case BRNEQ:
                 return mapBranch(function.name, "bne");
             case ASSIGN:
-                return mapAssign();
+                return mapAssign(function.name);
             case GOTO:
                 return mapGoto(function.name);
             case CALL:
@@ -12,6 +12,7 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
     private static final HashSet<String> ignoreRegisterList = new HashSet<>();
     private static final HashSet<String> branchInstructions = new HashSet<>();
     private static final HashSet<String> jumpInstructions = new HashSet<>();
+    private static final ArrayList<String> floatRegisters = new ArrayList<>();
 
     static {
         defInstructions.add("add");
@@ -26,15 +27,41 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
         defInstructions.add("li");
         defInstructions.add("lw");
         defInstructions.add("move");
+        defInstructions.add("addu");
+        defInstructions.add("addiu");
+        defInstructions.add("subu");
+        defInstructions.add("sll");
+        defInstructions.add("srl");
+        defInstructions.add("sra");
+        defInstructions.add("mfhi");
+        defInstructions.add("mflo");
+        defInstructions.add("add.s");
+        defInstructions.add("sub.s");
+        defInstructions.add("mul.s");
+        defInstructions.add("div.s");
+        defInstructions.add("mov.s");
+        defInstructions.add("neg.s");
+        defInstructions.add("l.s");
+        defInstructions.add("lwc1");
+        defInstructions.add("mfc1");
+        defInstructions.add("slt");
+        defInstructions.add("movn");
+        defInstructions.add("movz");
 
         ignoreRegisterList.add("$zero");
         ignoreRegisterList.add("$v0");
+        ignoreRegisterList.add("$v1");
         ignoreRegisterList.add("$a0");
         ignoreRegisterList.add("$a1");
         ignoreRegisterList.add("$a2");
         ignoreRegisterList.add("$a3");
         ignoreRegisterList.add("$sp");
         ignoreRegisterList.add("$ra");
+        ignoreRegisterList.add("$f0");
+        ignoreRegisterList.add("$f12");
+        ignoreRegisterList.add("$f14");
+        ignoreRegisterList.add("$f16");
+        ignoreRegisterList.add("$f18");
 
         branchInstructions.add("beq");
         branchInstructions.add("bge");
@@ -42,7 +69,17 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
         branchInstructions.add("ble");
         branchInstructions.add("blt");
         branchInstructions.add("bne");
+        branchInstructions.add("bgez");
+        branchInstructions.add("bgtz");
+        branchInstructions.add("blez");
+        branchInstructions.add("bltz");
+        branchInstructions.add("bc1t");
+        branchInstructions.add("bc1f");
 
+        // $f0 and $f12-$f19 carry return values and arguments, and $f30-$f31 are for spilled values
+        for (int i = 1; i < 30; i++) if (i < 12 || i > 19) floatRegisters.add("$f" + i);
+
+        jumpInstructions.add("j");
         jumpInstructions.add("jal");
         jumpInstructions.add("jr");
     }
@@ -79,6 +116,13 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
                 .collect(Collectors.toCollection(ArrayList::new));
     }
 
+    /**
+     * True for the conditional moves, which keep the old value of their destination when the condition fails
+     */
+    private static boolean readsDefinition(String operation) {
+        return "movn".equals(operation) || "movz".equals(operation);
+    }
+
     private HashSet<String> upwardsExposedVariables(BasicBlock block, int index) {
         HashSet<String> vars = new HashSet<>();
         if (index == 0) return vars;
@@ -86,7 +130,7 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
         String instruction = block.mipsInstructions.get(index);
         String op = this.getOperation(instruction);
         ArrayList<String> operands = this.getOperands(instruction, new ArrayList<>());
-        if (defInstructions.contains(op)) operands.remove(0);
+        if (defInstructions.contains(op) && !readsDefinition(op)) operands.remove(0);
 
         for (int i = 0; i < index; i++) {
             String curr = block.mipsInstructions.get(i);
@@ -119,7 +163,7 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
                 String curr = block.mipsInstructions.get(j);
                 String currOp = this.getOperation(curr);
                 ArrayList<String> currOperands = this.getOperands(curr, new ArrayList<>());
-                if (defInstructions.contains(currOp)) currOperands.remove(0);
+                if (defInstructions.contains(currOp) && !readsDefinition(currOp)) currOperands.remove(0);
 
                 if (currOperands.contains(defOperand)) {
                     int count = 0;
@@ -175,6 +219,34 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
         return firstAvailable;
     }
 
+    private int allocateFloatRegister(String op, HashMap<String, String> localRegisterMap, int firstAvailable) {
+        if (firstAvailable < floatRegisters.size()) {
+            localRegisterMap.put(op, floatRegisters.get(firstAvailable));
+            firstAvailable++;
+        }
+
+        return firstAvailable;
+    }
+
+    private HashSet<String> getFloatVariables(BasicBlock block) {
+        HashSet<String> floatVariables = new HashSet<>();
+        for (String instruction: block.mipsInstructions) {
+            String operation = this.getOperation(instruction);
+            ArrayList<String> operands = this.getOperands(instruction, new ArrayList<>());
+            for (int i = 0; i < operands.size(); i++)
+                if (MIPSInstruction.isFloatOperand(operation, i)) floatVariables.add(operands.get(i));
+        }
+        return floatVariables;
+    }
+
+    private static String load(String register, int offset) {
+        return String.format("%s %s, %d($sp)", register.startsWith("$f") ? "lwc1" : "lw", register, offset);
+    }
+
+    private static String store(String register, int offset) {
+        return String.format("%s %s, %d($sp)", register.startsWith("$f") ? "swc1" : "sw", register, offset);
+    }
+
     private void adjustOffsets() {
         for (String op: this.offsetMap.keySet()) {
             int offset = this.offsetMap.get(op);
@@ -185,7 +257,7 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
     private ArrayList<String> generateStoreVariables(HashMap<String, String> localRegisterMap) {
         ArrayList<String> storeVariables = new ArrayList<>();
         for (String op: localRegisterMap.keySet()) {
-            storeVariables.add(String.format("sw %s, %d($sp)", localRegisterMap.get(op), this.offsetMap.get(op) * 4));
+            storeVariables.add(store(localRegisterMap.get(op), this.offsetMap.get(op) * 4));
         }
 
         return storeVariables;
@@ -208,6 +280,8 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
     private ArrayList<String> allocateBlock(BasicBlock block, int index) {
         ArrayList<String> instructions = new ArrayList<>();
         int firstAvailable = 0;
+        int firstFloat = 0;
+        HashSet<String> floatVariables = this.getFloatVariables(block);
         HashMap<String, Integer> usesMap = new HashMap<>(block.usesMap);
         HashMap<String, String> localRegisterMap = new HashMap<>();
         boolean endOnBranchOrJump = false;
@@ -215,7 +289,8 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
 
         while (!usesMap.isEmpty()) {
             String maxUsedDef = Collections.max(usesMap.entrySet(), Comparator.comparingInt(Map.Entry::getValue)).getKey();
-            firstAvailable = this.allocateRegister(maxUsedDef, localRegisterMap, firstAvailable);
+            if (floatVariables.contains(maxUsedDef)) firstFloat = this.allocateFloatRegister(maxUsedDef, localRegisterMap, firstFloat);
+            else firstAvailable = this.allocateRegister(maxUsedDef, localRegisterMap, firstAvailable);
             usesMap.remove(maxUsedDef);
         }
 
@@ -236,20 +311,20 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
             if (!deleteStores && !deleted && functionBlock) {
                 boolean isAdd = instruction.matches("addi \\$sp, \\$sp, -?\\d+");
                 boolean nextIsStore = i != block.mipsInstructions.size() - 1 &&
-                        block.mipsInstructions.get(i + 1).matches("sw \\$.+, \\d+\\(\\$.+\\)");
+                        block.mipsInstructions.get(i + 1).matches("(sw|swc1) \\$.+, \\d+\\(\\$.+\\)");
                 if (isAdd && nextIsStore){
                     deleteStores = true;
                     continue;
                 }
             }
-            if (deleteStores && instruction.matches("sw \\$.+, \\d+\\(\\$.+\\)")) continue;
+            if (deleteStores && instruction.matches("(sw|swc1) \\$.+, \\d+\\(\\$.+\\)")) continue;
             else if (deleteStores) {
                 deleteStores = false;
                 deleted = true;
             }
 
             if (deleteRestores) {
-                if (instruction.matches("lw \\$.+, \\d+\\(\\$.+\\)") && !instruction.contains("$ra")) {
+                if (instruction.matches("(lw|lwc1) \\$.+, \\d+\\(\\$.+\\)") && !instruction.contains("$ra")) {
                     matchedFirst = true;
                     continue;
                 } else if (matchedFirst && instruction.matches("addi \\$sp, \\$sp, -?\\d+")) {
@@ -264,11 +339,15 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
             ArrayList<Integer> offsets = new ArrayList<>();
             ArrayList<String> operands = this.getOperands(instruction, offsets);
             boolean t8Used = false;
+            boolean f30Used = false;
             HashSet<String> tempLocal = new HashSet<>();
 
             for (int j = 0; j < operands.size(); j++) {
                 String op = operands.get(j);
                 if (!op.contains("$") || ignoreRegisterList.contains(op)) continue;
+                boolean isFloat = MIPSInstruction.isFloatOperand(operation, j);
+                String spill = isFloat ? "$f30" : "$t8";
+                boolean readsDef = j == 0 && readsDefinition(operation);
 
                 if (!locallyInitialized.contains(op)) {
                     if (j == 0 && defInstructions.contains(operation)) {
@@ -278,31 +357,45 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
                             instructions.add("addi $sp, $sp, -4");
                         }
                         if (!localRegisterMap.containsKey(op)) {
-                            instruction = this.replaceOperand(instruction, offsets, j, "$t8");
-                            suffix.add(String.format("sw $t8, %d($sp)", this.offsetMap.get(op) * 4));
+                            instruction = this.replaceOperand(instruction, offsets, j, spill);
+                            suffix.add(store(spill, this.offsetMap.get(op) * 4));
+                        }
+                        if (readsDef) {
+                            instructions.add(load(localRegisterMap.getOrDefault(op, spill), this.offsetMap.get(op) * 4));
+                            t8Used = true;
                         }
                         tempLocal.add(op);
                     } else if (!localRegisterMap.containsKey(op)) {
                         String register;
-                        if (!t8Used) {
+                        if (isFloat) {
+                            register = f30Used ? "$f31" : "$f30";
+                            f30Used = true;
+                        } else if (!t8Used) {
                             register = "$t8";
                             t8Used = true;
                         }
                         else register = "$t9";
-                        instructions.add(String.format("lw %s, %d($sp)", register, this.offsetMap.get(op) * 4));
+                        instructions.add(load(register, this.offsetMap.get(op) * 4));
                         instruction = this.replaceOperand(instruction, offsets, j, register);
-                    } else instructions.add(String.format("lw %s, %d($sp)", localRegisterMap.get(op), this.offsetMap.get(op) * 4));
+                    } else instructions.add(load(localRegisterMap.get(op), this.offsetMap.get(op) * 4));
                 } else if (!localRegisterMap.containsKey(op)) {
-                    String register = "$t8";
-                    if (j == 0 && defInstructions.contains(operation))
-                        suffix.add(String.format("sw $t8, %d($sp)", this.offsetMap.get(op) * 4));
-                    else {
-                        if (!t8Used) {
+                    String register = spill;
+                    if (j == 0 && defInstructions.contains(operation)) {
+                        suffix.add(store(spill, this.offsetMap.get(op) * 4));
+                        if (readsDef) {
+                            instructions.add(load(spill, this.offsetMap.get(op) * 4));
+                            t8Used = true;
+                        }
+                    } else {
+                        if (isFloat) {
+                            register = f30Used ? "$f31" : "$f30";
+                            f30Used = true;
+                        } else if (!t8Used) {
                             register = "$t8";
                             t8Used = true;
                         }
                         else register = "$t9";
-                        instructions.add(String.format("lw %s, %d($sp)", register, this.offsetMap.get(op) * 4));
+                        instructions.add(load(register, this.offsetMap.get(op) * 4));
                     }
                     instruction = this.replaceOperand(instruction, offsets, j, register);
                 }
@@ -324,9 +417,11 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
                     insertOffset = 3;
                 }
                 instructions.addAll(instructions.size() - insertOffset, this.generateStoreVariables(localRegisterMap)); // before $ra stack allocation
+                // The callee clobbers the block's registers, so the result copied after the call goes to its slot
+                if ("jal".equals(operation)) localRegisterMap.clear();
             }
 
-            if (instruction.equals("jr $ra")) {
+            if (instruction.equals("jr $ra") || "j".equals(operation)) {
                 functionEnd = true;
                 instructions.add(instructions.size() - 1, String.format("addi $sp, $sp, %d", this.offsetMap.size() * 4));
             }
@@ -343,18 +438,33 @@ public class IntraBlockRegisterAllocator implements RegisterAllocator {
         return instructions;
     }
 
+    @Override
+    public HashSet<String> getBlockLocalRegisters() {
+        HashSet<String> registers = new HashSet<>();
+        for (int i = 0; i < 10; i++) registers.add("$t" + i);
+        registers.addAll(floatRegisters);
+        registers.add("$f30");
+        registers.add("$f31");
+        return registers;
+    }
+
     @Override
     public ArrayList<String> allocate(ArrayList<String> instructions) {
-        ArrayList<String> allocatedInstructions = new ArrayList<>(instructions.subList(0, 2));
+        ArrayList<String> allocatedInstructions = new ArrayList<>();
         BasicBlock block;
-        for (int i = 2; i < instructions.size(); i++) {
+        boolean inText = false;
+        for (int i = 0; i < instructions.size(); i++) {
             String instruction = instructions.get(i);
             MIPSInstructionPair pair = new MIPSInstructionPair(instruction, i);
             if (this.mipsLeaderBlockMap.containsKey(pair)) {
+                inText = true;
                 block = this.mipsLeaderBlockMap.get(pair);
                 this.computeLiveSets(block);
                 ArrayList<String> allocatedBlock = this.allocateBlock(block, i);
                 allocatedInstructions.addAll(allocatedBlock);
+            } else if (!inText) {
+                // Data and the jump to main come before the first function
+                allocatedInstructions.add(instruction);
             }
         }
 
@@ -0,0 +1,26 @@
+package compilation;
+
+import java.util.ArrayList;
+
+public class JumpToNextRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "jump-to-next";
+    }
+
+    @Override
+    public boolean apply(ArrayList<MIPSInstruction> instructions, int index, PeepholeOptimizer optimizer) {
+        MIPSInstruction instruction = instructions.get(index);
+        if (!instruction.isBranch()) return false;
+
+        String target = instruction.getTarget();
+        for (int i = index + 1; i < instructions.size() && instructions.get(i).isLabel(); i++) {
+            if (instructions.get(i).label.equals(target)) {
+                instructions.remove(index);
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
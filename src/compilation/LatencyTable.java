@@ -0,0 +1,65 @@
+package compilation;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.Scanner;
+import java.util.TreeMap;
+
+/**
+ * How many cycles after an instruction issues its result can be read without stalling, by operation. The
+ * defaults follow the R3000: loads and moves between the processors have one delay slot, mult and div run
+ * for 12 and 35 cycles, and the FPU takes 2 cycles to add, 4 to multiply and 12 to divide. Anything else
+ * takes one cycle. A file can override these with "operation cycles" lines, where # starts a comment.
+ */
+public class LatencyTable {
+    public static final int DEFAULT_LATENCY = 1;
+
+    private final HashMap<String, Integer> latencies = new HashMap<>();
+
+    public LatencyTable() {
+        for (String operation: new String[] {"lw", "lwc1", "l.s", "mfc1", "mtc1", "mfhi", "mflo"}) this.setLatency(operation, 2);
+        for (String operation: new String[] {"mul", "mult", "multu"}) this.setLatency(operation, 12);
+        for (String operation: new String[] {"div", "divu", "rem"}) this.setLatency(operation, 35);
+        for (String operation: new String[] {"add.s", "sub.s", "c.eq.s", "c.lt.s", "c.le.s"}) this.setLatency(operation, 2);
+        for (String operation: new String[] {"cvt.s.w", "cvt.w.s"}) this.setLatency(operation, 3);
+        this.setLatency("mul.s", 4);
+        this.setLatency("div.s", 12);
+    }
+
+    public static LatencyTable read(String filename) throws FileNotFoundException {
+        LatencyTable table = new LatencyTable();
+        Scanner scanner = new Scanner(new File(filename));
+        for (int lineNumber = 1; scanner.hasNextLine(); lineNumber++) {
+            String line = scanner.nextLine();
+            int comment = line.indexOf('#');
+            if (comment != -1) line = line.substring(0, comment);
+            line = line.strip();
+            if (line.isEmpty()) continue;
+
+            String[] tokens = line.split("\\s+");
+            try {
+                if (tokens.length != 2) throw new NumberFormatException();
+                int cycles = Integer.parseInt(tokens[1]);
+                if (cycles < 1) throw new NumberFormatException();
+                table.setLatency(tokens[0], cycles);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid latency entry at line %d of %s", lineNumber, filename));
+            }
+        }
+        return table;
+    }
+
+    public void setLatency(String operation, int cycles) {
+        this.latencies.put(operation, cycles);
+    }
+
+    public int getLatency(MIPSInstruction instruction) {
+        return this.latencies.getOrDefault(instruction.operation, DEFAULT_LATENCY);
+    }
+
+    @Override
+    public String toString() {
+        return new TreeMap<>(this.latencies).toString();
+    }
+}
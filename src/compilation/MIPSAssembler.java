@@ -0,0 +1,677 @@
+package compilation;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Encodes the assembly the compiler emits into MIPS32 machine words, so the output can be loaded without an
+ * external assembler. The segments are laid out as in MARS and SPIM, with text at 0x00400000 and data at
+ * 0x10010000, and pseudo-instructions are expanded much as MARS expands them, with $at as the scratch register.
+ * Labels are resolved in two passes. The first sizes every instruction, and relaxes each conditional branch
+ * whose target is out of 16-bit range into the inverted branch around a jump, repeating until no branch grows.
+ * The second encodes. With delay slots on, a relaxed branch gets a nop in its own slot, because the instruction
+ * after it belongs to the jump.
+ */
+public class MIPSAssembler {
+    public static final int TEXT_BASE = 0x00400000;
+    public static final int DATA_BASE = 0x10010000;
+    private static final int AT = 1;
+    private static final int RA = 31;
+
+    private enum Fixup {
+        NONE, BRANCH, JUMP, HIGH, HIGH_ADJUSTED, LOW
+    }
+
+    /**
+     * A machine word whose label field, if any, is filled in once addresses are known
+     */
+    private static class Word {
+        final int bits;
+        final Fixup fixup;
+        final String label;
+
+        Word(int bits, Fixup fixup, String label) {
+            this.bits = bits;
+            this.fixup = fixup;
+            this.label = label;
+        }
+    }
+
+    private static class SourceInstruction {
+        final String operation;
+        final String[] operands;
+        final String text;
+        final int line;
+        final ArrayList<String> labels;
+        boolean relaxed = false;
+        int address;
+        ArrayList<Word> words;
+
+        SourceInstruction(String operation, String[] operands, String text, int line, ArrayList<String> labels) {
+            this.operation = operation;
+            this.operands = operands;
+            this.text = text;
+            this.line = line;
+            this.labels = labels;
+        }
+    }
+
+    private static final HashMap<String, Integer> registerNumbers = new HashMap<>();
+    private static final String[] registerNames = {
+            "zero", "at", "v0", "v1", "a0", "a1", "a2", "a3",
+            "t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7",
+            "s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7",
+            "t8", "t9", "k0", "k1", "gp", "sp", "fp", "ra"
+    };
+    private static final HashMap<String, Integer> registerFunctions = new HashMap<>();
+    private static final HashMap<String, Integer> immediateOpcodes = new HashMap<>();
+    private static final HashMap<String, String> immediateForms = new HashMap<>();
+    private static final HashMap<String, String> registerForms = new HashMap<>();
+    private static final HashMap<String, Integer> shiftFunctions = new HashMap<>();
+    private static final HashMap<String, Integer> memoryOpcodes = new HashMap<>();
+    private static final HashMap<String, Integer> floatFunctions = new HashMap<>();
+
+    static {
+        for (int i = 0; i < registerNames.length; i++) {
+            registerNumbers.put("$" + registerNames[i], i);
+            registerNumbers.put("$" + i, i);
+        }
+        registerNumbers.put("$s8", 30);
+
+        String[] functions = {"add", "addu", "sub", "subu", "and", "or", "xor", "nor", null, null, "slt", "sltu"};
+        for (int i = 0; i < functions.length; i++) if (functions[i] != null) registerFunctions.put(functions[i], 0x20 + i);
+        registerFunctions.put("movz", 0x0a);
+        registerFunctions.put("movn", 0x0b);
+        registerFunctions.put("sllv", 0x04);
+        registerFunctions.put("srlv", 0x06);
+        registerFunctions.put("srav", 0x07);
+
+        String[] opcodes = {"addi", "addiu", "slti", "sltiu", "andi", "ori", "xori"};
+        for (int i = 0; i < opcodes.length; i++) {
+            immediateOpcodes.put(opcodes[i], 0x08 + i);
+            registerForms.put(opcodes[i], opcodes[i].replace("i", ""));
+        }
+        for (String operation: new String[] {"add", "addu", "slt", "sltu", "and", "or", "xor"})
+            immediateForms.put(operation, operation.equals("addu") ? "addiu" : operation.equals("sltu") ? "sltiu" : operation + "i");
+
+        shiftFunctions.put("sll", 0x00);
+        shiftFunctions.put("srl", 0x02);
+        shiftFunctions.put("sra", 0x03);
+
+        memoryOpcodes.put("lw", 0x23);
+        memoryOpcodes.put("sw", 0x2b);
+        memoryOpcodes.put("lwc1", 0x31);
+        memoryOpcodes.put("l.s", 0x31);
+        memoryOpcodes.put("swc1", 0x39);
+        memoryOpcodes.put("s.s", 0x39);
+
+        floatFunctions.put("add.s", 0x00);
+        floatFunctions.put("sub.s", 0x01);
+        floatFunctions.put("mul.s", 0x02);
+        floatFunctions.put("div.s", 0x03);
+        floatFunctions.put("mov.s", 0x06);
+        floatFunctions.put("neg.s", 0x07);
+        floatFunctions.put("cvt.w.s", 0x24);
+        floatFunctions.put("c.eq.s", 0x32);
+        floatFunctions.put("c.lt.s", 0x3c);
+        floatFunctions.put("c.le.s", 0x3e);
+    }
+
+    private final boolean delaySlots;
+    private final ArrayList<SourceInstruction> source = new ArrayList<>();
+    private final ArrayList<Integer> data = new ArrayList<>();
+    private final TreeMap<Integer, ArrayList<String>> dataLabels = new TreeMap<>();
+    private final HashMap<String, Integer> symbols = new HashMap<>();
+    private int[] text = new int[0];
+
+    public int expandedInstructions = 0;
+    public int relaxedBranches = 0;
+    public int passes = 0;
+
+    public MIPSAssembler(boolean delaySlots) {
+        this.delaySlots = delaySlots;
+    }
+
+    public int[] getText() {
+        return this.text;
+    }
+
+    public int[] getData() {
+        int[] words = new int[this.data.size()];
+        for (int i = 0; i < words.length; i++) words[i] = this.data.get(i);
+        return words;
+    }
+
+    public Integer getAddress(String label) {
+        return this.symbols.get(label);
+    }
+
+    private static String[] splitOperands(String rest) {
+        if (rest.isEmpty()) return new String[0];
+        String[] operands = rest.split(",");
+        for (int i = 0; i < operands.length; i++) operands[i] = operands[i].strip();
+        return operands;
+    }
+
+    private static int parseImmediate(String s, int line) {
+        try {
+            if (s.startsWith("0x") || s.startsWith("-0x")) {
+                boolean negative = s.startsWith("-");
+                long value = Long.parseLong(s.substring(negative ? 3 : 2), 16);
+                return (int) (negative ? -value : value);
+            }
+            return (int) Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid immediate '%s' at line %d", s, line));
+        }
+    }
+
+    private static boolean isImmediate(String operand) {
+        return !operand.isEmpty() && (Character.isDigit(operand.charAt(0)) || operand.charAt(0) == '-');
+    }
+
+    private static int register(String name, int line) {
+        Integer number = registerNumbers.get(name);
+        if (number == null) throw new IllegalArgumentException(String.format("Unknown register '%s' at line %d", name, line));
+        return number;
+    }
+
+    private static int floatRegister(String name, int line) {
+        try {
+            if (name.startsWith("$f")) {
+                int number = Integer.parseInt(name.substring(2));
+                if (number >= 0 && number < 32) return number;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(String.format("Unknown register '%s' at line %d", name, line));
+    }
+
+    private static boolean fitsSigned(long value) {
+        return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+    }
+
+    private static boolean fitsUnsigned(long value) {
+        return value >= 0 && value <= 0xffff;
+    }
+
+    private static Word word(int bits) {
+        return new Word(bits, Fixup.NONE, null);
+    }
+
+    private static Word registerWord(int rs, int rt, int rd, int shamt, int function) {
+        return word((rs << 21) | (rt << 16) | (rd << 11) | (shamt << 6) | function);
+    }
+
+    private static Word immediateWord(int opcode, int rs, int rt, int immediate) {
+        return word((opcode << 26) | (rs << 21) | (rt << 16) | (immediate & 0xffff));
+    }
+
+    private static Word labelWord(int opcode, int rs, int rt, Fixup fixup, String label) {
+        return new Word((opcode << 26) | (rs << 21) | (rt << 16), fixup, label);
+    }
+
+    private static Word floatWord(int format, int ft, int fs, int fd, int function) {
+        return word((0x11 << 26) | (format << 21) | (ft << 16) | (fs << 11) | (fd << 6) | function);
+    }
+
+    private static void loadImmediate(ArrayList<Word> words, int rd, int value) {
+        if (fitsSigned(value)) words.add(immediateWord(0x09, 0, rd, value));
+        else if (fitsUnsigned(value)) words.add(immediateWord(0x0d, 0, rd, value));
+        else {
+            words.add(immediateWord(0x0f, 0, rd, value >>> 16));
+            if ((value & 0xffff) != 0) words.add(immediateWord(0x0d, rd, rd, value));
+        }
+    }
+
+    /**
+     * Returns the register holding operand, loading an immediate into $at first
+     */
+    private static int registerOrAt(ArrayList<Word> words, String operand, int line) {
+        if (!isImmediate(operand)) return register(operand, line);
+        int value = parseImmediate(operand, line);
+        if (value == 0) return 0;
+        loadImmediate(words, AT, value);
+        return AT;
+    }
+
+    private static void immediateOperation(ArrayList<Word> words, String operation, int rd, int rs, int value) {
+        boolean unsigned = operation.equals("andi") || operation.equals("ori") || operation.equals("xori");
+        if (unsigned ? fitsUnsigned(value) : fitsSigned(value)) {
+            words.add(immediateWord(immediateOpcodes.get(operation), rs, rd, value));
+            return;
+        }
+        loadImmediate(words, AT, value);
+        words.add(registerWord(rs, AT, rd, 0, registerFunctions.get(registerForms.get(operation))));
+    }
+
+    private void memoryOperation(ArrayList<Word> words, int opcode, int rt, String address, int line) {
+        int open = address.indexOf('(');
+        if (open == -1) {
+            words.add(labelWord(0x0f, 0, AT, Fixup.HIGH_ADJUSTED, address));
+            words.add(labelWord(opcode, AT, rt, Fixup.LOW, address));
+            return;
+        }
+        String offsetText = address.substring(0, open).strip();
+        int offset = offsetText.isEmpty() ? 0 : parseImmediate(offsetText, line);
+        int base = register(address.substring(open + 1, address.indexOf(')')).strip(), line);
+        if (fitsSigned(offset)) {
+            words.add(immediateWord(opcode, base, rt, offset));
+            return;
+        }
+        words.add(immediateWord(0x0f, 0, AT, (offset + 0x8000) >>> 16));
+        words.add(registerWord(AT, base, AT, 0, 0x21));
+        words.add(immediateWord(opcode, AT, rt, offset));
+    }
+
+    /**
+     * Adds the compare-and-branch for a signed comparison against a register or an immediate
+     */
+    private static void compareBranch(ArrayList<Word> words, String operation, int rs, String second, String label, int line) {
+        int rt = registerOrAt(words, second, line);
+        if (rt == 0) {
+            // Against zero the hardware has the comparison built in
+            switch (operation) {
+                case "blt": words.add(labelWord(0x01, rs, 0, Fixup.BRANCH, label)); return;
+                case "bge": words.add(labelWord(0x01, rs, 1, Fixup.BRANCH, label)); return;
+                case "ble": words.add(labelWord(0x06, rs, 0, Fixup.BRANCH, label)); return;
+                default: words.add(labelWord(0x07, rs, 0, Fixup.BRANCH, label)); return;
+            }
+        }
+        boolean swapped = operation.equals("bgt") || operation.equals("ble");
+        words.add(registerWord(swapped ? rt : rs, swapped ? rs : rt, AT, 0, 0x2a));
+        boolean taken = operation.equals("blt") || operation.equals("bgt");
+        words.add(labelWord(taken ? 0x05 : 0x04, AT, 0, Fixup.BRANCH, label));
+    }
+
+    private ArrayList<Word> expand(SourceInstruction instruction) {
+        ArrayList<Word> words = new ArrayList<>();
+        String operation = instruction.operation;
+        String[] operands = instruction.operands;
+        int line = instruction.line;
+
+        try {
+            if (registerFunctions.containsKey(operation)) {
+                int rd = register(operands[0], line);
+                int rs = register(operands[1], line);
+                if (isImmediate(operands[2]) && (operation.equals("sub") || operation.equals("subu"))) {
+                    immediateOperation(words, operation.equals("sub") ? "addi" : "addiu", rd, rs, -parseImmediate(operands[2], line));
+                } else if (isImmediate(operands[2]) && immediateForms.containsKey(operation)) {
+                    immediateOperation(words, immediateForms.get(operation), rd, rs, parseImmediate(operands[2], line));
+                } else {
+                    int rt = registerOrAt(words, operands[2], line);
+                    // The variable shifts take the shifted value in rt and the amount in rs
+                    if (operation.endsWith("v")) words.add(registerWord(rt, rs, rd, 0, registerFunctions.get(operation)));
+                    else words.add(registerWord(rs, rt, rd, 0, registerFunctions.get(operation)));
+                }
+                return words;
+            }
+            if (immediateOpcodes.containsKey(operation)) {
+                immediateOperation(words, operation, register(operands[0], line), register(operands[1], line), parseImmediate(operands[2], line));
+                return words;
+            }
+            if (shiftFunctions.containsKey(operation)) {
+                int shamt = parseImmediate(operands[2], line);
+                if (shamt < 0 || shamt > 31) throw new IllegalArgumentException(String.format("Invalid shift amount at line %d", line));
+                words.add(registerWord(0, register(operands[1], line), register(operands[0], line), shamt, shiftFunctions.get(operation)));
+                return words;
+            }
+            if (memoryOpcodes.containsKey(operation)) {
+                boolean isFloat = operation.contains("c1") || operation.contains(".");
+                int rt = isFloat ? floatRegister(operands[0], line) : register(operands[0], line);
+                this.memoryOperation(words, memoryOpcodes.get(operation), rt, operands[1], line);
+                return words;
+            }
+            if (floatFunctions.containsKey(operation)) {
+                int function = floatFunctions.get(operation);
+                if (operation.startsWith("c.")) words.add(floatWord(0x10, floatRegister(operands[1], line), floatRegister(operands[0], line), 0, function));
+                else if (operands.length == 2) words.add(floatWord(0x10, 0, floatRegister(operands[1], line), floatRegister(operands[0], line), function));
+                else words.add(floatWord(0x10, floatRegister(operands[2], line), floatRegister(operands[1], line), floatRegister(operands[0], line), function));
+                return words;
+            }
+
+            switch (operation) {
+                case "nop":
+                    words.add(word(0));
+                    break;
+                case "syscall":
+                    words.add(registerWord(0, 0, 0, 0, 0x0c));
+                    break;
+                case "mul": {
+                    int rt = registerOrAt(words, operands[2], line);
+                    words.add(word((0x1c << 26) | (register(operands[1], line) << 21) | (rt << 16) | (register(operands[0], line) << 11) | 0x02));
+                    break;
+                }
+                case "mult":
+                case "multu":
+                    words.add(registerWord(register(operands[0], line), register(operands[1], line), 0, 0, operation.equals("mult") ? 0x18 : 0x19));
+                    break;
+                case "div":
+                case "divu":
+                case "rem":
+                case "remu": {
+                    int function = operation.endsWith("u") ? 0x1b : 0x1a;
+                    if (operands.length == 2) {
+                        words.add(registerWord(register(operands[0], line), register(operands[1], line), 0, 0, function));
+                        break;
+                    }
+                    int rt = registerOrAt(words, operands[2], line);
+                    words.add(registerWord(register(operands[1], line), rt, 0, 0, function));
+                    words.add(registerWord(0, 0, register(operands[0], line), 0, operation.startsWith("rem") ? 0x10 : 0x12));
+                    break;
+                }
+                case "mfhi":
+                    words.add(registerWord(0, 0, register(operands[0], line), 0, 0x10));
+                    break;
+                case "mflo":
+                    words.add(registerWord(0, 0, register(operands[0], line), 0, 0x12));
+                    break;
+                case "subi":
+                    immediateOperation(words, "addi", register(operands[0], line), register(operands[1], line), -parseImmediate(operands[2], line));
+                    break;
+                case "lui":
+                    words.add(immediateWord(0x0f, 0, register(operands[0], line), parseImmediate(operands[1], line)));
+                    break;
+                case "li":
+                    loadImmediate(words, register(operands[0], line), parseImmediate(operands[1], line));
+                    break;
+                case "la": {
+                    int rd = register(operands[0], line);
+                    words.add(labelWord(0x0f, 0, rd, Fixup.HIGH, operands[1]));
+                    words.add(labelWord(0x0d, rd, rd, Fixup.LOW, operands[1]));
+                    break;
+                }
+                case "move":
+                    words.add(registerWord(0, register(operands[1], line), register(operands[0], line), 0, 0x21));
+                    break;
+                case "neg":
+                case "negu":
+                    words.add(registerWord(0, register(operands[1], line), register(operands[0], line), 0, operation.equals("neg") ? 0x22 : 0x23));
+                    break;
+                case "beq":
+                case "bne": {
+                    int rs = register(operands[0], line);
+                    int rt = registerOrAt(words, operands[1], line);
+                    words.add(labelWord(operation.equals("beq") ? 0x04 : 0x05, rs, rt, Fixup.BRANCH, operands[2]));
+                    break;
+                }
+                case "beqz":
+                case "bnez":
+                    words.add(labelWord(operation.equals("beqz") ? 0x04 : 0x05, register(operands[0], line), 0, Fixup.BRANCH, operands[1]));
+                    break;
+                case "blt":
+                case "bge":
+                case "bgt":
+                case "ble":
+                    compareBranch(words, operation, register(operands[0], line), operands[1], operands[2], line);
+                    break;
+                case "bltz":
+                case "bgez":
+                    words.add(labelWord(0x01, register(operands[0], line), operation.equals("bltz") ? 0 : 1, Fixup.BRANCH, operands[1]));
+                    break;
+                case "blez":
+                case "bgtz":
+                    words.add(labelWord(operation.equals("blez") ? 0x06 : 0x07, register(operands[0], line), 0, Fixup.BRANCH, operands[1]));
+                    break;
+                case "b":
+                    words.add(labelWord(0x04, 0, 0, Fixup.BRANCH, operands[0]));
+                    break;
+                case "bc1f":
+                case "bc1t":
+                    words.add(labelWord(0x11, 0x08, operation.equals("bc1t") ? 1 : 0, Fixup.BRANCH, operands[0]));
+                    break;
+                case "j":
+                case "jal":
+                    words.add(new Word((operation.equals("j") ? 0x02 : 0x03) << 26, Fixup.JUMP, operands[0]));
+                    break;
+                case "jr":
+                    words.add(registerWord(register(operands[0], line), 0, 0, 0, 0x08));
+                    break;
+                case "jalr": {
+                    int rd = operands.length == 2 ? register(operands[0], line) : RA;
+                    words.add(registerWord(register(operands[operands.length - 1], line), 0, rd, 0, 0x09));
+                    break;
+                }
+                case "cvt.s.w":
+                    words.add(floatWord(0x14, 0, floatRegister(operands[1], line), floatRegister(operands[0], line), 0x20));
+                    break;
+                case "mfc1":
+                case "mtc1":
+                    words.add(word((0x11 << 26) | ((operation.equals("mfc1") ? 0 : 4) << 21) | (register(operands[0], line) << 16)
+                            | (floatRegister(operands[1], line) << 11)));
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unsupported instruction '%s' at line %d", operation, line));
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(String.format("Missing operand for '%s' at line %d", operation, line));
+        }
+
+        if (instruction.relaxed) this.relax(words);
+        return words;
+    }
+
+    /**
+     * Replaces the branch ending words with a jump, behind the inverted branch when it is conditional
+     */
+    private void relax(ArrayList<Word> words) {
+        Word branch = words.remove(words.size() - 1);
+        int opcode = branch.bits >>> 26;
+        int rs = (branch.bits >>> 21) & 0x1f;
+        int rt = (branch.bits >>> 16) & 0x1f;
+        if (opcode == 0x04 && rs == 0 && rt == 0) {
+            words.add(new Word(0x02 << 26, Fixup.JUMP, branch.label));
+            return;
+        }
+
+        int inverted;
+        if (opcode == 0x04 || opcode == 0x06) inverted = branch.bits + (1 << 26);
+        else if (opcode == 0x05 || opcode == 0x07) inverted = branch.bits - (1 << 26);
+        else inverted = branch.bits ^ (1 << 16); // bltz and bgez, bc1f and bc1t
+        // Skip over the jump, and the nop in the branch's own delay slot
+        words.add(word(inverted | (this.delaySlots ? 2 : 1)));
+        if (this.delaySlots) words.add(word(0));
+        words.add(new Word(0x02 << 26, Fixup.JUMP, branch.label));
+    }
+
+    private int resolve(String label, int line) {
+        Integer address = this.symbols.get(label);
+        if (address == null) throw new IllegalArgumentException(String.format("Undefined label '%s' at line %d", label, line));
+        return address;
+    }
+
+    /**
+     * Returns the branch offset in words from the instruction at address, or null if it is out of range
+     */
+    private Integer branchOffset(String label, int address, int line) {
+        int offset = (this.resolve(label, line) - address - 4) >> 2;
+        return fitsSigned(offset) ? offset : null;
+    }
+
+    private int encode(Word word, int address, int line) {
+        if (word.fixup == Fixup.NONE) return word.bits;
+        int target = this.resolve(word.label, line);
+        switch (word.fixup) {
+            case BRANCH:
+                return word.bits | (this.branchOffset(word.label, address, line) & 0xffff);
+            case JUMP:
+                if (((address + 4) & 0xf0000000) != (target & 0xf0000000))
+                    throw new IllegalArgumentException(String.format("Jump to '%s' leaves its region at line %d", word.label, line));
+                return word.bits | ((target >>> 2) & 0x03ffffff);
+            case HIGH:
+                return word.bits | (target >>> 16);
+            case HIGH_ADJUSTED:
+                return word.bits | (((target + 0x8000) >>> 16) & 0xffff);
+            default:
+                return word.bits | (target & 0xffff);
+        }
+    }
+
+    private void parse(List<String> program) {
+        ArrayList<String> pendingLabels = new ArrayList<>();
+        boolean inData = false;
+
+        for (int i = 0; i < program.size(); i++) {
+            int line = i + 1;
+            String text = program.get(i);
+            int comment = text.indexOf('#');
+            if (comment != -1) text = text.substring(0, comment);
+            text = text.strip();
+            if (text.isEmpty()) continue;
+
+            int colon = text.indexOf(':');
+            if (colon != -1 && !text.substring(0, colon).contains(" ")) {
+                String label = text.substring(0, colon);
+                if (this.symbols.containsKey(label) || pendingLabels.contains(label))
+                    throw new IllegalArgumentException(String.format("Duplicate label '%s' at line %d", label, line));
+                if (inData) {
+                    int address = DATA_BASE + this.data.size() * 4;
+                    this.symbols.put(label, address);
+                    this.dataLabels.computeIfAbsent(address, k -> new ArrayList<>()).add(label);
+                } else {
+                    pendingLabels.add(label);
+                }
+                text = text.substring(colon + 1).strip();
+                if (text.isEmpty()) continue;
+            }
+
+            if (text.startsWith(".")) {
+                String[] parts = text.split("\\s+", 2);
+                switch (parts[0]) {
+                    case ".text":
+                        inData = false;
+                        break;
+                    case ".data":
+                        inData = true;
+                        break;
+                    case ".word":
+                        for (String value: splitOperands(parts[1])) this.data.add(parseImmediate(value, line));
+                        break;
+                    case ".float":
+                        for (String value: splitOperands(parts[1])) this.data.add(Float.floatToRawIntBits(Float.parseFloat(value)));
+                        break;
+                    case ".space":
+                        int words = (parseImmediate(parts[1].strip(), line) + 3) / 4;
+                        for (int w = 0; w < words; w++) this.data.add(0);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(String.format("Unsupported directive '%s' at line %d", parts[0], line));
+                }
+                continue;
+            }
+            if (inData) throw new IllegalArgumentException(String.format("Instruction in the data segment at line %d", line));
+
+            int space = text.indexOf(' ');
+            String operation = space == -1 ? text : text.substring(0, space);
+            String[] operands = splitOperands(space == -1 ? "" : text.substring(space + 1).strip());
+            this.source.add(new SourceInstruction(operation, operands, text, line, pendingLabels));
+            pendingLabels = new ArrayList<>();
+        }
+
+        // Labels after the last instruction
+        if (!pendingLabels.isEmpty()) this.source.add(new SourceInstruction(null, new String[0], null, program.size(), pendingLabels));
+    }
+
+    /**
+     * Lays out the text segment, relaxing branches until every one reaches its target
+     */
+    private void layOut() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            this.passes++;
+            int address = TEXT_BASE;
+            for (SourceInstruction instruction: this.source) {
+                instruction.address = address;
+                for (String label: instruction.labels) this.symbols.put(label, address);
+                instruction.words = instruction.operation == null ? new ArrayList<>() : this.expand(instruction);
+                address += instruction.words.size() * 4;
+            }
+
+            for (SourceInstruction instruction: this.source) {
+                if (instruction.relaxed) continue;
+                for (int i = 0; i < instruction.words.size(); i++) {
+                    Word word = instruction.words.get(i);
+                    if (word.fixup != Fixup.BRANCH) continue;
+                    if (this.branchOffset(word.label, instruction.address + i * 4, instruction.line) == null) {
+                        instruction.relaxed = true;
+                        this.relaxedBranches++;
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    public void assemble(List<String> program) {
+        this.parse(program);
+        this.layOut();
+
+        ArrayList<Integer> words = new ArrayList<>();
+        for (SourceInstruction instruction: this.source) {
+            if (instruction.words.size() > 1) this.expandedInstructions++;
+            for (Word word: instruction.words)
+                words.add(this.encode(word, TEXT_BASE + words.size() * 4, instruction.line));
+        }
+        this.passes++;
+
+        this.text = new int[words.size()];
+        for (int i = 0; i < this.text.length; i++) this.text[i] = words.get(i);
+    }
+
+    /**
+     * Writes one word per line as eight hex digits, like the MARS hexadecimal text dump
+     */
+    public static void writeHex(PrintStream ps, int[] words) {
+        for (int word: words) ps.println(String.format("%08x", word));
+    }
+
+    /**
+     * Writes the words little-endian, like the MARS binary dump
+     */
+    public static void writeBinary(PrintStream ps, int[] words) {
+        for (int word: words)
+            for (int i = 0; i < 4; i++) ps.write((word >>> (i * 8)) & 0xff);
+        ps.flush();
+    }
+
+    /**
+     * Writes every word with its address, its disassembly and the source line it came from
+     */
+    public void writeListing(PrintStream ps) {
+        HashMap<Integer, String> labels = new HashMap<>();
+        for (SourceInstruction instruction: this.source)
+            if (!instruction.labels.isEmpty()) labels.put(instruction.address, instruction.labels.get(0));
+
+        ps.println(".text");
+        int index = 0;
+        for (SourceInstruction instruction: this.source) {
+            for (String label: instruction.labels) ps.println(label + ":");
+            for (int i = 0; i < instruction.words.size(); i++, index++) {
+                int address = TEXT_BASE + index * 4;
+                String disassembly = MIPSDisassembler.disassemble(this.text[index], address, labels);
+                if (i == 0) ps.println(String.format("    0x%08x  %08x  %-36s # %s", address, this.text[index], disassembly, instruction.text));
+                else ps.println(String.format("    0x%08x  %08x  %s", address, this.text[index], disassembly));
+            }
+        }
+
+        if (this.data.isEmpty()) return;
+        ps.println(".data");
+        for (int i = 0; i < this.data.size(); i++) {
+            int address = DATA_BASE + i * 4;
+            for (String label: this.dataLabels.getOrDefault(address, new ArrayList<>())) ps.println(label + ":");
+            ps.println(String.format("    0x%08x  %08x", address, this.data.get(i)));
+        }
+    }
+
+    public void printStatistics(PrintStream ps) {
+        int instructions = 0;
+        for (SourceInstruction instruction: this.source) if (instruction.operation != null) instructions++;
+        ps.println(String.format("Assembled %d instructions into %d text words and %d data words in %d passes",
+                instructions, this.text.length, this.data.size(), this.passes));
+        ps.println(String.format("    expanded: %d, relaxed branches: %d", this.expandedInstructions, this.relaxedBranches));
+    }
+}
@@ -0,0 +1,133 @@
+package compilation;
+
+import java.util.Map;
+
+/**
+ * Decodes the machine words MIPSAssembler produces back into assembly, one word at a time, so a listing
+ * shows exactly what was encoded. Pseudo-instructions come back as the instructions they expanded to, and
+ * branch and jump targets are named by label when one is known at that address.
+ */
+public class MIPSDisassembler {
+    private static final String[] registerNames = {
+            "$zero", "$at", "$v0", "$v1", "$a0", "$a1", "$a2", "$a3",
+            "$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7",
+            "$s0", "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7",
+            "$t8", "$t9", "$k0", "$k1", "$gp", "$sp", "$fp", "$ra"
+    };
+    private static final String[] registerFunctions = new String[64];
+    private static final String[] immediateOperations = new String[64];
+    private static final String[] floatFunctions = new String[64];
+
+    static {
+        String[] functions = {"add", "addu", "sub", "subu", "and", "or", "xor", "nor", null, null, "slt", "sltu"};
+        System.arraycopy(functions, 0, registerFunctions, 0x20, functions.length);
+        registerFunctions[0x0a] = "movz";
+        registerFunctions[0x0b] = "movn";
+
+        String[] opcodes = {"addi", "addiu", "slti", "sltiu", "andi", "ori", "xori"};
+        System.arraycopy(opcodes, 0, immediateOperations, 0x08, opcodes.length);
+
+        floatFunctions[0x00] = "add.s";
+        floatFunctions[0x01] = "sub.s";
+        floatFunctions[0x02] = "mul.s";
+        floatFunctions[0x03] = "div.s";
+        floatFunctions[0x06] = "mov.s";
+        floatFunctions[0x07] = "neg.s";
+        floatFunctions[0x24] = "cvt.w.s";
+        floatFunctions[0x32] = "c.eq.s";
+        floatFunctions[0x3c] = "c.lt.s";
+        floatFunctions[0x3e] = "c.le.s";
+    }
+
+    private static String target(int address, Map<Integer, String> labels) {
+        if (labels != null && labels.containsKey(address)) return labels.get(address);
+        return String.format("0x%08x", address);
+    }
+
+    private static String unknown(int word) {
+        return String.format(".word 0x%08x", word);
+    }
+
+    /**
+     * Returns the assembly for the word at address, or a .word directive if it is not an instruction the
+     * assembler emits. labels may be null.
+     */
+    public static String disassemble(int word, int address, Map<Integer, String> labels) {
+        int opcode = word >>> 26;
+        String rs = registerNames[(word >>> 21) & 0x1f];
+        String rt = registerNames[(word >>> 16) & 0x1f];
+        String rd = registerNames[(word >>> 11) & 0x1f];
+        int shamt = (word >>> 6) & 0x1f;
+        int function = word & 0x3f;
+        int immediate = (short) word;
+        String branchTarget = target(address + 4 + (immediate << 2), labels);
+
+        switch (opcode) {
+            case 0x00:
+                if (word == 0) return "nop";
+                switch (function) {
+                    case 0x00: return String.format("sll %s, %s, %d", rd, rt, shamt);
+                    case 0x02: return String.format("srl %s, %s, %d", rd, rt, shamt);
+                    case 0x03: return String.format("sra %s, %s, %d", rd, rt, shamt);
+                    case 0x04: return String.format("sllv %s, %s, %s", rd, rt, rs);
+                    case 0x06: return String.format("srlv %s, %s, %s", rd, rt, rs);
+                    case 0x07: return String.format("srav %s, %s, %s", rd, rt, rs);
+                    case 0x08: return String.format("jr %s", rs);
+                    case 0x09: return String.format("jalr %s, %s", rd, rs);
+                    case 0x0c: return "syscall";
+                    case 0x10: return String.format("mfhi %s", rd);
+                    case 0x12: return String.format("mflo %s", rd);
+                    case 0x18: return String.format("mult %s, %s", rs, rt);
+                    case 0x19: return String.format("multu %s, %s", rs, rt);
+                    case 0x1a: return String.format("div %s, %s", rs, rt);
+                    case 0x1b: return String.format("divu %s, %s", rs, rt);
+                    default:
+                        if (registerFunctions[function] == null) return unknown(word);
+                        return String.format("%s %s, %s, %s", registerFunctions[function], rd, rs, rt);
+                }
+            case 0x01:
+                if ((word >>> 16 & 0x1f) > 1) return unknown(word);
+                return String.format("%s %s, %s", (word >>> 16 & 1) == 0 ? "bltz" : "bgez", rs, branchTarget);
+            case 0x02:
+            case 0x03:
+                int jumpTarget = ((address + 4) & 0xf0000000) | ((word & 0x03ffffff) << 2);
+                return String.format("%s %s", opcode == 0x02 ? "j" : "jal", target(jumpTarget, labels));
+            case 0x04:
+            case 0x05:
+                return String.format("%s %s, %s, %s", opcode == 0x04 ? "beq" : "bne", rs, rt, branchTarget);
+            case 0x06:
+            case 0x07:
+                return String.format("%s %s, %s", opcode == 0x06 ? "blez" : "bgtz", rs, branchTarget);
+            case 0x0f:
+                return String.format("lui %s, 0x%04x", rt, word & 0xffff);
+            case 0x11: {
+                int format = (word >>> 21) & 0x1f;
+                String ft = "$f" + ((word >>> 16) & 0x1f);
+                String fs = "$f" + ((word >>> 11) & 0x1f);
+                String fd = "$f" + shamt;
+                if (format == 0x00 || format == 0x04) return String.format("%s %s, %s", format == 0 ? "mfc1" : "mtc1", rt, fs);
+                if (format == 0x08) return String.format("%s %s", (word >>> 16 & 1) == 0 ? "bc1f" : "bc1t", branchTarget);
+                if (format == 0x14 && function == 0x20) return String.format("cvt.s.w %s, %s", fd, fs);
+                if (format != 0x10 || floatFunctions[function] == null) return unknown(word);
+                String operation = floatFunctions[function];
+                if (operation.startsWith("c.")) return String.format("%s %s, %s", operation, fs, ft);
+                if (function >= 0x06) return String.format("%s %s, %s", operation, fd, fs);
+                return String.format("%s %s, %s, %s", operation, fd, fs, ft);
+            }
+            case 0x1c:
+                if (function != 0x02) return unknown(word);
+                return String.format("mul %s, %s, %s", rd, rs, rt);
+            case 0x23:
+            case 0x2b:
+                return String.format("%s %s, %d(%s)", opcode == 0x23 ? "lw" : "sw", rt, immediate, rs);
+            case 0x31:
+            case 0x39:
+                return String.format("%s $f%d, %d(%s)", opcode == 0x31 ? "lwc1" : "swc1", (word >>> 16) & 0x1f, immediate, rs);
+            default:
+                if (immediateOperations[opcode] == null) return unknown(word);
+                // andi, ori and xori zero-extend their immediates
+                int value = opcode >= 0x0c ? word & 0xffff : immediate;
+                return String.format("%s %s, %s, %d", immediateOperations[opcode], rt, rs, value);
+        }
+    }
+}
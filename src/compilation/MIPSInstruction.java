@@ -0,0 +1,324 @@
+package compilation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+public class MIPSInstruction {
+    public final String operation;
+    public final String label;
+    public final ArrayList<String> operands;
+    public final ArrayList<Integer> offsets;
+    private final String text;
+
+    private static final HashSet<String> noDefInstructions = new HashSet<>();
+    private static final HashSet<String> conditionalBranches = new HashSet<>();
+    private static final HashSet<String> unconditionalBranches = new HashSet<>();
+    private static final HashSet<String> pureInstructions = new HashSet<>();
+    private static final HashSet<String> floatInstructions = new HashSet<>();
+
+    static {
+        noDefInstructions.addAll(Arrays.asList(
+                "sw", "swc1", "s.s", "jr", "jal", "jalr", "j", "b", "syscall", "nop", "mult", "multu",
+                "mtc1", "c.eq.s", "c.lt.s", "c.le.s", "bc1t", "bc1f"
+        ));
+
+        conditionalBranches.addAll(Arrays.asList(
+                "beq", "bne", "bge", "bgt", "ble", "blt", "beqz", "bnez", "bgez", "bgtz", "blez", "bltz", "bc1t", "bc1f"
+        ));
+        noDefInstructions.addAll(conditionalBranches);
+        unconditionalBranches.add("j");
+        unconditionalBranches.add("b");
+
+        pureInstructions.addAll(Arrays.asList(
+                "add", "addu", "addi", "addiu", "sub", "subu", "mul", "and", "andi", "or", "ori", "xor", "xori", "nor",
+                "sll", "srl", "sra", "sllv", "srlv", "srav", "slt", "slti", "sltu", "sltiu", "li", "la", "lui",
+                "move", "neg", "negu", "lw", "mfhi", "mflo", "movn", "movz", "lwc1", "l.s", "mov.s", "neg.s",
+                "add.s", "sub.s", "mul.s", "div.s", "mfc1", "cvt.s.w", "cvt.w.s"
+        ));
+
+        floatInstructions.addAll(Arrays.asList(
+                "add.s", "sub.s", "mul.s", "div.s", "mov.s", "neg.s", "c.eq.s", "c.lt.s", "c.le.s", "cvt.s.w", "cvt.w.s"
+        ));
+    }
+
+    private MIPSInstruction(String operation, String label, ArrayList<String> operands, ArrayList<Integer> offsets, String text) {
+        this.operation = operation;
+        this.label = label;
+        this.operands = operands;
+        this.offsets = offsets;
+        this.text = text;
+    }
+
+    public MIPSInstruction(String operation, List<String> operands, List<Integer> offsets) {
+        this(operation, null, new ArrayList<>(operands), new ArrayList<>(offsets), null);
+    }
+
+    public static MIPSInstruction parse(String instruction) {
+        String line = instruction.strip();
+        if (line.endsWith(":")) return new MIPSInstruction(null, line.substring(0, line.length() - 1), new ArrayList<>(), new ArrayList<>(), line);
+        if (line.startsWith(".")) return new MIPSInstruction(null, null, new ArrayList<>(), new ArrayList<>(), line);
+
+        int spacePos = line.indexOf(' ');
+        if (spacePos == -1) return new MIPSInstruction(line, null, new ArrayList<>(), new ArrayList<>(), null);
+
+        ArrayList<String> operands = new ArrayList<>();
+        ArrayList<Integer> offsets = new ArrayList<>();
+        for (String operand: line.substring(spacePos + 1).split(",")) {
+            operand = operand.strip();
+            Integer offset = null;
+            int pos = operand.indexOf('(');
+            if (pos != -1) {
+                offset = Integer.parseInt(operand.substring(0, pos).strip());
+                operand = operand.substring(pos + 1, operand.indexOf(')'));
+            }
+            operands.add(operand);
+            offsets.add(offset);
+        }
+
+        return new MIPSInstruction(line.substring(0, spacePos), null, operands, offsets, null);
+    }
+
+    public static ArrayList<MIPSInstruction> parseAll(List<String> instructions) {
+        ArrayList<MIPSInstruction> parsed = new ArrayList<>(instructions.size());
+        for (String instruction: instructions) parsed.add(parse(instruction));
+        return parsed;
+    }
+
+    public static ArrayList<String> toStrings(List<MIPSInstruction> instructions) {
+        ArrayList<String> strings = new ArrayList<>(instructions.size());
+        for (MIPSInstruction instruction: instructions) strings.add(instruction.toString());
+        return strings;
+    }
+
+    /**
+     * True if operand i of the operation names a coprocessor 1 register
+     */
+    public static boolean isFloatOperand(String operation, int i) {
+        if (operation == null) return false;
+        if (floatInstructions.contains(operation)) return true;
+        switch (operation) {
+            case "lwc1":
+            case "swc1":
+            case "l.s":
+            case "s.s":
+                return i == 0;
+            case "mtc1":
+            case "mfc1":
+                return i == 1;
+            default:
+                return false;
+        }
+    }
+
+    public static boolean isRegister(String operand) {
+        return operand.startsWith("$");
+    }
+
+    public boolean isLabel() {
+        return this.label != null;
+    }
+
+    public boolean isDirective() {
+        return this.operation == null && this.label == null;
+    }
+
+    public boolean isConditionalBranch() {
+        return conditionalBranches.contains(this.operation);
+    }
+
+    public boolean isUnconditionalBranch() {
+        if (unconditionalBranches.contains(this.operation)) return true;
+        return "beq".equals(this.operation) && this.operands.get(0).equals(this.operands.get(1));
+    }
+
+    public boolean isBranch() {
+        return this.isConditionalBranch() || unconditionalBranches.contains(this.operation);
+    }
+
+    public boolean isCall() {
+        return "jal".equals(this.operation) || "jalr".equals(this.operation);
+    }
+
+    public boolean isReturn() {
+        return "jr".equals(this.operation);
+    }
+
+    public boolean isSyscall() {
+        return "syscall".equals(this.operation);
+    }
+
+    /**
+     * True for instructions that end straight-line code: labels, directives, branches, jumps and calls
+     */
+    public boolean isBoundary() {
+        return this.operation == null || this.isBranch() || this.isCall() || this.isReturn();
+    }
+
+    public boolean isLoad() {
+        return "lw".equals(this.operation) || "lwc1".equals(this.operation) || "l.s".equals(this.operation);
+    }
+
+    public boolean isStore() {
+        return "sw".equals(this.operation) || "swc1".equals(this.operation) || "s.s".equals(this.operation);
+    }
+
+    public boolean isMemoryAccess() {
+        return this.isLoad() || this.isStore();
+    }
+
+    /**
+     * True if removing the instruction has no effect other than not writing its definitions
+     */
+    public boolean isPure() {
+        return pureInstructions.contains(this.operation);
+    }
+
+    public String getTarget() {
+        if (!this.isBranch() && !"jal".equals(this.operation)) return null;
+        return this.operands.get(this.operands.size() - 1);
+    }
+
+    public String getMemoryBase() {
+        return this.isMemoryAccess() ? this.operands.get(1) : null;
+    }
+
+    public Integer getMemoryOffset() {
+        return this.isMemoryAccess() ? this.offsets.get(1) : null;
+    }
+
+    public Integer getImmediate(int i) {
+        if (i >= this.operands.size() || this.offsets.get(i) != null) return null;
+        try {
+            return Integer.parseInt(this.operands.get(i));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public ArrayList<String> getDefs() {
+        ArrayList<String> defs = new ArrayList<>();
+        if (this.operation == null) return defs;
+        switch (this.operation) {
+            case "jal":
+            case "jalr":
+                defs.add("$ra");
+                defs.add("$v0");
+                defs.add("$v1");
+                defs.add("$f0");
+                return defs;
+            case "mult":
+            case "multu":
+                defs.add("$hi");
+                defs.add("$lo");
+                return defs;
+            case "div":
+            case "divu":
+                if (this.operands.size() == 2) {
+                    defs.add("$hi");
+                    defs.add("$lo");
+                    return defs;
+                }
+                break;
+            case "mtc1":
+                defs.add(this.operands.get(1));
+                return defs;
+            case "c.eq.s":
+            case "c.lt.s":
+            case "c.le.s":
+                defs.add("$fcc");
+                return defs;
+            default:
+                break;
+        }
+        if (this.definesFirstOperand()) defs.add(this.operands.get(0));
+        return defs;
+    }
+
+    private boolean definesFirstOperand() {
+        if (noDefInstructions.contains(this.operation) || this.operands.isEmpty()) return false;
+        if (("div".equals(this.operation) || "divu".equals(this.operation)) && this.operands.size() == 2) return false;
+        return isRegister(this.operands.get(0));
+    }
+
+    public ArrayList<String> getUses() {
+        ArrayList<String> uses = new ArrayList<>();
+        if (this.operation == null) return uses;
+        switch (this.operation) {
+            case "syscall":
+                uses.addAll(Arrays.asList("$v0", "$a0", "$a1", "$f12"));
+                return uses;
+            case "jal":
+                uses.addAll(Arrays.asList("$a0", "$a1", "$a2", "$a3", "$f12", "$f14", "$f16", "$f18", "$sp"));
+                return uses;
+            case "jalr":
+                // The last operand holds the target, a leading one only names the link register
+                uses.add(this.operands.get(this.operands.size() - 1));
+                uses.addAll(Arrays.asList("$a0", "$a1", "$a2", "$a3", "$f12", "$f14", "$f16", "$f18", "$sp"));
+                return uses;
+            case "jr":
+                uses.addAll(Arrays.asList(this.operands.get(0), "$v0", "$v1", "$f0", "$sp"));
+                return uses;
+            case "mfhi":
+                uses.add("$hi");
+                return uses;
+            case "mflo":
+                uses.add("$lo");
+                return uses;
+            case "bc1t":
+            case "bc1f":
+                uses.add("$fcc");
+                return uses;
+            case "mtc1":
+                uses.add(this.operands.get(0));
+                return uses;
+            case "c.eq.s":
+            case "c.lt.s":
+            case "c.le.s":
+                // They only write the condition flag
+                uses.addAll(this.operands);
+                return uses;
+            default:
+                break;
+        }
+
+        // Only an instruction that writes its first operand skips it, mult and div read every register they name
+        int start = this.definesFirstOperand() ? 1 : 0;
+        // Conditional moves keep the old value when the condition fails
+        if ("movn".equals(this.operation) || "movz".equals(this.operation)) start = 0;
+        for (int i = start; i < this.operands.size(); i++) {
+            String operand = this.operands.get(i);
+            if (isRegister(operand) && !uses.contains(operand)) uses.add(operand);
+        }
+
+        return uses;
+    }
+
+    public MIPSInstruction withOperand(int i, String operand) {
+        ArrayList<String> operands = new ArrayList<>(this.operands);
+        operands.set(i, operand);
+        return new MIPSInstruction(this.operation, operands, this.offsets);
+    }
+
+    public MIPSInstruction withOffset(int i, int offset) {
+        ArrayList<Integer> offsets = new ArrayList<>(this.offsets);
+        offsets.set(i, offset);
+        return new MIPSInstruction(this.operation, this.operands, offsets);
+    }
+
+    @Override
+    public String toString() {
+        if (this.text != null) return this.text;
+        if (this.operands.isEmpty()) return this.operation;
+
+        ArrayList<String> components = new ArrayList<>();
+        for (int i = 0; i < this.operands.size(); i++) {
+            Integer offset = this.offsets.get(i);
+            if (offset != null) components.add(String.format("%d(%s)", offset, this.operands.get(i)));
+            else components.add(this.operands.get(i));
+        }
+
+        return String.format("%s %s", this.operation, String.join(", ", components));
+    }
+}
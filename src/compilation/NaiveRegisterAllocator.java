@@ -2,6 +2,7 @@ package compilation;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Arrays;
 
 public class NaiveRegisterAllocator implements RegisterAllocator {
@@ -11,6 +12,11 @@ public class NaiveRegisterAllocator implements RegisterAllocator {
     private final String[] realReg = {"$sp", "$fp", "$zero", "$ra", "$v0", "$a0", "a1", "a2", "a3"};
     private final ArrayList<String> real = new ArrayList<>(Arrays.asList(realReg));
 
+    @Override
+    public HashSet<String> getBlockLocalRegisters() {
+        return new HashSet<>(Arrays.asList("$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7", "$t8", "$t9"));
+    }
+
     @Override
     public ArrayList<String> allocate(ArrayList<String> instructions) {
         //add init for stack variables
@@ -26,15 +26,41 @@ public class NaiveRegisterAllocator2 implements RegisterAllocator {
         defInstructions.add("li");
         defInstructions.add("lw");
         defInstructions.add("move");
+        defInstructions.add("addu");
+        defInstructions.add("addiu");
+        defInstructions.add("subu");
+        defInstructions.add("sll");
+        defInstructions.add("srl");
+        defInstructions.add("sra");
+        defInstructions.add("mfhi");
+        defInstructions.add("mflo");
+        defInstructions.add("add.s");
+        defInstructions.add("sub.s");
+        defInstructions.add("mul.s");
+        defInstructions.add("div.s");
+        defInstructions.add("mov.s");
+        defInstructions.add("neg.s");
+        defInstructions.add("l.s");
+        defInstructions.add("lwc1");
+        defInstructions.add("mfc1");
+        defInstructions.add("slt");
+        defInstructions.add("movn");
+        defInstructions.add("movz");
 
         ignoreRegisterList.add("$zero");
         ignoreRegisterList.add("$v0");
+        ignoreRegisterList.add("$v1");
         ignoreRegisterList.add("$a0");
         ignoreRegisterList.add("$a1");
         ignoreRegisterList.add("$a2");
         ignoreRegisterList.add("$a3");
         ignoreRegisterList.add("$sp");
         ignoreRegisterList.add("$ra");
+        ignoreRegisterList.add("$f0");
+        ignoreRegisterList.add("$f12");
+        ignoreRegisterList.add("$f14");
+        ignoreRegisterList.add("$f16");
+        ignoreRegisterList.add("$f18");
     }
 
     public NaiveRegisterAllocator2(HashMap<String, HashMap<String, Integer>> functionOffsetMaps) {
@@ -96,6 +122,7 @@ public class NaiveRegisterAllocator2 implements RegisterAllocator {
         ArrayList<String> operands = this.getOperands(instruction, offsets);
         ArrayList<String> suffix = new ArrayList<>();
         boolean t8Used = false;
+        boolean f30Used = false;
 
         for (int i = 0; i < operands.size(); i++) {
             String op = operands.get(i);
@@ -107,10 +134,22 @@ public class NaiveRegisterAllocator2 implements RegisterAllocator {
                 instructions.add("addi $sp, $sp, -4");
             }
 
+            // Float values go through $f30 and $f31 the way integers go through $t8 and $t9
             String register;
+            boolean isFloat = MIPSInstruction.isFloatOperand(operation, i);
             if (i == 0 && defInstructions.contains(operation)) {
-                register = "$t8";
-                suffix.add(String.format("sw %s, %d($sp)", register, this.offsetMap.get(op) * 4));
+                register = isFloat ? "$f30" : "$t8";
+                suffix.add(String.format("%s %s, %d($sp)", isFloat ? "swc1" : "sw", register, this.offsetMap.get(op) * 4));
+                // A conditional move keeps the old value when its condition fails
+                if ("movn".equals(operation) || "movz".equals(operation)) {
+                    instructions.add(String.format("lw %s, %d($sp)", register, this.offsetMap.get(op) * 4));
+                    t8Used = true;
+                }
+            }
+            else if (isFloat) {
+                register = f30Used ? "$f31" : "$f30";
+                f30Used = true;
+                instructions.add(String.format("lwc1 %s, %d($sp)", register, this.offsetMap.get(op) * 4));
             }
             else if (!t8Used) {
                 t8Used = true;
@@ -125,7 +164,7 @@ public class NaiveRegisterAllocator2 implements RegisterAllocator {
             instruction = this.replaceOperand(instruction, offsets, i, register);
         }
 
-        if (instruction.equals("jr $ra"))
+        if (instruction.equals("jr $ra") || "j".equals(operation))
             instructions.add(String.format("addi $sp, $sp, %d", this.offsetMap.size() * 4));
 
         instructions.add(instruction);
@@ -134,6 +173,11 @@ public class NaiveRegisterAllocator2 implements RegisterAllocator {
         return instructions;
     }
 
+    @Override
+    public HashSet<String> getBlockLocalRegisters() {
+        return new HashSet<>(Arrays.asList("$t8", "$t9", "$f30", "$f31"));
+    }
+
     @Override
     public ArrayList<String> allocate(ArrayList<String> instructions) {
         ArrayList<String> allocatedInstructions = new ArrayList<>();
@@ -148,17 +192,17 @@ public class NaiveRegisterAllocator2 implements RegisterAllocator {
             if (!deleteStores) {
                 boolean isAdd = instruction.matches("addi \\$sp, \\$sp, -?\\d+");
                 boolean nextIsStore = i != instructions.size() - 1 &&
-                       instructions.get(i + 1).matches("sw \\$.+, \\d+\\(\\$.+\\)") && !instructions.get(i + 1).contains("$ra");
+                       instructions.get(i + 1).matches("(sw|swc1) \\$.+, \\d+\\(\\$.+\\)") && !instructions.get(i + 1).contains("$ra");
                 if (isAdd && nextIsStore){
                     deleteStores = true;
                     continue;
                 }
             }
-            if (deleteStores && instruction.matches("sw \\$.+, \\d+\\(\\$.+\\)")) continue;
+            if (deleteStores && instruction.matches("(sw|swc1) \\$.+, \\d+\\(\\$.+\\)")) continue;
             else if (deleteStores) deleteStores = false;
 
             if (deleteRestores) {
-                if (instruction.matches("lw \\$.+, \\d+\\(\\$.+\\)") && !instruction.contains("$ra")) {
+                if (instruction.matches("(lw|lwc1) \\$.+, \\d+\\(\\$.+\\)") && !instruction.contains("$ra")) {
                     matchedFirst = true;
                     continue;
                 } else if (matchedFirst && instruction.matches("addi \\$sp, \\$sp, -?\\d+")) {
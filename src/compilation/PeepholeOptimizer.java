@@ -0,0 +1,98 @@
+package compilation;
+
+import java.io.PrintStream;
+import java.util.*;
+
+public class PeepholeOptimizer {
+    private static final LinkedHashMap<String, PeepholeRule> availableRules = new LinkedHashMap<>();
+
+    private final ArrayList<PeepholeRule> rules;
+    private final HashSet<String> blockLocalRegisters;
+    public final LinkedHashMap<String, Integer> rewriteCounts = new LinkedHashMap<>();
+    private int passes = 0;
+
+    static {
+        register(new UnreachableCodeRule());
+        register(new JumpToNextRule());
+        register(new StackAdjustmentRule());
+        register(new StoreLoadForwardingRule());
+        register(new ImmediateOperandRule());
+        register(new CopyPropagationRule());
+        register(new DeadDefinitionRule());
+    }
+
+    public PeepholeOptimizer(List<PeepholeRule> rules, Set<String> blockLocalRegisters) {
+        this.rules = new ArrayList<>(rules);
+        this.blockLocalRegisters = new HashSet<>(blockLocalRegisters);
+        for (PeepholeRule rule: this.rules) this.rewriteCounts.put(rule.getName(), 0);
+    }
+
+    public static void register(PeepholeRule rule) {
+        availableRules.put(rule.getName(), rule);
+    }
+
+    public static ArrayList<PeepholeRule> getRules(Collection<String> names) {
+        if (names.isEmpty()) return new ArrayList<>(availableRules.values());
+
+        ArrayList<PeepholeRule> rules = new ArrayList<>();
+        for (String name: names) {
+            PeepholeRule rule = availableRules.get(name);
+            if (rule == null) throw new IllegalArgumentException(String.format("Unknown peephole rule '%s'", name));
+            rules.add(rule);
+        }
+
+        return rules;
+    }
+
+    /**
+     * Returns true if register is redefined before it is read again, or reaches the end of straight-line
+     * code while being one of the registers the allocator never keeps live across blocks
+     */
+    public boolean isDeadAfter(List<MIPSInstruction> instructions, int index, String register) {
+        if (register.equals("$zero") || register.equals("$sp")) return false;
+        boolean blockLocal = this.blockLocalRegisters.contains(register);
+
+        for (int i = index + 1; i < instructions.size(); i++) {
+            MIPSInstruction instruction = instructions.get(i);
+            if (instruction.operation == null) return blockLocal;
+            if (instruction.getUses().contains(register)) return false;
+            if (instruction.isCall()) return blockLocal || instruction.getDefs().contains(register);
+            if (instruction.isBoundary()) return blockLocal;
+            if (instruction.getDefs().contains(register)) return true;
+        }
+
+        return blockLocal;
+    }
+
+    public boolean isBlockLocal(String register) {
+        return this.blockLocalRegisters.contains(register);
+    }
+
+    public ArrayList<String> optimize(ArrayList<String> instructions) {
+        ArrayList<MIPSInstruction> parsed = MIPSInstruction.parseAll(instructions);
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            this.passes++;
+            for (PeepholeRule rule: this.rules) {
+                int count = 0;
+                for (int i = 0; i < parsed.size(); i++) {
+                    while (i < parsed.size() && rule.apply(parsed, i, this)) count++;
+                }
+                if (count > 0) {
+                    this.rewriteCounts.put(rule.getName(), this.rewriteCounts.get(rule.getName()) + count);
+                    changed = true;
+                }
+            }
+        }
+
+        return MIPSInstruction.toStrings(parsed);
+    }
+
+    public void printStatistics(PrintStream ps) {
+        ps.println(String.format("Peephole optimization (%d passes):", this.passes));
+        for (Map.Entry<String, Integer> entry: this.rewriteCounts.entrySet())
+            ps.println(String.format("    %s: %d", entry.getKey(), entry.getValue()));
+    }
+}
@@ -0,0 +1,12 @@
+package compilation;
+
+import java.util.ArrayList;
+
+public interface PeepholeRule {
+    String getName();
+
+    /**
+     * Tries to rewrite the instructions starting at index, returning true if anything changed
+     */
+    boolean apply(ArrayList<MIPSInstruction> instructions, int index, PeepholeOptimizer optimizer);
+}
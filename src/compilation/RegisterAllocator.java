@@ -1,7 +1,13 @@
 package compilation;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 
 public interface RegisterAllocator {
     ArrayList<String> allocate(ArrayList<String> instructions);
+
+    /**
+     * Physical registers the allocator only uses within a basic block, so their values never reach a label
+     */
+    HashSet<String> getBlockLocalRegisters();
 }
@@ -0,0 +1,49 @@
+package compilation;
+
+import java.util.ArrayList;
+
+public class StackAdjustmentRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "stack-adjustment";
+    }
+
+    private Integer getAdjustment(MIPSInstruction instruction) {
+        if (!"addi".equals(instruction.operation) && !"addiu".equals(instruction.operation)) return null;
+        if (!instruction.operands.get(0).equals("$sp") || !instruction.operands.get(1).equals("$sp")) return null;
+        return instruction.getImmediate(2);
+    }
+
+    @Override
+    public boolean apply(ArrayList<MIPSInstruction> instructions, int index, PeepholeOptimizer optimizer) {
+        Integer adjustment = this.getAdjustment(instructions.get(index));
+        if (adjustment == null) return false;
+
+        // Sink the adjustment through $sp-relative accesses until it meets the next one
+        for (int i = index + 1; i < instructions.size(); i++) {
+            MIPSInstruction instruction = instructions.get(i);
+            Integer next = this.getAdjustment(instruction);
+            if (next != null) {
+                for (int j = index + 1; j < i; j++) {
+                    MIPSInstruction access = instructions.get(j);
+                    if ("$sp".equals(access.getMemoryBase()))
+                        instructions.set(j, access.withOffset(1, access.getMemoryOffset() + adjustment));
+                }
+                int total = adjustment + next;
+                if (total == 0) instructions.remove(i);
+                else instructions.set(i, instruction.withOperand(2, Integer.toString(total)));
+                instructions.remove(index);
+                return true;
+            }
+
+            if (instruction.operation == null || instruction.isBoundary()) return false;
+            if (instruction.getDefs().contains("$sp")) return false;
+            if (instruction.getUses().contains("$sp")) {
+                boolean baseOnly = "$sp".equals(instruction.getMemoryBase()) && !instruction.operands.get(0).equals("$sp");
+                if (!baseOnly) return false;
+            }
+        }
+
+        return false;
+    }
+}
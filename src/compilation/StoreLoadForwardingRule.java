@@ -0,0 +1,118 @@
+package compilation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class StoreLoadForwardingRule implements PeepholeRule {
+    private static final List<String> storeOperations = Arrays.asList("sw", "swc1", "s.s");
+    private static final List<String> loadOperations = Arrays.asList("lw", "lwc1", "l.s");
+    private static final List<String> moveOperations = Arrays.asList("move", "mov.s", "mov.s");
+
+    @Override
+    public String getName() {
+        return "store-load";
+    }
+
+    private boolean sameSlot(MIPSInstruction a, MIPSInstruction b) {
+        return a.getMemoryBase().equals(b.getMemoryBase()) && a.getMemoryOffset().equals(b.getMemoryOffset());
+    }
+
+    @Override
+    public boolean apply(ArrayList<MIPSInstruction> instructions, int index, PeepholeOptimizer optimizer) {
+        MIPSInstruction instruction = instructions.get(index);
+        if (instruction.isStore()) return this.forwardStore(instructions, index);
+        if (instruction.isLoad()) return this.removeReloadedStore(instructions, index);
+        return false;
+    }
+
+    /**
+     * Replaces a later load of a stored slot with a register copy, or drops the store if the slot is
+     * overwritten before anything can read it
+     */
+    private boolean forwardStore(ArrayList<MIPSInstruction> instructions, int index) {
+        MIPSInstruction store = instructions.get(index);
+        int kind = storeOperations.indexOf(store.operation);
+        String value = store.operands.get(0);
+        String base = store.getMemoryBase();
+
+        Integer constant = null;
+        if (index > 0 && kind == 0) {
+            MIPSInstruction previous = instructions.get(index - 1);
+            if ("li".equals(previous.operation) && previous.operands.get(0).equals(value))
+                constant = previous.getImmediate(1);
+        }
+
+        boolean valueAvailable = true;
+        boolean unknownLoad = false;
+        for (int i = index + 1; i < instructions.size(); i++) {
+            MIPSInstruction instruction = instructions.get(i);
+            if (instruction.operation == null || instruction.isBoundary() || instruction.isSyscall()) return false;
+
+            if (instruction.isStore()) {
+                if (!instruction.getMemoryBase().equals(base)) return false;
+                if (this.sameSlot(store, instruction)) {
+                    if (unknownLoad) return false;
+                    instructions.remove(index);
+                    return true;
+                }
+            } else if (instruction.isLoad()) {
+                if (!instruction.getMemoryBase().equals(base)) unknownLoad = true;
+                else if (this.sameSlot(store, instruction)) {
+                    if (loadOperations.indexOf(instruction.operation) != kind) return false;
+                    String destination = instruction.operands.get(0);
+                    if (valueAvailable && destination.equals(value)) {
+                        instructions.remove(i);
+                    } else if (valueAvailable) {
+                        instructions.set(i, new MIPSInstruction(moveOperations.get(kind),
+                                Arrays.asList(destination, value), Arrays.asList(null, null)));
+                    } else if (constant != null) {
+                        instructions.set(i, new MIPSInstruction("li",
+                                Arrays.asList(destination, Integer.toString(constant)), Arrays.asList(null, null)));
+                    } else return false;
+                    return true;
+                }
+            }
+
+            ArrayList<String> defs = instruction.getDefs();
+            if (defs.contains(base)) return false;
+            if (defs.contains(value)) {
+                valueAvailable = false;
+                if (constant == null) return false;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes a store that writes back the value just loaded from the same slot
+     */
+    private boolean removeReloadedStore(ArrayList<MIPSInstruction> instructions, int index) {
+        MIPSInstruction load = instructions.get(index);
+        int kind = loadOperations.indexOf(load.operation);
+        String value = load.operands.get(0);
+        String base = load.getMemoryBase();
+        if (value.equals(base)) return false;
+
+        for (int i = index + 1; i < instructions.size(); i++) {
+            MIPSInstruction instruction = instructions.get(i);
+            if (instruction.operation == null || instruction.isBoundary() || instruction.isSyscall()) return false;
+
+            if (instruction.isStore()) {
+                if (!instruction.getMemoryBase().equals(base)) return false;
+                if (this.sameSlot(load, instruction)) {
+                    if (storeOperations.indexOf(instruction.operation) != kind || !instruction.operands.get(0).equals(value))
+                        return false;
+                    instructions.remove(i);
+                    return true;
+                }
+            }
+
+            ArrayList<String> defs = instruction.getDefs();
+            if (defs.contains(base) || defs.contains(value)) return false;
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,23 @@
+package compilation;
+
+import java.util.ArrayList;
+
+public class UnreachableCodeRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "unreachable-code";
+    }
+
+    @Override
+    public boolean apply(ArrayList<MIPSInstruction> instructions, int index, PeepholeOptimizer optimizer) {
+        MIPSInstruction instruction = instructions.get(index);
+        if (!instruction.isUnconditionalBranch() && !instruction.isReturn()) return false;
+
+        int end = index + 1;
+        while (end < instructions.size() && instructions.get(end).operation != null) end++;
+        if (end == index + 1) return false;
+
+        instructions.subList(index + 1, end).clear();
+        return true;
+    }
+}
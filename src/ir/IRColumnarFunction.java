@@ -0,0 +1,254 @@
+package ir;
+
+import ir.datatype.IRFloatType;
+import ir.datatype.IRType;
+import ir.operand.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A struct-of-arrays copy of an IRFunction for analyses over very large functions.
+ * Opcodes live in a byte array and the operands of instruction i are the encoded ids
+ * operands[operandStart[i]] .. operands[operandStart[i + 1] - 1]. An encoded id keeps its
+ * operand kind in the low two bits and an index into the matching side table in the rest.
+ */
+public class IRColumnarFunction {
+
+    public static final int VARIABLE = 0;
+    public static final int CONSTANT = 1;
+    public static final int LABEL = 2;
+    public static final int FUNCTION = 3;
+
+    private static final IRInstruction.OpCode[] opCodeValues = IRInstruction.OpCode.values();
+
+    public final String name;
+
+    public final IRType returnType;
+
+    public final byte[] opCodes;
+
+    public final int[] operandStart;
+
+    public final int[] operands;
+
+    public final int[] lineNumbers;
+
+    // Side tables indexed by the upper bits of an encoded operand
+    public final IRVariableOperand[] variables;
+
+    public final int[] parameters;
+
+    public final String[] constantStrings;
+
+    public final IRType[] constantTypes;
+
+    // Integer value, or the raw bits of a float constant
+    public final int[] constantValues;
+
+    public final String[] labels;
+
+    // Instruction index of each label definition
+    public final int[] labelTargets;
+
+    public final String[] functions;
+
+    private IRColumnarFunction(String name, IRType returnType, byte[] opCodes, int[] operandStart, int[] operands,
+                               int[] lineNumbers, IRVariableOperand[] variables, int[] parameters,
+                               String[] constantStrings, IRType[] constantTypes, int[] constantValues,
+                               String[] labels, int[] labelTargets, String[] functions) {
+        this.name = name;
+        this.returnType = returnType;
+        this.opCodes = opCodes;
+        this.operandStart = operandStart;
+        this.operands = operands;
+        this.lineNumbers = lineNumbers;
+        this.variables = variables;
+        this.parameters = parameters;
+        this.constantStrings = constantStrings;
+        this.constantTypes = constantTypes;
+        this.constantValues = constantValues;
+        this.labels = labels;
+        this.labelTargets = labelTargets;
+        this.functions = functions;
+    }
+
+    public static int kind(int operand) {
+        return operand & 3;
+    }
+
+    public static int index(int operand) {
+        return operand >>> 2;
+    }
+
+    private static int encode(int kind, int index) {
+        return (index << 2) | kind;
+    }
+
+    public int size() {
+        return this.opCodes.length;
+    }
+
+    public IRInstruction.OpCode opCode(int i) {
+        return opCodeValues[this.opCodes[i]];
+    }
+
+    public int operandCount(int i) {
+        return this.operandStart[i + 1] - this.operandStart[i];
+    }
+
+    public int operand(int i, int k) {
+        return this.operands[this.operandStart[i] + k];
+    }
+
+    /**
+     * Returns the index of the variable written by instruction i, or -1 if it writes none
+     */
+    public int definedVariable(int i) {
+        switch (opCodeValues[this.opCodes[i]]) {
+            case ASSIGN:
+                // An array fill writes memory, not the variable
+                return this.operandCount(i) == 3 ? -1 : index(this.operands[this.operandStart[i]]);
+            case ADD:
+            case SUB:
+            case MULT:
+            case DIV:
+            case AND:
+            case OR:
+            case CALLR:
+            case ARRAY_LOAD:
+                return index(this.operands[this.operandStart[i]]);
+            default:
+                return -1;
+        }
+    }
+
+    public float floatConstant(int operand) {
+        return Float.intBitsToFloat(this.constantValues[index(operand)]);
+    }
+
+    public int intConstant(int operand) {
+        return this.constantValues[index(operand)];
+    }
+
+    public static IRColumnarFunction fromFunction(IRFunction function) {
+        HashMap<String, Integer> variableIds = new HashMap<>();
+        HashMap<String, Integer> constantIds = new HashMap<>();
+        HashMap<String, Integer> labelIds = new HashMap<>();
+        HashMap<String, Integer> functionIds = new HashMap<>();
+        ArrayList<String> constantStrings = new ArrayList<>();
+        ArrayList<IRType> constantTypes = new ArrayList<>();
+        ArrayList<String> labels = new ArrayList<>();
+        ArrayList<String> functions = new ArrayList<>();
+
+        IRVariableOperand[] variables = function.variables.toArray(new IRVariableOperand[0]);
+        for (int v = 0; v < variables.length; v++) variableIds.put(variables[v].getName(), v);
+        int[] parameters = new int[function.parameters.size()];
+        for (int p = 0; p < parameters.length; p++)
+            parameters[p] = variableIds.get(function.parameters.get(p).getName());
+
+        int n = function.instructions.size();
+        byte[] opCodes = new byte[n];
+        int[] operandStart = new int[n + 1];
+        int[] lineNumbers = new int[n];
+        int total = 0;
+        for (IRInstruction instruction : function.instructions) total += instruction.operands.length;
+        int[] operands = new int[total];
+
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            IRInstruction instruction = function.instructions.get(i);
+            opCodes[i] = (byte) instruction.opCode.ordinal();
+            lineNumbers[i] = instruction.irLineNumber;
+            operandStart[i] = k;
+            for (IROperand operand : instruction.operands) {
+                String value = operand.toString();
+                if (operand instanceof IRVariableOperand) {
+                    operands[k++] = encode(VARIABLE, variableIds.get(value));
+                } else if (operand instanceof IRConstantOperand) {
+                    IRType type = ((IRConstantOperand) operand).type;
+                    String key = type + " " + value;
+                    Integer id = constantIds.get(key);
+                    if (id == null) {
+                        id = constantStrings.size();
+                        constantIds.put(key, id);
+                        constantStrings.add(value);
+                        constantTypes.add(type);
+                    }
+                    operands[k++] = encode(CONSTANT, id);
+                } else if (operand instanceof IRLabelOperand) {
+                    operands[k++] = encode(LABEL, labelIds.computeIfAbsent(value, l -> {
+                        labels.add(l);
+                        return labels.size() - 1;
+                    }));
+                } else {
+                    operands[k++] = encode(FUNCTION, functionIds.computeIfAbsent(value, f -> {
+                        functions.add(f);
+                        return functions.size() - 1;
+                    }));
+                }
+            }
+        }
+        operandStart[n] = k;
+
+        int[] constantValues = new int[constantStrings.size()];
+        for (int c = 0; c < constantValues.length; c++) {
+            String value = constantStrings.get(c);
+            if (constantTypes.get(c) == IRFloatType.get())
+                constantValues[c] = Float.floatToRawIntBits(Float.parseFloat(value));
+            else
+                constantValues[c] = Integer.parseInt(value);
+        }
+
+        int[] labelTargets = new int[labels.size()];
+        Arrays.fill(labelTargets, -1);
+        for (int i = 0; i < n; i++)
+            if (opCodes[i] == IRInstruction.OpCode.LABEL.ordinal())
+                labelTargets[index(operands[operandStart[i]])] = i;
+
+        return new IRColumnarFunction(function.name, function.returnType, opCodes, operandStart, operands,
+                lineNumbers, variables, parameters, constantStrings.toArray(new String[0]),
+                constantTypes.toArray(new IRType[0]), constantValues, labels.toArray(new String[0]),
+                labelTargets, functions.toArray(new String[0]));
+    }
+
+    public IRFunction toFunction() {
+        List<IRVariableOperand> variables = new ArrayList<>(Arrays.asList(this.variables));
+        List<IRVariableOperand> parameters = new ArrayList<>();
+        for (int p : this.parameters) parameters.add(this.variables[p]);
+
+        List<IRInstruction> instructions = new ArrayList<>(this.opCodes.length);
+        for (int i = 0; i < this.opCodes.length; i++) {
+            IRInstruction instruction = new IRInstruction();
+            instruction.opCode = opCodeValues[this.opCodes[i]];
+            instruction.irLineNumber = this.lineNumbers[i];
+            IROperand[] operands = new IROperand[this.operandCount(i)];
+            for (int k = 0; k < operands.length; k++) {
+                int operand = this.operand(i, k);
+                int index = index(operand);
+                switch (kind(operand)) {
+                    case VARIABLE:
+                        IRVariableOperand variable = this.variables[index];
+                        operands[k] = new IRVariableOperand(variable.type, variable.getName(), instruction);
+                        break;
+                    case CONSTANT:
+                        operands[k] = new IRConstantOperand(this.constantTypes[index], this.constantStrings[index], instruction);
+                        break;
+                    case LABEL:
+                        operands[k] = new IRLabelOperand(this.labels[index], instruction);
+                        break;
+                    default:
+                        operands[k] = new IRFunctionOperand(this.functions[index], instruction);
+                        break;
+                }
+            }
+            instruction.operands = operands;
+            instructions.add(instruction);
+        }
+
+        return new IRFunction(this.name, this.returnType, parameters, variables, instructions);
+    }
+
+}
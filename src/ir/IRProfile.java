@@ -0,0 +1,118 @@
+package ir;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Execution counts for a program's basic blocks and for the edges between them. A block is identified by its
+ * function and by the IR line of its first instruction, and by its labels too if it starts with any. In the
+ * file, each function begins with "function name calls". That line is followed by one
+ * "block line labels count" line per block, with the labels separated by commas or "-" if there are none,
+ * and by one "edge from-line to-line count" line for each edge that was taken.
+ */
+public class IRProfile {
+
+    public static class FunctionProfile {
+
+        public final String name;
+
+        public long calls;
+
+        public final LinkedHashMap<Integer, Long> blockCounts = new LinkedHashMap<>();
+
+        public final HashMap<String, Integer> labelLines = new HashMap<>();
+
+        // Keyed by the from line in the upper half and the to line in the lower half
+        public final LinkedHashMap<Long, Long> edgeCounts = new LinkedHashMap<>();
+
+        public FunctionProfile(String name) {
+            this.name = name;
+        }
+
+        public void addBlock(int line, List<String> labels, long count) {
+            this.blockCounts.merge(line, count, Long::sum);
+            for (String label: labels) this.labelLines.put(label, line);
+        }
+
+        public void addEdge(int fromLine, int toLine, long count) {
+            this.edgeCounts.merge(edgeKey(fromLine, toLine), count, Long::sum);
+        }
+
+        public long getBlockCount(int line) {
+            return this.blockCounts.getOrDefault(line, 0L);
+        }
+
+        /**
+         * Returns the count of the block starting with the label, or -1 if the profile has no such block
+         */
+        public long getLabelCount(String label) {
+            Integer line = this.labelLines.get(label);
+            return line == null ? -1 : this.getBlockCount(line);
+        }
+
+        public long getEdgeCount(int fromLine, int toLine) {
+            return this.edgeCounts.getOrDefault(edgeKey(fromLine, toLine), 0L);
+        }
+
+        private static long edgeKey(int fromLine, int toLine) {
+            return ((long) fromLine << 32) | (toLine & 0xffffffffL);
+        }
+    }
+
+    public final LinkedHashMap<String, FunctionProfile> functions = new LinkedHashMap<>();
+
+    public FunctionProfile getFunction(String name) {
+        return this.functions.get(name);
+    }
+
+    public FunctionProfile addFunction(String name) {
+        return this.functions.computeIfAbsent(name, FunctionProfile::new);
+    }
+
+    public static IRProfile read(String filename) throws FileNotFoundException, IRException {
+        IRProfile profile = new IRProfile();
+        FunctionProfile function = null;
+        Scanner scanner = new Scanner(new File(filename));
+        for (int lineNumber = 1; scanner.hasNextLine(); lineNumber++) {
+            String line = scanner.nextLine().trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] tokens = line.split("\\s+");
+            try {
+                if (tokens[0].equals("function") && tokens.length == 3) {
+                    function = profile.addFunction(tokens[1]);
+                    function.calls += Long.parseLong(tokens[2]);
+                } else if (tokens[0].equals("block") && tokens.length == 4 && function != null) {
+                    List<String> labels = tokens[2].equals("-") ? new ArrayList<>() : Arrays.asList(tokens[2].split(","));
+                    function.addBlock(Integer.parseInt(tokens[1]), labels, Long.parseLong(tokens[3]));
+                } else if (tokens[0].equals("edge") && tokens.length == 4 && function != null) {
+                    function.addEdge(Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]), Long.parseLong(tokens[3]));
+                } else {
+                    throw new IRException("Invalid profile entry", lineNumber);
+                }
+            } catch (NumberFormatException e) {
+                throw new IRException("Invalid count in profile", lineNumber);
+            }
+        }
+        return profile;
+    }
+
+    public void write(PrintStream ps) {
+        for (FunctionProfile function: this.functions.values()) {
+            TreeMap<Integer, TreeSet<String>> labels = new TreeMap<>();
+            for (Map.Entry<String, Integer> entry: function.labelLines.entrySet())
+                labels.computeIfAbsent(entry.getValue(), k -> new TreeSet<>()).add(entry.getKey());
+
+            ps.println(String.format("function %s %d", function.name, function.calls));
+            for (Map.Entry<Integer, Long> entry: function.blockCounts.entrySet()) {
+                TreeSet<String> blockLabels = labels.get(entry.getKey());
+                String names = blockLabels == null ? "-" : String.join(",", blockLabels);
+                ps.println(String.format("block %d %s %d", entry.getKey(), names, entry.getValue()));
+            }
+            for (Map.Entry<Long, Long> entry: function.edgeCounts.entrySet())
+                ps.println(String.format("edge %d %d %d", (int) (entry.getKey() >> 32), (int) (long) entry.getKey(), entry.getValue()));
+        }
+        ps.flush();
+    }
+}
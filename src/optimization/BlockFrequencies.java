@@ -0,0 +1,61 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProfile;
+import ir.IRProgram;
+
+import java.util.HashMap;
+
+/**
+ * Execution counts from an {@link IRProfile}, spread from each profiled block to every instruction in it. The
+ * counts are keyed by IR line and taken before any pass runs, so they follow instructions that passes move
+ * or copy, since those keep their line. An inlined body reports what its callee ran in all callers.
+ * Instructions that passes create get line 0, and like instructions of unprofiled functions, they have
+ * no count.
+ */
+public class BlockFrequencies {
+    public final IRProfile profile;
+    private final HashMap<Integer, Long> lineCounts = new HashMap<>();
+    private long maxCount;
+
+    public BlockFrequencies(IRProgram program, IRProfile profile) {
+        this.profile = profile;
+        for (IRFunction function: program.functions) {
+            IRProfile.FunctionProfile functionProfile = profile.getFunction(function.name);
+            if (functionProfile == null) continue;
+
+            ControlFlowGraph cfg = new ControlFlowGraph(function);
+            for (IRBasicBlock block: cfg.blocks) {
+                if (block.instructions.isEmpty()) continue;
+                long count = functionProfile.getBlockCount(block.instructions.get(0).irLineNumber);
+                this.maxCount = Math.max(this.maxCount, count);
+                for (IRInstruction instruction: block.instructions)
+                    if (instruction.irLineNumber > 0) this.lineCounts.put(instruction.irLineNumber, count);
+            }
+        }
+    }
+
+    /**
+     * Returns how many times the instruction ran, or -1 if the profile does not say
+     */
+    public long getCount(IRInstruction instruction) {
+        return this.lineCounts.getOrDefault(instruction.irLineNumber, -1L);
+    }
+
+    public long getMaxCount() {
+        return this.maxCount;
+    }
+
+    /**
+     * True if the instruction ran at least a hundredth as often as the hottest block
+     */
+    public boolean isHot(IRInstruction instruction) {
+        long count = this.getCount(instruction);
+        return count > 0 && count * 100 >= this.maxCount;
+    }
+
+    public boolean neverRan(IRInstruction instruction) {
+        return this.getCount(instruction) == 0;
+    }
+}
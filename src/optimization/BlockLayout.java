@@ -0,0 +1,233 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProfile;
+import ir.IRProgram;
+import ir.datatype.IRFloatType;
+import ir.operand.IRLabelOperand;
+
+import java.util.*;
+
+/**
+ * Orders each function's blocks so the frequent edges fall through, Pettis-Hansen style. Edges are taken from
+ * heaviest to lightest, and an edge joins two chains of blocks when it goes from the end of one to the start of
+ * the other. The chain holding the entry is placed first. After it comes whichever chain the placed blocks
+ * jump to most, and so on. Edge weights come from the profile when there is one (see
+ * {@link BlockFrequencies}). Otherwise a block in a loop nest of depth d is taken to run 10^d times, and a
+ * branch that leaves a loop is taken one time in ten.
+ *
+ * A branch whose target is laid out next is inverted to jump to the old fall-through block instead. A
+ * fall-through that is no longer next gets a goto, and a goto to the next block is removed. Float
+ * comparisons other than breq and brneq are never inverted, because their inverses disagree when
+ * NaN is compared. The block that falls off the end of the function stays last.
+ */
+public class BlockLayout implements OptimizationPass {
+    private static final double LOOP_WEIGHT = 10;
+    private static final double EXIT_PROBABILITY = 0.1;
+
+    private static final EnumMap<IRInstruction.OpCode, IRInstruction.OpCode> inverses = new EnumMap<>(IRInstruction.OpCode.class);
+
+    static {
+        inverses.put(IRInstruction.OpCode.BREQ, IRInstruction.OpCode.BRNEQ);
+        inverses.put(IRInstruction.OpCode.BRNEQ, IRInstruction.OpCode.BREQ);
+        inverses.put(IRInstruction.OpCode.BRLT, IRInstruction.OpCode.BRGEQ);
+        inverses.put(IRInstruction.OpCode.BRGEQ, IRInstruction.OpCode.BRLT);
+        inverses.put(IRInstruction.OpCode.BRGT, IRInstruction.OpCode.BRLEQ);
+        inverses.put(IRInstruction.OpCode.BRLEQ, IRInstruction.OpCode.BRGT);
+    }
+
+    public BlockFrequencies frequencies = null;
+
+    private static class Edge {
+        final IRBasicBlock from;
+        final IRBasicBlock to;
+        final double weight;
+
+        Edge(IRBasicBlock from, IRBasicBlock to, double weight) {
+            this.from = from;
+            this.to = to;
+            this.weight = weight;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "block-layout";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        int changes = 0;
+        for (IRFunction function: program.functions) changes += this.optimizeFunction(function);
+        return changes;
+    }
+
+    private int optimizeFunction(IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        int changes = cfg.removeUnreachableBlocks();
+        if (cfg.blocks.size() < 2) {
+            if (changes > 0) cfg.linearize();
+            return changes;
+        }
+
+        // Where each block goes when it does not jump, before anything moves
+        HashMap<IRBasicBlock, IRBasicBlock> fallthroughs = new HashMap<>();
+        for (int i = 0; i + 1 < cfg.blocks.size(); i++)
+            if (cfg.blocks.get(i).fallsThrough()) fallthroughs.put(cfg.blocks.get(i), cfg.blocks.get(i + 1));
+        IRBasicBlock last = cfg.blocks.get(cfg.blocks.size() - 1);
+        IRBasicBlock fallsOffEnd = last.fallsThrough() ? last : null;
+
+        ArrayList<IRBasicBlock> order = this.order(cfg, this.getEdges(function, cfg), fallsOffEnd);
+        for (int i = 0; i < order.size(); i++) if (order.get(i) != cfg.blocks.get(i)) changes++;
+
+        for (int i = 0; i < order.size(); i++) {
+            IRBasicBlock block = order.get(i);
+            IRBasicBlock next = i + 1 < order.size() ? order.get(i + 1) : null;
+            IRBasicBlock fallthrough = fallthroughs.get(block);
+            IRInstruction jump = block.getLastInstruction();
+
+            if (jump != null && jump.opCode == IRInstruction.OpCode.GOTO) {
+                if (cfg.labelBlocks.get(jump.operands[0].toString()) == next) {
+                    block.instructions.remove(block.instructions.size() - 1);
+                    changes++;
+                }
+                continue;
+            }
+            if (fallthrough == null || fallthrough == next) continue;
+
+            String label = cfg.getOrAddLabel(fallthrough);
+            if (jump != null && IRInstructions.isBranch(jump) && cfg.labelBlocks.get(jump.operands[0].toString()) == next
+                    && this.canInvert(jump)) {
+                IRInstruction inverted = IRInstructions.withOperand(jump, 0, new IRLabelOperand(label, null));
+                inverted.opCode = inverses.get(jump.opCode);
+                block.instructions.set(block.instructions.size() - 1, inverted);
+                changes++;
+            } else {
+                block.instructions.add(IRInstructions.jump(label, jump == null ? 0 : jump.irLineNumber));
+            }
+        }
+
+        if (changes > 0) {
+            cfg.blocks.clear();
+            cfg.blocks.addAll(order);
+            cfg.computeEdges();
+            cfg.linearize();
+        }
+        return changes;
+    }
+
+    private boolean canInvert(IRInstruction branch) {
+        if (branch.opCode == IRInstruction.OpCode.BREQ || branch.opCode == IRInstruction.OpCode.BRNEQ) return true;
+        for (int i = 1; i <= 2; i++)
+            if (IRInstructions.getType(branch.operands[i]) == IRFloatType.get()) return false;
+        return true;
+    }
+
+    private ArrayList<Edge> getEdges(IRFunction function, ControlFlowGraph cfg) {
+        IRProfile.FunctionProfile profile = this.frequencies == null ? null : this.frequencies.profile.getFunction(function.name);
+        ArrayList<Edge> edges = new ArrayList<>();
+
+        if (profile != null) {
+            for (IRBasicBlock block: cfg.blocks) {
+                for (IRBasicBlock successor: block.successors) {
+                    int from = block.instructions.get(0).irLineNumber;
+                    int to = successor.instructions.get(0).irLineNumber;
+                    // Blocks that passes created or split are estimated from their counts
+                    double weight;
+                    if (profile.blockCounts.containsKey(from) && profile.blockCounts.containsKey(to))
+                        weight = profile.getEdgeCount(from, to);
+                    else
+                        weight = Math.min(this.getCount(block), this.getCount(successor));
+                    edges.add(new Edge(block, successor, weight));
+                }
+            }
+            return edges;
+        }
+
+        ArrayList<NaturalLoop> loops = NaturalLoop.findLoops(cfg, new DominatorTree(cfg));
+        for (IRBasicBlock block: cfg.blocks) {
+            NaturalLoop innermost = null;
+            int depth = 0;
+            for (NaturalLoop loop: loops) {
+                if (!loop.contains(block)) continue;
+                if (innermost == null) innermost = loop;
+                depth++;
+            }
+            double frequency = Math.pow(LOOP_WEIGHT, depth);
+
+            int exits = 0;
+            for (IRBasicBlock successor: block.successors) if (innermost != null && !innermost.contains(successor)) exits++;
+            for (IRBasicBlock successor: block.successors) {
+                double probability = 1.0 / block.successors.size();
+                if (exits > 0 && exits < block.successors.size()) {
+                    boolean exit = !innermost.contains(successor);
+                    probability = exit ? EXIT_PROBABILITY / exits : (1 - EXIT_PROBABILITY) / (block.successors.size() - exits);
+                }
+                edges.add(new Edge(block, successor, frequency * probability));
+            }
+        }
+        return edges;
+    }
+
+    private long getCount(IRBasicBlock block) {
+        for (IRInstruction instruction: block.instructions) {
+            long count = this.frequencies.getCount(instruction);
+            if (count >= 0) return count;
+        }
+        return 0;
+    }
+
+    private ArrayList<IRBasicBlock> order(ControlFlowGraph cfg, ArrayList<Edge> edges, IRBasicBlock fallsOffEnd) {
+        HashMap<IRBasicBlock, Integer> positions = new HashMap<>();
+        HashMap<IRBasicBlock, ArrayList<IRBasicBlock>> chains = new HashMap<>();
+        for (IRBasicBlock block: cfg.blocks) {
+            positions.put(block, positions.size());
+            chains.put(block, new ArrayList<>(Collections.singletonList(block)));
+        }
+
+        // Of equal edges, one that would otherwise need a goto goes first, and then program order is kept
+        ArrayList<Edge> sorted = new ArrayList<>(edges);
+        sorted.sort(Comparator.comparingDouble((Edge edge) -> -edge.weight)
+                .thenComparingInt(edge -> edge.from.successors.size())
+                .thenComparingInt(edge -> positions.get(edge.to) == positions.get(edge.from) + 1 ? 0 : 1)
+                .thenComparingInt(edge -> positions.get(edge.from)));
+        for (Edge edge: sorted) {
+            ArrayList<IRBasicBlock> head = chains.get(edge.from);
+            ArrayList<IRBasicBlock> tail = chains.get(edge.to);
+            if (head == tail || head.get(head.size() - 1) != edge.from || tail.get(0) != edge.to) continue;
+            if (edge.to == cfg.getEntry() || edge.from == fallsOffEnd) continue;
+            // The entry has to come first and the end last, so only a chain of every block may hold both
+            boolean endsFunction = head.get(0) == cfg.getEntry() && tail.contains(fallsOffEnd);
+            if (endsFunction && head.size() + tail.size() < cfg.blocks.size()) continue;
+            head.addAll(tail);
+            for (IRBasicBlock block: tail) chains.put(block, head);
+        }
+
+        ArrayList<IRBasicBlock> order = new ArrayList<>();
+        Set<ArrayList<IRBasicBlock>> placed = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayList<IRBasicBlock> last = fallsOffEnd == null ? null : chains.get(fallsOffEnd);
+        ArrayList<IRBasicBlock> chain = chains.get(cfg.getEntry());
+        while (chain != null) {
+            order.addAll(chain);
+            placed.add(chain);
+
+            // The unplaced chain most jumped to from what is placed, or else the first one left
+            IdentityHashMap<ArrayList<IRBasicBlock>, Double> connections = new IdentityHashMap<>();
+            for (Edge edge: edges) {
+                ArrayList<IRBasicBlock> target = chains.get(edge.to);
+                if (placed.contains(chains.get(edge.from)) && !placed.contains(target) && target != last)
+                    connections.merge(target, edge.weight, Double::sum);
+            }
+            chain = null;
+            for (IRBasicBlock block: cfg.blocks) {
+                ArrayList<IRBasicBlock> candidate = chains.get(block);
+                if (placed.contains(candidate) || candidate == last) continue;
+                if (chain == null || connections.getOrDefault(candidate, -1.0) > connections.getOrDefault(chain, -1.0))
+                    chain = candidate;
+            }
+            if (chain == null && last != null && !placed.contains(last)) chain = last;
+        }
+        return order;
+    }
+}
@@ -0,0 +1,250 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRFloatType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.HashMap;
+
+/**
+ * Folds constant arithmetic and algebraic identities, propagating constants within each block, and
+ * resolves branches with known outcomes before dropping the blocks they leave unreachable.
+ * Integer folding follows MIPS: add and sub are left alone when they would trap on overflow, mult wraps,
+ * and div truncates towards zero but is never folded for a zero divisor.
+ */
+public class ConstantFolding implements OptimizationPass {
+    @Override
+    public String getName() {
+        return "constant-folding";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        int changes = 0;
+        for (IRFunction function: program.functions) changes += this.optimizeFunction(function);
+        return changes;
+    }
+
+    private int optimizeFunction(IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        int changes = 0;
+        for (IRBasicBlock block: cfg.blocks) changes += this.foldBlock(block);
+        if (changes == 0) return 0;
+
+        cfg.linearize();
+        cfg = new ControlFlowGraph(function);
+        changes += cfg.removeUnreachableBlocks();
+        cfg.linearize();
+
+        return changes;
+    }
+
+    private int foldBlock(IRBasicBlock block) {
+        HashMap<String, IRConstantOperand> constants = new HashMap<>();
+        int changes = 0;
+
+        for (int i = 0; i < block.instructions.size(); i++) {
+            IRInstruction instruction = block.instructions.get(i);
+            IRInstruction original = instruction;
+
+            for (int position: IRInstructions.getUsePositions(instruction)) {
+                IROperand operand = instruction.operands[position];
+                if (!IRInstructions.isScalarVariable(operand) || !IRInstructions.acceptsConstant(instruction, position)) continue;
+                IRConstantOperand constant = constants.get(operand.toString());
+                if (constant != null) instruction = IRInstructions.withOperand(instruction, position, constant);
+            }
+
+            IRInstruction folded = this.fold(instruction);
+            if (folded != instruction || instruction != original) changes++;
+            if (folded == null) {
+                block.instructions.remove(i--);
+                continue;
+            }
+            block.instructions.set(i, folded);
+
+            IRVariableOperand def = IRInstructions.getDef(folded);
+            if (def != null) {
+                if (folded.opCode == IRInstruction.OpCode.ASSIGN && folded.operands[1] instanceof IRConstantOperand)
+                    constants.put(def.getName(), (IRConstantOperand) folded.operands[1]);
+                else
+                    constants.remove(def.getName());
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Returns a simpler equivalent of the instruction, the instruction itself, or null if it has no effect
+     */
+    private IRInstruction fold(IRInstruction instruction) {
+        if (instruction.opCode == IRInstruction.OpCode.ASSIGN && instruction.operands.length == 2
+                && instruction.operands[1] instanceof IRVariableOperand
+                && instruction.operands[0].toString().equals(instruction.operands[1].toString()))
+            return null;
+        if (IRInstructions.binaryCodes.contains(instruction.opCode)) return this.foldBinary(instruction);
+        if (IRInstructions.isBranch(instruction)) return this.foldBranch(instruction);
+        return instruction;
+    }
+
+    private IRInstruction foldBinary(IRInstruction instruction) {
+        IRVariableOperand x = (IRVariableOperand) instruction.operands[0];
+        IROperand y = instruction.operands[1];
+        IROperand z = instruction.operands[2];
+        int line = instruction.irLineNumber;
+        boolean isFloat = x.type == IRFloatType.get();
+
+        if (y instanceof IRConstantOperand && z instanceof IRConstantOperand) {
+            IRConstantOperand result = isFloat
+                    ? evaluateFloat(instruction.opCode, Float.parseFloat(y.toString()), Float.parseFloat(z.toString()))
+                    : evaluateInt(instruction.opCode, Integer.parseInt(y.toString()), Integer.parseInt(z.toString()));
+            return result != null ? IRInstructions.assign(x, result, line) : instruction;
+        }
+
+        if (isFloat) {
+            switch (instruction.opCode) {
+                case SUB:
+                    if (IRInstructions.isFloatConstant(z, 0)) return IRInstructions.assign(x, y, line);
+                    break;
+                case MULT:
+                    if (IRInstructions.isFloatConstant(z, 1)) return IRInstructions.assign(x, y, line);
+                    if (IRInstructions.isFloatConstant(y, 1)) return IRInstructions.assign(x, z, line);
+                    break;
+                case DIV:
+                    if (IRInstructions.isFloatConstant(z, 1)) return IRInstructions.assign(x, y, line);
+                    break;
+                default:
+                    break;
+            }
+            return instruction;
+        }
+
+        boolean same = y instanceof IRVariableOperand && z instanceof IRVariableOperand && y.toString().equals(z.toString());
+        switch (instruction.opCode) {
+            case ADD:
+                if (IRInstructions.isIntConstant(z, 0)) return IRInstructions.assign(x, y, line);
+                if (IRInstructions.isIntConstant(y, 0)) return IRInstructions.assign(x, z, line);
+                break;
+            case SUB:
+                if (IRInstructions.isIntConstant(z, 0)) return IRInstructions.assign(x, y, line);
+                if (same) return IRInstructions.assign(x, IRInstructions.intConstant(0), line);
+                break;
+            case MULT:
+                if (IRInstructions.isIntConstant(z, 1)) return IRInstructions.assign(x, y, line);
+                if (IRInstructions.isIntConstant(y, 1)) return IRInstructions.assign(x, z, line);
+                if (IRInstructions.isIntConstant(y, 0) || IRInstructions.isIntConstant(z, 0))
+                    return IRInstructions.assign(x, IRInstructions.intConstant(0), line);
+                break;
+            case DIV:
+                if (IRInstructions.isIntConstant(z, 1)) return IRInstructions.assign(x, y, line);
+                break;
+            case AND:
+                if (same || IRInstructions.isIntConstant(z, -1)) return IRInstructions.assign(x, y, line);
+                if (IRInstructions.isIntConstant(y, -1)) return IRInstructions.assign(x, z, line);
+                if (IRInstructions.isIntConstant(y, 0) || IRInstructions.isIntConstant(z, 0))
+                    return IRInstructions.assign(x, IRInstructions.intConstant(0), line);
+                break;
+            case OR:
+                if (same || IRInstructions.isIntConstant(z, 0)) return IRInstructions.assign(x, y, line);
+                if (IRInstructions.isIntConstant(y, 0)) return IRInstructions.assign(x, z, line);
+                if (IRInstructions.isIntConstant(y, -1) || IRInstructions.isIntConstant(z, -1))
+                    return IRInstructions.assign(x, IRInstructions.intConstant(-1), line);
+                break;
+            default:
+                break;
+        }
+
+        return instruction;
+    }
+
+    static IRConstantOperand evaluateInt(IRInstruction.OpCode opCode, int y, int z) {
+        try {
+            switch (opCode) {
+                case ADD:
+                    return IRInstructions.intConstant(Math.addExact(y, z));
+                case SUB:
+                    return IRInstructions.intConstant(Math.subtractExact(y, z));
+                case MULT:
+                    return IRInstructions.intConstant(y * z);
+                case DIV:
+                    if (z == 0) return null;
+                    return IRInstructions.intConstant(y / z);
+                case AND:
+                    return IRInstructions.intConstant(y & z);
+                case OR:
+                    return IRInstructions.intConstant(y | z);
+                default:
+                    return null;
+            }
+        } catch (ArithmeticException e) {
+            return null; // the MIPS add/sub would trap, so leave it to run
+        }
+    }
+
+    static IRConstantOperand evaluateFloat(IRInstruction.OpCode opCode, float y, float z) {
+        switch (opCode) {
+            case ADD:
+                return IRInstructions.floatConstant(y + z);
+            case SUB:
+                return IRInstructions.floatConstant(y - z);
+            case MULT:
+                return IRInstructions.floatConstant(y * z);
+            case DIV:
+                return IRInstructions.floatConstant(y / z);
+            default:
+                return null;
+        }
+    }
+
+    private IRInstruction foldBranch(IRInstruction instruction) {
+        IROperand y = instruction.operands[1];
+        IROperand z = instruction.operands[2];
+        int comparison;
+
+        if (y instanceof IRConstantOperand && z instanceof IRConstantOperand) {
+            comparison = compare((IRConstantOperand) y, (IRConstantOperand) z);
+        } else if (y instanceof IRVariableOperand && y.toString().equals(z.toString())
+                && ((IRVariableOperand) y).type != IRFloatType.get()) {
+            comparison = 0;
+        } else {
+            return instruction;
+        }
+
+        if (taken(instruction.opCode, comparison))
+            return IRInstructions.jump(instruction.operands[0].toString(), instruction.irLineNumber);
+        return null;
+    }
+
+    /**
+     * Compares two constants of the same type, which are never NaN since the IR has no way to write one
+     */
+    static int compare(IRConstantOperand y, IRConstantOperand z) {
+        if (y.type == IRFloatType.get()) {
+            float a = Float.parseFloat(y.toString());
+            float b = Float.parseFloat(z.toString());
+            return a < b ? -1 : (a > b ? 1 : 0);
+        }
+        return Integer.compare(Integer.parseInt(y.toString()), Integer.parseInt(z.toString()));
+    }
+
+    static boolean taken(IRInstruction.OpCode opCode, int comparison) {
+        switch (opCode) {
+            case BREQ:
+                return comparison == 0;
+            case BRNEQ:
+                return comparison != 0;
+            case BRLT:
+                return comparison < 0;
+            case BRGT:
+                return comparison > 0;
+            case BRLEQ:
+                return comparison <= 0;
+            default:
+                return comparison >= 0;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+
+import java.util.*;
+
+public class ControlFlowGraph {
+    public final IRFunction function;
+    public final ArrayList<IRBasicBlock> blocks = new ArrayList<>();
+    public final HashMap<String, IRBasicBlock> labelBlocks = new HashMap<>();
+
+    public ControlFlowGraph(IRFunction function) {
+        this.function = function;
+
+        IRBasicBlock block = null;
+        boolean endsBlock = true;
+        for (IRInstruction instruction: function.instructions) {
+            if (endsBlock || instruction.opCode == IRInstruction.OpCode.LABEL) {
+                // Consecutive labels stay together so every label starts a block
+                if (block == null || !this.onlyLabels(block) || instruction.opCode != IRInstruction.OpCode.LABEL) {
+                    block = new IRBasicBlock(this.blocks.size());
+                    this.blocks.add(block);
+                }
+            }
+            block.instructions.add(instruction);
+            if (instruction.opCode == IRInstruction.OpCode.LABEL)
+                this.labelBlocks.put(instruction.operands[0].toString(), block);
+
+            endsBlock = instruction.opCode == IRInstruction.OpCode.GOTO
+                    || instruction.opCode == IRInstruction.OpCode.RETURN
+                    || IRInstructions.isBranch(instruction);
+        }
+        if (this.blocks.isEmpty()) this.blocks.add(new IRBasicBlock(0));
+
+        this.computeEdges();
+    }
+
+    private boolean onlyLabels(IRBasicBlock block) {
+        for (IRInstruction instruction: block.instructions)
+            if (instruction.opCode != IRInstruction.OpCode.LABEL) return false;
+        return !block.instructions.isEmpty();
+    }
+
+    /**
+     * Inserts an empty block at the given position in program order, starting with a fresh label named after
+     * labelBase unless that is null. Edges are left for the caller to recompute.
+     */
+    public IRBasicBlock addBlock(int index, String labelBase) {
+        int id = 0;
+        for (IRBasicBlock block: this.blocks) id = Math.max(id, block.id + 1);
+        IRBasicBlock block = new IRBasicBlock(id);
+        if (labelBase != null) {
+            String label = labelBase;
+            for (int i = 1; this.labelBlocks.containsKey(label); i++) label = String.format("%s_%d", labelBase, i);
+            block.instructions.add(IRInstructions.label(label, 0));
+            this.labelBlocks.put(label, block);
+        }
+        this.blocks.add(index, block);
+        return block;
+    }
+
+    /**
+     * Returns the block's first label, starting the block with a fresh one if it has none
+     */
+    public String getOrAddLabel(IRBasicBlock block) {
+        String label = block.getLabel();
+        if (label != null) return label;
+        String base = "block" + block.id;
+        label = base;
+        for (int i = 1; this.labelBlocks.containsKey(label); i++) label = String.format("%s_%d", base, i);
+        block.instructions.add(0, IRInstructions.label(label, 0));
+        this.labelBlocks.put(label, block);
+        return label;
+    }
+
+    public IRBasicBlock getEntry() {
+        return this.blocks.get(0);
+    }
+
+    public void computeEdges() {
+        for (IRBasicBlock block: this.blocks) {
+            block.successors.clear();
+            block.predecessors.clear();
+        }
+        for (int i = 0; i < this.blocks.size(); i++) {
+            IRBasicBlock block = this.blocks.get(i);
+            IRInstruction last = block.getLastInstruction();
+            if (last != null && (last.opCode == IRInstruction.OpCode.GOTO || IRInstructions.isBranch(last)))
+                this.addEdge(block, this.labelBlocks.get(last.operands[0].toString()));
+            if (block.fallsThrough() && i + 1 < this.blocks.size())
+                this.addEdge(block, this.blocks.get(i + 1));
+        }
+    }
+
+    private void addEdge(IRBasicBlock from, IRBasicBlock to) {
+        if (from.successors.contains(to)) return;
+        from.successors.add(to);
+        to.predecessors.add(from);
+    }
+
+    public LinkedHashSet<IRBasicBlock> getReachableBlocks() {
+        LinkedHashSet<IRBasicBlock> reachable = new LinkedHashSet<>();
+        ArrayDeque<IRBasicBlock> worklist = new ArrayDeque<>();
+        worklist.add(this.getEntry());
+        reachable.add(this.getEntry());
+        while (!worklist.isEmpty()) {
+            IRBasicBlock block = worklist.poll();
+            for (IRBasicBlock successor: block.successors)
+                if (reachable.add(successor)) worklist.add(successor);
+        }
+        return reachable;
+    }
+
+    /**
+     * Drops blocks that cannot be reached from the entry and returns how many instructions were removed
+     */
+    public int removeUnreachableBlocks() {
+        LinkedHashSet<IRBasicBlock> reachable = this.getReachableBlocks();
+        int removed = 0;
+        for (Iterator<IRBasicBlock> it = this.blocks.iterator(); it.hasNext(); ) {
+            IRBasicBlock block = it.next();
+            if (reachable.contains(block)) continue;
+            removed += block.instructions.size();
+            for (IRInstruction instruction: block.instructions)
+                if (instruction.opCode == IRInstruction.OpCode.LABEL)
+                    this.labelBlocks.remove(instruction.operands[0].toString());
+            it.remove();
+        }
+        if (removed > 0) this.computeEdges();
+        return removed;
+    }
+
+    /**
+     * Returns the blocks in reverse postorder from the entry, which visits a block before its successors
+     * except along back edges
+     */
+    public ArrayList<IRBasicBlock> getReversePostorder() {
+        ArrayList<IRBasicBlock> postorder = new ArrayList<>();
+        HashSet<IRBasicBlock> visited = new HashSet<>();
+        ArrayDeque<IRBasicBlock> stack = new ArrayDeque<>();
+        ArrayDeque<Integer> nextSuccessor = new ArrayDeque<>();
+        stack.push(this.getEntry());
+        nextSuccessor.push(0);
+        visited.add(this.getEntry());
+        while (!stack.isEmpty()) {
+            IRBasicBlock block = stack.peek();
+            int i = nextSuccessor.pop();
+            if (i < block.successors.size()) {
+                nextSuccessor.push(i + 1);
+                IRBasicBlock successor = block.successors.get(i);
+                if (visited.add(successor)) {
+                    stack.push(successor);
+                    nextSuccessor.push(0);
+                }
+            } else {
+                stack.pop();
+                postorder.add(block);
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    /**
+     * Writes the blocks back to the function in their current order
+     */
+    public void linearize() {
+        ArrayList<IRInstruction> instructions = new ArrayList<>();
+        for (IRBasicBlock block: this.blocks) instructions.addAll(block.instructions);
+        this.function.instructions = instructions;
+    }
+}
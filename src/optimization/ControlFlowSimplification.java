@@ -0,0 +1,301 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.HashSet;
+
+/**
+ * Cleans up the control flow graph in rounds until nothing changes. Each round drops unreachable blocks and
+ * labels that nothing jumps to, so blocks that only fell through to each other become one. Jumps into a
+ * block that is empty or just a goto go straight to where it leads, and a jump to where control would
+ * go anyway is removed. A jump that leads to a block that is only a branch goes straight to where that branch
+ * leads, when the outcome is known on that edge: the operands are constants assigned at the end of the jumping
+ * block, or the jumping block's own branch compared the same integers. Finally, a block reached only by a
+ * goto is moved into the block that jumps to it.
+ */
+public class ControlFlowSimplification implements OptimizationPass {
+    // Threading around a loop can keep finding work, so the rounds are capped
+    private static final int MAX_ROUNDS = 10;
+
+    // Which orderings of two integers a comparison holds for
+    private static final int LESS = 1;
+    private static final int EQUAL = 2;
+    private static final int GREATER = 4;
+    private static final int ANY = LESS | EQUAL | GREATER;
+
+    @Override
+    public String getName() {
+        return "simplify-cfg";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        int changes = 0;
+        for (IRFunction function: program.functions) changes += this.optimizeFunction(function);
+        return changes;
+    }
+
+    private int optimizeFunction(IRFunction function) {
+        int changes = 0;
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            int roundChanges = this.removeUnreachableBlocks(function) + this.removeUnusedLabels(function)
+                    + this.forwardJumps(function) + this.threadJumps(function) + this.mergeBlocks(function);
+            if (roundChanges == 0) break;
+            changes += roundChanges;
+        }
+        return changes;
+    }
+
+    private int removeUnreachableBlocks(IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        int removed = cfg.removeUnreachableBlocks();
+        if (removed > 0) cfg.linearize();
+        return removed;
+    }
+
+    private int removeUnusedLabels(IRFunction function) {
+        HashSet<String> targets = new HashSet<>();
+        for (IRInstruction instruction: function.instructions)
+            if (instruction.opCode != IRInstruction.OpCode.LABEL && IRInstructions.getLabel(instruction) != null)
+                targets.add(IRInstructions.getLabel(instruction));
+
+        int size = function.instructions.size();
+        function.instructions.removeIf(instruction -> instruction.opCode == IRInstruction.OpCode.LABEL
+                && !targets.contains(instruction.operands[0].toString()));
+        return size - function.instructions.size();
+    }
+
+    /**
+     * True if the block does nothing but pass control on
+     */
+    private static boolean isEmpty(IRBasicBlock block) {
+        for (IRInstruction instruction: block.instructions)
+            if (instruction.opCode != IRInstruction.OpCode.LABEL && instruction.opCode != IRInstruction.OpCode.GOTO) return false;
+        return true;
+    }
+
+    /**
+     * Follows empty blocks from the given one and returns the first block that does something, or the last
+     * one visited if they loop or fall off the end of the function
+     */
+    private static IRBasicBlock getDestination(ControlFlowGraph cfg, IRBasicBlock block) {
+        HashSet<IRBasicBlock> visited = new HashSet<>();
+        while (isEmpty(block) && visited.add(block)) {
+            IRInstruction last = block.getLastInstruction();
+            IRBasicBlock next;
+            if (last != null && last.opCode == IRInstruction.OpCode.GOTO) {
+                next = cfg.labelBlocks.get(last.operands[0].toString());
+            } else {
+                int index = cfg.blocks.indexOf(block);
+                if (index + 1 == cfg.blocks.size()) break;
+                next = cfg.blocks.get(index + 1);
+            }
+            block = next;
+        }
+        return block;
+    }
+
+    private int forwardJumps(IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        int changes = 0;
+        for (int i = 0; i < cfg.blocks.size(); i++) {
+            IRBasicBlock block = cfg.blocks.get(i);
+            IRInstruction jump = block.getLastInstruction();
+            if (jump == null || (jump.opCode != IRInstruction.OpCode.GOTO && !IRInstructions.isBranch(jump))) continue;
+
+            IRBasicBlock target = getDestination(cfg, cfg.labelBlocks.get(jump.operands[0].toString()));
+            IRBasicBlock next = i + 1 < cfg.blocks.size() ? getDestination(cfg, cfg.blocks.get(i + 1)) : null;
+            if (target == next) {
+                block.instructions.remove(block.instructions.size() - 1);
+                changes++;
+                continue;
+            }
+
+            // Jumps to a block's other labels move to its first, so the others can go
+            String label = cfg.getOrAddLabel(target);
+            if (!label.equals(jump.operands[0].toString())) {
+                block.instructions.set(block.instructions.size() - 1,
+                        IRInstructions.withOperand(jump, 0, new IRLabelOperand(label, null)));
+                changes++;
+            }
+        }
+        if (changes > 0) cfg.linearize();
+        return changes;
+    }
+
+    private int threadJumps(IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        int changes = 0;
+        for (int i = 0; i < cfg.blocks.size(); i++) {
+            IRBasicBlock block = cfg.blocks.get(i);
+            IRInstruction jump = block.getLastInstruction();
+            IRInstruction branch = jump != null && IRInstructions.isBranch(jump) ? jump : null;
+
+            if (jump != null && (jump.opCode == IRInstruction.OpCode.GOTO || branch != null)) {
+                IRBasicBlock target = cfg.labelBlocks.get(jump.operands[0].toString());
+                IRBasicBlock destination = this.getThreadedDestination(cfg, block, branch, true, target);
+                if (destination != null) {
+                    IRLabelOperand label = new IRLabelOperand(cfg.getOrAddLabel(destination), null);
+                    block.instructions.set(block.instructions.size() - 1, IRInstructions.withOperand(jump, 0, label));
+                    changes++;
+                }
+            }
+
+            if (block.fallsThrough() && i + 1 < cfg.blocks.size()) {
+                IRBasicBlock destination = this.getThreadedDestination(cfg, block, branch, false, cfg.blocks.get(i + 1));
+                if (destination == null) continue;
+                IRInstruction forward = IRInstructions.jump(cfg.getOrAddLabel(destination), jump == null ? 0 : jump.irLineNumber);
+                // A branch has to fall through somewhere, so the goto gets a block of its own
+                if (branch != null) cfg.addBlock(++i, null).instructions.add(forward);
+                else block.instructions.add(forward);
+                changes++;
+            }
+        }
+        if (changes > 0) cfg.linearize();
+        return changes;
+    }
+
+    /**
+     * Returns where control ends up after the edge from the block into target, if target leads through empty
+     * blocks to one that is only a branch whose outcome is known on that edge, or null. The edge is the
+     * branch taken or not taken when the block ends in one, or else its goto or fall-through.
+     */
+    private IRBasicBlock getThreadedDestination(ControlFlowGraph cfg, IRBasicBlock block, IRInstruction branch, boolean taken,
+                                                IRBasicBlock target) {
+        IRBasicBlock tested = getDestination(cfg, target);
+        IRInstruction test = tested.getLastInstruction();
+        if (test == null || !IRInstructions.isBranch(test)) return null;
+        for (IRInstruction instruction: tested.instructions)
+            if (instruction != test && instruction.opCode != IRInstruction.OpCode.LABEL) return null;
+
+        Boolean outcome = this.getOutcome(block, branch, taken, test);
+        if (outcome == null) return null;
+
+        IRBasicBlock destination;
+        if (outcome) {
+            destination = cfg.labelBlocks.get(test.operands[0].toString());
+        } else {
+            int index = cfg.blocks.indexOf(tested);
+            if (index + 1 == cfg.blocks.size()) return null;
+            destination = cfg.blocks.get(index + 1);
+        }
+        return destination == target || destination == tested ? null : destination;
+    }
+
+    /**
+     * Returns whether test is taken right after the block, or null if that depends on more than the block shows
+     */
+    private Boolean getOutcome(IRBasicBlock block, IRInstruction branch, boolean taken, IRInstruction test) {
+        IROperand y = this.getKnownValue(block, branch, taken, test.operands[1]);
+        IROperand z = this.getKnownValue(block, branch, taken, test.operands[2]);
+        if (y instanceof IRConstantOperand && z instanceof IRConstantOperand)
+            return ConstantFolding.taken(test.opCode, ConstantFolding.compare((IRConstantOperand) y, (IRConstantOperand) z));
+
+        // Float comparisons are left alone, since with NaN none of the orderings hold
+        if (branch == null || IRInstructions.getType(branch.operands[1]) != IRIntType.get()
+                || IRInstructions.getType(test.operands[1]) != IRIntType.get())
+            return null;
+        int known = taken ? getOrderings(branch.opCode) : ANY & ~getOrderings(branch.opCode);
+        int tested = getOrderings(test.opCode);
+        String a = branch.operands[1].toString();
+        String b = branch.operands[2].toString();
+        if (a.equals(test.operands[2].toString()) && b.equals(test.operands[1].toString()))
+            tested = (tested & EQUAL) | ((tested & LESS) != 0 ? GREATER : 0) | ((tested & GREATER) != 0 ? LESS : 0);
+        else if (!a.equals(test.operands[1].toString()) || !b.equals(test.operands[2].toString()))
+            return null;
+
+        if ((known & ~tested) == 0) return true;
+        if ((known & tested) == 0) return false;
+        return null;
+    }
+
+    private static int getOrderings(IRInstruction.OpCode opCode) {
+        switch (opCode) {
+            case BREQ:
+                return EQUAL;
+            case BRNEQ:
+                return LESS | GREATER;
+            case BRLT:
+                return LESS;
+            case BRGT:
+                return GREATER;
+            case BRLEQ:
+                return LESS | EQUAL;
+            default:
+                return GREATER | EQUAL;
+        }
+    }
+
+    /**
+     * Returns the constant the operand holds when control leaves the block, or the operand itself if unknown
+     */
+    private IROperand getKnownValue(IRBasicBlock block, IRInstruction branch, boolean taken, IROperand operand) {
+        if (!IRInstructions.isScalarVariable(operand)) return operand;
+        String name = operand.toString();
+
+        // An integer equal to a constant on this edge
+        if (branch != null && branch.opCode == (taken ? IRInstruction.OpCode.BREQ : IRInstruction.OpCode.BRNEQ)
+                && IRInstructions.getType(operand) == IRIntType.get()) {
+            if (branch.operands[1].toString().equals(name) && branch.operands[2] instanceof IRConstantOperand)
+                return branch.operands[2];
+            if (branch.operands[2].toString().equals(name) && branch.operands[1] instanceof IRConstantOperand)
+                return branch.operands[1];
+        }
+
+        for (int i = block.instructions.size() - 1; i >= 0; i--) {
+            IRInstruction instruction = block.instructions.get(i);
+            IRVariableOperand def = IRInstructions.getDef(instruction);
+            if (def == null || !def.getName().equals(name)) continue;
+            if (instruction.opCode == IRInstruction.OpCode.ASSIGN && instruction.operands[1] instanceof IRConstantOperand)
+                return instruction.operands[1];
+            return operand;
+        }
+        return operand;
+    }
+
+    private int mergeBlocks(IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        int changes = 0;
+        for (int i = 0; i < cfg.blocks.size(); i++) {
+            IRBasicBlock block = cfg.blocks.get(i);
+            IRInstruction jump = block.getLastInstruction();
+            if (jump == null || jump.opCode != IRInstruction.OpCode.GOTO) continue;
+
+            IRBasicBlock successor = cfg.labelBlocks.get(jump.operands[0].toString());
+            int index = cfg.blocks.indexOf(successor);
+            if (successor == block || successor == cfg.getEntry() || successor.predecessors.size() != 1) continue;
+            // Only the last block may fall off the end of the function
+            if (successor.fallsThrough() && index + 1 == cfg.blocks.size()) continue;
+
+            IRInstruction forward = null;
+            if (successor.fallsThrough())
+                forward = IRInstructions.jump(cfg.getOrAddLabel(cfg.blocks.get(index + 1)), jump.irLineNumber);
+            IRInstruction last = successor.getLastInstruction();
+            block.instructions.remove(block.instructions.size() - 1);
+            for (IRInstruction instruction: successor.instructions) {
+                if (instruction.opCode == IRInstruction.OpCode.LABEL) cfg.labelBlocks.remove(instruction.operands[0].toString());
+                else block.instructions.add(instruction);
+            }
+            cfg.blocks.remove(index);
+            // A branch has to stay last in its block, so the goto after it gets a block of its own
+            if (forward != null && last != null && IRInstructions.isBranch(last))
+                cfg.addBlock(cfg.blocks.indexOf(block) + 1, null).instructions.add(forward);
+            else if (forward != null)
+                block.instructions.add(forward);
+            cfg.computeEdges();
+            changes++;
+
+            // The merged block may end in another goto worth following
+            i = cfg.blocks.indexOf(block) - 1;
+        }
+        if (changes > 0) cfg.linearize();
+        return changes;
+    }
+}
@@ -0,0 +1,129 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Global copy propagation: a use of x is replaced by y wherever the copy "assign, x, y" reaches it along
+ * every path with neither x nor y redefined in between. Copies of constants propagate the same way.
+ */
+public class CopyPropagation implements OptimizationPass {
+    @Override
+    public String getName() {
+        return "copy-propagation";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        int changes = 0;
+        for (IRFunction function: program.functions) changes += this.optimizeFunction(function);
+        return changes;
+    }
+
+    private static boolean isCopy(IRInstruction instruction) {
+        return instruction.opCode == IRInstruction.OpCode.ASSIGN && instruction.operands.length == 2
+                && !instruction.operands[0].toString().equals(instruction.operands[1].toString());
+    }
+
+    private int optimizeFunction(IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+
+        ArrayList<IRInstruction> copies = new ArrayList<>();
+        IdentityHashMap<IRInstruction, Integer> copyIds = new IdentityHashMap<>();
+        HashMap<String, BitSet> involving = new HashMap<>();
+        for (IRBasicBlock block: cfg.blocks) {
+            for (IRInstruction instruction: block.instructions) {
+                if (!isCopy(instruction)) continue;
+                int id = copies.size();
+                copies.add(instruction);
+                copyIds.put(instruction, id);
+                involving.computeIfAbsent(instruction.operands[0].toString(), k -> new BitSet()).set(id);
+                if (instruction.operands[1] instanceof IRVariableOperand)
+                    involving.computeIfAbsent(instruction.operands[1].toString(), k -> new BitSet()).set(id);
+            }
+        }
+        if (copies.isEmpty()) return 0;
+
+        // Available copies: intersection over predecessors, nothing available on entry
+        BitSet all = new BitSet();
+        all.set(0, copies.size());
+        HashMap<IRBasicBlock, BitSet> in = new HashMap<>();
+        HashMap<IRBasicBlock, BitSet> out = new HashMap<>();
+        for (IRBasicBlock block: cfg.blocks) out.put(block, (BitSet) all.clone());
+
+        ArrayList<IRBasicBlock> order = cfg.getReversePostorder();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IRBasicBlock block: order) {
+                BitSet blockIn = new BitSet();
+                if (block != cfg.getEntry()) {
+                    blockIn.or(all);
+                    for (IRBasicBlock predecessor: block.predecessors) blockIn.and(out.get(predecessor));
+                }
+                in.put(block, blockIn);
+                BitSet blockOut = (BitSet) blockIn.clone();
+                for (IRInstruction instruction: block.instructions) this.update(instruction, blockOut, copyIds, involving);
+                if (!blockOut.equals(out.get(block))) {
+                    out.put(block, blockOut);
+                    changed = true;
+                }
+            }
+        }
+
+        int changes = 0;
+        for (IRBasicBlock block: order) changes += this.rewriteBlock(block, (BitSet) in.get(block).clone(), copies, copyIds, involving);
+        if (changes > 0) cfg.linearize();
+
+        return changes;
+    }
+
+    private void update(IRInstruction instruction, BitSet available, IdentityHashMap<IRInstruction, Integer> copyIds,
+                        HashMap<String, BitSet> involving) {
+        IRVariableOperand def = IRInstructions.getDef(instruction);
+        if (def != null && involving.containsKey(def.getName())) available.andNot(involving.get(def.getName()));
+        Integer id = copyIds.get(instruction);
+        if (id != null) available.set(id);
+    }
+
+    private int rewriteBlock(IRBasicBlock block, BitSet available, ArrayList<IRInstruction> copies,
+                             IdentityHashMap<IRInstruction, Integer> copyIds, HashMap<String, BitSet> involving) {
+        int changes = 0;
+        for (int i = 0; i < block.instructions.size(); i++) {
+            IRInstruction original = block.instructions.get(i);
+            IRInstruction instruction = original;
+            for (int position: IRInstructions.getUsePositions(instruction)) {
+                IROperand operand = instruction.operands[position];
+                if (!IRInstructions.isScalarVariable(operand)) continue;
+                IROperand source = this.findSource(operand.toString(), available, copies, involving);
+                if (source == null) continue;
+                if (!(source instanceof IRVariableOperand) && !IRInstructions.acceptsConstant(instruction, position)) continue;
+                instruction = IRInstructions.withOperand(instruction, position, source);
+                changes++;
+            }
+            block.instructions.set(i, instruction);
+            this.update(original, available, copyIds, involving);
+        }
+        return changes;
+    }
+
+    private IROperand findSource(String variable, BitSet available, ArrayList<IRInstruction> copies, HashMap<String, BitSet> involving) {
+        BitSet involved = involving.get(variable);
+        if (involved == null) return null;
+        BitSet candidates = (BitSet) involved.clone();
+        candidates.and(available);
+        for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+            IRInstruction copy = copies.get(id);
+            if (copy.operands[0].toString().equals(variable)) return copy.operands[1];
+        }
+        return null;
+    }
+}
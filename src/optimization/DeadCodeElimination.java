@@ -0,0 +1,99 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRFloatType;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.*;
+
+/**
+ * Mark-sweep dead code elimination over def-use chains. Instructions with side effects are live, as is
+ * every definition that reaches a use in a live instruction; the remaining pure computations are removed.
+ * Integer add and sub are not pure here, since they trap on overflow as ConstantFolding and LICM assume.
+ * Variables no instruction mentions any more are dropped from the function so they get no stack slot.
+ */
+public class DeadCodeElimination implements OptimizationPass {
+    @Override
+    public String getName() {
+        return "dead-code-elimination";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        int changes = 0;
+        for (IRFunction function: program.functions) changes += this.optimizeFunction(function);
+        return changes;
+    }
+
+    /**
+     * True if the instruction does nothing besides writing its destination variable
+     */
+    private static boolean isRemovable(IRInstruction instruction) {
+        switch (instruction.opCode) {
+            case ASSIGN:
+                return instruction.operands.length == 2;
+            case ADD:
+            case SUB:
+                // The MIPS add and sub trap on overflow, so an unused integer one still has to run
+                return ((IRVariableOperand) instruction.operands[0]).type == IRFloatType.get();
+            case MULT:
+            case AND:
+            case OR:
+            case ARRAY_LOAD:
+                return true;
+            case DIV:
+                // An integer division by zero faults at runtime, so only a known non-zero divisor makes it removable
+                if (((IRVariableOperand) instruction.operands[0]).type == IRFloatType.get()) return true;
+                IROperand divisor = instruction.operands[2];
+                return IRInstructions.isConstant(divisor) && !IRInstructions.isIntConstant(divisor, 0);
+            default:
+                return false;
+        }
+    }
+
+    private int optimizeFunction(IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        DefUseChains chains = new DefUseChains(cfg);
+
+        Set<IRInstruction> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<IRInstruction> worklist = new ArrayDeque<>();
+        for (IRBasicBlock block: cfg.blocks) {
+            for (IRInstruction instruction: block.instructions) {
+                if (isRemovable(instruction)) continue;
+                live.add(instruction);
+                worklist.add(instruction);
+            }
+        }
+
+        while (!worklist.isEmpty()) {
+            IRInstruction instruction = worklist.poll();
+            for (IRInstruction def: chains.getDefinitions(instruction))
+                if (live.add(def)) worklist.add(def);
+        }
+
+        int changes = 0;
+        for (IRBasicBlock block: cfg.blocks) {
+            int size = block.instructions.size();
+            block.instructions.removeIf(instruction -> !live.contains(instruction));
+            changes += size - block.instructions.size();
+        }
+        if (changes > 0) cfg.linearize();
+
+        return changes + this.removeUnusedVariables(function);
+    }
+
+    private int removeUnusedVariables(IRFunction function) {
+        HashSet<String> referenced = new HashSet<>();
+        for (IRVariableOperand parameter: function.parameters) referenced.add(parameter.getName());
+        for (IRInstruction instruction: function.instructions)
+            for (IROperand operand: instruction.operands)
+                if (operand instanceof IRVariableOperand) referenced.add(operand.toString());
+
+        int size = function.variables.size();
+        function.variables.removeIf(variable -> !referenced.contains(variable.getName()));
+        return size - function.variables.size();
+    }
+}
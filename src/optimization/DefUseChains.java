@@ -0,0 +1,147 @@
+package optimization;
+
+import ir.IRInstruction;
+import ir.operand.IRVariableOperand;
+
+import java.util.*;
+
+/**
+ * Links every variable use to the definitions that reach it, computed with a reaching definitions
+ * analysis over the control flow graph. Function entry counts as one more definition of every variable,
+ * holding its argument or the zero it was initialized with, and readsEntryValue tells which uses it reaches.
+ */
+public class DefUseChains {
+    private final ArrayList<IRInstruction> definitions = new ArrayList<>();
+    private final IdentityHashMap<IRInstruction, Integer> definitionIds = new IdentityHashMap<>();
+    private final HashMap<String, BitSet> variableDefinitions = new HashMap<>();
+    private final IdentityHashMap<IRInstruction, HashMap<String, ArrayList<IRInstruction>>> useDefs = new IdentityHashMap<>();
+    private final IdentityHashMap<IRInstruction, ArrayList<IRInstruction>> defUses = new IdentityHashMap<>();
+    private final IdentityHashMap<IRInstruction, HashSet<String>> entryReads = new IdentityHashMap<>();
+    private final BitSet entryDefinitions = new BitSet();
+
+    public DefUseChains(ControlFlowGraph cfg) {
+        for (IRBasicBlock block: cfg.blocks) {
+            for (IRInstruction instruction: block.instructions) {
+                IRVariableOperand def = IRInstructions.getDef(instruction);
+                if (def == null) continue;
+                int id = this.definitions.size();
+                this.definitions.add(instruction);
+                this.definitionIds.put(instruction, id);
+                this.variableDefinitions.computeIfAbsent(def.getName(), k -> new BitSet()).set(id);
+                this.defUses.put(instruction, new ArrayList<>());
+            }
+        }
+
+        // Entry definitions have no instruction; they sit in definitions as nulls
+        HashSet<String> variables = new HashSet<>(this.variableDefinitions.keySet());
+        for (IRBasicBlock block: cfg.blocks)
+            for (IRInstruction instruction: block.instructions)
+                for (IRVariableOperand use: IRInstructions.getUses(instruction)) variables.add(use.getName());
+        for (String variable: variables) {
+            int id = this.definitions.size();
+            this.definitions.add(null);
+            this.entryDefinitions.set(id);
+            this.variableDefinitions.computeIfAbsent(variable, k -> new BitSet()).set(id);
+        }
+
+        HashMap<IRBasicBlock, BitSet> in = new HashMap<>();
+        HashMap<IRBasicBlock, BitSet> out = new HashMap<>();
+        for (IRBasicBlock block: cfg.blocks) {
+            BitSet blockIn = block == cfg.getEntry() ? (BitSet) this.entryDefinitions.clone() : new BitSet();
+            in.put(block, blockIn);
+            out.put(block, this.transfer(block, (BitSet) blockIn.clone(), null));
+        }
+
+        ArrayList<IRBasicBlock> order = cfg.getReversePostorder();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IRBasicBlock block: order) {
+                BitSet blockIn = block == cfg.getEntry() ? (BitSet) this.entryDefinitions.clone() : new BitSet();
+                for (IRBasicBlock predecessor: block.predecessors) blockIn.or(out.get(predecessor));
+                in.put(block, blockIn);
+                BitSet blockOut = this.transfer(block, (BitSet) blockIn.clone(), null);
+                if (!blockOut.equals(out.get(block))) {
+                    out.put(block, blockOut);
+                    changed = true;
+                }
+            }
+        }
+
+        for (IRBasicBlock block: cfg.blocks) this.transfer(block, (BitSet) in.get(block).clone(), this.useDefs);
+    }
+
+    /**
+     * Applies the block's definitions to the reaching set, recording the definitions each use sees if chains is given
+     */
+    private BitSet transfer(IRBasicBlock block, BitSet reaching,
+                            IdentityHashMap<IRInstruction, HashMap<String, ArrayList<IRInstruction>>> chains) {
+        for (IRInstruction instruction: block.instructions) {
+            if (chains != null) {
+                HashMap<String, ArrayList<IRInstruction>> defsByVariable = new HashMap<>();
+                for (IRVariableOperand use: IRInstructions.getUses(instruction)) {
+                    if (defsByVariable.containsKey(use.getName())) continue;
+                    ArrayList<IRInstruction> defs = new ArrayList<>();
+                    BitSet candidates = this.variableDefinitions.get(use.getName());
+                    if (candidates != null) {
+                        BitSet visible = (BitSet) candidates.clone();
+                        visible.and(reaching);
+                        for (int id = visible.nextSetBit(0); id >= 0; id = visible.nextSetBit(id + 1)) {
+                            IRInstruction def = this.definitions.get(id);
+                            if (def == null) {
+                                this.entryReads.computeIfAbsent(instruction, k -> new HashSet<>()).add(use.getName());
+                                continue;
+                            }
+                            defs.add(def);
+                            this.defUses.get(def).add(instruction);
+                        }
+                    }
+                    defsByVariable.put(use.getName(), defs);
+                }
+                chains.put(instruction, defsByVariable);
+            }
+
+            IRVariableOperand def = IRInstructions.getDef(instruction);
+            if (def != null) {
+                reaching.andNot(this.variableDefinitions.get(def.getName()));
+                reaching.set(this.definitionIds.get(instruction));
+            }
+        }
+        return reaching;
+    }
+
+    /**
+     * Returns the definitions of variable that reach its use in instruction
+     */
+    public ArrayList<IRInstruction> getDefinitions(IRInstruction instruction, String variable) {
+        HashMap<String, ArrayList<IRInstruction>> defs = this.useDefs.get(instruction);
+        if (defs == null || !defs.containsKey(variable)) return new ArrayList<>();
+        return defs.get(variable);
+    }
+
+    /**
+     * Returns every definition that reaches some use in instruction
+     */
+    public ArrayList<IRInstruction> getDefinitions(IRInstruction instruction) {
+        ArrayList<IRInstruction> all = new ArrayList<>();
+        HashMap<String, ArrayList<IRInstruction>> defs = this.useDefs.get(instruction);
+        if (defs != null) for (ArrayList<IRInstruction> list: defs.values()) all.addAll(list);
+        return all;
+    }
+
+    /**
+     * True if the variable may still hold its value from function entry where instruction reads it
+     */
+    public boolean readsEntryValue(IRInstruction instruction, String variable) {
+        HashSet<String> variables = this.entryReads.get(instruction);
+        return variables != null && variables.contains(variable);
+    }
+
+    /**
+     * Returns the instructions that may read the value written by def
+     */
+    public ArrayList<IRInstruction> getUses(IRInstruction def) {
+        ArrayList<IRInstruction> uses = this.defUses.get(def);
+        return uses == null ? new ArrayList<>() : uses;
+    }
+}
@@ -0,0 +1,95 @@
+package optimization;
+
+import java.util.*;
+
+/**
+ * Immediate dominators and dominance frontiers of the blocks reachable from the entry, computed with the
+ * iterative algorithm of Cooper, Harvey and Kennedy over reverse postorder.
+ */
+public class DominatorTree {
+    public final ControlFlowGraph cfg;
+    public final ArrayList<IRBasicBlock> reversePostorder;
+    private final HashMap<IRBasicBlock, Integer> order = new HashMap<>();
+    private final HashMap<IRBasicBlock, IRBasicBlock> idoms = new HashMap<>();
+    private final HashMap<IRBasicBlock, ArrayList<IRBasicBlock>> children = new HashMap<>();
+    private final HashMap<IRBasicBlock, LinkedHashSet<IRBasicBlock>> frontiers = new HashMap<>();
+
+    public DominatorTree(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+        this.reversePostorder = cfg.getReversePostorder();
+        for (int i = 0; i < this.reversePostorder.size(); i++) {
+            IRBasicBlock block = this.reversePostorder.get(i);
+            this.order.put(block, i);
+            this.children.put(block, new ArrayList<>());
+            this.frontiers.put(block, new LinkedHashSet<>());
+        }
+
+        IRBasicBlock entry = cfg.getEntry();
+        this.idoms.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IRBasicBlock block: this.reversePostorder) {
+                if (block == entry) continue;
+                IRBasicBlock idom = null;
+                for (IRBasicBlock predecessor: block.predecessors) {
+                    if (!this.idoms.containsKey(predecessor)) continue;
+                    idom = idom == null ? predecessor : this.intersect(predecessor, idom);
+                }
+                if (idom != this.idoms.get(block)) {
+                    this.idoms.put(block, idom);
+                    changed = true;
+                }
+            }
+        }
+
+        for (IRBasicBlock block: this.reversePostorder)
+            if (block != entry) this.children.get(this.idoms.get(block)).add(block);
+
+        for (IRBasicBlock block: this.reversePostorder) {
+            if (block.predecessors.size() < 2) continue;
+            for (IRBasicBlock predecessor: block.predecessors) {
+                if (!this.order.containsKey(predecessor)) continue;
+                for (IRBasicBlock runner = predecessor; runner != this.idoms.get(block); runner = this.idoms.get(runner))
+                    this.frontiers.get(runner).add(block);
+            }
+        }
+    }
+
+    private IRBasicBlock intersect(IRBasicBlock a, IRBasicBlock b) {
+        while (a != b) {
+            while (this.order.get(a) > this.order.get(b)) a = this.idoms.get(a);
+            while (this.order.get(b) > this.order.get(a)) b = this.idoms.get(b);
+        }
+        return a;
+    }
+
+    public boolean isReachable(IRBasicBlock block) {
+        return this.order.containsKey(block);
+    }
+
+    /**
+     * Returns the immediate dominator of the block, or null for the entry
+     */
+    public IRBasicBlock getIdom(IRBasicBlock block) {
+        IRBasicBlock idom = this.idoms.get(block);
+        return idom == block ? null : idom;
+    }
+
+    public ArrayList<IRBasicBlock> getChildren(IRBasicBlock block) {
+        return this.children.get(block);
+    }
+
+    public LinkedHashSet<IRBasicBlock> getFrontier(IRBasicBlock block) {
+        return this.frontiers.get(block);
+    }
+
+    /**
+     * True if every path from the entry to b passes through a, including when they are the same block
+     */
+    public boolean dominates(IRBasicBlock a, IRBasicBlock b) {
+        if (!this.isReachable(a) || !this.isReachable(b)) return false;
+        while (this.order.get(b) > this.order.get(a)) b = this.idoms.get(b);
+        return a == b;
+    }
+}
@@ -0,0 +1,232 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRFloatType;
+import ir.operand.*;
+
+import java.util.*;
+
+/**
+ * Replaces calls to small non-recursive functions by a renamed copy of the callee's body. Callers are
+ * handled after their callees, so inlined bodies are already expanded. Scalar parameters become assigns
+ * from the arguments, array parameters are replaced by the array passed, locals are zeroed on every entry
+ * like a call would, and each return becomes an assign to the result plus a jump past the copy.
+ *
+ * A call site is inlined if the callee's size, less what constant arguments are likely to fold away and
+ * less the call sequence it saves, is at most the threshold. Since every call saves and restores all of
+ * the caller's variables, the variables a copy adds are charged once for every other call in the caller.
+ * Callers stop growing once the growth limit is reached, and functions whose last call was inlined are removed.
+ *
+ * With a profile, a call site that never ran is only inlined if that makes the caller no bigger, and a hot one
+ * (see {@link BlockFrequencies#isHot}) is allowed a cost of HOT_THRESHOLD_FACTOR times the threshold.
+ */
+public class FunctionInlining implements OptimizationPass {
+    public static final int DEFAULT_THRESHOLD = 20;
+    public static final int DEFAULT_GROWTH_LIMIT = 400;
+    public static final int HOT_THRESHOLD_FACTOR = 4;
+
+    public int threshold = DEFAULT_THRESHOLD;
+    public int growthLimit = DEFAULT_GROWTH_LIMIT;
+    public BlockFrequencies frequencies = null;
+
+    private HashMap<String, IRFunction> functions;
+    private HashMap<String, LinkedHashSet<String>> callees;
+    private int copies;
+
+    @Override
+    public String getName() {
+        return "inline";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        this.functions = new HashMap<>();
+        for (IRFunction function: program.functions) this.functions.put(function.name, function);
+        this.callees = new HashMap<>();
+        for (IRFunction function: program.functions) this.callees.put(function.name, this.getCallees(function));
+        HashSet<String> recursive = this.getRecursiveFunctions();
+
+        int changes = 0;
+        HashSet<String> inlined = new HashSet<>();
+        for (IRFunction caller: this.getBottomUpOrder(program)) {
+            int growth = 0;
+            ArrayList<IRInstruction> instructions = new ArrayList<>();
+            for (IRInstruction instruction: caller.instructions) {
+                IRFunction callee = this.functions.get(IRInstructions.getCallee(instruction));
+                if (callee == null || recursive.contains(callee.name) || callee.name.equals("main")
+                        || growth + getSize(callee) > this.growthLimit || this.getCost(caller, instruction, callee) > this.getThreshold(instruction)) {
+                    instructions.add(instruction);
+                    continue;
+                }
+
+                ArrayList<IRInstruction> body = this.expand(caller, instruction, callee);
+                growth += body.size();
+                instructions.addAll(body);
+                inlined.add(callee.name);
+                changes++;
+            }
+            caller.instructions.clear();
+            caller.instructions.addAll(instructions);
+            this.callees.put(caller.name, this.getCallees(caller));
+        }
+
+        HashSet<String> called = new HashSet<>();
+        for (IRFunction function: program.functions) called.addAll(this.getCallees(function));
+        program.functions.removeIf(function -> inlined.contains(function.name) && !called.contains(function.name));
+
+        return changes;
+    }
+
+    private LinkedHashSet<String> getCallees(IRFunction function) {
+        LinkedHashSet<String> called = new LinkedHashSet<>();
+        for (IRInstruction instruction: function.instructions) {
+            String callee = IRInstructions.getCallee(instruction);
+            if (callee != null && this.functions.containsKey(callee)) called.add(callee);
+        }
+        return called;
+    }
+
+    private HashSet<String> getRecursiveFunctions() {
+        HashSet<String> recursive = new HashSet<>();
+        for (String name: this.functions.keySet()) {
+            HashSet<String> reached = new HashSet<>();
+            ArrayDeque<String> worklist = new ArrayDeque<>(this.callees.get(name));
+            while (!worklist.isEmpty()) {
+                String callee = worklist.poll();
+                if (reached.add(callee)) worklist.addAll(this.callees.get(callee));
+            }
+            if (reached.contains(name)) recursive.add(name);
+        }
+        return recursive;
+    }
+
+    /**
+     * Orders the functions so that each comes after the functions it calls, cycles aside
+     */
+    private ArrayList<IRFunction> getBottomUpOrder(IRProgram program) {
+        ArrayList<IRFunction> order = new ArrayList<>();
+        HashSet<String> visited = new HashSet<>();
+        for (IRFunction function: program.functions) this.visit(function.name, visited, order);
+        return order;
+    }
+
+    private void visit(String name, HashSet<String> visited, ArrayList<IRFunction> order) {
+        if (!visited.add(name)) return;
+        for (String callee: this.callees.get(name)) this.visit(callee, visited, order);
+        order.add(this.functions.get(name));
+    }
+
+    private static int getSize(IRFunction function) {
+        int size = 0;
+        for (IRInstruction instruction: function.instructions)
+            if (instruction.opCode != IRInstruction.OpCode.LABEL) size++;
+        return size;
+    }
+
+    private int getThreshold(IRInstruction call) {
+        if (this.frequencies == null) return this.threshold;
+        if (this.frequencies.neverRan(call)) return 0;
+        if (this.frequencies.isHot(call)) return this.threshold * HOT_THRESHOLD_FACTOR;
+        return this.threshold;
+    }
+
+    private int getCost(IRFunction caller, IRInstruction call, IRFunction callee) {
+        int first = call.opCode == IRInstruction.OpCode.CALLR ? 2 : 1;
+        int constantArguments = 0;
+        for (int i = first; i < call.operands.length; i++)
+            if (call.operands[i] instanceof IRConstantOperand) constantArguments++;
+
+        int otherCalls = -1;
+        for (IRInstruction instruction: caller.instructions)
+            if (this.functions.containsKey(IRInstructions.getCallee(instruction))) otherCalls++;
+
+        // A call stores and reloads every caller variable and sets up its arguments and $ra
+        int callSequence = 2 * caller.variables.size() + (call.operands.length - first) + 6;
+        int addedVariables = callee.variables.size();
+        return getSize(callee) - 2 * constantArguments + 2 * addedVariables * otherCalls - callSequence;
+    }
+
+    /**
+     * Returns a copy of the callee's body with its variables and labels renamed into the caller
+     */
+    private ArrayList<IRInstruction> expand(IRFunction caller, IRInstruction call, IRFunction callee) {
+        int line = call.irLineNumber;
+        int first = call.opCode == IRInstruction.OpCode.CALLR ? 2 : 1;
+        IRVariableOperand result = first == 2 ? (IRVariableOperand) call.operands[0] : null;
+        ArrayList<IRInstruction> body = new ArrayList<>();
+
+        HashMap<String, IROperand> renamed = new HashMap<>();
+        for (int i = 0; i < callee.parameters.size(); i++) {
+            IRVariableOperand parameter = callee.parameters.get(i);
+            IROperand argument = call.operands[first + i];
+            if (parameter.type instanceof IRArrayType) {
+                renamed.put(parameter.getName(), argument);
+                continue;
+            }
+            IRVariableOperand copy = IRInstructions.newVariable(caller, callee.name + "_" + parameter.getName(), parameter.type);
+            renamed.put(parameter.getName(), copy);
+            body.add(IRInstructions.assign(copy, argument, line));
+        }
+        for (IRVariableOperand variable: callee.variables) {
+            if (renamed.containsKey(variable.getName()) || callee.parameters.contains(variable)) continue;
+            IRVariableOperand copy = IRInstructions.newVariable(caller, callee.name + "_" + variable.getName(), variable.type);
+            renamed.put(variable.getName(), copy);
+            if (variable.type instanceof IRArrayType) {
+                int size = ((IRArrayType) variable.type).getSize();
+                body.add(IRInstructions.create(IRInstruction.OpCode.ASSIGN, line, copy, IRInstructions.intConstant(size),
+                        zero(((IRArrayType) variable.type).getElementType() == IRFloatType.get())));
+            } else {
+                body.add(IRInstructions.assign(copy, zero(variable.type == IRFloatType.get()), line));
+            }
+        }
+
+        HashSet<String> labels = new HashSet<>();
+        for (IRInstruction instruction: caller.instructions)
+            if (instruction.opCode == IRInstruction.OpCode.LABEL) labels.add(instruction.operands[0].toString());
+        String suffix = "_inline" + this.copies++;
+        HashMap<String, String> labelNames = new HashMap<>();
+        for (IRInstruction instruction: callee.instructions)
+            if (instruction.opCode == IRInstruction.OpCode.LABEL)
+                labelNames.put(instruction.operands[0].toString(), newLabel(labels, instruction.operands[0] + suffix));
+        String end = newLabel(labels, callee.name + "_return" + suffix);
+
+        for (IRInstruction instruction: callee.instructions) {
+            IROperand[] operands = new IROperand[instruction.operands.length];
+            for (int i = 0; i < operands.length; i++) {
+                IROperand operand = instruction.operands[i];
+                if (operand instanceof IRVariableOperand) operands[i] = renamed.get(operand.toString());
+                else if (operand instanceof IRLabelOperand)
+                    operands[i] = new IRLabelOperand(labelNames.get(operand.toString()), null);
+                else operands[i] = operand;
+            }
+
+            if (instruction.opCode == IRInstruction.OpCode.RETURN) {
+                if (result != null) body.add(IRInstructions.assign(result, operands[0], line));
+                body.add(IRInstructions.jump(end, line));
+            } else {
+                body.add(IRInstructions.create(instruction.opCode, instruction.irLineNumber, operands));
+            }
+        }
+
+        IRInstruction last = body.isEmpty() ? null : body.get(body.size() - 1);
+        if (last != null && last.opCode == IRInstruction.OpCode.GOTO && last.operands[0].toString().equals(end))
+            body.remove(body.size() - 1);
+        body.add(IRInstructions.label(end, line));
+
+        return body;
+    }
+
+    private static IRConstantOperand zero(boolean isFloat) {
+        return isFloat ? IRInstructions.floatConstant(0) : IRInstructions.intConstant(0);
+    }
+
+    private static String newLabel(HashSet<String> labels, String base) {
+        String label = base;
+        for (int i = 1; labels.contains(label); i++) label = String.format("%s_%d", base, i);
+        labels.add(label);
+        return label;
+    }
+}
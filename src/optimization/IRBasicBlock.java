@@ -0,0 +1,40 @@
+package optimization;
+
+import ir.IRInstruction;
+
+import java.util.ArrayList;
+
+public class IRBasicBlock {
+    public final int id;
+    public final ArrayList<IRInstruction> instructions = new ArrayList<>();
+    public final ArrayList<IRBasicBlock> successors = new ArrayList<>();
+    public final ArrayList<IRBasicBlock> predecessors = new ArrayList<>();
+
+    public IRBasicBlock(int id) {
+        this.id = id;
+    }
+
+    public String getLabel() {
+        if (!this.instructions.isEmpty() && this.instructions.get(0).opCode == IRInstruction.OpCode.LABEL)
+            return this.instructions.get(0).operands[0].toString();
+        return null;
+    }
+
+    public IRInstruction getLastInstruction() {
+        return this.instructions.isEmpty() ? null : this.instructions.get(this.instructions.size() - 1);
+    }
+
+    /**
+     * True if control can continue into the block that follows this one in program order
+     */
+    public boolean fallsThrough() {
+        IRInstruction last = this.getLastInstruction();
+        return last == null || (last.opCode != IRInstruction.OpCode.GOTO && last.opCode != IRInstruction.OpCode.RETURN);
+    }
+
+    @Override
+    public String toString() {
+        String label = this.getLabel();
+        return label != null ? label : "block" + this.id;
+    }
+}
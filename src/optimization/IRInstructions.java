@@ -0,0 +1,254 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRFloatType;
+import ir.datatype.IRIntType;
+import ir.datatype.IRType;
+import ir.operand.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Helpers for inspecting and building IR instructions in optimization passes
+ */
+public class IRInstructions {
+    public static final EnumSet<IRInstruction.OpCode> binaryCodes = EnumSet.of(
+            IRInstruction.OpCode.ADD, IRInstruction.OpCode.SUB, IRInstruction.OpCode.MULT,
+            IRInstruction.OpCode.DIV, IRInstruction.OpCode.AND, IRInstruction.OpCode.OR
+    );
+
+    public static final EnumSet<IRInstruction.OpCode> branchCodes = EnumSet.of(
+            IRInstruction.OpCode.BREQ, IRInstruction.OpCode.BRNEQ, IRInstruction.OpCode.BRLT,
+            IRInstruction.OpCode.BRGT, IRInstruction.OpCode.BRLEQ, IRInstruction.OpCode.BRGEQ
+    );
+
+    public static IROperand copyOperand(IROperand operand, IRInstruction parent) {
+        if (operand instanceof IRVariableOperand)
+            return new IRVariableOperand(((IRVariableOperand) operand).type, operand.toString(), parent);
+        if (operand instanceof IRConstantOperand)
+            return new IRConstantOperand(((IRConstantOperand) operand).type, operand.toString(), parent);
+        if (operand instanceof IRLabelOperand)
+            return new IRLabelOperand(operand.toString(), parent);
+        return new IRFunctionOperand(operand.toString(), parent);
+    }
+
+    public static IRInstruction create(IRInstruction.OpCode opCode, int irLineNumber, IROperand... operands) {
+        IRInstruction instruction = new IRInstruction();
+        instruction.opCode = opCode;
+        instruction.irLineNumber = irLineNumber;
+        instruction.operands = new IROperand[operands.length];
+        for (int i = 0; i < operands.length; i++) instruction.operands[i] = copyOperand(operands[i], instruction);
+        return instruction;
+    }
+
+    public static IRInstruction copy(IRInstruction instruction) {
+        return create(instruction.opCode, instruction.irLineNumber, instruction.operands);
+    }
+
+    public static IRInstruction withOperand(IRInstruction instruction, int i, IROperand operand) {
+        IROperand[] operands = instruction.operands.clone();
+        operands[i] = operand;
+        return create(instruction.opCode, instruction.irLineNumber, operands);
+    }
+
+    public static IRInstruction assign(IRVariableOperand target, IROperand value, int irLineNumber) {
+        return create(IRInstruction.OpCode.ASSIGN, irLineNumber, target, value);
+    }
+
+    public static IRInstruction label(String name, int irLineNumber) {
+        return create(IRInstruction.OpCode.LABEL, irLineNumber, new IRLabelOperand(name, null));
+    }
+
+    public static IRInstruction jump(String label, int irLineNumber) {
+        return create(IRInstruction.OpCode.GOTO, irLineNumber, new IRLabelOperand(label, null));
+    }
+
+    /**
+     * Adds a variable named after base that clashes with nothing in the function and returns it
+     */
+    public static IRVariableOperand newVariable(IRFunction function, String base, IRType type) {
+        HashSet<String> names = new HashSet<>();
+        for (IRVariableOperand variable: function.variables) names.add(variable.getName());
+        for (IRVariableOperand parameter: function.parameters) names.add(parameter.getName());
+
+        String name = base;
+        for (int i = 1; names.contains(name); i++) name = String.format("%s_%d", base, i);
+        IRVariableOperand variable = new IRVariableOperand(type, name, null);
+        function.variables.add(variable);
+        return variable;
+    }
+
+    public static IRConstantOperand intConstant(int value) {
+        return new IRConstantOperand(IRIntType.get(), Integer.toString(value), null);
+    }
+
+    /**
+     * Returns a float constant in the plain decimal notation IRReader accepts, or null if there is none
+     */
+    public static IRConstantOperand floatConstant(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) return null;
+        String text = new BigDecimal(Float.toString(value)).toPlainString();
+        if (text.indexOf('.') == -1) text += ".0";
+        if (value == 0 && 1 / value < 0) return null; // -0.0 would read back as 0.0
+        return new IRConstantOperand(IRFloatType.get(), text, null);
+    }
+
+    public static boolean isConstant(IROperand operand) {
+        return operand instanceof IRConstantOperand;
+    }
+
+    public static boolean isIntConstant(IROperand operand, int value) {
+        return operand instanceof IRConstantOperand && ((IRConstantOperand) operand).type == IRIntType.get()
+                && Integer.parseInt(operand.toString()) == value;
+    }
+
+    public static boolean isFloatConstant(IROperand operand, float value) {
+        return operand instanceof IRConstantOperand && ((IRConstantOperand) operand).type == IRFloatType.get()
+                && Float.parseFloat(operand.toString()) == value;
+    }
+
+    public static IRType getType(IROperand operand) {
+        if (operand instanceof IRVariableOperand) return ((IRVariableOperand) operand).type;
+        if (operand instanceof IRConstantOperand) return ((IRConstantOperand) operand).type;
+        return null;
+    }
+
+    public static boolean isScalarVariable(IROperand operand) {
+        return operand instanceof IRVariableOperand && !(((IRVariableOperand) operand).type instanceof IRArrayType);
+    }
+
+    public static boolean isBranch(IRInstruction instruction) {
+        return branchCodes.contains(instruction.opCode);
+    }
+
+    public static String getLabel(IRInstruction instruction) {
+        if (instruction.opCode == IRInstruction.OpCode.LABEL || instruction.opCode == IRInstruction.OpCode.GOTO
+                || branchCodes.contains(instruction.opCode))
+            return instruction.operands[0].toString();
+        return null;
+    }
+
+    public static String getCallee(IRInstruction instruction) {
+        if (instruction.opCode == IRInstruction.OpCode.CALL) return instruction.operands[0].toString();
+        if (instruction.opCode == IRInstruction.OpCode.CALLR) return instruction.operands[1].toString();
+        return null;
+    }
+
+    /**
+     * True if the call at index is the last thing its function does: following labels and gotos from it
+     * leads to the end of a void function, or to a return of the value the call produced
+     */
+    public static boolean isTailCall(IRFunction function, int index) {
+        IRInstruction call = function.instructions.get(index);
+        if (getCallee(call) == null) return false;
+
+        HashMap<String, Integer> labels = new HashMap<>();
+        for (int i = 0; i < function.instructions.size(); i++)
+            if (function.instructions.get(i).opCode == IRInstruction.OpCode.LABEL)
+                labels.put(function.instructions.get(i).operands[0].toString(), i);
+
+        HashSet<Integer> visited = new HashSet<>();
+        for (int i = index + 1; i < function.instructions.size(); i++) {
+            IRInstruction instruction = function.instructions.get(i);
+            if (instruction.opCode == IRInstruction.OpCode.LABEL) continue;
+            if (instruction.opCode == IRInstruction.OpCode.GOTO) {
+                i = labels.get(instruction.operands[0].toString());
+                if (!visited.add(i)) return false;
+                continue;
+            }
+            return instruction.opCode == IRInstruction.OpCode.RETURN && call.opCode == IRInstruction.OpCode.CALLR
+                    && instruction.operands[0].toString().equals(call.operands[0].toString());
+        }
+        return function.returnType == null;
+    }
+
+    /**
+     * Returns the scalar variable written by the instruction, or null if it writes none
+     */
+    public static IRVariableOperand getDef(IRInstruction instruction) {
+        switch (instruction.opCode) {
+            case ASSIGN:
+                // An array fill writes memory, not the variable
+                return instruction.operands.length == 3 ? null : (IRVariableOperand) instruction.operands[0];
+            case ADD:
+            case SUB:
+            case MULT:
+            case DIV:
+            case AND:
+            case OR:
+            case CALLR:
+            case ARRAY_LOAD:
+                return (IRVariableOperand) instruction.operands[0];
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the positions of the operands whose values the instruction reads
+     */
+    public static int[] getUsePositions(IRInstruction instruction) {
+        switch (instruction.opCode) {
+            case ASSIGN:
+                if (instruction.operands.length == 3) return new int[]{0, 2};
+                return new int[]{1};
+            case ADD:
+            case SUB:
+            case MULT:
+            case DIV:
+            case AND:
+            case OR:
+            case ARRAY_LOAD:
+            case BREQ:
+            case BRNEQ:
+            case BRLT:
+            case BRGT:
+            case BRLEQ:
+            case BRGEQ:
+                return new int[]{1, 2};
+            case ARRAY_STORE:
+                return new int[]{0, 1, 2};
+            case RETURN:
+                return new int[]{0};
+            case CALL:
+            case CALLR: {
+                int start = instruction.opCode == IRInstruction.OpCode.CALL ? 1 : 2;
+                int[] positions = new int[instruction.operands.length - start];
+                for (int i = 0; i < positions.length; i++) positions[i] = start + i;
+                return positions;
+            }
+            default:
+                return new int[0];
+        }
+    }
+
+    public static ArrayList<IRVariableOperand> getUses(IRInstruction instruction) {
+        ArrayList<IRVariableOperand> uses = new ArrayList<>();
+        for (int position: getUsePositions(instruction))
+            if (instruction.operands[position] instanceof IRVariableOperand)
+                uses.add((IRVariableOperand) instruction.operands[position]);
+        return uses;
+    }
+
+    /**
+     * True if the operand at a use position may be replaced by a constant without breaking the IR
+     */
+    public static boolean acceptsConstant(IRInstruction instruction, int position) {
+        switch (instruction.opCode) {
+            case ASSIGN:
+                return position != 0;
+            case ARRAY_LOAD:
+                return position == 2;
+            case ARRAY_STORE:
+                return position != 1;
+            default:
+                return true;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash-based value numbering within each basic block. An arithmetic instruction or array_load that
+ * recomputes a value some variable still holds becomes a copy of that variable, and a load of an element
+ * stored earlier in the block becomes a copy of the stored value. Any array_store, array fill or call may
+ * write memory, so it forgets every remembered load.
+ */
+public class LocalValueNumbering implements OptimizationPass {
+    private HashMap<String, Integer> variableNumbers;
+    private HashMap<String, Integer> constantNumbers;
+    private HashMap<String, Integer> expressionNumbers;
+    private HashMap<String, Integer> loadNumbers;
+    private HashMap<Integer, IROperand> holders;
+    private int nextNumber;
+
+    @Override
+    public String getName() {
+        return "local-value-numbering";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        int changes = 0;
+        for (IRFunction function: program.functions) {
+            ControlFlowGraph cfg = new ControlFlowGraph(function);
+            int functionChanges = 0;
+            for (IRBasicBlock block: cfg.blocks) functionChanges += this.numberBlock(block);
+            if (functionChanges > 0) cfg.linearize();
+            changes += functionChanges;
+        }
+        return changes;
+    }
+
+    private int numberBlock(IRBasicBlock block) {
+        this.variableNumbers = new HashMap<>();
+        this.constantNumbers = new HashMap<>();
+        this.expressionNumbers = new HashMap<>();
+        this.loadNumbers = new HashMap<>();
+        this.holders = new HashMap<>();
+        this.nextNumber = 0;
+        int changes = 0;
+
+        for (int i = 0; i < block.instructions.size(); i++) {
+            IRInstruction instruction = block.instructions.get(i);
+            switch (instruction.opCode) {
+                case ADD:
+                case SUB:
+                case MULT:
+                case DIV:
+                case AND:
+                case OR: {
+                    IRType type = ((IRVariableOperand) instruction.operands[0]).type;
+                    int y = this.numberOf(instruction.operands[1]);
+                    int z = this.numberOf(instruction.operands[2]);
+                    if (isCommutative(instruction.opCode) && z < y) {
+                        int t = y;
+                        y = z;
+                        z = t;
+                    }
+                    String key = String.format("%s %s %d %d", instruction.opCode, type, y, z);
+                    IRInstruction replacement = this.reuse(this.expressionNumbers, key, instruction);
+                    if (replacement != instruction) changes++;
+                    if (replacement == null) block.instructions.remove(i--);
+                    else block.instructions.set(i, replacement);
+                    break;
+                }
+                case ARRAY_LOAD: {
+                    String key = this.loadKey(instruction.operands[1], instruction.operands[2]);
+                    IRInstruction replacement = this.reuse(this.loadNumbers, key, instruction);
+                    if (replacement != instruction) changes++;
+                    if (replacement == null) block.instructions.remove(i--);
+                    else block.instructions.set(i, replacement);
+                    break;
+                }
+                case ARRAY_STORE: {
+                    String key = this.loadKey(instruction.operands[1], instruction.operands[2]);
+                    this.loadNumbers.clear();
+                    this.loadNumbers.put(key, this.numberOf(instruction.operands[0]));
+                    break;
+                }
+                case ASSIGN:
+                    if (instruction.operands.length == 3) {
+                        this.loadNumbers.clear();
+                        break;
+                    }
+                    this.define((IRVariableOperand) instruction.operands[0], this.numberOf(instruction.operands[1]));
+                    break;
+                case CALL:
+                case CALLR:
+                    // Calls save and restore every variable, so recomputing beats keeping a result alive across one
+                    this.expressionNumbers.clear();
+                    this.loadNumbers.clear();
+                    if (instruction.opCode == IRInstruction.OpCode.CALLR)
+                        this.define((IRVariableOperand) instruction.operands[0], this.nextNumber++);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return changes;
+    }
+
+    private static boolean isCommutative(IRInstruction.OpCode opCode) {
+        return opCode == IRInstruction.OpCode.ADD || opCode == IRInstruction.OpCode.MULT
+                || opCode == IRInstruction.OpCode.AND || opCode == IRInstruction.OpCode.OR;
+    }
+
+    private String loadKey(IROperand array, IROperand index) {
+        // Keyed by the array's value number, so loads through a copied array pointer match too
+        return String.format("%d %d", this.numberOf(array), this.numberOf(index));
+    }
+
+    private int numberOf(IROperand operand) {
+        if (operand instanceof IRConstantOperand) {
+            String key = String.format("%s %s", ((IRConstantOperand) operand).type, operand);
+            Integer number = this.constantNumbers.get(key);
+            if (number == null) {
+                number = this.nextNumber++;
+                this.constantNumbers.put(key, number);
+                this.holders.put(number, operand);
+            }
+            return number;
+        }
+
+        Integer number = this.variableNumbers.get(operand.toString());
+        if (number == null) {
+            number = this.nextNumber++;
+            this.variableNumbers.put(operand.toString(), number);
+            this.holders.put(number, operand);
+        }
+        return number;
+    }
+
+    private void define(IRVariableOperand variable, int number) {
+        this.variableNumbers.put(variable.getName(), number);
+        IROperand holder = this.holders.get(number);
+        if (holder == null || !this.holds(holder, number)) this.holders.put(number, variable);
+    }
+
+    /**
+     * True if the operand still carries the value number, which a variable stops doing once it is redefined
+     */
+    private boolean holds(IROperand holder, int number) {
+        if (holder instanceof IRConstantOperand) return true;
+        Integer current = this.variableNumbers.get(holder.toString());
+        return current != null && current == number;
+    }
+
+    /**
+     * Returns an operand that currently carries the value number, or null if every variable that held it was redefined
+     */
+    private IROperand findHolder(int number) {
+        IROperand holder = this.holders.get(number);
+        if (holder != null && this.holds(holder, number)) return holder;
+
+        for (Map.Entry<String, Integer> entry: this.variableNumbers.entrySet()) {
+            if (entry.getValue() != number) continue;
+            holder = new IRVariableOperand(IRInstructions.getType(holder), entry.getKey(), null);
+            this.holders.put(number, holder);
+            return holder;
+        }
+        return null;
+    }
+
+    /**
+     * Returns a copy replacing the instruction if some operand still holds the value it computes, null if its
+     * destination already holds that value, or the instruction itself if the value is new
+     */
+    private IRInstruction reuse(HashMap<String, Integer> table, String key, IRInstruction instruction) {
+        IRVariableOperand x = (IRVariableOperand) instruction.operands[0];
+        Integer number = table.get(key);
+        if (number != null) {
+            IROperand holder = this.findHolder(number);
+            if (holder != null) {
+                if (holder instanceof IRVariableOperand && holder.toString().equals(x.getName())) return null;
+                this.define(x, number);
+                return IRInstructions.assign(x, holder, instruction.irLineNumber);
+            }
+        }
+
+        int fresh = this.nextNumber++;
+        table.put(key, fresh);
+        this.define(x, fresh);
+        return instruction;
+    }
+}
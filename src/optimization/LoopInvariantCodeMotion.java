@@ -0,0 +1,190 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRFloatType;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.*;
+
+/**
+ * Moves loop-invariant computations into a preheader in front of each natural loop, innermost loops first so
+ * code can move out of a whole nest. An instruction is invariant if every definition reaching its operands
+ * is outside the loop or is itself invariant. It is moved if it is the only definition of its variable in the
+ * loop and the only one the loop's uses of that variable see. Code that runs before every exit keeps its
+ * meaning in the preheader. Code that might be skipped is only moved when it cannot trap (so no div by a
+ * variable, array_load, or add/sub that might overflow) and its variable is not read after the loop.
+ * An array_load is invariant when nothing in the loop may write its array: a store, fill or call argument on
+ * the same array, or on any array parameter if it is one, since parameters can alias each other. An int
+ * variable used as an address (see {@link StrengthReduction}) may point into any array.
+ */
+public class LoopInvariantCodeMotion implements OptimizationPass {
+    private HashSet<String> parameters;
+    private HashSet<String> arrays;
+    private HashMap<IRInstruction, IRBasicBlock> owners;
+
+    @Override
+    public String getName() {
+        return "licm";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        int changes = 0;
+        for (IRFunction function: program.functions) changes += this.optimizeFunction(function);
+        return changes;
+    }
+
+    private int optimizeFunction(IRFunction function) {
+        this.parameters = new HashSet<>();
+        for (IRVariableOperand parameter: function.parameters) this.parameters.add(parameter.getName());
+        this.arrays = new HashSet<>();
+        for (IRVariableOperand variable: function.variables)
+            if (variable.type instanceof IRArrayType) this.arrays.add(variable.getName());
+
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        int changes = cfg.removeUnreachableBlocks();
+        ArrayList<NaturalLoop> loops = NaturalLoop.findLoops(cfg, new DominatorTree(cfg));
+        for (NaturalLoop loop: loops) changes += this.hoist(cfg, loop, loops);
+        if (changes > 0) cfg.linearize();
+
+        return changes;
+    }
+
+    private boolean mayAlias(String a, String b) {
+        if (!this.arrays.contains(a) || !this.arrays.contains(b)) return true;
+        return a.equals(b) || (this.parameters.contains(a) && this.parameters.contains(b));
+    }
+
+    private int hoist(ControlFlowGraph cfg, NaturalLoop loop, ArrayList<NaturalLoop> loops) {
+        DominatorTree dominators = new DominatorTree(cfg);
+        DefUseChains chains = new DefUseChains(cfg);
+
+        this.owners = new HashMap<>();
+        HashMap<String, Integer> loopDefinitions = new HashMap<>();
+        HashSet<String> writtenArrays = new HashSet<>();
+        for (IRBasicBlock block: loop.blocks) {
+            for (IRInstruction instruction: block.instructions) {
+                this.owners.put(instruction, block);
+                IRVariableOperand def = IRInstructions.getDef(instruction);
+                if (def != null) loopDefinitions.merge(def.getName(), 1, Integer::sum);
+                if (instruction.opCode == IRInstruction.OpCode.ARRAY_STORE)
+                    writtenArrays.add(instruction.operands[1].toString());
+                else if (instruction.opCode == IRInstruction.OpCode.ASSIGN && instruction.operands.length == 3)
+                    writtenArrays.add(instruction.operands[0].toString());
+                else if (IRInstructions.getCallee(instruction) != null)
+                    for (IROperand operand: instruction.operands)
+                        if (IRInstructions.getType(operand) instanceof IRArrayType) writtenArrays.add(operand.toString());
+            }
+        }
+
+        // Marked in an order where each instruction comes after the invariant definitions it reads
+        LinkedHashSet<IRInstruction> invariant = new LinkedHashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IRBasicBlock block: loop.blocks) {
+                for (IRInstruction instruction: block.instructions) {
+                    if (invariant.contains(instruction) || !this.isCandidate(instruction, writtenArrays)) continue;
+                    if (!this.hasInvariantOperands(instruction, loop, chains, invariant)) continue;
+                    invariant.add(instruction);
+                    changed = true;
+                }
+            }
+        }
+
+        ArrayList<IRInstruction> hoisted = new ArrayList<>();
+        for (IRInstruction instruction: invariant)
+            if (this.canHoist(instruction, loop, chains, dominators, loopDefinitions, hoisted, cfg)) hoisted.add(instruction);
+        if (hoisted.isEmpty()) return 0;
+
+        IRBasicBlock preheader = loop.createPreheader(cfg, loops);
+        if (preheader == null) return 0;
+        for (IRInstruction instruction: hoisted) {
+            this.owners.get(instruction).instructions.remove(instruction);
+            preheader.instructions.add(instruction);
+        }
+        return hoisted.size();
+    }
+
+    private boolean isCandidate(IRInstruction instruction, HashSet<String> writtenArrays) {
+        IRVariableOperand def = IRInstructions.getDef(instruction);
+        if (def == null || !IRInstructions.isScalarVariable(def)) return false;
+        if (IRInstructions.binaryCodes.contains(instruction.opCode)) return true;
+        if (instruction.opCode == IRInstruction.OpCode.ASSIGN) return true;
+        if (instruction.opCode != IRInstruction.OpCode.ARRAY_LOAD) return false;
+
+        for (String array: writtenArrays)
+            if (this.mayAlias(array, instruction.operands[1].toString())) return false;
+        return true;
+    }
+
+    private boolean hasInvariantOperands(IRInstruction instruction, NaturalLoop loop, DefUseChains chains,
+                                         LinkedHashSet<IRInstruction> invariant) {
+        for (IRVariableOperand use: IRInstructions.getUses(instruction)) {
+            if (!IRInstructions.isScalarVariable(use)) continue;
+            ArrayList<IRInstruction> defs = chains.getDefinitions(instruction, use.getName());
+            boolean definedInLoop = false;
+            for (IRInstruction def: defs) if (loop.contains(this.owners.get(def))) definedInLoop = true;
+            if (!definedInLoop) continue;
+            if (defs.size() != 1 || chains.readsEntryValue(instruction, use.getName()) || !invariant.contains(defs.get(0)))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean canHoist(IRInstruction instruction, NaturalLoop loop, DefUseChains chains, DominatorTree dominators,
+                             HashMap<String, Integer> loopDefinitions, ArrayList<IRInstruction> hoisted,
+                             ControlFlowGraph cfg) {
+        String x = IRInstructions.getDef(instruction).getName();
+        if (loopDefinitions.get(x) != 1) return false;
+
+        // The invariant definitions it reads have to move first
+        for (IRVariableOperand use: IRInstructions.getUses(instruction))
+            for (IRInstruction def: chains.getDefinitions(instruction, use.getName()))
+                if (loop.contains(this.owners.get(def)) && !hoisted.contains(def)) return false;
+
+        for (IRBasicBlock block: loop.blocks) {
+            for (IRInstruction user: block.instructions) {
+                if (!this.reads(user, x)) continue;
+                ArrayList<IRInstruction> defs = chains.getDefinitions(user, x);
+                if (defs.size() != 1 || defs.get(0) != instruction || chains.readsEntryValue(user, x)) return false;
+            }
+        }
+
+        if (loop.alwaysExecutes(this.owners.get(instruction), dominators)) return true;
+        if (!canSpeculate(instruction)) return false;
+        for (IRBasicBlock block: cfg.blocks) {
+            if (loop.contains(block)) continue;
+            for (IRInstruction user: block.instructions) if (this.reads(user, x)) return false;
+        }
+        return true;
+    }
+
+    private boolean reads(IRInstruction instruction, String variable) {
+        for (IRVariableOperand use: IRInstructions.getUses(instruction))
+            if (use.getName().equals(variable)) return true;
+        return false;
+    }
+
+    /**
+     * True if executing the instruction where the loop would not have cannot trap
+     */
+    private static boolean canSpeculate(IRInstruction instruction) {
+        switch (instruction.opCode) {
+            case ASSIGN:
+            case MULT:
+            case AND:
+            case OR:
+                return true;
+            case DIV:
+                if (((IRVariableOperand) instruction.operands[0]).type == IRFloatType.get()) return true;
+                return IRInstructions.isConstant(instruction.operands[2]) && !IRInstructions.isIntConstant(instruction.operands[2], 0);
+            default:
+                return false;
+        }
+    }
+}
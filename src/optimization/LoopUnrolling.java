@@ -0,0 +1,375 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.*;
+
+/**
+ * Unrolls counted loops. A loop is counted when its header is just a branch out of the loop and its body is
+ * one block that the header falls into and that jumps back to it. The branch also has to compare an int
+ * induction variable with a bound the loop does not write, where the body steps the variable once by a
+ * constant, and the exit condition has to stay true once the variable has moved past the bound.
+ *
+ * If the block in front of the loop shows how many times it runs, and that many copies of the body fit in the
+ * size budget, the copies replace the loop. Otherwise factor copies of the body become a loop of their own in
+ * front of the original one. It is entered while factor more iterations remain, which is checked by comparing
+ * the variable with the bound less factor - 1 steps, and the original loop runs what is left. A constant
+ * bound is only moved if the result is still an int; a variable one is moved at run time, behind a test that
+ * sends bounds too close to the end of the int range straight to the original loop. A variable the body only
+ * steps and uses as an array pointer (see {@link StrengthReduction}) is stepped once after the copies, whose
+ * indices are offset instead.
+ *
+ * Each function may grow by at most the size budget, and the factor is lowered for loops that would not fit.
+ * With a profile, only hot loops (see {@link BlockFrequencies#isHot}) are unrolled.
+ */
+public class LoopUnrolling implements OptimizationPass {
+    public static final int DEFAULT_FACTOR = 4;
+    public static final int DEFAULT_SIZE_BUDGET = 64;
+    public static final int MAX_FULL_TRIP_COUNT = 16;
+
+    private static final EnumMap<IRInstruction.OpCode, IRInstruction.OpCode> swapped = new EnumMap<>(IRInstruction.OpCode.class);
+
+    static {
+        swapped.put(IRInstruction.OpCode.BREQ, IRInstruction.OpCode.BREQ);
+        swapped.put(IRInstruction.OpCode.BRNEQ, IRInstruction.OpCode.BRNEQ);
+        swapped.put(IRInstruction.OpCode.BRLT, IRInstruction.OpCode.BRGT);
+        swapped.put(IRInstruction.OpCode.BRGT, IRInstruction.OpCode.BRLT);
+        swapped.put(IRInstruction.OpCode.BRLEQ, IRInstruction.OpCode.BRGEQ);
+        swapped.put(IRInstruction.OpCode.BRGEQ, IRInstruction.OpCode.BRLEQ);
+    }
+
+    public int factor = DEFAULT_FACTOR;
+    public int sizeBudget = DEFAULT_SIZE_BUDGET;
+    public BlockFrequencies frequencies = null;
+
+    private IRFunction function;
+    private HashSet<String> labels;
+
+    private static class CountedLoop {
+        final IRBasicBlock header;
+        final IRBasicBlock body;
+        final IRInstruction branch;
+        final int variablePosition; // operand of the branch holding the induction variable
+        final int step;
+        IRInstruction increment;
+        boolean pointer; // the body reads the variable only as an array base with constant indices
+        int tripCount = -1;
+        int copies;
+
+        CountedLoop(IRBasicBlock header, IRBasicBlock body, IRInstruction branch, int variablePosition, int step) {
+            this.header = header;
+            this.body = body;
+            this.branch = branch;
+            this.variablePosition = variablePosition;
+            this.step = step;
+        }
+
+        IRVariableOperand getVariable() {
+            return (IRVariableOperand) this.branch.operands[this.variablePosition];
+        }
+
+        IROperand getBound() {
+            return this.branch.operands[3 - this.variablePosition];
+        }
+
+        /**
+         * The body without its jump back to the header
+         */
+        List<IRInstruction> getBodyInstructions() {
+            return this.body.instructions.subList(0, this.body.instructions.size() - 1);
+        }
+
+        /**
+         * True if the branch leaves the loop when the variable has the value, given the value of the bound
+         */
+        boolean exits(long value, long bound) {
+            IRInstruction.OpCode opCode = this.variablePosition == 1 ? this.branch.opCode : swapped.get(this.branch.opCode);
+            switch (opCode) {
+                case BRLT: return value < bound;
+                case BRGT: return value > bound;
+                case BRLEQ: return value <= bound;
+                case BRGEQ: return value >= bound;
+                default: return false;
+            }
+        }
+    }
+
+    /**
+     * A value known at the end of the block in front of a loop: an offset from the address of an array,
+     * or a plain number if array is null
+     */
+    private static class Affine {
+        final String array;
+        final long offset;
+
+        Affine(String array, long offset) {
+            this.array = array;
+            this.offset = offset;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "loop-unroll";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        int changes = 0;
+        for (IRFunction function: program.functions) changes += this.optimizeFunction(function);
+        return changes;
+    }
+
+    private int optimizeFunction(IRFunction function) {
+        this.function = function;
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        int changes = cfg.removeUnreachableBlocks();
+        this.labels = new HashSet<>(cfg.labelBlocks.keySet());
+
+        // Everything is decided before anything changes, while the blocks in front of the loops are intact
+        ArrayList<CountedLoop> unrolled = new ArrayList<>();
+        int budget = this.sizeBudget;
+        for (NaturalLoop loop: NaturalLoop.findLoops(cfg, new DominatorTree(cfg))) {
+            CountedLoop counted = this.recognize(cfg, loop);
+            if (counted == null) continue;
+            if (this.frequencies != null && !this.frequencies.isHot(counted.branch)) continue;
+
+            int size = counted.getBodyInstructions().size();
+            int trips = this.getTripCount(counted);
+            if (trips >= 0 && (trips - 1) * size <= budget) {
+                counted.tripCount = trips;
+                budget -= (trips - 1) * size;
+                unrolled.add(counted);
+                continue;
+            }
+
+            // The check, the jump back and two labels come with the copies
+            int copies = Math.min(this.factor, (budget - 4) / Math.max(size, 1));
+            if (copies < 2 || !this.canMoveBound(counted, copies)) continue;
+            counted.copies = copies;
+            budget -= copies * size + 4;
+            unrolled.add(counted);
+        }
+
+        for (CountedLoop counted: unrolled) {
+            if (counted.tripCount >= 0) this.unrollFully(counted);
+            else this.unroll(counted);
+            changes++;
+        }
+        if (changes > 0) cfg.linearize();
+        return changes;
+    }
+
+    private CountedLoop recognize(ControlFlowGraph cfg, NaturalLoop loop) {
+        if (loop.blocks.size() != 2 || loop.latches.size() != 1) return null;
+        IRBasicBlock header = loop.header;
+        IRBasicBlock body = loop.latches.get(0);
+        int position = cfg.blocks.indexOf(header);
+        if (body == header || position + 1 >= cfg.blocks.size() || cfg.blocks.get(position + 1) != body) return null;
+
+        IRInstruction branch = header.getLastInstruction();
+        if (branch == null || !IRInstructions.isBranch(branch)) return null;
+        for (IRInstruction instruction: header.instructions)
+            if (instruction != branch && instruction.opCode != IRInstruction.OpCode.LABEL) return null;
+        if (loop.contains(cfg.labelBlocks.get(branch.operands[0].toString()))) return null;
+
+        IRInstruction jump = body.getLastInstruction();
+        if (jump.opCode != IRInstruction.OpCode.GOTO || cfg.labelBlocks.get(jump.operands[0].toString()) != header) return null;
+        HashMap<String, ArrayList<IRInstruction>> definitions = new HashMap<>();
+        for (IRInstruction instruction: body.instructions) {
+            if (instruction.opCode == IRInstruction.OpCode.LABEL) return null;
+            IRVariableOperand def = IRInstructions.getDef(instruction);
+            if (def != null) definitions.computeIfAbsent(def.getName(), k -> new ArrayList<>()).add(instruction);
+        }
+
+        for (int i = 1; i <= 2; i++) {
+            IROperand variable = branch.operands[i];
+            IROperand bound = branch.operands[3 - i];
+            if (!(variable instanceof IRVariableOperand) || IRInstructions.getType(variable) != IRIntType.get()) continue;
+            if (IRInstructions.getType(bound) != IRIntType.get() || definitions.containsKey(bound.toString())) continue;
+            ArrayList<IRInstruction> steps = definitions.get(variable.toString());
+            if (steps == null || steps.size() != 1) continue;
+            Integer step = StrengthReduction.getStep(steps.get(0), variable.toString());
+            if (step == null || step == 0) continue;
+
+            CountedLoop counted = new CountedLoop(header, body, branch, i, step);
+            counted.increment = steps.get(0);
+            // The exit condition has to hold from some iteration on
+            if (!counted.exits(step > 0 ? Long.MAX_VALUE : Long.MIN_VALUE, 0)) continue;
+            counted.pointer = step % 4 == 0 && this.isPointer(counted);
+            return counted;
+        }
+        return null;
+    }
+
+    /**
+     * False if a constant bound moved back by copies - 1 steps would not be an int
+     */
+    private boolean canMoveBound(CountedLoop counted, int copies) {
+        if (!(counted.getBound() instanceof IRConstantOperand)) return true;
+        long limit = Long.parseLong(counted.getBound().toString()) - (long) (copies - 1) * counted.step;
+        return limit >= Integer.MIN_VALUE && limit <= Integer.MAX_VALUE;
+    }
+
+    private static boolean isArrayAccess(IRInstruction instruction) {
+        return instruction.opCode == IRInstruction.OpCode.ARRAY_LOAD || instruction.opCode == IRInstruction.OpCode.ARRAY_STORE;
+    }
+
+    private boolean isPointer(CountedLoop counted) {
+        String variable = counted.getVariable().getName();
+        for (IRInstruction instruction: counted.getBodyInstructions()) {
+            if (instruction == counted.increment) continue;
+            for (int position: IRInstructions.getUsePositions(instruction)) {
+                if (!instruction.operands[position].toString().equals(variable)) continue;
+                if (!isArrayAccess(instruction) || position != 1 || !(instruction.operands[2] instanceof IRConstantOperand))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static Affine getValue(HashMap<String, Affine> values, IROperand operand) {
+        if (operand instanceof IRConstantOperand) {
+            if (IRInstructions.getType(operand) != IRIntType.get()) return null;
+            return new Affine(null, Long.parseLong(operand.toString()));
+        }
+        if (IRInstructions.getType(operand) instanceof IRArrayType) return new Affine(operand.toString(), 0);
+        return values.get(operand.toString());
+    }
+
+    /**
+     * Returns how many times the loop runs whenever it is entered, or -1 if that is not known from the block
+     * in front of it or is more than MAX_FULL_TRIP_COUNT
+     */
+    private int getTripCount(CountedLoop counted) {
+        IRBasicBlock entry = null;
+        for (IRBasicBlock predecessor: counted.header.predecessors) {
+            if (predecessor == counted.body) continue;
+            if (entry != null) return -1;
+            entry = predecessor;
+        }
+        if (entry == null) return -1;
+
+        HashMap<String, Affine> values = new HashMap<>();
+        for (IRInstruction instruction: entry.instructions) {
+            IRVariableOperand def = IRInstructions.getDef(instruction);
+            if (def == null) continue;
+            values.remove(def.getName());
+            Affine y = instruction.operands.length > 1 ? getValue(values, instruction.operands[1]) : null;
+            Affine z = instruction.operands.length > 2 ? getValue(values, instruction.operands[2]) : null;
+            Affine value = null;
+            if (instruction.opCode == IRInstruction.OpCode.ASSIGN && instruction.operands.length == 2) value = y;
+            else if (y == null || z == null) value = null;
+            else if (instruction.opCode == IRInstruction.OpCode.ADD && (y.array == null || z.array == null))
+                value = new Affine(y.array != null ? y.array : z.array, y.offset + z.offset);
+            else if (instruction.opCode == IRInstruction.OpCode.SUB && z.array == null)
+                value = new Affine(y.array, y.offset - z.offset);
+            else if (instruction.opCode == IRInstruction.OpCode.MULT && y.array == null && z.array == null)
+                value = new Affine(null, y.offset * z.offset);
+            if (value != null && Math.abs(value.offset) <= Integer.MAX_VALUE) values.put(def.getName(), value);
+        }
+
+        Affine start = values.get(counted.getVariable().getName());
+        Affine bound = getValue(values, counted.getBound());
+        if (start == null || bound == null || !Objects.equals(start.array, bound.array)) return -1;
+        for (int trips = 0; trips <= MAX_FULL_TRIP_COUNT; trips++)
+            if (counted.exits(start.offset + (long) trips * counted.step, bound.offset)) return trips;
+        return -1;
+    }
+
+    private String newLabel(String base) {
+        String label = base;
+        for (int i = 1; this.labels.contains(label); i++) label = String.format("%s_%d", base, i);
+        this.labels.add(label);
+        return label;
+    }
+
+    /**
+     * Returns copies of the body for the given number of iterations, with a pointer stepped once at the end
+     */
+    private ArrayList<IRInstruction> copyBody(CountedLoop counted, int iterations) {
+        ArrayList<IRInstruction> copies = new ArrayList<>();
+        IRVariableOperand variable = counted.getVariable();
+        for (int copy = 0; copy < iterations; copy++) {
+            int steps = copy;
+            for (IRInstruction instruction: counted.getBodyInstructions()) {
+                if (counted.pointer && instruction == counted.increment) {
+                    steps++;
+                    continue;
+                }
+                if (counted.pointer && steps > 0 && isArrayAccess(instruction)
+                        && instruction.operands[1].toString().equals(variable.getName())) {
+                    int index = Integer.parseInt(instruction.operands[2].toString()) + steps * counted.step / 4;
+                    copies.add(IRInstructions.withOperand(instruction, 2, IRInstructions.intConstant(index)));
+                } else {
+                    copies.add(IRInstructions.copy(instruction));
+                }
+            }
+        }
+        if (counted.pointer && iterations > 0)
+            copies.add(IRInstructions.create(IRInstruction.OpCode.ADD, counted.increment.irLineNumber, variable, variable,
+                    IRInstructions.intConstant(iterations * counted.step)));
+        return copies;
+    }
+
+    private void unrollFully(CountedLoop counted) {
+        ArrayList<IRInstruction> instructions = new ArrayList<>();
+        for (IRInstruction instruction: counted.header.instructions)
+            if (instruction.opCode == IRInstruction.OpCode.LABEL) instructions.add(instruction);
+        instructions.addAll(this.copyBody(counted, counted.tripCount));
+        instructions.add(IRInstructions.jump(counted.branch.operands[0].toString(), counted.branch.irLineNumber));
+
+        counted.header.instructions.clear();
+        counted.header.instructions.addAll(instructions);
+        counted.body.instructions.clear();
+    }
+
+    private void unroll(CountedLoop counted) {
+        String header = counted.header.getLabel();
+        String unrolled = this.newLabel(header + "_unrolled");
+        String remainder = this.newLabel(header + "_remainder");
+        int span = (counted.copies - 1) * counted.step;
+
+        ArrayList<IRInstruction> instructions = new ArrayList<>();
+        for (IRInstruction instruction: counted.header.instructions)
+            if (instruction.opCode == IRInstruction.OpCode.LABEL) instructions.add(instruction);
+
+        // The tests of all the copies pass if the variable is below the bound less span
+        IROperand bound = counted.getBound();
+        IROperand limit;
+        if (bound instanceof IRConstantOperand) {
+            limit = IRInstructions.intConstant(Integer.parseInt(bound.toString()) - span);
+        } else {
+            // A bound within span of the end of the int range would overflow, so it goes to the original loop
+            long edge = span > 0 ? (long) Integer.MIN_VALUE + span : (long) Integer.MAX_VALUE + span;
+            instructions.add(IRInstructions.create(span > 0 ? IRInstruction.OpCode.BRLT : IRInstruction.OpCode.BRGT, 0,
+                    new IRLabelOperand(remainder, null), bound, IRInstructions.intConstant((int) edge)));
+            IRVariableOperand variable = IRInstructions.newVariable(this.function, bound + "_unrolled", IRIntType.get());
+            instructions.add(IRInstructions.create(IRInstruction.OpCode.SUB, 0, variable, bound, IRInstructions.intConstant(span)));
+            limit = variable;
+        }
+        instructions.add(IRInstructions.label(unrolled, 0));
+        IROperand[] operands = counted.branch.operands.clone();
+        operands[0] = new IRLabelOperand(remainder, null);
+        operands[3 - counted.variablePosition] = limit;
+        instructions.add(IRInstructions.create(counted.branch.opCode, 0, operands));
+        instructions.addAll(this.copyBody(counted, counted.copies));
+        instructions.add(IRInstructions.jump(unrolled, 0));
+
+        instructions.add(IRInstructions.label(remainder, 0));
+        instructions.add(counted.branch);
+        counted.header.instructions.clear();
+        counted.header.instructions.addAll(instructions);
+
+        ArrayList<IRInstruction> body = counted.body.instructions;
+        body.set(body.size() - 1, IRInstructions.jump(remainder, body.get(body.size() - 1).irLineNumber));
+    }
+}
@@ -0,0 +1,121 @@
+package optimization;
+
+import ir.IRInstruction;
+import ir.operand.IRLabelOperand;
+
+import java.util.*;
+
+/**
+ * The natural loop of a header: the header plus every block that reaches one of its back edges without going
+ * through the header. Back edges sharing a header make up one loop.
+ */
+public class NaturalLoop {
+    public final IRBasicBlock header;
+    public final LinkedHashSet<IRBasicBlock> blocks = new LinkedHashSet<>();
+    public final ArrayList<IRBasicBlock> latches = new ArrayList<>();
+    public IRBasicBlock preheader;
+
+    public NaturalLoop(IRBasicBlock header) {
+        this.header = header;
+        this.blocks.add(header);
+    }
+
+    /**
+     * Finds the loops of a graph, innermost first
+     */
+    public static ArrayList<NaturalLoop> findLoops(ControlFlowGraph cfg, DominatorTree dominators) {
+        LinkedHashMap<IRBasicBlock, NaturalLoop> loops = new LinkedHashMap<>();
+        for (IRBasicBlock block: dominators.reversePostorder) {
+            for (IRBasicBlock successor: block.successors) {
+                if (!dominators.dominates(successor, block)) continue;
+                NaturalLoop loop = loops.computeIfAbsent(successor, NaturalLoop::new);
+                loop.latches.add(block);
+                ArrayDeque<IRBasicBlock> worklist = new ArrayDeque<>();
+                if (loop.blocks.add(block)) worklist.add(block);
+                while (!worklist.isEmpty())
+                    for (IRBasicBlock predecessor: worklist.poll().predecessors)
+                        if (dominators.isReachable(predecessor) && loop.blocks.add(predecessor)) worklist.add(predecessor);
+            }
+        }
+
+        ArrayList<NaturalLoop> sorted = new ArrayList<>(loops.values());
+        sorted.sort(Comparator.comparingInt(loop -> loop.blocks.size()));
+        return sorted;
+    }
+
+    public boolean contains(IRBasicBlock block) {
+        return this.blocks.contains(block);
+    }
+
+    /**
+     * Returns the blocks that can leave the loop, by an edge out of it or by returning
+     */
+    public ArrayList<IRBasicBlock> getExits() {
+        ArrayList<IRBasicBlock> exits = new ArrayList<>();
+        for (IRBasicBlock block: this.blocks) {
+            IRInstruction last = block.getLastInstruction();
+            boolean leaves = last != null && last.opCode == IRInstruction.OpCode.RETURN;
+            for (IRBasicBlock successor: block.successors) if (!this.contains(successor)) leaves = true;
+            if (leaves) exits.add(block);
+        }
+        return exits;
+    }
+
+    /**
+     * True if the block runs on every iteration that completes and before every exit, so moving its code out
+     * of the loop never executes anything the loop would have skipped
+     */
+    public boolean alwaysExecutes(IRBasicBlock block, DominatorTree dominators) {
+        for (IRBasicBlock exit: this.getExits()) if (!dominators.dominates(block, exit)) return false;
+        for (IRBasicBlock latch: this.latches) if (!dominators.dominates(block, latch)) return false;
+        return true;
+    }
+
+    private static boolean jumpsTo(ControlFlowGraph cfg, IRBasicBlock block, IRBasicBlock target) {
+        IRInstruction last = block.getLastInstruction();
+        if (last == null || (last.opCode != IRInstruction.OpCode.GOTO && !IRInstructions.isBranch(last))) return false;
+        return cfg.labelBlocks.get(last.operands[0].toString()) == target;
+    }
+
+    /**
+     * Gives the loop a block of its own in front of the header that every entry into the loop goes through,
+     * and adds it to the enclosing loops. Edges are recomputed; dominators have to be recomputed by the caller.
+     * Returns null if the header cannot be given one because it has no label.
+     */
+    public IRBasicBlock createPreheader(ControlFlowGraph cfg, List<NaturalLoop> loops) {
+        if (this.preheader != null) return this.preheader;
+        String label = this.header.getLabel();
+        int position = cfg.blocks.indexOf(this.header);
+        IRBasicBlock previous = position > 0 ? cfg.blocks.get(position - 1) : null;
+        if (label == null && position > 0) return null;
+
+        boolean jumpedTo = false;
+        for (IRBasicBlock predecessor: this.header.predecessors)
+            if (!this.contains(predecessor) && jumpsTo(cfg, predecessor, this.header)) jumpedTo = true;
+
+        if (previous != null && this.contains(previous) && previous.fallsThrough()) {
+            // The loop falls into its own header, which has to skip the new block
+            IRInstruction last = previous.getLastInstruction();
+            if (last != null && IRInstructions.isBranch(last)) {
+                IRBasicBlock jump = cfg.addBlock(position++, null);
+                jump.instructions.add(IRInstructions.jump(label, 0));
+                for (NaturalLoop loop: loops) if (loop.contains(previous)) loop.blocks.add(jump);
+                this.latches.replaceAll(latch -> latch == previous ? jump : latch);
+            } else {
+                previous.instructions.add(IRInstructions.jump(label, 0));
+            }
+        }
+
+        this.preheader = cfg.addBlock(position, jumpedTo ? label + "_preheader" : null);
+        for (IRBasicBlock predecessor: new ArrayList<>(this.header.predecessors)) {
+            if (this.contains(predecessor) || !jumpsTo(cfg, predecessor, this.header)) continue;
+            IRInstruction last = predecessor.getLastInstruction();
+            IRLabelOperand target = new IRLabelOperand(this.preheader.getLabel(), null);
+            predecessor.instructions.set(predecessor.instructions.size() - 1, IRInstructions.withOperand(last, 0, target));
+        }
+
+        for (NaturalLoop loop: loops) if (loop != this && loop.contains(this.header)) loop.blocks.add(this.preheader);
+        cfg.computeEdges();
+        return this.preheader;
+    }
+}
@@ -0,0 +1,12 @@
+package optimization;
+
+import ir.IRProgram;
+
+public interface OptimizationPass {
+    String getName();
+
+    /**
+     * Rewrites the program in place and returns the number of changes made
+     */
+    int optimize(IRProgram program);
+}
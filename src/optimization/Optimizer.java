@@ -0,0 +1,75 @@
+package optimization;
+
+import ir.IRProgram;
+
+import java.io.PrintStream;
+import java.util.*;
+
+public class Optimizer {
+    private static final LinkedHashMap<String, OptimizationPass> availablePasses = new LinkedHashMap<>();
+    private static final ArrayList<String> defaultPipeline = new ArrayList<>();
+
+    private final ArrayList<OptimizationPass> passes;
+    public final LinkedHashMap<String, Integer> changeCounts = new LinkedHashMap<>();
+
+    static {
+        register(new FunctionInlining());
+        register(new TailRecursionElimination());
+        register(new ConstantFolding());
+        register(new SparseConditionalConstantPropagation());
+        register(new ScalarReplacement());
+        register(new LocalValueNumbering());
+        register(new CopyPropagation());
+        register(new LoopInvariantCodeMotion());
+        register(new StrengthReduction());
+        register(new LoopUnrolling());
+        register(new DeadCodeElimination());
+        register(new ControlFlowSimplification());
+        register(new BlockLayout());
+
+        defaultPipeline.addAll(Arrays.asList(
+                "inline", "tail-recursion", "constant-folding", "sccp", "simplify-cfg", "scalar-replacement", "local-value-numbering", "copy-propagation",
+                "constant-folding", "licm", "strength-reduction", "loop-unroll", "dead-code-elimination", "simplify-cfg", "block-layout"
+        ));
+    }
+
+    public Optimizer(List<OptimizationPass> passes) {
+        this.passes = new ArrayList<>(passes);
+        for (OptimizationPass pass: this.passes) this.changeCounts.put(pass.getName(), 0);
+    }
+
+    public static void register(OptimizationPass pass) {
+        availablePasses.put(pass.getName(), pass);
+    }
+
+    public static OptimizationPass getPass(String name) {
+        OptimizationPass pass = availablePasses.get(name);
+        if (pass == null) throw new IllegalArgumentException(String.format("Unknown optimization pass '%s'", name));
+        return pass;
+    }
+
+    /**
+     * Looks up passes by name, in the given order; an empty list selects the default pipeline
+     */
+    public static ArrayList<OptimizationPass> getPasses(Collection<String> names) {
+        if (names.isEmpty()) names = defaultPipeline;
+
+        ArrayList<OptimizationPass> passes = new ArrayList<>();
+        for (String name: names) passes.add(getPass(name));
+
+        return passes;
+    }
+
+    public void optimize(IRProgram program) {
+        for (OptimizationPass pass: this.passes) {
+            int changes = pass.optimize(program);
+            this.changeCounts.put(pass.getName(), this.changeCounts.get(pass.getName()) + changes);
+        }
+    }
+
+    public void printStatistics(PrintStream ps) {
+        ps.println("IR optimization:");
+        for (Map.Entry<String, Integer> entry: this.changeCounts.entrySet())
+            ps.println(String.format("    %s: %d", entry.getKey(), entry.getValue()));
+    }
+}
@@ -0,0 +1,31 @@
+package optimization;
+
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.LinkedHashMap;
+
+/**
+ * target = phi(...) at the top of a block, choosing the argument of the predecessor control came from
+ */
+public class PhiFunction {
+    public final IRVariableOperand target;
+    public final String variable;
+    public final LinkedHashMap<IRBasicBlock, IROperand> arguments = new LinkedHashMap<>();
+
+    public PhiFunction(IRVariableOperand target, String variable) {
+        this.target = target;
+        this.variable = variable;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format("%s = phi(", this.target));
+        String separator = "";
+        for (IRBasicBlock predecessor: this.arguments.keySet()) {
+            builder.append(String.format("%s%s: %s", separator, predecessor, this.arguments.get(predecessor)));
+            separator = ", ";
+        }
+        return builder.append(")").toString();
+    }
+}
@@ -0,0 +1,500 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRType;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.*;
+
+/**
+ * Static single assignment form of a function's scalar variables. Phi functions go on the iterated dominance
+ * frontiers of each variable's definitions (only for variables live across blocks), and renaming walks the
+ * dominator tree giving every definition a fresh version. A variable's entry value keeps the original name,
+ * which holds the parameter or the zero every variable starts with. Arrays are memory and are not renamed.
+ */
+public class SSAForm {
+    public final IRFunction function;
+    public final ControlFlowGraph cfg;
+    public final DominatorTree dominators;
+    public final HashMap<IRBasicBlock, ArrayList<PhiFunction>> phis = new HashMap<>();
+
+    // Original variable of every version
+    public final HashMap<String, String> variables = new HashMap<>();
+    public final HashMap<String, IRType> types = new HashMap<>();
+
+    private final HashSet<String> names = new HashSet<>();
+    private final HashMap<String, ArrayDeque<String>> stacks = new HashMap<>();
+    private int temporaries;
+
+    public SSAForm(IRFunction function) {
+        this.function = function;
+        this.cfg = new ControlFlowGraph(function);
+        this.cfg.removeUnreachableBlocks();
+        if (!this.cfg.getEntry().predecessors.isEmpty()) {
+            // A phi at the entry would have no predecessor to take the initial value from
+            this.cfg.addBlock(0, null);
+            this.cfg.computeEdges();
+        }
+        this.dominators = new DominatorTree(this.cfg);
+
+        for (IRVariableOperand variable: function.variables) {
+            this.names.add(variable.getName());
+            if (!IRInstructions.isScalarVariable(variable)) continue;
+            this.variables.put(variable.getName(), variable.getName());
+            this.types.put(variable.getName(), variable.type);
+        }
+        for (IRBasicBlock block: this.cfg.blocks) this.phis.put(block, new ArrayList<>());
+
+        this.placePhis();
+        for (String variable: this.types.keySet()) {
+            ArrayDeque<String> stack = new ArrayDeque<>();
+            stack.push(variable);
+            this.stacks.put(variable, stack);
+        }
+        this.rename();
+        this.stacks.clear();
+    }
+
+    private void placePhis() {
+        HashSet<String> global = new HashSet<>();
+        HashMap<String, LinkedHashSet<IRBasicBlock>> defBlocks = new HashMap<>();
+        for (IRBasicBlock block: this.cfg.blocks) {
+            HashSet<String> killed = new HashSet<>();
+            for (IRInstruction instruction: block.instructions) {
+                for (IRVariableOperand use: IRInstructions.getUses(instruction))
+                    if (!killed.contains(use.getName())) global.add(use.getName());
+                IRVariableOperand def = IRInstructions.getDef(instruction);
+                if (def == null || !this.types.containsKey(def.getName())) continue;
+                killed.add(def.getName());
+                defBlocks.computeIfAbsent(def.getName(), k -> new LinkedHashSet<>()).add(block);
+            }
+        }
+
+        for (String variable: defBlocks.keySet()) {
+            if (!global.contains(variable)) continue;
+            HashSet<IRBasicBlock> hasPhi = new HashSet<>();
+            ArrayDeque<IRBasicBlock> worklist = new ArrayDeque<>(defBlocks.get(variable));
+            HashSet<IRBasicBlock> queued = new HashSet<>(worklist);
+            while (!worklist.isEmpty()) {
+                IRBasicBlock block = worklist.poll();
+                for (IRBasicBlock frontier: this.dominators.getFrontier(block)) {
+                    if (!hasPhi.add(frontier)) continue;
+                    IRVariableOperand target = new IRVariableOperand(this.types.get(variable), variable, null);
+                    this.phis.get(frontier).add(new PhiFunction(target, variable));
+                    if (queued.add(frontier)) worklist.add(frontier);
+                }
+            }
+        }
+    }
+
+    private String newVersion(String variable) {
+        String name;
+        int version = 1;
+        do {
+            name = String.format("%s_%d", variable, version++);
+        } while (this.names.contains(name));
+        this.names.add(name);
+        this.variables.put(name, variable);
+        this.types.put(name, this.types.get(variable));
+        return name;
+    }
+
+    private IRVariableOperand operand(String name) {
+        return new IRVariableOperand(this.types.get(name), name, null);
+    }
+
+    /**
+     * Renames blocks in a preorder walk of the dominator tree, popping a block's versions after its subtree
+     */
+    private void rename() {
+        HashMap<IRBasicBlock, ArrayList<String>> pushed = new HashMap<>();
+        ArrayDeque<IRBasicBlock> pending = new ArrayDeque<>();
+        pending.push(this.cfg.getEntry());
+        while (!pending.isEmpty()) {
+            IRBasicBlock block = pending.peek();
+            if (!pushed.containsKey(block)) {
+                pushed.put(block, this.renameBlock(block));
+                ArrayList<IRBasicBlock> children = this.dominators.getChildren(block);
+                for (int i = children.size() - 1; i >= 0; i--) pending.push(children.get(i));
+            } else {
+                pending.pop();
+                for (String variable: pushed.get(block)) this.stacks.get(variable).pop();
+            }
+        }
+    }
+
+    private ArrayList<String> renameBlock(IRBasicBlock block) {
+        ArrayList<String> pushed = new ArrayList<>();
+
+        ArrayList<PhiFunction> blockPhis = this.phis.get(block);
+        for (int i = 0; i < blockPhis.size(); i++) {
+            PhiFunction phi = blockPhis.get(i);
+            String version = this.newVersion(phi.variable);
+            this.stacks.get(phi.variable).push(version);
+            pushed.add(phi.variable);
+            PhiFunction renamed = new PhiFunction(this.operand(version), phi.variable);
+            renamed.arguments.putAll(phi.arguments);
+            blockPhis.set(i, renamed);
+        }
+
+        for (int i = 0; i < block.instructions.size(); i++) {
+            IRInstruction instruction = block.instructions.get(i);
+            IROperand[] operands = instruction.operands.clone();
+            boolean changed = false;
+            for (int position: IRInstructions.getUsePositions(instruction)) {
+                ArrayDeque<String> stack = this.stacks.get(operands[position].toString());
+                if (!(operands[position] instanceof IRVariableOperand) || stack == null) continue;
+                operands[position] = this.operand(stack.peek());
+                changed = true;
+            }
+            IRVariableOperand def = IRInstructions.getDef(instruction);
+            if (def != null && this.stacks.containsKey(def.getName())) {
+                String version = this.newVersion(def.getName());
+                this.stacks.get(def.getName()).push(version);
+                pushed.add(def.getName());
+                operands[0] = this.operand(version);
+                changed = true;
+            }
+            if (changed) block.instructions.set(i, IRInstructions.create(instruction.opCode, instruction.irLineNumber, operands));
+        }
+
+        for (IRBasicBlock successor: block.successors)
+            for (PhiFunction phi: this.phis.get(successor))
+                phi.arguments.put(block, this.operand(this.stacks.get(phi.variable).peek()));
+
+        return pushed;
+    }
+
+    /**
+     * Replaces every use of a version that is only a copy of another version or a constant of its type with
+     * that value, removing the copies and the phis that pick the same value on every edge. Returns how many
+     * copies and phis went away. Afterwards versions of the same variable may be live at once, so the code
+     * has to leave SSA form with destruct(false).
+     */
+    public int propagateCopies() {
+        HashMap<String, IROperand> values = new HashMap<>();
+        int changes = 0;
+        for (IRBasicBlock block: this.cfg.blocks) {
+            Iterator<IRInstruction> iterator = block.instructions.iterator();
+            while (iterator.hasNext()) {
+                IRInstruction instruction = iterator.next();
+                if (instruction.opCode != IRInstruction.OpCode.ASSIGN || instruction.operands.length != 2) continue;
+                String target = instruction.operands[0].toString();
+                IROperand source = instruction.operands[1];
+                if (!this.types.containsKey(target) || IRInstructions.getType(source) != this.types.get(target)) continue;
+                if (source instanceof IRVariableOperand && !this.types.containsKey(source.toString())) continue;
+                values.put(target, source);
+                iterator.remove();
+                changes++;
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (ArrayList<PhiFunction> blockPhis: this.phis.values()) {
+                Iterator<PhiFunction> iterator = blockPhis.iterator();
+                while (iterator.hasNext()) {
+                    PhiFunction phi = iterator.next();
+                    IROperand value = null;
+                    boolean unique = true;
+                    for (IROperand argument: phi.arguments.values()) {
+                        argument = resolve(values, argument);
+                        if (argument.toString().equals(phi.target.toString())) continue;
+                        if (value == null) value = argument;
+                        else if (!value.toString().equals(argument.toString())) unique = false;
+                    }
+                    if (!unique || value == null) continue;
+                    values.put(phi.target.toString(), value);
+                    iterator.remove();
+                    changes++;
+                    changed = true;
+                }
+            }
+        }
+        if (changes == 0) return 0;
+
+        for (IRBasicBlock block: this.cfg.blocks) {
+            for (PhiFunction phi: this.phis.get(block))
+                phi.arguments.replaceAll((predecessor, argument) -> resolve(values, argument));
+            for (int i = 0; i < block.instructions.size(); i++) {
+                IRInstruction instruction = block.instructions.get(i);
+                IROperand[] operands = instruction.operands.clone();
+                for (int position: IRInstructions.getUsePositions(instruction))
+                    operands[position] = resolve(values, operands[position]);
+                block.instructions.set(i, IRInstructions.create(instruction.opCode, instruction.irLineNumber, operands));
+            }
+        }
+        return changes;
+    }
+
+    private static IROperand resolve(HashMap<String, IROperand> values, IROperand operand) {
+        while (operand instanceof IRVariableOperand && values.containsKey(operand.toString()))
+            operand = values.get(operand.toString());
+        return operand;
+    }
+
+    /**
+     * Leaves SSA form and writes the code back to the function. If the code is still conventional, meaning no
+     * two versions of a variable are live at once (true when uses were only replaced by constants or
+     * removed), every version takes back its variable's name and the phis simply disappear. Otherwise the phis
+     * become parallel copies at the end of each predecessor, on a new block where the edge is critical,
+     * and the versions become variables of their own, joined again where they never interfere.
+     */
+    public void destruct(boolean conventional) {
+        if (conventional) {
+            for (IRBasicBlock block: this.cfg.blocks) {
+                for (int i = 0; i < block.instructions.size(); i++) {
+                    IRInstruction instruction = block.instructions.get(i);
+                    IROperand[] operands = instruction.operands.clone();
+                    for (int k = 0; k < operands.length; k++) {
+                        if (!(operands[k] instanceof IRVariableOperand)) continue;
+                        String variable = this.variables.get(operands[k].toString());
+                        if (variable != null) operands[k] = this.operand(variable);
+                    }
+                    block.instructions.set(i, IRInstructions.create(instruction.opCode, instruction.irLineNumber, operands));
+                }
+            }
+            for (ArrayList<PhiFunction> blockPhis: this.phis.values()) blockPhis.clear();
+            this.cfg.linearize();
+            return;
+        }
+
+        this.addVersionVariables();
+        IRBasicBlock exit = null;
+        for (IRBasicBlock block: new ArrayList<>(this.cfg.blocks)) {
+            ArrayList<PhiFunction> blockPhis = this.phis.get(block);
+            if (blockPhis == null || blockPhis.isEmpty()) continue;
+
+            for (IRBasicBlock predecessor: new ArrayList<>(block.predecessors)) {
+                ArrayList<IRVariableOperand> targets = new ArrayList<>();
+                ArrayList<IROperand> sources = new ArrayList<>();
+                for (PhiFunction phi: blockPhis) {
+                    IROperand argument = phi.arguments.get(predecessor);
+                    if (argument == null) continue;
+                    targets.add(phi.target);
+                    sources.add(argument);
+                }
+                ArrayList<IRInstruction> copies = this.sequentialize(targets, sources);
+                if (copies.isEmpty()) continue;
+
+                IRInstruction last = predecessor.getLastInstruction();
+                if (last == null || !IRInstructions.isBranch(last)) {
+                    int end = predecessor.instructions.size();
+                    if (last != null && last.opCode == IRInstruction.OpCode.GOTO) end--;
+                    predecessor.instructions.addAll(end, copies);
+                    continue;
+                }
+
+                // Critical edge out of a conditional branch: the copies get a block of their own
+                int position = this.cfg.blocks.indexOf(predecessor);
+                boolean fallthrough = position + 1 < this.cfg.blocks.size() && this.cfg.blocks.get(position + 1) == block;
+                boolean taken = this.cfg.labelBlocks.get(last.operands[0].toString()) == block;
+                IRBasicBlock split;
+                if (fallthrough) {
+                    split = this.cfg.addBlock(position + 1, taken ? "phi" : null);
+                } else {
+                    if (exit == null) exit = this.addExit();
+                    split = this.cfg.addBlock(this.cfg.blocks.indexOf(exit), "phi");
+                }
+                split.instructions.addAll(copies);
+                if (!fallthrough) split.instructions.add(IRInstructions.jump(block.getLabel(), 0));
+                if (taken) {
+                    IRLabelOperand target = new IRLabelOperand(split.getLabel(), null);
+                    predecessor.instructions.set(predecessor.instructions.size() - 1, IRInstructions.withOperand(last, 0, target));
+                }
+            }
+            blockPhis.clear();
+        }
+
+        this.cfg.computeEdges();
+        this.coalesce();
+        this.cfg.linearize();
+    }
+
+    /**
+     * Returns the versions live at the end of each block
+     */
+    private HashMap<IRBasicBlock, HashSet<String>> getLiveOut() {
+        HashMap<IRBasicBlock, HashSet<String>> liveIn = new HashMap<>();
+        HashMap<IRBasicBlock, HashSet<String>> liveOut = new HashMap<>();
+        for (IRBasicBlock block: this.cfg.blocks) {
+            liveIn.put(block, new HashSet<>());
+            liveOut.put(block, new HashSet<>());
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = this.cfg.blocks.size() - 1; b >= 0; b--) {
+                IRBasicBlock block = this.cfg.blocks.get(b);
+                HashSet<String> live = liveOut.get(block);
+                for (IRBasicBlock successor: block.successors) live.addAll(liveIn.get(successor));
+                live = new HashSet<>(live);
+                for (int i = block.instructions.size() - 1; i >= 0; i--) this.step(block.instructions.get(i), live);
+                if (!live.equals(liveIn.get(block))) {
+                    liveIn.put(block, live);
+                    changed = true;
+                }
+            }
+        }
+        return liveOut;
+    }
+
+    /**
+     * Moves live from after the instruction to before it
+     */
+    private void step(IRInstruction instruction, HashSet<String> live) {
+        IRVariableOperand def = IRInstructions.getDef(instruction);
+        if (def != null) live.remove(def.getName());
+        for (IRVariableOperand use: IRInstructions.getUses(instruction))
+            if (this.variables.containsKey(use.getName())) live.add(use.getName());
+    }
+
+    /**
+     * Gives versions of the same variable one name again wherever a copy joins two whose values are never live
+     * at once, so the copies out of phis mostly become self copies and disappear. Each group that keeps a version
+     * of its own is named after one of its versions, and the one holding the entry value keeps the variable's name.
+     */
+    private void coalesce() {
+        // Two versions interfere if one is live where the other is defined, other than by a copy of it
+        HashMap<String, HashSet<String>> interference = new HashMap<>();
+        HashMap<IRBasicBlock, HashSet<String>> liveOut = this.getLiveOut();
+        for (IRBasicBlock block: this.cfg.blocks) {
+            HashSet<String> live = new HashSet<>(liveOut.get(block));
+            for (int i = block.instructions.size() - 1; i >= 0; i--) {
+                IRInstruction instruction = block.instructions.get(i);
+                IRVariableOperand def = IRInstructions.getDef(instruction);
+                if (def != null && this.variables.containsKey(def.getName())) {
+                    String variable = this.variables.get(def.getName());
+                    String copied = isCopy(instruction) ? instruction.operands[1].toString() : null;
+                    for (String other: live) {
+                        if (other.equals(def.getName()) || other.equals(copied)) continue;
+                        if (!variable.equals(this.variables.get(other))) continue;
+                        interference.computeIfAbsent(def.getName(), k -> new HashSet<>()).add(other);
+                        interference.computeIfAbsent(other, k -> new HashSet<>()).add(def.getName());
+                    }
+                }
+                this.step(instruction, live);
+            }
+        }
+
+        HashMap<String, String> groups = new HashMap<>();
+        for (IRBasicBlock block: this.cfg.blocks) {
+            for (IRInstruction instruction: block.instructions) {
+                if (!isCopy(instruction)) continue;
+                String x = find(groups, instruction.operands[0].toString());
+                String y = find(groups, instruction.operands[1].toString());
+                if (x.equals(y) || !this.variables.containsKey(x) || !this.variables.containsKey(y)
+                        || !this.variables.get(x).equals(this.variables.get(y)))
+                    continue;
+                HashSet<String> conflicts = interference.computeIfAbsent(x, k -> new HashSet<>());
+                HashSet<String> others = interference.computeIfAbsent(y, k -> new HashSet<>());
+                if (conflicts.contains(y)) continue;
+                // Named by the entry version when it is in the group, so the variable keeps its name
+                if (this.variables.get(x).equals(x)) {
+                    String swap = x;
+                    x = y;
+                    y = swap;
+                    HashSet<String> swapped = conflicts;
+                    conflicts = others;
+                    others = swapped;
+                }
+                groups.put(x, y);
+                others.addAll(conflicts);
+                for (String conflict: conflicts) {
+                    HashSet<String> set = interference.get(conflict);
+                    set.remove(x);
+                    set.add(y);
+                }
+            }
+        }
+        if (groups.isEmpty()) return;
+
+        for (IRBasicBlock block: this.cfg.blocks) {
+            for (int i = 0; i < block.instructions.size(); i++) {
+                IRInstruction instruction = block.instructions.get(i);
+                IROperand[] operands = instruction.operands.clone();
+                for (int k = 0; k < operands.length; k++) {
+                    if (!(operands[k] instanceof IRVariableOperand) || !groups.containsKey(operands[k].toString())) continue;
+                    operands[k] = this.operand(find(groups, operands[k].toString()));
+                }
+                block.instructions.set(i, IRInstructions.create(instruction.opCode, instruction.irLineNumber, operands));
+            }
+            block.instructions.removeIf(instruction -> isCopy(instruction)
+                    && instruction.operands[0].toString().equals(instruction.operands[1].toString()));
+        }
+        this.function.variables.removeIf(variable -> groups.containsKey(variable.getName()));
+    }
+
+    private static boolean isCopy(IRInstruction instruction) {
+        return instruction.opCode == IRInstruction.OpCode.ASSIGN && instruction.operands.length == 2
+                && instruction.operands[1] instanceof IRVariableOperand;
+    }
+
+    private static String find(HashMap<String, String> groups, String name) {
+        while (groups.containsKey(name)) name = groups.get(name);
+        return name;
+    }
+
+    private void addVersionVariables() {
+        HashSet<String> existing = new HashSet<>();
+        for (IRVariableOperand variable: this.function.variables) existing.add(variable.getName());
+        for (String name: this.variables.keySet()) {
+            if (existing.contains(name)) continue;
+            this.function.variables.add(this.operand(name));
+        }
+    }
+
+    /**
+     * Appends a final block for split edges, behind a jump from the old last block if that one fell off the end
+     */
+    private IRBasicBlock addExit() {
+        boolean fallsOff = this.cfg.blocks.get(this.cfg.blocks.size() - 1).fallsThrough();
+        IRBasicBlock jump = fallsOff ? this.cfg.addBlock(this.cfg.blocks.size(), null) : null;
+        IRBasicBlock exit = this.cfg.addBlock(this.cfg.blocks.size(), "exit");
+        if (jump != null) jump.instructions.add(IRInstructions.jump(exit.getLabel(), 0));
+        return exit;
+    }
+
+    /**
+     * Orders the parallel copy targets[i] = sources[i] into a sequence of assigns, breaking cycles with a temporary
+     */
+    private ArrayList<IRInstruction> sequentialize(ArrayList<IRVariableOperand> targets, ArrayList<IROperand> sources) {
+        ArrayList<IRInstruction> copies = new ArrayList<>();
+        ArrayList<IRVariableOperand> pendingTargets = new ArrayList<>();
+        ArrayList<IROperand> pendingSources = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            if (targets.get(i).toString().equals(sources.get(i).toString())) continue;
+            pendingTargets.add(targets.get(i));
+            pendingSources.add(sources.get(i));
+        }
+
+        while (!pendingTargets.isEmpty()) {
+            int ready = -1;
+            for (int i = 0; i < pendingTargets.size() && ready == -1; i++) {
+                boolean read = false;
+                for (IROperand source: pendingSources)
+                    if (source.toString().equals(pendingTargets.get(i).toString())) read = true;
+                if (!read) ready = i;
+            }
+
+            if (ready != -1) {
+                copies.add(IRInstructions.assign(pendingTargets.remove(ready), pendingSources.remove(ready), 0));
+                continue;
+            }
+
+            // Every remaining target is still to be read, so they form cycles; save one target's value first
+            IRVariableOperand saved = pendingTargets.get(0);
+            IRVariableOperand temporary = IRInstructions.newVariable(this.function, "phi_temp" + this.temporaries++, saved.type);
+            copies.add(IRInstructions.assign(temporary, saved, 0));
+            for (int i = 0; i < pendingSources.size(); i++)
+                if (pendingSources.get(i).toString().equals(saved.toString())) pendingSources.set(i, temporary);
+        }
+
+        return copies;
+    }
+}
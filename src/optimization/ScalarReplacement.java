@@ -0,0 +1,128 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRArrayType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.*;
+
+/**
+ * Replaces small local arrays by one scalar variable per element. An array qualifies when it never escapes
+ * (it is not a parameter and is never passed to a call) and every access uses a constant index inside its
+ * bounds, so each array_load and array_store names one element. Loads and stores become assigns and a fill
+ * becomes one assign per element it covers, leaving the elements to the scalar passes and the register
+ * allocator. Scalars start at zero like array elements do.
+ */
+public class ScalarReplacement implements OptimizationPass {
+    private static final int MAX_SIZE = 8;
+
+    @Override
+    public String getName() {
+        return "scalar-replacement";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        int changes = 0;
+        for (IRFunction function: program.functions) changes += this.optimizeFunction(function);
+        return changes;
+    }
+
+    private int optimizeFunction(IRFunction function) {
+        int changes = 0;
+        for (IRVariableOperand array: this.findReplaceableArrays(function)) {
+            IRArrayType type = (IRArrayType) array.type;
+            IRVariableOperand[] elements = new IRVariableOperand[type.getSize()];
+            for (int i = 0; i < elements.length; i++)
+                elements[i] = IRInstructions.newVariable(function, String.format("%s_%d", array.getName(), i), type.getElementType());
+
+            ArrayList<IRInstruction> instructions = new ArrayList<>();
+            for (IRInstruction instruction: function.instructions) {
+                if (!this.mentions(instruction, array.getName())) {
+                    instructions.add(instruction);
+                    continue;
+                }
+
+                switch (instruction.opCode) {
+                    case ARRAY_LOAD:
+                        instructions.add(IRInstructions.assign((IRVariableOperand) instruction.operands[0],
+                                elements[getIndex(instruction)], instruction.irLineNumber));
+                        break;
+                    case ARRAY_STORE:
+                        instructions.add(IRInstructions.assign(elements[getIndex(instruction)],
+                                instruction.operands[0], instruction.irLineNumber));
+                        break;
+                    default:
+                        int count = Integer.parseInt(instruction.operands[1].toString());
+                        for (int i = 0; i < count; i++)
+                            instructions.add(IRInstructions.assign(elements[i], instruction.operands[2], instruction.irLineNumber));
+                        break;
+                }
+                changes++;
+            }
+
+            function.instructions.clear();
+            function.instructions.addAll(instructions);
+            function.variables.remove(array);
+        }
+
+        return changes;
+    }
+
+    private static int getIndex(IRInstruction instruction) {
+        return Integer.parseInt(instruction.operands[2].toString());
+    }
+
+    private boolean mentions(IRInstruction instruction, String name) {
+        for (IROperand operand: instruction.operands)
+            if (operand instanceof IRVariableOperand && operand.toString().equals(name)) return true;
+        return false;
+    }
+
+    /**
+     * Finds the local arrays whose every mention is an access at a constant index in bounds or a fill that
+     * fits in the array
+     */
+    private ArrayList<IRVariableOperand> findReplaceableArrays(IRFunction function) {
+        LinkedHashMap<String, IRVariableOperand> candidates = new LinkedHashMap<>();
+        for (IRVariableOperand variable: function.variables) {
+            if (!(variable.type instanceof IRArrayType) || function.parameters.contains(variable)) continue;
+            if (((IRArrayType) variable.type).getSize() <= MAX_SIZE) candidates.put(variable.getName(), variable);
+        }
+
+        for (IRInstruction instruction: function.instructions) {
+            for (int i = 0; i < instruction.operands.length; i++) {
+                IROperand operand = instruction.operands[i];
+                if (!(operand instanceof IRVariableOperand) || !candidates.containsKey(operand.toString())) continue;
+                int size = ((IRArrayType) candidates.get(operand.toString()).type).getSize();
+                if (!isConstantAccess(instruction, i, size)) candidates.remove(operand.toString());
+            }
+        }
+
+        return new ArrayList<>(candidates.values());
+    }
+
+    private static boolean isConstantAccess(IRInstruction instruction, int position, int size) {
+        int bound;
+        IROperand index;
+        if (instruction.opCode == IRInstruction.OpCode.ARRAY_LOAD || instruction.opCode == IRInstruction.OpCode.ARRAY_STORE) {
+            if (position != 1) return false;
+            index = instruction.operands[2];
+            bound = size - 1;
+        } else if (instruction.opCode == IRInstruction.OpCode.ASSIGN && instruction.operands.length == 3) {
+            if (position != 0) return false;
+            index = instruction.operands[1];
+            bound = size;
+        } else {
+            return false;
+        }
+
+        if (!(index instanceof IRConstantOperand)) return false;
+        int value = Integer.parseInt(index.toString());
+        return value >= 0 && value <= bound;
+    }
+}
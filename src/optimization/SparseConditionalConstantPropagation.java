@@ -0,0 +1,300 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRFloatType;
+import ir.datatype.IRType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck) over SSA form. Values start out undefined and
+ * only drop to a constant or to overdefined, and a block is only evaluated once an edge into it is found
+ * executable, so constants flowing around loops and branches that can never go one way are both found.
+ * Uses of constant versions are replaced, decided branches become jumps or disappear, and the blocks no
+ * longer reached are removed. Before leaving SSA form, copies and phis that only pass a value on are
+ * propagated as well (see {@link SSAForm#propagateCopies}).
+ */
+public class SparseConditionalConstantPropagation implements OptimizationPass {
+    // Lattice bottom; a name missing from values is still undefined
+    private static final IRConstantOperand OVERDEFINED = new IRConstantOperand(null, "overdefined", null);
+
+    private static final int UNDECIDED = -1;
+    private static final int NOT_TAKEN = 0;
+    private static final int TAKEN = 1;
+    private static final int EITHER = 2;
+
+    private SSAForm ssa;
+    private HashMap<String, IRConstantOperand> values;
+    private HashMap<String, ArrayList<Object>> uses;
+    private HashMap<Object, IRBasicBlock> owners;
+    private HashSet<IRBasicBlock> executableBlocks;
+    private HashSet<String> executableEdges;
+    private ArrayDeque<IRBasicBlock[]> flowWorklist;
+    private ArrayDeque<Object> ssaWorklist;
+
+    @Override
+    public String getName() {
+        return "sccp";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        int changes = 0;
+        for (IRFunction function: program.functions) changes += this.optimizeFunction(function);
+        return changes;
+    }
+
+    private int optimizeFunction(IRFunction function) {
+        this.ssa = new SSAForm(function);
+        this.values = new HashMap<>();
+        this.uses = new HashMap<>();
+        this.owners = new HashMap<>();
+        this.executableBlocks = new HashSet<>();
+        this.executableEdges = new HashSet<>();
+        this.flowWorklist = new ArrayDeque<>();
+        this.ssaWorklist = new ArrayDeque<>();
+
+        HashSet<String> parameters = new HashSet<>();
+        for (IRVariableOperand parameter: function.parameters) parameters.add(parameter.getName());
+        for (IRVariableOperand variable: function.variables) {
+            if (!IRInstructions.isScalarVariable(variable)) continue;
+            // Entry versions keep the variable's name and hold the argument or the initial zero
+            this.values.put(variable.getName(), parameters.contains(variable.getName()) ? OVERDEFINED : zero(variable.type));
+        }
+
+        for (IRBasicBlock block: this.ssa.cfg.blocks) {
+            for (PhiFunction phi: this.ssa.phis.get(block)) {
+                this.owners.put(phi, block);
+                for (IROperand argument: phi.arguments.values()) this.addUse(argument, phi);
+            }
+            for (IRInstruction instruction: block.instructions) {
+                this.owners.put(instruction, block);
+                for (IRVariableOperand use: IRInstructions.getUses(instruction)) this.addUse(use, instruction);
+            }
+        }
+
+        this.flowWorklist.add(new IRBasicBlock[]{null, this.ssa.cfg.getEntry()});
+        while (!this.flowWorklist.isEmpty() || !this.ssaWorklist.isEmpty()) {
+            while (!this.flowWorklist.isEmpty()) {
+                IRBasicBlock[] edge = this.flowWorklist.poll();
+                if (edge[0] != null && !this.executableEdges.add(edgeKey(edge[0], edge[1]))) continue;
+                IRBasicBlock block = edge[1];
+                for (PhiFunction phi: this.ssa.phis.get(block)) this.visitPhi(phi);
+                if (this.executableBlocks.add(block)) {
+                    for (IRInstruction instruction: block.instructions) this.visitInstruction(instruction);
+                    if (block.instructions.isEmpty() || !isTerminator(block.getLastInstruction())) this.markFallthrough(block);
+                }
+            }
+            while (!this.ssaWorklist.isEmpty()) {
+                Object user = this.ssaWorklist.poll();
+                if (!this.executableBlocks.contains(this.owners.get(user))) continue;
+                if (user instanceof PhiFunction) this.visitPhi((PhiFunction) user);
+                else this.visitInstruction((IRInstruction) user);
+            }
+        }
+
+        int changes = this.rewrite();
+        int copies = this.ssa.propagateCopies();
+        this.ssa.destruct(copies == 0);
+
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        int removed = cfg.removeUnreachableBlocks();
+        if (removed > 0) cfg.linearize();
+
+        return changes + copies + removed;
+    }
+
+    private static IRConstantOperand zero(IRType type) {
+        return type == IRFloatType.get() ? IRInstructions.floatConstant(0) : IRInstructions.intConstant(0);
+    }
+
+    private static String edgeKey(IRBasicBlock from, IRBasicBlock to) {
+        return from.id + " " + to.id;
+    }
+
+    private static boolean isTerminator(IRInstruction instruction) {
+        return instruction.opCode == IRInstruction.OpCode.GOTO || instruction.opCode == IRInstruction.OpCode.RETURN
+                || IRInstructions.isBranch(instruction);
+    }
+
+    private void addUse(IROperand operand, Object user) {
+        if (operand instanceof IRVariableOperand)
+            this.uses.computeIfAbsent(operand.toString(), k -> new ArrayList<>()).add(user);
+    }
+
+    private IRConstantOperand valueOf(IROperand operand) {
+        if (operand instanceof IRConstantOperand) return (IRConstantOperand) operand;
+        if (!this.ssa.types.containsKey(operand.toString())) return OVERDEFINED;
+        return this.values.get(operand.toString());
+    }
+
+    private static IRConstantOperand meet(IRConstantOperand a, IRConstantOperand b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a == OVERDEFINED || b == OVERDEFINED) return OVERDEFINED;
+        return a.type == b.type && a.toString().equals(b.toString()) ? a : OVERDEFINED;
+    }
+
+    private void setValue(String name, IRConstantOperand value) {
+        IRConstantOperand old = this.values.get(name);
+        IRConstantOperand lowered = meet(old, value);
+        if (lowered == old) return;
+        this.values.put(name, lowered);
+        this.ssaWorklist.addAll(this.uses.getOrDefault(name, new ArrayList<>()));
+    }
+
+    private void visitPhi(PhiFunction phi) {
+        IRBasicBlock block = this.owners.get(phi);
+        IRConstantOperand value = null;
+        for (Map.Entry<IRBasicBlock, IROperand> argument: phi.arguments.entrySet())
+            if (this.executableEdges.contains(edgeKey(argument.getKey(), block)))
+                value = meet(value, this.valueOf(argument.getValue()));
+        if (value != null) this.setValue(phi.target.getName(), value);
+    }
+
+    private void visitInstruction(IRInstruction instruction) {
+        IRBasicBlock block = this.owners.get(instruction);
+        switch (instruction.opCode) {
+            case ASSIGN:
+                if (instruction.operands.length == 2 && this.ssa.types.containsKey(instruction.operands[0].toString())) {
+                    IRConstantOperand value = this.valueOf(instruction.operands[1]);
+                    if (isConstant(value) && value.type != this.ssa.types.get(instruction.operands[0].toString())) value = OVERDEFINED;
+                    if (value != null) this.setValue(instruction.operands[0].toString(), value);
+                }
+                break;
+            case ADD:
+            case SUB:
+            case MULT:
+            case DIV:
+            case AND:
+            case OR: {
+                IRConstantOperand value = this.evaluate(instruction);
+                if (value != null) this.setValue(instruction.operands[0].toString(), value);
+                break;
+            }
+            case CALLR:
+            case ARRAY_LOAD:
+                this.setValue(instruction.operands[0].toString(), OVERDEFINED);
+                break;
+            case GOTO:
+                this.markEdge(block, this.ssa.cfg.labelBlocks.get(instruction.operands[0].toString()));
+                break;
+            case BREQ:
+            case BRNEQ:
+            case BRLT:
+            case BRGT:
+            case BRLEQ:
+            case BRGEQ: {
+                int outcome = this.decide(instruction);
+                if (outcome == UNDECIDED) return;
+                IRBasicBlock target = this.ssa.cfg.labelBlocks.get(instruction.operands[0].toString());
+                if (outcome != NOT_TAKEN) this.markEdge(block, target);
+                if (outcome != TAKEN) this.markFallthrough(block);
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private void markEdge(IRBasicBlock from, IRBasicBlock to) {
+        if (to != null && !this.executableEdges.contains(edgeKey(from, to))) this.flowWorklist.add(new IRBasicBlock[]{from, to});
+    }
+
+    private void markFallthrough(IRBasicBlock block) {
+        int position = this.ssa.cfg.blocks.indexOf(block);
+        if (position + 1 < this.ssa.cfg.blocks.size()) this.markEdge(block, this.ssa.cfg.blocks.get(position + 1));
+    }
+
+    /**
+     * Returns the value a binary instruction computes, or null while an operand is still undefined
+     */
+    private IRConstantOperand evaluate(IRInstruction instruction) {
+        IRConstantOperand y = this.valueOf(instruction.operands[1]);
+        IRConstantOperand z = this.valueOf(instruction.operands[2]);
+        boolean isFloat = ((IRVariableOperand) instruction.operands[0]).type == IRFloatType.get();
+
+        // x*0, x&0 and x|-1 do not depend on x
+        if (!isFloat && (instruction.opCode == IRInstruction.OpCode.MULT || instruction.opCode == IRInstruction.OpCode.AND)
+                && (IRInstructions.isIntConstant(y, 0) || IRInstructions.isIntConstant(z, 0)))
+            return IRInstructions.intConstant(0);
+        if (!isFloat && instruction.opCode == IRInstruction.OpCode.OR
+                && (IRInstructions.isIntConstant(y, -1) || IRInstructions.isIntConstant(z, -1)))
+            return IRInstructions.intConstant(-1);
+
+        if (y == null || z == null) return null;
+        if (y == OVERDEFINED || z == OVERDEFINED) return OVERDEFINED;
+        IRConstantOperand result = isFloat
+                ? ConstantFolding.evaluateFloat(instruction.opCode, Float.parseFloat(y.toString()), Float.parseFloat(z.toString()))
+                : ConstantFolding.evaluateInt(instruction.opCode, Integer.parseInt(y.toString()), Integer.parseInt(z.toString()));
+        return result != null ? result : OVERDEFINED;
+    }
+
+    private int decide(IRInstruction instruction) {
+        IRConstantOperand y = this.valueOf(instruction.operands[1]);
+        IRConstantOperand z = this.valueOf(instruction.operands[2]);
+        if (y == null || z == null) return UNDECIDED;
+        if (y == OVERDEFINED || z == OVERDEFINED) return EITHER;
+
+        int comparison;
+        if (y.type == IRFloatType.get()) {
+            float a = Float.parseFloat(y.toString());
+            float b = Float.parseFloat(z.toString());
+            comparison = a < b ? -1 : (a > b ? 1 : 0);
+        } else {
+            comparison = Integer.compare(Integer.parseInt(y.toString()), Integer.parseInt(z.toString()));
+        }
+        return ConstantFolding.taken(instruction.opCode, comparison) ? TAKEN : NOT_TAKEN;
+    }
+
+    private static boolean isConstant(IRConstantOperand value) {
+        return value != null && value != OVERDEFINED;
+    }
+
+    /**
+     * Substitutes the constants found into the executable blocks and resolves the branches that were decided
+     */
+    private int rewrite() {
+        int changes = 0;
+        for (IRBasicBlock block: this.ssa.cfg.blocks) {
+            if (!this.executableBlocks.contains(block)) continue;
+            for (int i = 0; i < block.instructions.size(); i++) {
+                IRInstruction instruction = block.instructions.get(i);
+                IRInstruction rewritten = instruction;
+
+                IRVariableOperand def = IRInstructions.getDef(instruction);
+                if (def != null && IRInstructions.binaryCodes.contains(instruction.opCode) && isConstant(this.values.get(def.getName()))) {
+                    rewritten = IRInstructions.assign(def, this.values.get(def.getName()), instruction.irLineNumber);
+                } else {
+                    for (int position: IRInstructions.getUsePositions(instruction)) {
+                        IROperand operand = rewritten.operands[position];
+                        if (!(operand instanceof IRVariableOperand) || !IRInstructions.acceptsConstant(rewritten, position)) continue;
+                        IRConstantOperand value = this.values.get(operand.toString());
+                        if (isConstant(value)) rewritten = IRInstructions.withOperand(rewritten, position, value);
+                    }
+                }
+
+                if (IRInstructions.isBranch(instruction)) {
+                    int outcome = this.decide(instruction);
+                    if (outcome == NOT_TAKEN) {
+                        block.instructions.remove(i--);
+                        changes++;
+                        continue;
+                    }
+                    if (outcome == TAKEN) rewritten = IRInstructions.jump(instruction.operands[0].toString(), instruction.irLineNumber);
+                }
+
+                if (rewritten != instruction) {
+                    block.instructions.set(i, rewritten);
+                    changes++;
+                }
+            }
+        }
+        return changes;
+    }
+}
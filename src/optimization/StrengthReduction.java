@@ -0,0 +1,346 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.*;
+
+/**
+ * Induction variable strength reduction for array addressing. A basic induction variable i is one whose only
+ * definition in a loop is "add/sub, i, i, c". Every A[i] in the loop then goes through an int variable
+ * holding the address of A[i], set to A + 4i in the preheader and moved by 4c right after i is, so
+ * "array_load, x, A, i" becomes "array_load, x, p, 0", which the selector turns into a single lw instead of
+ * li/mul/add. When the loop reads i for nothing but addressing and comparisons against invariants or other
+ * induction variables over the same array, the comparisons are made on the addresses instead, and i goes
+ * away. The selector lets address arithmetic wrap, so that is only done where every such comparison sees i
+ * at most a step from an index of the array, and an invariant known to lie within the array's bounds. The
+ * step of i is removed here where it cannot overflow, and dead-code elimination removes the rest of i.
+ * Loops are handled outermost first, so an induction variable stepped in an inner loop still gets one
+ * pointer for the whole nest.
+ */
+public class StrengthReduction implements OptimizationPass {
+    // Arrays lie at least this many words from either end of the address range, so an address one such
+    // step past an array is still exact
+    public static final int MAX_COMPARED_STEP = 256;
+
+    private IRFunction function;
+    private HashMap<IRInstruction, IRBasicBlock> owners;
+
+    @Override
+    public String getName() {
+        return "strength-reduction";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        int changes = 0;
+        for (IRFunction function: program.functions) changes += this.optimizeFunction(function);
+        return changes;
+    }
+
+    private int optimizeFunction(IRFunction function) {
+        this.function = function;
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        int changes = cfg.removeUnreachableBlocks();
+        ArrayList<NaturalLoop> loops = NaturalLoop.findLoops(cfg, new DominatorTree(cfg));
+        for (int i = loops.size() - 1; i >= 0; i--) changes += this.reduce(cfg, loops.get(i), loops);
+        if (changes > 0) cfg.linearize();
+
+        return changes;
+    }
+
+    private int reduce(ControlFlowGraph cfg, NaturalLoop loop, ArrayList<NaturalLoop> loops) {
+        DefUseChains chains = new DefUseChains(cfg);
+        this.owners = new HashMap<>();
+        for (IRBasicBlock block: cfg.blocks)
+            for (IRInstruction instruction: block.instructions) this.owners.put(instruction, block);
+
+        HashMap<String, ArrayList<IRInstruction>> loopDefinitions = new HashMap<>();
+        for (IRBasicBlock block: loop.blocks) {
+            for (IRInstruction instruction: block.instructions) {
+                IRVariableOperand def = IRInstructions.getDef(instruction);
+                if (def != null) loopDefinitions.computeIfAbsent(def.getName(), k -> new ArrayList<>()).add(instruction);
+            }
+        }
+
+        // Basic induction variables and their steps
+        LinkedHashMap<String, IRInstruction> increments = new LinkedHashMap<>();
+        HashMap<String, Integer> steps = new HashMap<>();
+        for (Map.Entry<String, ArrayList<IRInstruction>> entry: loopDefinitions.entrySet()) {
+            if (entry.getValue().size() != 1) continue;
+            Integer step = getStep(entry.getValue().get(0), entry.getKey());
+            if (step == null) continue;
+            increments.put(entry.getKey(), entry.getValue().get(0));
+            steps.put(entry.getKey(), step);
+        }
+
+        // Array accesses indexed by one of them, grouped by array and induction variable
+        LinkedHashMap<String, ArrayList<IRInstruction>> accesses = new LinkedHashMap<>();
+        HashMap<String, LinkedHashSet<String>> arraysIndexed = new HashMap<>();
+        for (IRBasicBlock block: loop.blocks) {
+            for (IRInstruction instruction: block.instructions) {
+                if (!isArrayAccess(instruction)) continue;
+                String index = instruction.operands[2].toString();
+                if (!increments.containsKey(index)) continue;
+                String array = instruction.operands[1].toString();
+                accesses.computeIfAbsent(array + " " + index, k -> new ArrayList<>()).add(instruction);
+                arraysIndexed.computeIfAbsent(index, k -> new LinkedHashSet<>()).add(array);
+            }
+        }
+        if (accesses.isEmpty()) return 0;
+
+        // Decided before anything moves, while the def-use chains still describe the code
+        LinkedHashSet<String> eliminated = new LinkedHashSet<>();
+        ArrayList<IRInstruction> deadIncrements = new ArrayList<>();
+        for (String variable: arraysIndexed.keySet()) {
+            if (!this.canEliminate(variable, loop, chains, increments, arraysIndexed, loopDefinitions)) continue;
+            eliminated.add(variable);
+            // Dead code elimination keeps an add that might trap, so the step is removed here if it cannot
+            IRInstruction increment = increments.get(variable);
+            String array = arraysIndexed.get(variable).iterator().next();
+            if (this.getIndexedReads(variable, array, loop, chains, increment, true).contains(increment))
+                deadIncrements.add(increment);
+        }
+
+        IRBasicBlock preheader = loop.createPreheader(cfg, loops);
+        if (preheader == null) return 0;
+
+        int changes = 0;
+        HashMap<String, IRVariableOperand> pointers = new HashMap<>();
+        for (Map.Entry<String, ArrayList<IRInstruction>> entry: accesses.entrySet()) {
+            IRInstruction first = entry.getValue().get(0);
+            IRVariableOperand array = (IRVariableOperand) first.operands[1];
+            IRVariableOperand index = (IRVariableOperand) first.operands[2];
+            IRVariableOperand pointer = this.addressOf(preheader, array, index, "ptr");
+            pointers.put(entry.getKey(), pointer);
+
+            IRInstruction increment = increments.get(index.getName());
+            ArrayList<IRInstruction> instructions = this.owners.get(increment).instructions;
+            IRInstruction bump = IRInstructions.create(IRInstruction.OpCode.ADD, increment.irLineNumber, pointer, pointer,
+                    IRInstructions.intConstant(steps.get(index.getName()) * 4));
+            instructions.add(instructions.indexOf(increment) + 1, bump);
+
+            for (IRInstruction access: entry.getValue()) {
+                ArrayList<IRInstruction> block = this.owners.get(access).instructions;
+                IROperand[] operands = access.operands.clone();
+                operands[1] = pointer;
+                operands[2] = IRInstructions.intConstant(0);
+                block.set(block.indexOf(access), IRInstructions.create(access.opCode, access.irLineNumber, operands));
+                changes++;
+            }
+        }
+
+        for (String variable: eliminated) {
+            String array = arraysIndexed.get(variable).iterator().next();
+            IRVariableOperand pointer = pointers.get(array + " " + variable);
+            for (IRBasicBlock block: loop.blocks) {
+                for (int i = 0; i < block.instructions.size(); i++) {
+                    IRInstruction instruction = block.instructions.get(i);
+                    if (!IRInstructions.isBranch(instruction) || !this.reads(instruction, variable)) continue;
+                    IROperand[] operands = instruction.operands.clone();
+                    for (int position = 1; position <= 2; position++) {
+                        if (operands[position].toString().equals(variable)) operands[position] = pointer;
+                        else if (pointers.containsKey(array + " " + operands[position]))
+                            operands[position] = pointers.get(array + " " + operands[position]);
+                        else if (!pointers.containsValue(operands[position]))
+                            operands[position] = this.addressOf(preheader, (IRVariableOperand) accesses.get(array + " " + variable).get(0).operands[1], operands[position], "end");
+                    }
+                    block.instructions.set(i, IRInstructions.create(instruction.opCode, instruction.irLineNumber, operands));
+                    changes++;
+                }
+            }
+        }
+
+        for (IRInstruction increment: deadIncrements) {
+            this.owners.get(increment).instructions.remove(increment);
+            changes++;
+        }
+
+        cfg.computeEdges();
+        return changes;
+    }
+
+    private static boolean isArrayAccess(IRInstruction instruction) {
+        if (instruction.opCode != IRInstruction.OpCode.ARRAY_LOAD && instruction.opCode != IRInstruction.OpCode.ARRAY_STORE)
+            return false;
+        return IRInstructions.getType(instruction.operands[1]) instanceof IRArrayType
+                && instruction.operands[2] instanceof IRVariableOperand;
+    }
+
+    /**
+     * Returns c if the instruction is "add, i, i, c", "add, i, c, i" or "sub, i, i, -c"
+     */
+    static Integer getStep(IRInstruction instruction, String variable) {
+        if (!IRInstructions.binaryCodes.contains(instruction.opCode)) return null;
+        if (((IRVariableOperand) instruction.operands[0]).type != IRIntType.get()) return null;
+        IROperand y = instruction.operands[1];
+        IROperand z = instruction.operands[2];
+        if (instruction.opCode == IRInstruction.OpCode.ADD) {
+            if (y.toString().equals(variable) && z instanceof IRConstantOperand) return Integer.parseInt(z.toString());
+            if (z.toString().equals(variable) && y instanceof IRConstantOperand) return Integer.parseInt(y.toString());
+        } else if (instruction.opCode == IRInstruction.OpCode.SUB) {
+            if (y.toString().equals(variable) && z instanceof IRConstantOperand) return -Integer.parseInt(z.toString());
+        }
+        return null;
+    }
+
+    private boolean reads(IRInstruction instruction, String variable) {
+        for (IRVariableOperand use: IRInstructions.getUses(instruction))
+            if (use.getName().equals(variable)) return true;
+        return false;
+    }
+
+    /**
+     * True if i is dead after the loop and the loop only reads it to step it, to index arrays, and to compare
+     * it with an invariant or with another induction variable indexing the same array
+     */
+    private boolean canEliminate(String variable, NaturalLoop loop, DefUseChains chains,
+                                 HashMap<String, IRInstruction> increments,
+                                 HashMap<String, LinkedHashSet<String>> arraysIndexed,
+                                 HashMap<String, ArrayList<IRInstruction>> loopDefinitions) {
+        IRInstruction increment = increments.get(variable);
+        for (IRInstruction user: chains.getUses(increment))
+            if (!loop.contains(this.owners.get(user))) return false;
+
+        String array = arraysIndexed.get(variable).iterator().next();
+        Set<IRInstruction> indexed = this.getIndexedReads(variable, array, loop, chains, increment, false);
+        for (IRBasicBlock block: loop.blocks) {
+            for (IRInstruction instruction: block.instructions) {
+                if (instruction == increment || !this.reads(instruction, variable)) continue;
+                if (isArrayAccess(instruction) && instruction.operands[2].toString().equals(variable)
+                        && (instruction.opCode == IRInstruction.OpCode.ARRAY_LOAD || !instruction.operands[0].toString().equals(variable)))
+                    continue;
+                if (!IRInstructions.isBranch(instruction) || !indexed.contains(instruction)) return false;
+
+                IROperand other = instruction.operands[1].toString().equals(variable) ? instruction.operands[2] : instruction.operands[1];
+                if (other.toString().equals(variable)) continue;
+                if (!loopDefinitions.containsKey(other.toString())) {
+                    if (!this.isWithinBounds(other, instruction, chains, array, loop)) return false;
+                    continue;
+                }
+                LinkedHashSet<String> otherArrays = arraysIndexed.get(other.toString());
+                if (otherArrays == null || !otherArrays.contains(array)) return false;
+                IRInstruction otherIncrement = increments.get(other.toString());
+                if (!this.getIndexedReads(other.toString(), array, loop, chains, otherIncrement, false).contains(instruction))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the instructions in the loop that read variable at most one step from a value known to index
+     * array: one the loop has accessed array with since, or a start value within the array's bounds. Pointer
+     * arithmetic wraps, so only there, and only for steps up to MAX_COMPARED_STEP, does comparing addresses
+     * compare the indices. Stepping the variable there cannot overflow either, and for stepping, a start
+     * value one step back from some int counts as well.
+     */
+    private Set<IRInstruction> getIndexedReads(String variable, String array, NaturalLoop loop, DefUseChains chains,
+                                               IRInstruction increment, boolean stepping) {
+        Set<IRInstruction> indexed = Collections.newSetFromMap(new IdentityHashMap<>());
+        Integer step = getStep(increment, variable);
+        if (step == null || Math.abs(step) > MAX_COMPARED_STEP) return indexed;
+
+        // Steps taken since the variable last held a known index, where 2 stands for any number
+        IRVariableOperand start = null;
+        for (IRVariableOperand use: IRInstructions.getUses(increment))
+            if (use.getName().equals(variable)) start = use;
+        int entrySteps = 2;
+        if (start != null && this.isWithinBounds(start, increment, chains, array, loop)) entrySteps = 0;
+        else if (stepping && this.startsOneStepBack(variable, increment, loop, chains, step)) entrySteps = 1;
+        HashMap<IRBasicBlock, Integer> out = new HashMap<>();
+        for (IRBasicBlock block: loop.blocks) out.put(block, 0);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            indexed.clear();
+            for (IRBasicBlock block: loop.blocks) {
+                int steps = 0;
+                for (IRBasicBlock predecessor: block.predecessors)
+                    steps = Math.max(steps, loop.contains(predecessor) ? out.get(predecessor) : entrySteps);
+                for (IRInstruction instruction: block.instructions) {
+                    if (steps <= 1 && this.reads(instruction, variable)) indexed.add(instruction);
+                    if (isArrayAccess(instruction) && instruction.operands[1].toString().equals(array)
+                            && instruction.operands[2].toString().equals(variable)) steps = 0;
+                    if (instruction == increment) steps = Math.min(steps + 1, 2);
+                }
+                if (steps != out.get(block)) {
+                    out.put(block, steps);
+                    changed = true;
+                }
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * True if every definition of variable reaching the loop from outside sets it to some int less one step,
+     * like "sub, i, lo, 1" in front of a loop stepping i by 1, so the first step gives that int back
+     */
+    private boolean startsOneStepBack(String variable, IRInstruction increment, NaturalLoop loop, DefUseChains chains,
+                                      int step) {
+        if (chains.readsEntryValue(increment, variable)) return false;
+        for (IRInstruction def: chains.getDefinitions(increment, variable)) {
+            if (loop.contains(this.owners.get(def))) continue;
+            IROperand y = def.operands.length == 3 ? def.operands[1] : null;
+            IROperand z = def.operands.length == 3 ? def.operands[2] : null;
+            Integer offset = null;
+            if (def.opCode == IRInstruction.OpCode.ADD && z instanceof IRConstantOperand) offset = Integer.parseInt(z.toString());
+            else if (def.opCode == IRInstruction.OpCode.ADD && y instanceof IRConstantOperand) offset = Integer.parseInt(y.toString());
+            else if (def.opCode == IRInstruction.OpCode.SUB && z instanceof IRConstantOperand) offset = -Integer.parseInt(z.toString());
+            if (offset == null || offset != -step) return false;
+        }
+        return true;
+    }
+
+    private static boolean isWithinBounds(IROperand value, int size) {
+        if (!(value instanceof IRConstantOperand)) return false;
+        int index = Integer.parseInt(value.toString());
+        return index >= -1 && index <= size;
+    }
+
+    /**
+     * True if value, as it comes into the loop, always lies between -1 and the array's length where reader
+     * reads it, so its address can be computed without overflowing. Only constants and variables every
+     * definition reaching from outside the loop assigns such a constant are known to.
+     */
+    private boolean isWithinBounds(IROperand value, IRInstruction reader, DefUseChains chains, String array, NaturalLoop loop) {
+        int size = -1;
+        for (IRVariableOperand variable: this.function.variables)
+            if (variable.getName().equals(array) && variable.type instanceof IRArrayType) size = ((IRArrayType) variable.type).getSize();
+        if (size < 0) return false;
+        if (!(value instanceof IRVariableOperand)) return isWithinBounds(value, size);
+
+        String name = value.toString();
+        if (chains.readsEntryValue(reader, name)) {
+            for (IRVariableOperand parameter: this.function.parameters)
+                if (parameter.getName().equals(name)) return false;
+        }
+        for (IRInstruction def: chains.getDefinitions(reader, name)) {
+            if (loop.contains(this.owners.get(def))) continue;
+            if (def.opCode != IRInstruction.OpCode.ASSIGN || def.operands.length != 2) return false;
+            if (!isWithinBounds(def.operands[1], size)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Appends to the preheader the computation of the address of array[index] into a new variable
+     */
+    private IRVariableOperand addressOf(IRBasicBlock preheader, IRVariableOperand array, IROperand index, String suffix) {
+        IRVariableOperand address = IRInstructions.newVariable(this.function,
+                String.format("%s_%s_%s", array.getName(), index, suffix), IRIntType.get());
+        if (index instanceof IRConstantOperand)
+            preheader.instructions.add(IRInstructions.assign(address, IRInstructions.intConstant(Integer.parseInt(index.toString()) * 4), 0));
+        else
+            preheader.instructions.add(IRInstructions.create(IRInstruction.OpCode.MULT, 0, address, index, IRInstructions.intConstant(4)));
+        preheader.instructions.add(IRInstructions.create(IRInstruction.OpCode.ADD, 0, address, address, array));
+        return address;
+    }
+}
@@ -0,0 +1,119 @@
+package optimization;
+
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRFloatType;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.*;
+
+/**
+ * Turns calls a function makes to itself in tail position (see {@link IRInstructions#isTailCall}) into a
+ * jump back to its first instruction, so the recursion runs as a loop in one frame. The parameters are
+ * assigned the arguments, through copies where an argument is a parameter assigned before it is read, and
+ * the locals are zeroed as they would be on entry. Array parameters cannot be reassigned in the IR, so a
+ * call is only rewritten when it passes each array parameter on unchanged. Other tail calls are left to the
+ * instruction selector.
+ */
+public class TailRecursionElimination implements OptimizationPass {
+    @Override
+    public String getName() {
+        return "tail-recursion";
+    }
+
+    @Override
+    public int optimize(IRProgram program) {
+        int changes = 0;
+        for (IRFunction function: program.functions) changes += this.optimizeFunction(function);
+        return changes;
+    }
+
+    private int optimizeFunction(IRFunction function) {
+        ArrayList<Integer> calls = new ArrayList<>();
+        for (int i = 0; i < function.instructions.size(); i++)
+            if (this.isEliminable(function, i)) calls.add(i);
+        if (calls.isEmpty()) return 0;
+
+        HashSet<String> labels = new HashSet<>();
+        for (IRInstruction instruction: function.instructions)
+            if (instruction.opCode == IRInstruction.OpCode.LABEL) labels.add(instruction.operands[0].toString());
+        String entry = function.name + "_entry";
+        for (int i = 1; labels.contains(entry); i++) entry = String.format("%s_entry_%d", function.name, i);
+
+        ArrayList<IRInstruction> instructions = new ArrayList<>();
+        instructions.add(IRInstructions.label(entry, 0));
+        for (int i = 0; i < function.instructions.size(); i++) {
+            IRInstruction instruction = function.instructions.get(i);
+            if (calls.contains(i)) instructions.addAll(this.reenter(function, instruction, entry));
+            else instructions.add(instruction);
+        }
+
+        function.instructions.clear();
+        function.instructions.addAll(instructions);
+        return calls.size();
+    }
+
+    private boolean isEliminable(IRFunction function, int index) {
+        IRInstruction instruction = function.instructions.get(index);
+        if (!function.name.equals(IRInstructions.getCallee(instruction)) || !IRInstructions.isTailCall(function, index))
+            return false;
+
+        int first = instruction.opCode == IRInstruction.OpCode.CALLR ? 2 : 1;
+        for (int i = 0; i < function.parameters.size(); i++) {
+            IRVariableOperand parameter = function.parameters.get(i);
+            if (parameter.type instanceof IRArrayType && !instruction.operands[first + i].toString().equals(parameter.getName()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the code that sets up the function's variables for another activation and jumps to its start
+     */
+    private ArrayList<IRInstruction> reenter(IRFunction function, IRInstruction call, String entry) {
+        int line = call.irLineNumber;
+        int first = call.opCode == IRInstruction.OpCode.CALLR ? 2 : 1;
+        ArrayList<IRInstruction> instructions = new ArrayList<>();
+
+        IROperand[] arguments = Arrays.copyOfRange(call.operands, first, call.operands.length);
+        ArrayList<Integer> assigned = new ArrayList<>();
+        for (int i = 0; i < arguments.length; i++)
+            if (!arguments[i].toString().equals(function.parameters.get(i).getName())) assigned.add(i);
+
+        // A parameter that a later argument reads keeps its old value in a copy
+        for (int k = 0; k < assigned.size(); k++) {
+            IRVariableOperand parameter = function.parameters.get(assigned.get(k));
+            IRVariableOperand copy = null;
+            for (int j: assigned.subList(k + 1, assigned.size())) {
+                if (!arguments[j].toString().equals(parameter.getName())) continue;
+                if (copy == null) {
+                    copy = IRInstructions.newVariable(function, parameter.getName() + "_old", parameter.type);
+                    instructions.add(IRInstructions.assign(copy, parameter, line));
+                }
+                arguments[j] = copy;
+            }
+        }
+        for (int i: assigned) instructions.add(IRInstructions.assign(function.parameters.get(i), arguments[i], line));
+
+        for (IRVariableOperand variable: function.variables) {
+            if (function.parameters.contains(variable)) continue;
+            if (variable.type instanceof IRArrayType) {
+                IRArrayType type = (IRArrayType) variable.type;
+                instructions.add(IRInstructions.create(IRInstruction.OpCode.ASSIGN, line, variable,
+                        IRInstructions.intConstant(type.getSize()), zero(type.getElementType() == IRFloatType.get())));
+            } else {
+                instructions.add(IRInstructions.assign(variable, zero(variable.type == IRFloatType.get()), line));
+            }
+        }
+
+        instructions.add(IRInstructions.jump(entry, line));
+        return instructions;
+    }
+
+    private static IROperand zero(boolean isFloat) {
+        return isFloat ? IRInstructions.floatConstant(0) : IRInstructions.intConstant(0);
+    }
+}
@@ -0,0 +1,623 @@
+package simulation;
+
+import ir.*;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRFloatType;
+import ir.datatype.IRType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+import optimization.ControlFlowGraph;
+import optimization.IRBasicBlock;
+import optimization.IRInstructions;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Runs an IR program directly, for reference outputs and block profiles. Each function is first translated
+ * into parallel arrays: an operation specialized by operand type, and operand slots. Each variable gets a
+ * slot in the int, float, int array or float array slots of its frame. Constants get slots that are
+ * filled in once and copied into every frame. Labels are resolved into instruction indices, and frames
+ * are kept on an explicit stack, so recursion depth is limited only by the heap. The intrinsics read
+ * and write like the MIPS syscalls do.
+ *
+ * Basic blocks are those of {@link ControlFlowGraph}. The interpreter counts how many times each block
+ * is entered and each edge is taken, and {@link #getProfile} returns the counts keyed by IR line as an
+ * {@link IRProfile}.
+ *
+ * Usage: IRInterpreter program.ir [--profile=file] [--limit=instructions] [--stats] &lt; input
+ */
+public class IRInterpreter {
+    // Operations, specialized by operand type
+    private static final int NOP = 0, GOTO = 1, RETURN = 2, CALL = 3,
+            I_ASSIGN = 4, I_ADD = 5, I_SUB = 6, I_MULT = 7, I_DIV = 8, I_AND = 9, I_OR = 10,
+            F_ASSIGN = 11, F_ADD = 12, F_SUB = 13, F_MULT = 14, F_DIV = 15, F_AND = 16, F_OR = 17,
+            I_BREQ = 18, I_BRNEQ = 19, I_BRLT = 20, I_BRGT = 21, I_BRLEQ = 22, I_BRGEQ = 23,
+            F_BREQ = 24, F_BRNEQ = 25, F_BRLT = 26, F_BRGT = 27, F_BRLEQ = 28, F_BRGEQ = 29,
+            I_RETURN = 30, F_RETURN = 31, I_LOAD = 32, F_LOAD = 33, I_STORE = 34, F_STORE = 35,
+            I_FILL = 36, F_FILL = 37, I_ARRAY_ASSIGN = 38, F_ARRAY_ASSIGN = 39,
+            GETI = 40, GETF = 41, GETC = 42, PUTI = 43, PUTF = 44, PUTC = 45;
+
+    private static final HashMap<String, Integer> intrinsics = new HashMap<>();
+
+    static {
+        intrinsics.put("geti", GETI);
+        intrinsics.put("getf", GETF);
+        intrinsics.put("getc", GETC);
+        intrinsics.put("puti", PUTI);
+        intrinsics.put("putf", PUTF);
+        intrinsics.put("putc", PUTC);
+    }
+
+    // Slot kinds
+    private static final int INT = 0, FLOAT = 1, INT_ARRAY = 2, FLOAT_ARRAY = 3;
+
+    private static class Code {
+        String name;
+        int[] ops;
+        int[] a;
+        int[] b;
+        int[] c;
+        int[] lines;
+        int[][] arguments;
+
+        // Initial int and float slots: zeroed variables, then the constants
+        int[] intTemplate;
+        float[] floatTemplate;
+        int intArraySlots;
+        int floatArraySlots;
+        int[] parameterKinds;
+        int[] parameterSlots;
+        int[] localArraySlots;
+        int[] localArrayKinds;
+        int[] localArraySizes;
+
+        // Block of each instruction that starts one, -1 elsewhere
+        int[] blockAt;
+        int[][] successors;
+        long[] blockCounts;
+        long[][] edgeCounts;
+        int[] blockLines;
+        ArrayList<ArrayList<String>> blockLabels;
+        long calls;
+    }
+
+    private static class Frame {
+        final Code code;
+        final int[] ints;
+        final float[] floats;
+        final int[][] intArrays;
+        final float[][] floatArrays;
+        int pc;
+        int block = -1;
+
+        Frame(Code code) {
+            this.code = code;
+            this.ints = code.intTemplate.clone();
+            this.floats = code.floatTemplate.clone();
+            this.intArrays = new int[code.intArraySlots][];
+            this.floatArrays = new float[code.floatArraySlots][];
+            for (int i = 0; i < code.localArraySlots.length; i++) {
+                if (code.localArrayKinds[i] == INT_ARRAY) this.intArrays[code.localArraySlots[i]] = new int[code.localArraySizes[i]];
+                else this.floatArrays[code.localArraySlots[i]] = new float[code.localArraySizes[i]];
+            }
+        }
+    }
+
+    private final ArrayList<Code> functions = new ArrayList<>();
+    private final HashMap<String, Integer> functionIndices = new HashMap<>();
+
+    public long instructionCount;
+    public long instructionLimit = Long.MAX_VALUE;
+
+    public IRInterpreter(IRProgram program) throws IRException {
+        for (IRFunction function: program.functions) this.functionIndices.put(function.name, this.functionIndices.size());
+        if (!this.functionIndices.containsKey("main")) throw new IRException("Program has no main function");
+        for (IRFunction function: program.functions) this.functions.add(this.translate(function, program));
+    }
+
+    private static int getKind(IRType type) {
+        if (type instanceof IRArrayType)
+            return ((IRArrayType) type).getElementType() == IRFloatType.get() ? FLOAT_ARRAY : INT_ARRAY;
+        return type == IRFloatType.get() ? FLOAT : INT;
+    }
+
+    /**
+     * Assigns slots to a function's variables and constants as it translates the function's instructions
+     */
+    private static class SlotMap {
+        final HashMap<String, Integer> variableSlots = new HashMap<>();
+        final HashMap<String, Integer> variableKinds = new HashMap<>();
+        final ArrayList<Integer> intValues = new ArrayList<>();
+        final ArrayList<Float> floatValues = new ArrayList<>();
+        final HashMap<String, Integer> intConstants = new HashMap<>();
+        final HashMap<String, Integer> floatConstants = new HashMap<>();
+        final int[] counts = new int[4];
+
+        int addVariable(IRVariableOperand variable) {
+            int kind = getKind(variable.type);
+            int slot = this.counts[kind]++;
+            if (kind == INT) this.intValues.add(0);
+            else if (kind == FLOAT) this.floatValues.add(0f);
+            this.variableSlots.put(variable.getName(), slot);
+            this.variableKinds.put(variable.getName(), kind);
+            return slot;
+        }
+
+        /**
+         * Returns the slot holding the operand as a value of the given scalar kind
+         */
+        int get(IROperand operand, int kind) {
+            if (!(operand instanceof IRConstantOperand)) return this.variableSlots.get(operand.toString());
+            String value = ((IRConstantOperand) operand).getValueString();
+            if (kind == FLOAT) {
+                return this.floatConstants.computeIfAbsent(value, k -> {
+                    this.floatValues.add(Float.parseFloat(k));
+                    return this.counts[FLOAT]++;
+                });
+            }
+            return this.intConstants.computeIfAbsent(value, k -> {
+                this.intValues.add(Integer.parseInt(k));
+                return this.counts[INT]++;
+            });
+        }
+
+        int getOperandKind(IROperand operand) {
+            if (operand instanceof IRVariableOperand) return this.variableKinds.get(operand.toString());
+            return IRInterpreter.getKind(((IRConstantOperand) operand).type);
+        }
+    }
+
+    private Code translate(IRFunction function, IRProgram program) throws IRException {
+        Code code = new Code();
+        code.name = function.name;
+        int n = function.instructions.size();
+        code.ops = new int[n];
+        code.a = new int[n];
+        code.b = new int[n];
+        code.c = new int[n];
+        code.lines = new int[n];
+        code.arguments = new int[n][];
+
+        SlotMap slots = new SlotMap();
+        for (IRVariableOperand variable: function.variables) slots.addVariable(variable);
+        code.parameterKinds = new int[function.parameters.size()];
+        code.parameterSlots = new int[function.parameters.size()];
+        for (int i = 0; i < function.parameters.size(); i++) {
+            IRVariableOperand parameter = function.parameters.get(i);
+            code.parameterKinds[i] = getKind(parameter.type);
+            code.parameterSlots[i] = slots.variableSlots.get(parameter.getName());
+        }
+        ArrayList<IRVariableOperand> localArrays = new ArrayList<>();
+        for (IRVariableOperand variable: function.variables)
+            if (variable.type instanceof IRArrayType && !function.parameters.contains(variable)) localArrays.add(variable);
+        code.localArraySlots = new int[localArrays.size()];
+        code.localArrayKinds = new int[localArrays.size()];
+        code.localArraySizes = new int[localArrays.size()];
+        for (int i = 0; i < localArrays.size(); i++) {
+            code.localArraySlots[i] = slots.variableSlots.get(localArrays.get(i).getName());
+            code.localArrayKinds[i] = getKind(localArrays.get(i).type);
+            code.localArraySizes[i] = ((IRArrayType) localArrays.get(i).type).getSize();
+        }
+
+        HashMap<String, Integer> labels = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            IRInstruction instruction = function.instructions.get(i);
+            if (instruction.opCode == IRInstruction.OpCode.LABEL) labels.put(instruction.operands[0].toString(), i);
+        }
+
+        for (int i = 0; i < n; i++) {
+            IRInstruction instruction = function.instructions.get(i);
+            IROperand[] operands = instruction.operands;
+            code.lines[i] = instruction.irLineNumber;
+            switch (instruction.opCode) {
+                case LABEL:
+                    code.ops[i] = NOP;
+                    break;
+                case GOTO:
+                    code.ops[i] = GOTO;
+                    code.a[i] = getTarget(labels, operands[0].toString(), instruction);
+                    break;
+                case ASSIGN: {
+                    int kind = slots.getOperandKind(operands[0]);
+                    code.a[i] = slots.get(operands[0], kind);
+                    if (operands.length == 3) {
+                        code.ops[i] = kind == INT_ARRAY ? I_FILL : F_FILL;
+                        code.b[i] = slots.get(operands[1], INT);
+                        code.c[i] = slots.get(operands[2], kind == INT_ARRAY ? INT : FLOAT);
+                    } else if (kind == INT_ARRAY || kind == FLOAT_ARRAY) {
+                        code.ops[i] = kind == INT_ARRAY ? I_ARRAY_ASSIGN : F_ARRAY_ASSIGN;
+                        code.b[i] = slots.get(operands[1], kind);
+                    } else {
+                        code.ops[i] = kind == INT ? I_ASSIGN : F_ASSIGN;
+                        code.b[i] = slots.get(operands[1], kind);
+                    }
+                    break;
+                }
+                case ADD: case SUB: case MULT: case DIV: case AND: case OR: {
+                    int kind = slots.getOperandKind(operands[0]);
+                    int offset = instruction.opCode.ordinal() - IRInstruction.OpCode.ADD.ordinal();
+                    code.ops[i] = (kind == INT ? I_ADD : F_ADD) + offset;
+                    code.a[i] = slots.get(operands[0], kind);
+                    code.b[i] = slots.get(operands[1], kind);
+                    code.c[i] = slots.get(operands[2], kind);
+                    break;
+                }
+                case BREQ: case BRNEQ: case BRLT: case BRGT: case BRLEQ: case BRGEQ: {
+                    int kind = slots.getOperandKind(operands[1]) == FLOAT || slots.getOperandKind(operands[2]) == FLOAT ? FLOAT : INT;
+                    int offset = instruction.opCode.ordinal() - IRInstruction.OpCode.BREQ.ordinal();
+                    code.ops[i] = (kind == INT ? I_BREQ : F_BREQ) + offset;
+                    code.a[i] = getTarget(labels, operands[0].toString(), instruction);
+                    code.b[i] = slots.get(operands[1], kind);
+                    code.c[i] = slots.get(operands[2], kind);
+                    break;
+                }
+                case RETURN:
+                    if (operands.length == 0) {
+                        code.ops[i] = RETURN;
+                    } else {
+                        int kind = getKind(function.returnType);
+                        code.ops[i] = kind == INT ? I_RETURN : F_RETURN;
+                        code.a[i] = slots.get(operands[0], kind);
+                    }
+                    break;
+                case ARRAY_LOAD: case ARRAY_STORE: {
+                    int kind = slots.getOperandKind(operands[1]);
+                    boolean load = instruction.opCode == IRInstruction.OpCode.ARRAY_LOAD;
+                    if (kind == INT_ARRAY) code.ops[i] = load ? I_LOAD : I_STORE;
+                    else code.ops[i] = load ? F_LOAD : F_STORE;
+                    code.a[i] = slots.get(operands[0], kind == INT_ARRAY ? INT : FLOAT);
+                    code.b[i] = slots.get(operands[1], kind);
+                    code.c[i] = slots.get(operands[2], INT);
+                    break;
+                }
+                case CALL: case CALLR:
+                    this.translateCall(code, i, instruction, slots, program);
+                    break;
+                default:
+                    throw new IRException("Unsupported instruction " + instruction.opCode, instruction.irLineNumber);
+            }
+        }
+
+        code.intTemplate = new int[slots.counts[INT]];
+        for (int i = 0; i < code.intTemplate.length; i++) code.intTemplate[i] = slots.intValues.get(i);
+        code.floatTemplate = new float[slots.counts[FLOAT]];
+        for (int i = 0; i < code.floatTemplate.length; i++) code.floatTemplate[i] = slots.floatValues.get(i);
+        code.intArraySlots = slots.counts[INT_ARRAY];
+        code.floatArraySlots = slots.counts[FLOAT_ARRAY];
+
+        this.findBlocks(code, function);
+        return code;
+    }
+
+    private static int getTarget(HashMap<String, Integer> labels, String label, IRInstruction instruction) throws IRException {
+        Integer target = labels.get(label);
+        if (target == null) throw new IRException("Undefined label " + label, instruction.irLineNumber);
+        return target;
+    }
+
+    private void translateCall(Code code, int i, IRInstruction instruction, SlotMap slots, IRProgram program) throws IRException {
+        String name = IRInstructions.getCallee(instruction);
+        int first = instruction.opCode == IRInstruction.OpCode.CALLR ? 2 : 1;
+        int argumentCount = instruction.operands.length - first;
+        if (first == 2) {
+            IROperand result = instruction.operands[0];
+            code.a[i] = slots.get(result, slots.getOperandKind(result));
+        }
+
+        Integer intrinsic = intrinsics.get(name);
+        if (intrinsic != null) {
+            code.ops[i] = intrinsic;
+            if (argumentCount == 1) code.b[i] = slots.get(instruction.operands[first], intrinsic == PUTF ? FLOAT : INT);
+            return;
+        }
+
+        Integer index = this.functionIndices.get(name);
+        if (index == null) throw new IRException("Undefined function " + name, instruction.irLineNumber);
+        IRFunction callee = program.functions.get(index);
+        if (callee.parameters.size() != argumentCount)
+            throw new IRException("Wrong number of arguments to " + name, instruction.irLineNumber);
+
+        code.ops[i] = CALL;
+        code.b[i] = index;
+        code.c[i] = first == 2 ? 1 : 0;
+        code.arguments[i] = new int[argumentCount];
+        for (int j = 0; j < argumentCount; j++)
+            code.arguments[i][j] = slots.get(instruction.operands[first + j], getKind(callee.parameters.get(j).type));
+    }
+
+    private void findBlocks(Code code, IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        IdentityHashMap<IRInstruction, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < function.instructions.size(); i++) positions.put(function.instructions.get(i), i);
+
+        int count = cfg.blocks.size();
+        code.blockAt = new int[function.instructions.size()];
+        Arrays.fill(code.blockAt, -1);
+        code.successors = new int[count][];
+        code.blockCounts = new long[count];
+        code.edgeCounts = new long[count][];
+        code.blockLines = new int[count];
+        code.blockLabels = new ArrayList<>();
+        HashMap<IRBasicBlock, Integer> indices = new HashMap<>();
+        for (int b = 0; b < count; b++) indices.put(cfg.blocks.get(b), b);
+
+        for (int b = 0; b < count; b++) {
+            IRBasicBlock block = cfg.blocks.get(b);
+            if (!block.instructions.isEmpty()) {
+                code.blockAt[positions.get(block.instructions.get(0))] = b;
+                code.blockLines[b] = block.instructions.get(0).irLineNumber;
+            }
+            ArrayList<String> labels = new ArrayList<>();
+            for (IRInstruction instruction: block.instructions) {
+                if (instruction.opCode != IRInstruction.OpCode.LABEL) break;
+                labels.add(instruction.operands[0].toString());
+            }
+            code.blockLabels.add(labels);
+            code.successors[b] = new int[block.successors.size()];
+            for (int s = 0; s < block.successors.size(); s++) code.successors[b][s] = indices.get(block.successors.get(s));
+            code.edgeCounts[b] = new long[block.successors.size()];
+        }
+    }
+
+    /**
+     * Runs main until it returns. A run-time error is thrown as an IllegalStateException naming the function
+     * and IR line it happened at.
+     */
+    public void run(InputStream in, PrintStream out) {
+        InputReader input = new InputReader(in);
+        ArrayDeque<Frame> stack = new ArrayDeque<>();
+        Frame frame = this.enter(this.functions.get(this.functionIndices.get("main")));
+        Code code = frame.code;
+        int[] ops = code.ops, a = code.a, b = code.b, c = code.c;
+        int[] ints = frame.ints;
+        float[] floats = frame.floats;
+        int[][] intArrays = frame.intArrays;
+        float[][] floatArrays = frame.floatArrays;
+        int pc = 0;
+        long count = 0;
+        long limit = this.instructionLimit;
+
+        try {
+            while (true) {
+                if (pc == ops.length) {
+                    // Falling off the end of a function returns from it
+                    if (stack.isEmpty()) break;
+                    frame = stack.pop();
+                    code = frame.code;
+                    ops = code.ops; a = code.a; b = code.b; c = code.c;
+                    ints = frame.ints; floats = frame.floats; intArrays = frame.intArrays; floatArrays = frame.floatArrays;
+                    pc = frame.pc + 1;
+                    continue;
+                }
+
+                int block = code.blockAt[pc];
+                if (block >= 0) {
+                    code.blockCounts[block]++;
+                    if (frame.block >= 0) {
+                        int[] successors = code.successors[frame.block];
+                        for (int s = 0; s < successors.length; s++) {
+                            if (successors[s] == block) {
+                                code.edgeCounts[frame.block][s]++;
+                                break;
+                            }
+                        }
+                    }
+                    frame.block = block;
+                }
+
+                if (count++ == limit) throw new IllegalStateException("Instruction limit exceeded");
+                int next = pc + 1;
+                switch (ops[pc]) {
+                    case NOP: break;
+                    case GOTO: next = a[pc]; break;
+                    case I_ASSIGN: ints[a[pc]] = ints[b[pc]]; break;
+                    case I_ADD: ints[a[pc]] = ints[b[pc]] + ints[c[pc]]; break;
+                    case I_SUB: ints[a[pc]] = ints[b[pc]] - ints[c[pc]]; break;
+                    case I_MULT: ints[a[pc]] = ints[b[pc]] * ints[c[pc]]; break;
+                    case I_DIV: ints[a[pc]] = ints[b[pc]] / ints[c[pc]]; break;
+                    case I_AND: ints[a[pc]] = ints[b[pc]] & ints[c[pc]]; break;
+                    case I_OR: ints[a[pc]] = ints[b[pc]] | ints[c[pc]]; break;
+                    case F_ASSIGN: floats[a[pc]] = floats[b[pc]]; break;
+                    case F_ADD: floats[a[pc]] = floats[b[pc]] + floats[c[pc]]; break;
+                    case F_SUB: floats[a[pc]] = floats[b[pc]] - floats[c[pc]]; break;
+                    case F_MULT: floats[a[pc]] = floats[b[pc]] * floats[c[pc]]; break;
+                    case F_DIV: floats[a[pc]] = floats[b[pc]] / floats[c[pc]]; break;
+                    case F_AND:
+                        floats[a[pc]] = Float.intBitsToFloat(Float.floatToRawIntBits(floats[b[pc]]) & Float.floatToRawIntBits(floats[c[pc]]));
+                        break;
+                    case F_OR:
+                        floats[a[pc]] = Float.intBitsToFloat(Float.floatToRawIntBits(floats[b[pc]]) | Float.floatToRawIntBits(floats[c[pc]]));
+                        break;
+                    case I_BREQ: if (ints[b[pc]] == ints[c[pc]]) next = a[pc]; break;
+                    case I_BRNEQ: if (ints[b[pc]] != ints[c[pc]]) next = a[pc]; break;
+                    case I_BRLT: if (ints[b[pc]] < ints[c[pc]]) next = a[pc]; break;
+                    case I_BRGT: if (ints[b[pc]] > ints[c[pc]]) next = a[pc]; break;
+                    case I_BRLEQ: if (ints[b[pc]] <= ints[c[pc]]) next = a[pc]; break;
+                    case I_BRGEQ: if (ints[b[pc]] >= ints[c[pc]]) next = a[pc]; break;
+                    case F_BREQ: if (floats[b[pc]] == floats[c[pc]]) next = a[pc]; break;
+                    case F_BRNEQ: if (floats[b[pc]] != floats[c[pc]]) next = a[pc]; break;
+                    case F_BRLT: if (floats[b[pc]] < floats[c[pc]]) next = a[pc]; break;
+                    case F_BRGT: if (floats[b[pc]] > floats[c[pc]]) next = a[pc]; break;
+                    case F_BRLEQ: if (floats[b[pc]] <= floats[c[pc]]) next = a[pc]; break;
+                    case F_BRGEQ: if (floats[b[pc]] >= floats[c[pc]]) next = a[pc]; break;
+                    case I_LOAD: ints[a[pc]] = intArrays[b[pc]][ints[c[pc]]]; break;
+                    case F_LOAD: floats[a[pc]] = floatArrays[b[pc]][ints[c[pc]]]; break;
+                    case I_STORE: intArrays[b[pc]][ints[c[pc]]] = ints[a[pc]]; break;
+                    case F_STORE: floatArrays[b[pc]][ints[c[pc]]] = floats[a[pc]]; break;
+                    case I_FILL: Arrays.fill(intArrays[a[pc]], 0, ints[b[pc]], ints[c[pc]]); break;
+                    case F_FILL: Arrays.fill(floatArrays[a[pc]], 0, ints[b[pc]], floats[c[pc]]); break;
+                    case I_ARRAY_ASSIGN: intArrays[a[pc]] = intArrays[b[pc]]; break;
+                    case F_ARRAY_ASSIGN: floatArrays[a[pc]] = floatArrays[b[pc]]; break;
+                    case GETI: ints[a[pc]] = input.readInt(); break;
+                    case GETF: floats[a[pc]] = input.readFloat(); break;
+                    case GETC: ints[a[pc]] = input.readChar(); break;
+                    case PUTI: out.print(ints[b[pc]]); break;
+                    case PUTF: out.print(floats[b[pc]]); break;
+                    case PUTC: out.print((char) ints[b[pc]]); break;
+                    case CALL: {
+                        Code callee = this.functions.get(b[pc]);
+                        Frame calleeFrame = this.enter(callee);
+                        int[] arguments = code.arguments[pc];
+                        for (int i = 0; i < arguments.length; i++) {
+                            int slot = callee.parameterSlots[i];
+                            switch (callee.parameterKinds[i]) {
+                                case INT: calleeFrame.ints[slot] = ints[arguments[i]]; break;
+                                case FLOAT: calleeFrame.floats[slot] = floats[arguments[i]]; break;
+                                case INT_ARRAY: calleeFrame.intArrays[slot] = intArrays[arguments[i]]; break;
+                                default: calleeFrame.floatArrays[slot] = floatArrays[arguments[i]]; break;
+                            }
+                        }
+                        frame.pc = pc;
+                        stack.push(frame);
+                        frame = calleeFrame;
+                        code = callee;
+                        ops = code.ops; a = code.a; b = code.b; c = code.c;
+                        ints = frame.ints; floats = frame.floats; intArrays = frame.intArrays; floatArrays = frame.floatArrays;
+                        next = 0;
+                        break;
+                    }
+                    case RETURN: case I_RETURN: case F_RETURN: {
+                        if (stack.isEmpty()) return;
+                        int op = ops[pc];
+                        int intValue = op == I_RETURN ? ints[a[pc]] : 0;
+                        float floatValue = op == F_RETURN ? floats[a[pc]] : 0;
+                        frame = stack.pop();
+                        code = frame.code;
+                        ops = code.ops; a = code.a; b = code.b; c = code.c;
+                        ints = frame.ints; floats = frame.floats; intArrays = frame.intArrays; floatArrays = frame.floatArrays;
+                        pc = frame.pc;
+                        if (c[pc] == 1 && op == I_RETURN) ints[a[pc]] = intValue;
+                        else if (c[pc] == 1 && op == F_RETURN) floats[a[pc]] = floatValue;
+                        next = pc + 1;
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException("Unsupported operation " + ops[pc]);
+                }
+                pc = next;
+            }
+        } catch (ArithmeticException | IndexOutOfBoundsException | IllegalStateException e) {
+            throw new IllegalStateException(String.format("%s in %s at IR line %d", e.getMessage(), code.name,
+                    pc < code.lines.length ? code.lines[pc] : 0));
+        } finally {
+            this.instructionCount += count;
+            out.flush();
+        }
+    }
+
+    private Frame enter(Code code) {
+        code.calls++;
+        return new Frame(code);
+    }
+
+    public IRProfile getProfile() {
+        IRProfile profile = new IRProfile();
+        for (Code code: this.functions) {
+            IRProfile.FunctionProfile function = profile.addFunction(code.name);
+            function.calls = code.calls;
+            for (int b = 0; b < code.blockCounts.length; b++) {
+                function.addBlock(code.blockLines[b], code.blockLabels.get(b), code.blockCounts[b]);
+                for (int s = 0; s < code.successors[b].length; s++) {
+                    long count = code.edgeCounts[b][s];
+                    if (count > 0) function.addEdge(code.blockLines[b], code.blockLines[code.successors[b][s]], count);
+                }
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Reads input the way the syscalls do: numbers skip leading whitespace, and a character is the next
+     * byte, or -1 at the end of the input
+     */
+    private static class InputReader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int length;
+        private int position;
+
+        InputReader(InputStream in) {
+            this.in = in;
+        }
+
+        int readChar() {
+            if (this.position == this.length) {
+                try {
+                    this.length = this.in.read(this.buffer);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                this.position = 0;
+                if (this.length <= 0) {
+                    this.length = 0;
+                    return -1;
+                }
+            }
+            return this.buffer[this.position++] & 0xff;
+        }
+
+        private String readToken() {
+            int ch = this.readChar();
+            while (ch != -1 && Character.isWhitespace(ch)) ch = this.readChar();
+            if (ch == -1) throw new IllegalStateException("Read past the end of the input");
+            StringBuilder token = new StringBuilder();
+            while (ch != -1 && !Character.isWhitespace(ch)) {
+                token.append((char) ch);
+                ch = this.readChar();
+            }
+            // The delimiter is left for a following getc, as a scanner would leave it
+            if (ch != -1) this.position--;
+            return token.toString();
+        }
+
+        int readInt() {
+            String token = this.readToken();
+            try {
+                return Integer.parseInt(token);
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException(String.format("Invalid integer input '%s'", token));
+            }
+        }
+
+        float readFloat() {
+            String token = this.readToken();
+            try {
+                return Float.parseFloat(token);
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException(String.format("Invalid float input '%s'", token));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, IRException {
+        String profileFilename = null;
+        long limit = Long.MAX_VALUE;
+        boolean printStatistics = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--profile=")) profileFilename = args[i].substring("--profile=".length());
+            else if (args[i].startsWith("--limit=")) limit = Long.parseLong(args[i].substring("--limit=".length()));
+            else if (args[i].equals("--stats")) printStatistics = true;
+            else System.err.println(String.format("Ignoring unknown option '%s'", args[i]));
+        }
+
+        IRProgram program = new IRReader().parseIRFile(args[0]);
+        IRInterpreter interpreter = new IRInterpreter(program);
+        interpreter.instructionLimit = limit;
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)), false);
+        try {
+            interpreter.run(System.in, out);
+        } catch (IllegalStateException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            if (profileFilename != null) {
+                try (PrintStream profile = new PrintStream(profileFilename)) {
+                    interpreter.getProfile().write(profile);
+                }
+            }
+            if (printStatistics) System.err.println(String.format("Executed %d IR instructions", interpreter.instructionCount));
+        }
+    }
+}
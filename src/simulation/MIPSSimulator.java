@@ -0,0 +1,650 @@
+package simulation;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Runs the assembly the compiler emits without an external simulator. The program is assembled once into
+ * parallel arrays of decoded operands, and execution starts at main with $sp at the top of the stack, like
+ * SPIM. The pseudo-instructions, FPU operations and syscalls (print and read int, float and char, sbrk, exit)
+ * that the selector and allocators produce are supported, and other instructions are rejected at assembly. As
+ * on the hardware and in MARS, add, addi, sub and neg trap on signed overflow, and their unsigned forms wrap.
+ * Every executed instruction is counted by class, and loads and stores are also counted by whether they hit
+ * the stack, which is where allocator spills and caller saves go. With delay slots on, the instruction after
+ * each branch, jump and call runs before control transfers, as on the hardware.
+ */
+public class MIPSSimulator {
+    public enum InstructionClass {
+        ALU, LOAD, STORE, BRANCH, JUMP, MULDIV, FLOAT, SYSCALL
+    }
+
+    private static final int TEXT_BASE = 0x00400000;
+    private static final int DATA_BASE = 0x10010000;
+    private static final int HEAP_BASE = 0x10040000;
+    private static final int STACK_TOP = 0x7fffeffc;
+    private static final int STACK_WORDS = 1 << 20;
+    private static final int STACK_LOW = STACK_TOP + 4 - STACK_WORDS * 4;
+
+    private static final HashMap<String, Integer> registerNumbers = new HashMap<>();
+    private static final String[] registerNames = {
+            "zero", "at", "v0", "v1", "a0", "a1", "a2", "a3",
+            "t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7",
+            "s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7",
+            "t8", "t9", "k0", "k1", "gp", "sp", "fp", "ra"
+    };
+
+    // Decoded operation codes
+    private static final int ADD = 0, ADDI = 1, SUB = 2, MUL = 3, DIV = 4, DIV2 = 5, MULT = 6, MFHI = 7, MFLO = 8,
+            AND = 9, ANDI = 10, OR = 11, ORI = 12, XOR = 13, XORI = 14, NOR = 15,
+            SLL = 16, SRL = 17, SRA = 18, SLLV = 19, SRLV = 20, SRAV = 21,
+            SLT = 22, SLTI = 23, SLTU = 24, SLTIU = 25, MOVN = 26, MOVZ = 27,
+            LI = 28, LUI = 29, MOVE = 30, LA = 31, LW = 32, SW = 33,
+            BEQ = 34, BNE = 35, BGE = 36, BGT = 37, BLE = 38, BLT = 39,
+            BEQI = 40, BNEI = 41, BGEI = 42, BGTI = 43, BLEI = 44, BLTI = 45,
+            BGEZ = 46, BGTZ = 47, BLEZ = 48, BLTZ = 49, J = 50, JAL = 51, JR = 52, JALR = 53,
+            SYSCALL = 54, NOP = 55, NEG = 56, MULTU = 57, DIVU = 58, REM = 59, SUBI = 60,
+            LWC1 = 61, SWC1 = 62, ADD_S = 63, SUB_S = 64, MUL_S = 65, DIV_S = 66, MOV_S = 67, NEG_S = 68,
+            C_EQ_S = 69, C_LT_S = 70, C_LE_S = 71, BC1T = 72, BC1F = 73, MTC1 = 74, MFC1 = 75,
+            CVT_S_W = 76, CVT_W_S = 77, MULI = 78, MUH = 79, ADDU = 80, ADDIU = 81, SUBU = 82, SUBIU = 83, NEGU = 84;
+    private static final int OPERATION_COUNT = 85;
+
+    private static final HashMap<String, Integer> operations = new HashMap<>();
+
+    static {
+        for (int i = 0; i < registerNames.length; i++) {
+            registerNumbers.put("$" + registerNames[i], i);
+            registerNumbers.put("$" + i, i);
+        }
+        registerNumbers.put("$s8", 30);
+
+        String[] names = {
+                "add", "addi", "sub", "mul", "div", null, "mult", "mfhi", "mflo",
+                "and", "andi", "or", "ori", "xor", "xori", "nor",
+                "sll", "srl", "sra", "sllv", "srlv", "srav",
+                "slt", "slti", "sltu", "sltiu", "movn", "movz",
+                "li", "lui", "move", "la", "lw", "sw",
+                "beq", "bne", "bge", "bgt", "ble", "blt",
+                null, null, null, null, null, null,
+                "bgez", "bgtz", "blez", "bltz", "j", "jal", "jr", "jalr",
+                "syscall", "nop", "neg", "multu", "divu", "rem", "subi",
+                "lwc1", "swc1", "add.s", "sub.s", "mul.s", "div.s", "mov.s", "neg.s",
+                "c.eq.s", "c.lt.s", "c.le.s", "bc1t", "bc1f", "mtc1", "mfc1",
+                "cvt.s.w", "cvt.w.s", null, null, "addu", "addiu", "subu", null, "negu"
+        };
+        for (int i = 0; i < names.length; i++) if (names[i] != null) operations.put(names[i], i);
+        operations.put("l.s", LWC1);
+        operations.put("s.s", SWC1);
+        operations.put("b", J);
+    }
+
+    private int[] ops;
+    private int[] rd;
+    private int[] rs;
+    private int[] rt;
+    private int[] imm;
+    private String[] source;
+
+    private final HashMap<String, Integer> textLabels = new HashMap<>();
+    private final HashMap<String, Integer> dataLabels = new HashMap<>();
+    private int[] data = new int[1024];
+    private int dataWords = 0;
+    private int[] heap = new int[1024];
+    private int heapWords = 0;
+    private final int[] stack = new int[STACK_WORDS];
+
+    private final int[] registers = new int[32];
+    private final float[] floatRegisters = new float[32];
+    private boolean floatCondition;
+    private int hi, lo;
+
+    public final long[] classCounts = new long[InstructionClass.values().length];
+    public long instructionCount;
+    public long stackLoads;
+    public long stackStores;
+    public long instructionLimit = Long.MAX_VALUE;
+    public boolean delaySlots = false;
+
+    public MIPSSimulator(List<String> program) {
+        this.assemble(program);
+    }
+
+    private static String[] splitOperands(String rest) {
+        if (rest.isEmpty()) return new String[0];
+        String[] operands = rest.split(",");
+        for (int i = 0; i < operands.length; i++) operands[i] = operands[i].strip();
+        return operands;
+    }
+
+    private static int register(String name, int line) {
+        Integer number = registerNumbers.get(name);
+        if (number == null) throw new IllegalArgumentException(String.format("Unknown register '%s' at line %d", name, line));
+        return number;
+    }
+
+    private static int floatRegister(String name, int line) {
+        if (!name.startsWith("$f")) throw new IllegalArgumentException(String.format("Unknown register '%s' at line %d", name, line));
+        return Integer.parseInt(name.substring(2));
+    }
+
+    private static boolean isRegister(String operand) {
+        return operand.startsWith("$");
+    }
+
+    private static int parseImmediate(String s) {
+        if (s.startsWith("0x") || s.startsWith("-0x")) {
+            boolean negative = s.startsWith("-");
+            long value = Long.parseLong(s.substring(negative ? 3 : 2), 16);
+            return (int) (negative ? -value : value);
+        }
+        return (int) Long.parseLong(s);
+    }
+
+    private void assemble(List<String> program) {
+        ArrayList<String[]> text = new ArrayList<>();
+        ArrayList<Integer> lines = new ArrayList<>();
+        ArrayList<String> sources = new ArrayList<>();
+        boolean inData = false;
+
+        for (int i = 0; i < program.size(); i++) {
+            String line = program.get(i);
+            int comment = line.indexOf('#');
+            if (comment != -1) line = line.substring(0, comment);
+            line = line.strip();
+            if (line.isEmpty()) continue;
+
+            int colon = line.indexOf(':');
+            if (colon != -1 && !line.substring(0, colon).contains(" ")) {
+                String label = line.substring(0, colon);
+                if (inData) dataLabels.put(label, DATA_BASE + dataWords * 4);
+                else textLabels.put(label, text.size());
+                line = line.substring(colon + 1).strip();
+                if (line.isEmpty()) continue;
+            }
+
+            if (line.startsWith(".")) {
+                String[] parts = line.split("\\s+", 2);
+                switch (parts[0]) {
+                    case ".text":
+                        inData = false;
+                        break;
+                    case ".data":
+                        inData = true;
+                        break;
+                    case ".word":
+                        for (String value: splitOperands(parts[1])) this.appendData(parseImmediate(value));
+                        break;
+                    case ".float":
+                        for (String value: splitOperands(parts[1]))
+                            this.appendData(Float.floatToRawIntBits(Float.parseFloat(value)));
+                        break;
+                    case ".space":
+                        int words = (parseImmediate(parts[1].strip()) + 3) / 4;
+                        for (int w = 0; w < words; w++) this.appendData(0);
+                        break;
+                    default:
+                        break;
+                }
+                continue;
+            }
+
+            int space = line.indexOf(' ');
+            String operation = space == -1 ? line : line.substring(0, space);
+            String rest = space == -1 ? "" : line.substring(space + 1).strip();
+            String[] operands = splitOperands(rest);
+            String[] entry = new String[operands.length + 1];
+            entry[0] = operation;
+            System.arraycopy(operands, 0, entry, 1, operands.length);
+            text.add(entry);
+            lines.add(i + 1);
+            sources.add(line);
+        }
+
+        int n = text.size();
+        this.ops = new int[n];
+        this.rd = new int[n];
+        this.rs = new int[n];
+        this.rt = new int[n];
+        this.imm = new int[n];
+        this.source = sources.toArray(new String[0]);
+        for (int i = 0; i < n; i++) this.decode(i, text.get(i), lines.get(i));
+    }
+
+    private void appendData(int value) {
+        if (this.dataWords == this.data.length) this.data = Arrays.copyOf(this.data, this.data.length * 2);
+        this.data[this.dataWords++] = value;
+    }
+
+    private int textLabel(String label, int line) {
+        Integer target = this.textLabels.get(label);
+        if (target == null) throw new IllegalArgumentException(String.format("Undefined label '%s' at line %d", label, line));
+        return target;
+    }
+
+    private void decodeMemory(int i, String address, int line) {
+        int open = address.indexOf('(');
+        if (open == -1) {
+            Integer labelAddress = this.dataLabels.get(address);
+            if (labelAddress == null) throw new IllegalArgumentException(String.format("Invalid address '%s' at line %d", address, line));
+            this.rs[i] = 0;
+            this.imm[i] = labelAddress;
+            return;
+        }
+        String offset = address.substring(0, open).strip();
+        this.imm[i] = offset.isEmpty() ? 0 : parseImmediate(offset);
+        this.rs[i] = register(address.substring(open + 1, address.indexOf(')')).strip(), line);
+    }
+
+    private void decode(int i, String[] entry, int line) {
+        String name = entry[0];
+        Integer op = operations.get(name);
+        if (op == null) throw new IllegalArgumentException(String.format("Unsupported instruction '%s' at line %d", name, line));
+        switch (op) {
+            case ADD: case ADDU: case SUB: case SUBU: case AND: case OR: case XOR: case NOR: case SLT: case SLTU:
+            case SLLV: case SRLV: case SRAV: case MOVN: case MOVZ: case MUL: case REM:
+                this.rd[i] = register(entry[1], line);
+                this.rs[i] = register(entry[2], line);
+                if (isRegister(entry[3])) this.rt[i] = register(entry[3], line);
+                else {
+                    // Pseudo-instruction forms with an immediate third operand
+                    this.imm[i] = parseImmediate(entry[3]);
+                    if (op == ADD) op = ADDI;
+                    else if (op == ADDU) op = ADDIU;
+                    else if (op == SUB) op = SUBI;
+                    else if (op == SUBU) op = SUBIU;
+                    else if (op == AND) op = ANDI;
+                    else if (op == OR) op = ORI;
+                    else if (op == XOR) op = XORI;
+                    else if (op == SLT) op = SLTI;
+                    else if (op == SLTU) op = SLTIU;
+                    else if (op == MUL) op = MULI;
+                    else throw new IllegalArgumentException(String.format("Invalid operand '%s' at line %d", entry[3], line));
+                }
+                break;
+            case DIV:
+            case DIVU:
+                if (entry.length == 3) {
+                    this.rs[i] = register(entry[1], line);
+                    this.rt[i] = register(entry[2], line);
+                    if (op == DIV) op = DIV2;
+                } else {
+                    this.rd[i] = register(entry[1], line);
+                    this.rs[i] = register(entry[2], line);
+                    this.rt[i] = register(entry[3], line);
+                }
+                break;
+            case MULT: case MULTU:
+                this.rs[i] = register(entry[1], line);
+                this.rt[i] = register(entry[2], line);
+                break;
+            case MFHI: case MFLO: case JR:
+                this.rd[i] = register(entry[1], line);
+                break;
+            case JALR:
+                this.rd[i] = entry.length == 3 ? register(entry[1], line) : 31;
+                this.rs[i] = register(entry[entry.length - 1], line);
+                break;
+            case ADDI: case ADDIU: case ANDI: case ORI: case XORI: case SLTI: case SLTIU: case SLL: case SRL: case SRA:
+            case SUBI: case SUBIU:
+                this.rd[i] = register(entry[1], line);
+                this.rs[i] = register(entry[2], line);
+                this.imm[i] = parseImmediate(entry[3]);
+                break;
+            case LI: case LUI:
+                this.rd[i] = register(entry[1], line);
+                this.imm[i] = parseImmediate(entry[2]);
+                break;
+            case LA:
+                this.rd[i] = register(entry[1], line);
+                Integer address = this.dataLabels.get(entry[2]);
+                if (address == null) throw new IllegalArgumentException(String.format("Undefined label '%s' at line %d", entry[2], line));
+                this.imm[i] = address;
+                break;
+            case MOVE: case NEG:
+                this.rd[i] = register(entry[1], line);
+                this.rs[i] = register(entry[2], line);
+                break;
+            case LW: case SW:
+                this.rd[i] = register(entry[1], line);
+                this.decodeMemory(i, entry[2], line);
+                break;
+            case LWC1: case SWC1:
+                this.rd[i] = floatRegister(entry[1], line);
+                this.decodeMemory(i, entry[2], line);
+                break;
+            case BEQ: case BNE: case BGE: case BGT: case BLE: case BLT:
+                this.rs[i] = register(entry[1], line);
+                this.imm[i] = this.textLabel(entry[3], line);
+                if (isRegister(entry[2])) this.rt[i] = register(entry[2], line);
+                else {
+                    this.rt[i] = parseImmediate(entry[2]);
+                    op += BEQI - BEQ;
+                }
+                break;
+            case BGEZ: case BGTZ: case BLEZ: case BLTZ:
+                this.rs[i] = register(entry[1], line);
+                this.imm[i] = this.textLabel(entry[2], line);
+                break;
+            case J: case JAL: case BC1T: case BC1F:
+                this.imm[i] = this.textLabel(entry[1], line);
+                break;
+            case ADD_S: case SUB_S: case MUL_S: case DIV_S:
+                this.rd[i] = floatRegister(entry[1], line);
+                this.rs[i] = floatRegister(entry[2], line);
+                this.rt[i] = floatRegister(entry[3], line);
+                break;
+            case MOV_S: case NEG_S: case CVT_S_W: case CVT_W_S:
+                this.rd[i] = floatRegister(entry[1], line);
+                this.rs[i] = floatRegister(entry[2], line);
+                break;
+            case C_EQ_S: case C_LT_S: case C_LE_S:
+                this.rs[i] = floatRegister(entry[1], line);
+                this.rt[i] = floatRegister(entry[2], line);
+                break;
+            case MTC1: case MFC1:
+                this.rd[i] = register(entry[1], line);
+                this.rs[i] = floatRegister(entry[2], line);
+                break;
+            default:
+                break;
+        }
+        this.ops[i] = op;
+    }
+
+    private static InstructionClass classify(int op) {
+        switch (op) {
+            case LW: case LWC1:
+                return InstructionClass.LOAD;
+            case SW: case SWC1:
+                return InstructionClass.STORE;
+            case BEQ: case BNE: case BGE: case BGT: case BLE: case BLT:
+            case BEQI: case BNEI: case BGEI: case BGTI: case BLEI: case BLTI:
+            case BGEZ: case BGTZ: case BLEZ: case BLTZ: case BC1T: case BC1F:
+                return InstructionClass.BRANCH;
+            case J: case JAL: case JR: case JALR:
+                return InstructionClass.JUMP;
+            case MUL: case MULI: case DIV: case DIV2: case DIVU: case MULT: case MULTU: case REM: case MUH:
+                return InstructionClass.MULDIV;
+            case ADD_S: case SUB_S: case MUL_S: case DIV_S: case MOV_S: case NEG_S:
+            case C_EQ_S: case C_LT_S: case C_LE_S: case MTC1: case MFC1: case CVT_S_W: case CVT_W_S:
+                return InstructionClass.FLOAT;
+            case SYSCALL:
+                return InstructionClass.SYSCALL;
+            default:
+                return InstructionClass.ALU;
+        }
+    }
+
+    private int load(int address, int pc) {
+        if ((address & 3) != 0) throw this.fault("Unaligned load from 0x" + Integer.toHexString(address), pc);
+        if (address >= STACK_LOW && address <= STACK_TOP) {
+            this.stackLoads++;
+            return this.stack[(STACK_TOP - address) >>> 2];
+        }
+        if (address >= HEAP_BASE) {
+            int index = (address - HEAP_BASE) >>> 2;
+            if (index < this.heapWords) return this.heap[index];
+        } else if (address >= DATA_BASE) {
+            int index = (address - DATA_BASE) >>> 2;
+            if (index < this.dataWords) return this.data[index];
+        }
+        throw this.fault("Invalid load from 0x" + Integer.toHexString(address), pc);
+    }
+
+    private void store(int address, int value, int pc) {
+        if ((address & 3) != 0) throw this.fault("Unaligned store to 0x" + Integer.toHexString(address), pc);
+        if (address >= STACK_LOW && address <= STACK_TOP) {
+            this.stackStores++;
+            this.stack[(STACK_TOP - address) >>> 2] = value;
+            return;
+        }
+        if (address >= HEAP_BASE) {
+            int index = (address - HEAP_BASE) >>> 2;
+            if (index < this.heapWords) {
+                this.heap[index] = value;
+                return;
+            }
+        } else if (address >= DATA_BASE) {
+            int index = (address - DATA_BASE) >>> 2;
+            if (index < this.dataWords) {
+                this.data[index] = value;
+                return;
+            }
+        }
+        throw this.fault("Invalid store to 0x" + Integer.toHexString(address), pc);
+    }
+
+    private int sbrk(int bytes) {
+        int address = HEAP_BASE + this.heapWords * 4;
+        int words = (bytes + 3) / 4;
+        while (this.heapWords + words > this.heap.length) this.heap = Arrays.copyOf(this.heap, this.heap.length * 2);
+        this.heapWords += words;
+        return address;
+    }
+
+    private int add(int a, int b, int pc) {
+        int sum = a + b;
+        if (((a ^ sum) & (b ^ sum)) < 0) throw this.fault("Arithmetic overflow", pc);
+        return sum;
+    }
+
+    private int subtract(int a, int b, int pc) {
+        int difference = a - b;
+        if (((a ^ b) & (a ^ difference)) < 0) throw this.fault("Arithmetic overflow", pc);
+        return difference;
+    }
+
+    private RuntimeException fault(String message, int pc) {
+        String where = pc >= 0 && pc < this.source.length ? this.source[pc] : "<end of program>";
+        return new IllegalStateException(String.format("%s at '%s' (text index %d)", message, where, pc));
+    }
+
+    /**
+     * Runs the program until it exits. The counters include what ran before a fault, which is thrown as an
+     * IllegalStateException naming the faulting instruction.
+     */
+    public void run(InputStream in, PrintStream out) {
+        long[] opCounts = new long[OPERATION_COUNT];
+        try {
+            this.execute(new Scanner(in), out, opCounts);
+        } finally {
+            for (int op = 0; op < opCounts.length; op++) {
+                this.instructionCount += opCounts[op];
+                this.classCounts[classify(op).ordinal()] += opCounts[op];
+            }
+            out.flush();
+        }
+    }
+
+    private void execute(Scanner scanner, PrintStream out, long[] opCounts) {
+        int[] r = this.registers;
+        float[] f = this.floatRegisters;
+        int[] ops = this.ops, rd = this.rd, rs = this.rs, rt = this.rt, imm = this.imm;
+        r[29] = STACK_TOP;
+        Integer main = this.textLabels.get("main");
+        int pc = main != null ? main : 0;
+        long count = 0;
+        long limit = this.instructionLimit;
+        boolean running = true;
+        int delayedTarget = -1;
+        // Calls return past their delay slots
+        int returnSkip = this.delaySlots ? 2 : 1;
+
+        while (running) {
+            if (pc < 0 || pc >= ops.length) throw this.fault("Execution fell off the end of the program", pc);
+            if (count++ == limit) throw this.fault("Instruction limit exceeded", pc);
+            int op = ops[pc];
+            opCounts[op]++;
+            int next = pc + 1;
+            switch (op) {
+                // The signed forms trap on overflow like the hardware, the unsigned ones wrap
+                case ADD: r[rd[pc]] = this.add(r[rs[pc]], r[rt[pc]], pc); break;
+                case ADDI: r[rd[pc]] = this.add(r[rs[pc]], imm[pc], pc); break;
+                case SUB: r[rd[pc]] = this.subtract(r[rs[pc]], r[rt[pc]], pc); break;
+                case SUBI: r[rd[pc]] = this.subtract(r[rs[pc]], imm[pc], pc); break;
+                case ADDU: r[rd[pc]] = r[rs[pc]] + r[rt[pc]]; break;
+                case ADDIU: r[rd[pc]] = r[rs[pc]] + imm[pc]; break;
+                case SUBU: r[rd[pc]] = r[rs[pc]] - r[rt[pc]]; break;
+                case SUBIU: r[rd[pc]] = r[rs[pc]] - imm[pc]; break;
+                case MUL: r[rd[pc]] = r[rs[pc]] * r[rt[pc]]; break;
+                case MULI: r[rd[pc]] = r[rs[pc]] * imm[pc]; break;
+                case DIV: {
+                    int divisor = r[rt[pc]];
+                    if (divisor == 0) throw this.fault("Division by zero", pc);
+                    r[rd[pc]] = r[rs[pc]] / divisor;
+                    break;
+                }
+                case REM: {
+                    int divisor = r[rt[pc]];
+                    if (divisor == 0) throw this.fault("Division by zero", pc);
+                    r[rd[pc]] = r[rs[pc]] % divisor;
+                    break;
+                }
+                case DIV2: {
+                    int divisor = r[rt[pc]];
+                    if (divisor != 0) {
+                        lo = r[rs[pc]] / divisor;
+                        hi = r[rs[pc]] % divisor;
+                    }
+                    break;
+                }
+                case DIVU: {
+                    int divisor = r[rt[pc]];
+                    if (divisor != 0) {
+                        lo = Integer.divideUnsigned(r[rs[pc]], divisor);
+                        hi = Integer.remainderUnsigned(r[rs[pc]], divisor);
+                    }
+                    break;
+                }
+                case MULT: {
+                    long product = (long) r[rs[pc]] * (long) r[rt[pc]];
+                    lo = (int) product;
+                    hi = (int) (product >>> 32);
+                    break;
+                }
+                case MULTU: {
+                    long product = Integer.toUnsignedLong(r[rs[pc]]) * Integer.toUnsignedLong(r[rt[pc]]);
+                    lo = (int) product;
+                    hi = (int) (product >>> 32);
+                    break;
+                }
+                case MFHI: r[rd[pc]] = hi; break;
+                case MFLO: r[rd[pc]] = lo; break;
+                case AND: r[rd[pc]] = r[rs[pc]] & r[rt[pc]]; break;
+                case ANDI: r[rd[pc]] = r[rs[pc]] & imm[pc]; break;
+                case OR: r[rd[pc]] = r[rs[pc]] | r[rt[pc]]; break;
+                case ORI: r[rd[pc]] = r[rs[pc]] | imm[pc]; break;
+                case XOR: r[rd[pc]] = r[rs[pc]] ^ r[rt[pc]]; break;
+                case XORI: r[rd[pc]] = r[rs[pc]] ^ imm[pc]; break;
+                case NOR: r[rd[pc]] = ~(r[rs[pc]] | r[rt[pc]]); break;
+                case SLL: r[rd[pc]] = r[rs[pc]] << imm[pc]; break;
+                case SRL: r[rd[pc]] = r[rs[pc]] >>> imm[pc]; break;
+                case SRA: r[rd[pc]] = r[rs[pc]] >> imm[pc]; break;
+                case SLLV: r[rd[pc]] = r[rs[pc]] << (r[rt[pc]] & 31); break;
+                case SRLV: r[rd[pc]] = r[rs[pc]] >>> (r[rt[pc]] & 31); break;
+                case SRAV: r[rd[pc]] = r[rs[pc]] >> (r[rt[pc]] & 31); break;
+                case SLT: r[rd[pc]] = r[rs[pc]] < r[rt[pc]] ? 1 : 0; break;
+                case SLTI: r[rd[pc]] = r[rs[pc]] < imm[pc] ? 1 : 0; break;
+                case SLTU: r[rd[pc]] = Integer.compareUnsigned(r[rs[pc]], r[rt[pc]]) < 0 ? 1 : 0; break;
+                case SLTIU: r[rd[pc]] = Integer.compareUnsigned(r[rs[pc]], imm[pc]) < 0 ? 1 : 0; break;
+                case MOVN: if (r[rt[pc]] != 0) r[rd[pc]] = r[rs[pc]]; break;
+                case MOVZ: if (r[rt[pc]] == 0) r[rd[pc]] = r[rs[pc]]; break;
+                case LI: case LA: r[rd[pc]] = imm[pc]; break;
+                case LUI: r[rd[pc]] = imm[pc] << 16; break;
+                case MOVE: r[rd[pc]] = r[rs[pc]]; break;
+                case NEG: r[rd[pc]] = this.subtract(0, r[rs[pc]], pc); break;
+                case NEGU: r[rd[pc]] = -r[rs[pc]]; break;
+                case LW: r[rd[pc]] = this.load(r[rs[pc]] + imm[pc], pc); break;
+                case SW: this.store(r[rs[pc]] + imm[pc], r[rd[pc]], pc); break;
+                case LWC1: f[rd[pc]] = Float.intBitsToFloat(this.load(r[rs[pc]] + imm[pc], pc)); break;
+                case SWC1: this.store(r[rs[pc]] + imm[pc], Float.floatToRawIntBits(f[rd[pc]]), pc); break;
+                case BEQ: if (r[rs[pc]] == r[rt[pc]]) next = imm[pc]; break;
+                case BNE: if (r[rs[pc]] != r[rt[pc]]) next = imm[pc]; break;
+                case BGE: if (r[rs[pc]] >= r[rt[pc]]) next = imm[pc]; break;
+                case BGT: if (r[rs[pc]] > r[rt[pc]]) next = imm[pc]; break;
+                case BLE: if (r[rs[pc]] <= r[rt[pc]]) next = imm[pc]; break;
+                case BLT: if (r[rs[pc]] < r[rt[pc]]) next = imm[pc]; break;
+                case BEQI: if (r[rs[pc]] == rt[pc]) next = imm[pc]; break;
+                case BNEI: if (r[rs[pc]] != rt[pc]) next = imm[pc]; break;
+                case BGEI: if (r[rs[pc]] >= rt[pc]) next = imm[pc]; break;
+                case BGTI: if (r[rs[pc]] > rt[pc]) next = imm[pc]; break;
+                case BLEI: if (r[rs[pc]] <= rt[pc]) next = imm[pc]; break;
+                case BLTI: if (r[rs[pc]] < rt[pc]) next = imm[pc]; break;
+                case BGEZ: if (r[rs[pc]] >= 0) next = imm[pc]; break;
+                case BGTZ: if (r[rs[pc]] > 0) next = imm[pc]; break;
+                case BLEZ: if (r[rs[pc]] <= 0) next = imm[pc]; break;
+                case BLTZ: if (r[rs[pc]] < 0) next = imm[pc]; break;
+                case J: next = imm[pc]; break;
+                case JAL:
+                    r[31] = TEXT_BASE + (pc + returnSkip) * 4;
+                    next = imm[pc];
+                    break;
+                case JR: next = (r[rd[pc]] - TEXT_BASE) >> 2; break;
+                case JALR: {
+                    int target = (r[rs[pc]] - TEXT_BASE) >> 2;
+                    r[rd[pc]] = TEXT_BASE + (pc + returnSkip) * 4;
+                    next = target;
+                    break;
+                }
+                case ADD_S: f[rd[pc]] = f[rs[pc]] + f[rt[pc]]; break;
+                case SUB_S: f[rd[pc]] = f[rs[pc]] - f[rt[pc]]; break;
+                case MUL_S: f[rd[pc]] = f[rs[pc]] * f[rt[pc]]; break;
+                case DIV_S: f[rd[pc]] = f[rs[pc]] / f[rt[pc]]; break;
+                case MOV_S: f[rd[pc]] = f[rs[pc]]; break;
+                case NEG_S: f[rd[pc]] = -f[rs[pc]]; break;
+                case C_EQ_S: floatCondition = f[rs[pc]] == f[rt[pc]]; break;
+                case C_LT_S: floatCondition = f[rs[pc]] < f[rt[pc]]; break;
+                case C_LE_S: floatCondition = f[rs[pc]] <= f[rt[pc]]; break;
+                case BC1T: if (floatCondition) next = imm[pc]; break;
+                case BC1F: if (!floatCondition) next = imm[pc]; break;
+                case MTC1: f[rs[pc]] = Float.intBitsToFloat(r[rd[pc]]); break;
+                case MFC1: r[rd[pc]] = Float.floatToRawIntBits(f[rs[pc]]); break;
+                case CVT_S_W: f[rd[pc]] = (float) Float.floatToRawIntBits(f[rs[pc]]); break;
+                case CVT_W_S: f[rd[pc]] = Float.intBitsToFloat((int) f[rs[pc]]); break;
+                case SYSCALL:
+                    switch (r[2]) {
+                        case 1: out.print(r[4]); break;
+                        case 2: out.print(f[12]); break;
+                        case 5: r[2] = scanner.nextInt(); break;
+                        case 6: f[0] = scanner.nextFloat(); break;
+                        case 9: r[2] = this.sbrk(r[4]); break;
+                        case 10: running = false; break;
+                        case 11: out.print((char) r[4]); break;
+                        case 12: {
+                            scanner.useDelimiter("");
+                            r[2] = scanner.hasNext() ? scanner.next().charAt(0) : -1;
+                            scanner.reset();
+                            break;
+                        }
+                        default:
+                            throw this.fault("Unsupported syscall " + r[2], pc);
+                    }
+                    break;
+                case NOP:
+                    break;
+                default:
+                    throw this.fault("Unsupported operation", pc);
+            }
+            r[0] = 0;
+            if (delayedTarget != -1) {
+                next = delayedTarget;
+                delayedTarget = -1;
+            } else if (this.delaySlots && next != pc + 1) {
+                delayedTarget = next;
+                next = pc + 1;
+            }
+            pc = next;
+        }
+    }
+
+    public long getCount(InstructionClass instructionClass) {
+        return this.classCounts[instructionClass.ordinal()];
+    }
+
+    public void printStatistics(PrintStream ps) {
+        ps.println(String.format("Executed %d instructions:", this.instructionCount));
+        for (InstructionClass instructionClass: InstructionClass.values())
+            ps.println(String.format("    %s: %d", instructionClass.name().toLowerCase(), this.getCount(instructionClass)));
+        ps.println(String.format("    stack loads: %d, stack stores: %d", this.stackLoads, this.stackStores));
+    }
+}
@@ -0,0 +1,67 @@
+package simulation;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Runs a compiled program on every N.in of a test directory, in order from 0.in, and compares what it prints
+ * with N.out, ignoring surrounding whitespace. Prints one line per case and the instruction counts of all
+ * the cases together, and exits with status 1 if any case fails.
+ *
+ * Usage: TestRunner program.s test-directory [--limit=instructions] [--delay-slots] [--quiet]
+ */
+public class TestRunner {
+    private static final long DEFAULT_LIMIT = 1_000_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        List<String> program = Files.readAllLines(Paths.get(args[0]));
+        File directory = new File(args[1]);
+        long limit = DEFAULT_LIMIT;
+        boolean quiet = false;
+        boolean delaySlots = false;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--limit=")) limit = Long.parseLong(args[i].substring("--limit=".length()));
+            else if (args[i].equals("--delay-slots")) delaySlots = true;
+            else if (args[i].equals("--quiet")) quiet = true;
+            else System.err.println(String.format("Ignoring unknown option '%s'", args[i]));
+        }
+
+        MIPSSimulator total = new MIPSSimulator(program);
+        int passed = 0;
+        int cases = 0;
+        for (; new File(directory, cases + ".in").exists(); cases++) {
+            MIPSSimulator simulator = new MIPSSimulator(program);
+            simulator.instructionLimit = limit;
+            simulator.delaySlots = delaySlots;
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            String result;
+            try (InputStream input = new FileInputStream(new File(directory, cases + ".in"))) {
+                simulator.run(input, new PrintStream(output));
+                String expected = new String(Files.readAllBytes(new File(directory, cases + ".out").toPath()));
+                boolean matches = normalize(output.toString()).equals(normalize(expected));
+                if (matches) passed++;
+                result = matches ? "pass" : String.format("FAIL, printed '%s', expected '%s'",
+                        normalize(output.toString()), normalize(expected));
+            } catch (RuntimeException e) {
+                result = "ERROR, " + e.getMessage();
+            }
+
+            total.instructionCount += simulator.instructionCount;
+            total.stackLoads += simulator.stackLoads;
+            total.stackStores += simulator.stackStores;
+            for (int i = 0; i < total.classCounts.length; i++) total.classCounts[i] += simulator.classCounts[i];
+            if (!quiet || !result.equals("pass"))
+                System.out.println(String.format("%d: %s (%d instructions)", cases, result, simulator.instructionCount));
+        }
+
+        System.out.println(String.format("Passed %d of %d", passed, cases));
+        total.printStatistics(System.out);
+        if (passed != cases) System.exit(1);
+    }
+
+    private static String normalize(String output) {
+        return output.replace("\r\n", "\n").strip().replace("\n", " ");
+    }
+}